@@ -32,6 +32,7 @@ public enum AppProperty {
     BACKUP_CONFIG_COUNT                             ("backup.config.count"),
     BACKUP_LOCALDB_COUNT                            ("backup.localdb.count"),
     CACHE_ENABLE                                    ("cache.enable"),
+    CACHE_MEMORY_MAX_BYTES                          ("cache.memory.maxBytes"),
     CACHE_MEMORY_MAX_ITEMS                          ("cache.memory.maxItems"),
     CACHE_PWRULECHECK_LIFETIME_MS                   ("cache.pwRuleCheckLifetimeMS"),
     CLIENT_ACTIVITY_MAX_EPS_RATE                    ("client.ajax.activityMaxEpsRate"),
@@ -97,8 +98,17 @@ public enum AppProperty {
     LOCALDB_COMPRESSION_ENABLED                     ("localdb.compression.enabled"),
     LOCALDB_DECOMPRESSION_ENABLED                   ("localdb.decompression.enabled"),
     LOCALDB_COMPRESSION_MINSIZE                     ("localdb.compression.minSize"),
+    LOCALDB_EXPIRATION_PURGE_INTERVAL_MS            ("localdb.expiration.purgeIntervalMs"),
     LOCALDB_IMPLEMENTATION                          ("localdb.implementation"),
     LOCALDB_INIT_STRING                             ("localdb.initParameters"),
+    LOCALDB_PARTITIONS                              ("localdb.partitions"),
+    LOCALDB_READ_CACHE_ENABLED                      ("localdb.readCache.enabled"),
+    LOCALDB_READ_CACHE_SIZES                        ("localdb.readCache.sizes"),
+    LOCALDB_SLOW_OPERATION_THRESHOLD_MS             ("localdb.slowOperationThresholdMs"),
+    LOCALDB_WRITE_BEHIND_ENABLED                    ("localdb.writeBehind.enabled"),
+    LOCALDB_WRITE_BEHIND_ASYNC_DBS                  ("localdb.writeBehind.asyncDBs"),
+    LOCALDB_WRITE_BEHIND_MAX_WAIT_MS                ("localdb.writeBehind.maxWaitMs"),
+    LOCALDB_WRITE_BEHIND_MAX_BATCH_SIZE             ("localdb.writeBehind.maxBatchSize"),
     MACRO_RANDOM_CHAR_MAX_LENGTH                    ("macro.randomChar.maxLength"),
     MACRO_LDAP_ATTR_CHAR_MAX_LENGTH                 ("macro.ldapAttr.maxLength"),
     
@@ -167,6 +177,8 @@ public enum AppProperty {
     QUEUE_SYSLOG_MAX_AGE_MS                         ("queue.syslog.maxAgeMs"),
     QUEUE_SYSLOG_MAX_COUNT                          ("queue.syslog.maxCount"),
     QUEUE_MAX_CLOSE_TIMEOUT_MS                      ("queue.maxCloseTimeoutMs"),
+    QUEUE_SENDER_THREADS                            ("queue.senderThreads"),
+    QUEUE_LEASE_TIMEOUT_MS                          ("queue.leaseTimeoutMs"),
     RECAPTCHA_CLIENT_JS_URL                         ("recaptcha.clientJsUrl"),
     RECAPTCHA_CLIENT_IFRAME_URL                     ("recaptcha.clientIframeUrl"),
     RECAPTCHA_VALIDATE_URL                          ("recaptcha.validateUrl"),
@@ -180,12 +192,23 @@ public enum AppProperty {
     SECURITY_SHAREDHISTORY_HASH_ITERATIONS          ("security.sharedHistory.hashIterations"),
     SECURITY_SHAREDHISTORY_HASH_NAME                ("security.sharedHistory.hashName"),
     SECURITY_SHAREDHISTORY_CASE_INSENSITIVE         ("security.sharedHistory.caseInsensitive"),
+    SECURITY_SHAREDHISTORY_WRITE_QUEUE_SIZE         ("security.sharedHistory.writeQueueSize"),
+    SEEDLIST_POOL_SIZE                              ("seedlist.pool.size"),
     TOKEN_REMOVAL_DELAY_MS                          ("token.removalDelayMS"),
     TOKEN_PURGE_BATCH_SIZE                          ("token.purgeBatchSize"),
     TOKEN_MAX_UNIQUE_CREATE_ATTEMPTS                ("token.maxUniqueCreateAttempts"),
     
     /** Regular expression to be used for matching URLs to be shortened by the URL Shortening Service Class. */
     URL_SHORTNER_URL_REGEX                          ("urlshortener.url.regex"),
+    WORDLIST_ALWAYS_HASH_FILES                      ("wordlist.alwaysHashFiles"),
+    WORDLIST_BLOOM_FILTER_ENABLE                    ("wordlist.bloomFilter.enable"),
+    WORDLIST_BLOOM_FILTER_FALSE_POSITIVE_RATE       ("wordlist.bloomFilter.falsePositiveRate"),
+    WORDLIST_BLOOM_FILTER_MAX_BYTES                 ("wordlist.bloomFilter.maxBytes"),
+    WORDLIST_DELTA_FILENAME                         ("wordlist.deltaFilename"),
+    WORDLIST_MATCHER_ENABLE                         ("wordlist.matcher.enable"),
+    WORDLIST_MATCHER_MAX_WORDS                      ("wordlist.matcher.maxWords"),
+    WORDLIST_POPULATOR_WORKER_THREADS               ("wordlist.populator.workerThreads"),
+    WORDLIST_STORAGE_MODE                           ("wordlist.storageMode"),
     WS_REST_CLIENT_PWRULE_HALTONERROR               ("ws.restClient.pwRule.haltOnError"),
 
     ;
@@ -94,6 +94,9 @@ public class PwmApplication {
         SMS_ITEM_COUNTER("smsQueue.itemCount"),
         EMAIL_ITEM_COUNTER("itemQueue.itemCount"),
         LOCALDB_IMPORT_STATUS("localDB.import.status"),
+        LOCALDB_COMPRESSION_FORMAT("localDB.compression.format"),
+        LOCALDB_RECORD_COUNTS("localDB.recordCounts"),
+        LOCALDB_OPERATION_STATS("localDB.operationStats"),
 
         ;
 
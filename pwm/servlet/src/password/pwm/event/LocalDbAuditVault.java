@@ -138,21 +138,26 @@ public class LocalDbAuditVault implements AuditVault {
         }
 
         int workActions = 0;
-        while (workActions < MAX_REMOVALS_PER_ADD && !auditDB.isEmpty()) {
-            final String stringFirstRecord = auditDB.getFirst();
-            final UserAuditRecord firstRecord = JsonUtil.deserialize(stringFirstRecord, UserAuditRecord.class);
-            oldestRecord = firstRecord.getTimestamp();
-            if (TimeDuration.fromCurrent(oldestRecord).isLongerThan(settings.getMaxRecordAge())) {
-                auditDB.removeFirst();
-                workActions++;
-            } else {
-                return;
+        boolean foundCurrentRecord = false;
+        for (final String stringRecord : auditDB.peekFirst(MAX_REMOVALS_PER_ADD)) {
+            final UserAuditRecord record = JsonUtil.deserialize(stringRecord, UserAuditRecord.class);
+            oldestRecord = record.getTimestamp();
+            if (!TimeDuration.fromCurrent(oldestRecord).isLongerThan(settings.getMaxRecordAge())) {
+                foundCurrentRecord = true;
+                break;
             }
+            workActions++;
+        }
+        if (workActions > 0) {
+            auditDB.pollFirst(workActions);
+        }
+        if (foundCurrentRecord) {
+            return;
         }
 
-        while (auditDB.size() > settings.getMaxRecordCount() && workActions < MAX_REMOVALS_PER_ADD) {
-            auditDB.removeFirst();
-            workActions++;
+        final int excessRecords = Math.min(auditDB.size() - settings.getMaxRecordCount(), MAX_REMOVALS_PER_ADD - workActions);
+        if (excessRecords > 0) {
+            auditDB.pollFirst(excessRecords);
         }
     }
 }
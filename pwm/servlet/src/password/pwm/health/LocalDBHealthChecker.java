@@ -24,9 +24,12 @@ package password.pwm.health;
 
 import password.pwm.PwmApplication;
 import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBReadCache;
+import password.pwm.util.localdb.LocalDBUtility;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class LocalDBHealthChecker implements HealthChecker {
     public List<HealthRecord> doHealthCheck(final PwmApplication pwmApplication) {
@@ -58,6 +61,21 @@ public class LocalDBHealthChecker implements HealthChecker {
             healthRecords.add(HealthRecord.forMessage(HealthMessage.LocalDB_OK));
         }
 
+        final LocalDBReadCache readCache = LocalDBUtility.findInChain(localDB, LocalDBReadCache.class);
+        if (readCache != null) {
+            for (final LocalDB.DB db : readCache.cachedDBs()) {
+                final Map<LocalDBReadCache.CacheStat, Long> stats = readCache.cacheStats(db);
+                final long hits = stats.get(LocalDBReadCache.CacheStat.HITS);
+                final long lookups = hits + stats.get(LocalDBReadCache.CacheStat.MISSES);
+                final String hitRate = lookups == 0 ? "n/a" : (hits * 100 / lookups) + "%";
+                healthRecords.add(new HealthRecord(HealthStatus.INFO, HealthTopic.LocalDB, "LocalDB read cache for " + db
+                        + ": hit rate " + hitRate + ", hits=" + hits
+                        + ", misses=" + stats.get(LocalDBReadCache.CacheStat.MISSES)
+                        + ", evictions=" + stats.get(LocalDBReadCache.CacheStat.EVICTIONS)
+                        + ", entries=" + stats.get(LocalDBReadCache.CacheStat.ENTRIES) + "/" + stats.get(LocalDBReadCache.CacheStat.MAX_ENTRIES)));
+            }
+        }
+
         return healthRecords;
     }
 }
@@ -26,10 +26,14 @@ import password.pwm.bean.SessionLabel;
 import password.pwm.error.PwmOperationalException;
 import password.pwm.error.PwmUnrecoverableException;
 import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBUtility;
+
+import java.util.Map;
 
 class LocalDBTokenMachine implements TokenMachine {
     private LocalDB localDB;
     private TokenService tokenService;
+    private boolean legacyTokensPurged;
 
     LocalDBTokenMachine(
             TokenService tokenService,
@@ -64,7 +68,7 @@ class LocalDBTokenMachine implements TokenMachine {
     public void storeToken(String tokenKey, TokenPayload tokenPayload) throws PwmOperationalException, PwmUnrecoverableException {
         final String rawValue = tokenService.toEncryptedString(tokenPayload);
         final String md5sumToken = TokenService.makeTokenHash(tokenKey);
-        localDB.put(LocalDB.DB.TOKENS, md5sumToken, rawValue);
+        LocalDBUtility.put(localDB, LocalDB.DB.TOKENS, md5sumToken, rawValue, tokenService.tokenPurgeDate(tokenPayload.getDate()));
     }
 
     public void removeToken(String tokenKey)
@@ -83,8 +87,20 @@ class LocalDBTokenMachine implements TokenMachine {
         return localDB.iterator(LocalDB.DB.TOKENS);
     }
 
+    LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator() throws PwmOperationalException {
+        return localDB.entryIterator(LocalDB.DB.TOKENS, null, null);
+    }
+
+    /**
+     * Stored tokens expire on their own, so the token db is only swept until no token written without an expiration
+     * date by an earlier version remains.  A sweep removes only outdated tokens, so younger legacy tokens keep the
+     * sweep running until they are outdated too.
+     */
     public void cleanup() throws PwmUnrecoverableException, PwmOperationalException {
-        tokenService.purgeOutdatedTokens();
+        if (!legacyTokensPurged) {
+            tokenService.purgeOutdatedTokens();
+            legacyTokensPurged = !LocalDBUtility.containsUnexpiringRecords(localDB, LocalDB.DB.TOKENS);
+        }
     }
 
     public boolean supportsName() {
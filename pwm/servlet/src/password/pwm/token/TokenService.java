@@ -322,7 +322,10 @@ public class TokenService implements PwmService {
     }
 
 
-    void purgeOutdatedTokens() throws
+    /**
+     * @return the number of tokens removed
+     */
+    int purgeOutdatedTokens() throws
             PwmUnrecoverableException, PwmOperationalException
     {
         final long startTime = System.currentTimeMillis();
@@ -340,11 +343,16 @@ public class TokenService implements PwmService {
         if (cleanedTokens > 0) {
             LOGGER.trace("cleaner thread removed " + cleanedTokens + " tokens in " + TimeDuration.fromCurrent(startTime).asCompactString());
         }
+        return cleanedTokens;
     }
 
     private List<String> discoverPurgeableTokenKeys(final int maxCount)
             throws PwmUnrecoverableException, PwmOperationalException
     {
+        if (storageMethod == TokenStorageMethod.STORE_LOCALDB) {
+            return discoverPurgeableLocalDBTokenKeys(maxCount);
+        }
+
         final List<String> returnList = new ArrayList<>();
         Iterator<String> keyIterator = null;
 
@@ -371,6 +379,38 @@ public class TokenService implements PwmService {
         return returnList;
     }
 
+    /**
+     * LocalDB token keys are stored already hashed, so the stored values are decrypted directly from a single pass
+     * over the token db instead of being read back through {@link TokenMachine#retrieveToken(String)}.
+     */
+    private List<String> discoverPurgeableLocalDBTokenKeys(final int maxCount)
+    {
+        final List<String> returnList = new ArrayList<>();
+        LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator = null;
+
+        try {
+            entryIterator = ((LocalDBTokenMachine)tokenMachine).entryIterator();
+
+            while (status() == STATUS.OPEN && returnList.size() < maxCount && entryIterator.hasNext()) {
+                final Map.Entry<String, String> entry = entryIterator.next();
+                if (entry.getValue() != null && entry.getValue().length() > 0) {
+                    final TokenPayload loopInfo = fromEncryptedString(entry.getValue());
+                    if (loopInfo != null && testIfTokenIsPurgable(loopInfo)) {
+                        returnList.add(entry.getKey());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("unexpected error while cleaning expired stored tokens: " + e.getMessage());
+        } finally {
+            if (entryIterator != null) {
+                try { entryIterator.close(); } catch (Exception e) {LOGGER.error("unexpected error returning LocalDB token DB iterator: " + e.getMessage());}
+            }
+        }
+
+        return returnList;
+    }
+
 
     private static String makeRandomCode(final Configuration config) {
         final String RANDOM_CHARS = config.readSettingAsString(PwmSetting.TOKEN_CHARACTERS);
@@ -463,6 +503,14 @@ public class TokenService implements PwmService {
         return false;
     }
 
+    /**
+     * @return the time at which a token issued on {@code issueDate} may be removed from storage.
+     */
+    Date tokenPurgeDate(final Date issueDate) {
+        final long issueTime = issueDate == null ? System.currentTimeMillis() : issueDate.getTime();
+        return new Date(issueTime + maxTokenPurgeAgeMS);
+    }
+
     String toEncryptedString(final TokenPayload tokenPayload)
             throws PwmUnrecoverableException, PwmOperationalException
     {
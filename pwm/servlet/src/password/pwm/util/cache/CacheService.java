@@ -73,11 +73,15 @@ public class CacheService implements PwmService {
         }
 
         status = STATUS.OPENING;
+        final long maxMemBytes = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.CACHE_MEMORY_MAX_BYTES));
         final int maxMemItems = Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.CACHE_MEMORY_MAX_ITEMS));
+        if (maxMemItems > 0) {
+            LOGGER.debug("memory cache limited to " + maxMemItems + " items as well as " + maxMemBytes + " bytes by " + AppProperty.CACHE_MEMORY_MAX_ITEMS.getKey());
+        }
         if (pwmApplication.getLocalDB() != null && pwmApplication.getLocalDB().status() == LocalDB.Status.OPEN) {
             localDBCacheStore = new LocalDBCacheStore(pwmApplication);
         }
-        memoryCacheStore = new MemoryCacheStore(maxMemItems);
+        memoryCacheStore = new MemoryCacheStore(maxMemBytes, maxMemItems);
         status = STATUS.OPEN;
     }
 
@@ -134,7 +138,13 @@ public class CacheService implements PwmService {
         }
 
         if (payload == null && localDBCacheStore != null) {
-            payload = localDBCacheStore.read(cacheKey);
+            final LocalDBCacheStore.ValueWrapper storedValue = localDBCacheStore.readValue(cacheKey);
+            if (storedValue != null) {
+                payload = storedValue.getPayload();
+                if (memoryCacheStore != null) {
+                    memoryCacheStore.promote(cacheKey, storedValue.getExpirationDate(), payload);
+                }
+            }
         }
 
         final StringBuilder traceOutput = new StringBuilder();
@@ -152,4 +162,18 @@ public class CacheService implements PwmService {
         LOGGER.trace(traceOutput);
         return payload;
     }
+
+    /**
+     * @return stats of the memory tier, or null if the service is not open
+     */
+    public CacheStoreInfo getMemoryCacheStoreInfo() {
+        return memoryCacheStore == null ? null : memoryCacheStore.getCacheStoreInfo();
+    }
+
+    /**
+     * @return stats of the LocalDB tier, or null if the LocalDB is not available to the service
+     */
+    public CacheStoreInfo getLocalDBCacheStoreInfo() {
+        return localDBCacheStore == null ? null : localDBCacheStore.getCacheStoreInfo();
+    }
 }
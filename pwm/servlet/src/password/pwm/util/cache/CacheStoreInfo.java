@@ -30,6 +30,10 @@ public class CacheStoreInfo implements Serializable {
     private int hitCount;
     private int missCount;
     private int itemCount;
+    private long byteCount;
+    private int promotionCount;
+    private int evictionCount;
+    private int rejectionCount;
 
     public int getStoreCount() {
         return storeCount;
@@ -70,4 +74,45 @@ public class CacheStoreInfo implements Serializable {
     public void setItemCount(int itemCount) {
         this.itemCount = itemCount;
     }
+
+    /**
+     * @return approximate heap bytes used by the entries, for tiers that are bounded by size
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public void setByteCount(long byteCount) {
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * @return number of entries copied into this tier after being read from a lower tier
+     */
+    public int getPromotionCount() {
+        return promotionCount;
+    }
+
+    public void setPromotionCount(int promotionCount) {
+        this.promotionCount = promotionCount;
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    public void setEvictionCount(int evictionCount) {
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * @return number of new entries the admission policy declined to keep
+     */
+    public int getRejectionCount() {
+        return rejectionCount;
+    }
+
+    public void setRejectionCount(int rejectionCount) {
+        this.rejectionCount = rejectionCount;
+    }
 }
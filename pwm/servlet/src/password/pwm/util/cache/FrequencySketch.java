@@ -0,0 +1,110 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2015 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.cache;
+
+/**
+ * Count-min sketch of recent access frequencies, used by {@link MemoryCacheStore} to decide whether a new entry is
+ * worth evicting an existing one for.  Each key is counted in four 4-bit counters packed sixteen to a {@code long},
+ * and its frequency is the smallest of the four, so collisions only ever overestimate.
+ * <p/>
+ * Once the number of increments reaches ten times the table size all counters are halved, so the sketch reflects
+ * recent popularity rather than all-time totals.  Callers are expected to synchronize access.
+ */
+class FrequencySketch {
+    private static final int MAX_FREQUENCY = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L,
+    };
+
+    private long[] table;
+    private int sampleSize;
+    private int additions;
+
+    FrequencySketch(final int expectedEntries) {
+        ensureCapacity(expectedEntries);
+    }
+
+    /**
+     * Grow the table for the expected number of distinct entries.  Growing discards the counts gathered so far.
+     */
+    void ensureCapacity(final int expectedEntries) {
+        int size = 64;
+        while (size < expectedEntries && size < (1 << 24)) {
+            size <<= 1;
+        }
+        if (table != null && table.length >= size) {
+            return;
+        }
+        table = new long[size];
+        sampleSize = 10 * size;
+        additions = 0;
+    }
+
+    int frequency(final int hashCode) {
+        int frequency = MAX_FREQUENCY;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            final long hash = hash(hashCode, depth);
+            final int shift = (int)(hash & 15) << 2;
+            frequency = Math.min(frequency, (int)((table[index(hash)] >>> shift) & 0xF));
+        }
+        return frequency;
+    }
+
+    void increment(final int hashCode) {
+        boolean added = false;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            final long hash = hash(hashCode, depth);
+            final int index = index(hash);
+            final int shift = (int)(hash & 15) << 2;
+            if (((table[index] >>> shift) & 0xF) < MAX_FREQUENCY) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(final long hash) {
+        return (int)(hash >>> 4) & (table.length - 1);
+    }
+
+    private static long hash(final int hashCode, final int depth) {
+        long hash = (hashCode + SEEDS[depth]) * SEEDS[depth];
+        hash ^= hash >>> 32;
+        return hash;
+    }
+}
@@ -24,10 +24,10 @@ package password.pwm.util.cache;
 
 import password.pwm.PwmApplication;
 import password.pwm.error.PwmUnrecoverableException;
-import password.pwm.util.Helper;
 import password.pwm.util.JsonUtil;
 import password.pwm.util.localdb.LocalDB;
 import password.pwm.util.localdb.LocalDBException;
+import password.pwm.util.localdb.LocalDBUtility;
 import password.pwm.util.logging.PwmLogger;
 
 import java.io.Serializable;
@@ -37,12 +37,8 @@ public class LocalDBCacheStore implements CacheStore {
     private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBCacheStore.class);
     
     private static final LocalDB.DB DB = LocalDB.DB.CACHE;
-    private static final int MAX_REMOVALS_PER_CYCLE = 10 * 1000;
-    private static final int TICKS_BETWEEN_PURGE_CYCLES = 1000;
 
     private final LocalDB localDB;
-    private final Timer timer;
-    private int ticks = 0;
 
     private int readCount;
     private int storeCount;
@@ -56,29 +52,34 @@ public class LocalDBCacheStore implements CacheStore {
         } catch (LocalDBException e) {
             LOGGER.error("error while clearing LocalDB CACHE DB during init: " + e.getMessage());
         }
-        timer = new Timer(Helper.makeThreadName(pwmApplication,LocalDBCacheStore.class),true);
     }
 
     @Override
     public void store(final CacheKey cacheKey, final Date expirationDate, final String data)
             throws PwmUnrecoverableException
     {
-        ticks++;
         storeCount++;
         try {
-            localDB.put(DB,cacheKey.getHash(),JsonUtil.serialize(new ValueWrapper(cacheKey, expirationDate, data)));
+            // expired records are hidden by the LocalDB and removed by its expiration purge
+            LocalDBUtility.put(localDB,DB,cacheKey.getHash(),JsonUtil.serialize(new ValueWrapper(cacheKey, expirationDate, data)),expirationDate);
         } catch (LocalDBException e) {
             LOGGER.error("error while writing cache: " + e.getMessage());
         }
-        if (ticks > TICKS_BETWEEN_PURGE_CYCLES) {
-            ticks = 0;
-            timer.schedule(new PurgerTask(),1);
-        }
     }
 
     @Override
     public String read(CacheKey cacheKey)
             throws PwmUnrecoverableException 
+    {
+        final ValueWrapper valueWrapper = readValue(cacheKey);
+        return valueWrapper == null ? null : valueWrapper.getPayload();
+    }
+
+    /**
+     * Read the stored entry along with its expiration date, so that it can be promoted to the memory tier.
+     */
+    ValueWrapper readValue(CacheKey cacheKey)
+            throws PwmUnrecoverableException
     {
         readCount++;
         final String hashKey = cacheKey.getHash();
@@ -95,7 +96,7 @@ public class LocalDBCacheStore implements CacheStore {
                 if (cacheKey.equals(valueWrapper.getCacheKey())) {
                     if (valueWrapper.getExpirationDate().after(new Date())) {
                         hitCount++;
-                        return valueWrapper.getPayload();
+                        return valueWrapper;
                     }
                 }
             } catch (Exception e) {
@@ -126,7 +127,7 @@ public class LocalDBCacheStore implements CacheStore {
         return cacheStoreInfo;
     }
 
-    private static class ValueWrapper implements Serializable {
+    static class ValueWrapper implements Serializable {
         final CacheKey cacheKey;
         final Date expirationDate;
         final String payload;
@@ -156,58 +157,4 @@ public class LocalDBCacheStore implements CacheStore {
             return payload;
         }
     }
-    
-   
-    private boolean purgeExpiredRecords() throws LocalDBException {
-        final List<String> removalKeys = new ArrayList<>();
-        final LocalDB.LocalDBIterator<String> localDBIterator = localDB.iterator(DB);
-        int counter = 0;
-        try {
-            while (localDBIterator.hasNext() && removalKeys.size() < MAX_REMOVALS_PER_CYCLE) {
-                final String key = localDBIterator.next();
-                counter++;
-                boolean keep = false;
-                try {
-                    if (key != null) {
-                        final String strValue = localDB.get(DB, key);
-                        if (strValue != null) {
-                            final ValueWrapper valueWrapper = JsonUtil.deserialize(strValue, ValueWrapper.class);
-                            if (valueWrapper.expirationDate.before(new Date())) {
-                                keep = true;
-                            }
-                        }
-
-                    }
-                } catch (Exception e) {
-                    LOGGER.error("error reading from cache: " + e.getMessage());
-                }
-                if (!keep) {
-                    removalKeys.add(key);
-                }
-            }
-        } finally {
-            if (localDBIterator != null) {
-                localDBIterator.close();
-            }
-        }
-        if (!removalKeys.isEmpty()) {
-            LOGGER.debug("purging " + removalKeys.size() + " expired cache records");
-            localDB.removeAll(DB, removalKeys);
-        } else {
-            LOGGER.trace("purger examined " + counter + " records and did not discover any expired cache records");
-        }
-        
-        return removalKeys.size() >= MAX_REMOVALS_PER_CYCLE;
-    }
-    
-    private class PurgerTask extends TimerTask {
-        @Override
-        public void run() {
-            try {
-                purgeExpiredRecords();
-            } catch (LocalDBException e) {
-                LOGGER.error("error while running purger task: " + e.getMessage(),e);
-            }
-        }
-    }
 }
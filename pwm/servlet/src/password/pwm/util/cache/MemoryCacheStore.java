@@ -20,78 +20,363 @@
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
 
+
 package password.pwm.util.cache;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import password.pwm.error.PwmUnrecoverableException;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Memory cache tier bounded by the approximate heap size of its entries rather than their number, using a
+ * W-TinyLFU policy.  New entries go into a small LRU window.  Entries pushed out of the window are only admitted to
+ * the main area if a {@link FrequencySketch} of recent reads and writes shows them to be used more often than the
+ * entry they would evict, so a one-pass scan over many keys cannot flush out the frequently used ones.  The main
+ * area is a segmented LRU: entries read while on probation move to the protected segment, which holds most of the
+ * space.
+ * <p>
+ * Reads are served from a concurrent map without locking.  The policy bookkeeping a read causes is recorded in a
+ * small lossy buffer and replayed under the policy lock by the next write, or by a reader that fills the buffer,
+ * so concurrent hits do not serialize on a single monitor.
+ */
 class MemoryCacheStore implements CacheStore {
-    private final Map<String,ValueWrapper> memoryStore;
-    private int readCount;
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_BUFFER_SIZE = 128;
+
+    private enum SegmentType {
+        WINDOW,
+        PROBATION,
+        PROTECTED,
+    }
+
+    private final long maxBytes;
+    private final int maxItems;
+    private final ConcurrentHashMap<String, ValueWrapper> entries = new ConcurrentHashMap<>();
+
+    // guarded by policyLock
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Segment window;
+    private final Segment probation;
+    private final Segment protectedSegment;
+    private final FrequencySketch sketch = new FrequencySketch(256);
     private int storeCount;
-    private int hitCount;
-    private int missCount;
+    private int promotionCount;
+    private int evictionCount;
+    private int rejectionCount;
+
+    private final AtomicReferenceArray<String> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferIndex = new AtomicLong();
+    private final AtomicInteger readCount = new AtomicInteger();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
 
-    MemoryCacheStore(int maxItems) {
-        memoryStore = new ConcurrentLinkedHashMap.Builder<String, ValueWrapper>()
-            .maximumWeightedCapacity(maxItems)
-            .build();
+    /**
+     * @param maxBytes approximate heap size limit of the stored entries
+     * @param maxItems limit on the number of stored entries, or 0 for no limit other than {@code maxBytes}
+     */
+    MemoryCacheStore(final long maxBytes, final int maxItems) {
+        this.maxBytes = maxBytes;
+        this.maxItems = maxItems > 0 ? maxItems : Integer.MAX_VALUE;
+        window = new Segment(SegmentType.WINDOW,
+                Math.max(1, maxBytes * WINDOW_PERCENT / 100),
+                maxItems > 0 ? Math.max(1, maxItems * WINDOW_PERCENT / 100) : Integer.MAX_VALUE);
+        probation = new Segment(SegmentType.PROBATION, maxBytes, this.maxItems);
+        protectedSegment = new Segment(SegmentType.PROTECTED,
+                (maxBytes - window.maxBytes) * PROTECTED_PERCENT / 100,
+                maxItems > 0 ? (maxItems - window.maxItems) * PROTECTED_PERCENT / 100 : Integer.MAX_VALUE);
     }
 
     @Override
     public void store(final CacheKey cacheKey, final Date expirationDate, final String data)
             throws PwmUnrecoverableException {
-        storeCount++;
-        memoryStore.put(cacheKey.getHash(), new ValueWrapper(cacheKey, expirationDate, data));
+        final String key = cacheKey.getHash();
+        final ValueWrapper valueWrapper = new ValueWrapper(cacheKey, expirationDate, data);
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            storeCount++;
+            sketch.increment(key.hashCode());
+            put(key, valueWrapper);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Store an entry that was read from a lower cache tier.  The read that missed this tier has already been counted
+     * by the sketch, so the entry is admitted on the same terms as any other.
+     */
+    void promote(final CacheKey cacheKey, final Date expirationDate, final String data)
+            throws PwmUnrecoverableException {
+        final ValueWrapper valueWrapper = new ValueWrapper(cacheKey, expirationDate, data);
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            promotionCount++;
+            put(cacheKey.getHash(), valueWrapper);
+        } finally {
+            policyLock.unlock();
+        }
     }
 
     @Override
     public String read(CacheKey cacheKey)
             throws PwmUnrecoverableException 
     {
-        readCount++;
-        final ValueWrapper valueWrapper = memoryStore.get(cacheKey.getHash());
+        readCount.incrementAndGet();
+        final String key = cacheKey.getHash();
+        final ValueWrapper valueWrapper = entries.get(key);
+        recordRead(key);
         if (valueWrapper != null) {
-            if (cacheKey.equals(valueWrapper.getCacheKey())) {
-                if (valueWrapper.getExpirationDate().after(new Date())) {
-                    hitCount++;
-                    return valueWrapper.payload;
-                }
+            if (cacheKey.equals(valueWrapper.getCacheKey()) && valueWrapper.getExpirationDate().after(new Date())) {
+                hitCount.incrementAndGet();
+                return valueWrapper.payload;
             }
+            removeStale(key, valueWrapper);
         }
-        missCount++;
+        missCount.incrementAndGet();
         return null;
     }
 
     @Override
     public CacheStoreInfo getCacheStoreInfo() {
         final CacheStoreInfo cacheStoreInfo = new CacheStoreInfo();
-        cacheStoreInfo.setReadCount(readCount);
-        cacheStoreInfo.setStoreCount(storeCount);
-        cacheStoreInfo.setHitCount(hitCount);
-        cacheStoreInfo.setMissCount(missCount);
-        cacheStoreInfo.setItemCount(memoryStore.size());
+        cacheStoreInfo.setReadCount(readCount.get());
+        cacheStoreInfo.setHitCount(hitCount.get());
+        cacheStoreInfo.setMissCount(missCount.get());
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            cacheStoreInfo.setStoreCount(storeCount);
+            cacheStoreInfo.setItemCount(itemCount());
+            cacheStoreInfo.setByteCount(totalBytes());
+            cacheStoreInfo.setPromotionCount(promotionCount);
+            cacheStoreInfo.setEvictionCount(evictionCount);
+            cacheStoreInfo.setRejectionCount(rejectionCount);
+        } finally {
+            policyLock.unlock();
+        }
         return cacheStoreInfo;
     }
 
+    /**
+     * Note a read for the policy.  When the buffer wraps, the reader replays it if the policy lock is free; otherwise
+     * older reads are overwritten, which only makes the frequency and recency estimates slightly less precise.
+     */
+    private void recordRead(final String key) {
+        final long index = readBufferIndex.getAndIncrement();
+        final int slot = (int)(index % READ_BUFFER_SIZE);
+        readBuffer.set(slot, key);
+        if (slot == READ_BUFFER_SIZE - 1 && policyLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        for (int slot = 0; slot < READ_BUFFER_SIZE; slot++) {
+            final String key = readBuffer.getAndSet(slot, null);
+            if (key == null) {
+                continue;
+            }
+            sketch.increment(key.hashCode());
+            final ValueWrapper valueWrapper = entries.get(key);
+            if (valueWrapper != null) {
+                final Segment segment = segment(valueWrapper.segment);
+                // touch the entry so the segment's access order reflects the read
+                segment.entries.get(key);
+                if (segment == probation) {
+                    probation.remove(key);
+                    protectedSegment.add(key, valueWrapper);
+                    demoteProtectedOverflow();
+                }
+            }
+        }
+    }
+
+    private void removeStale(final String key, final ValueWrapper valueWrapper) {
+        policyLock.lock();
+        try {
+            if (entries.remove(key, valueWrapper)) {
+                segment(valueWrapper.segment).remove(key);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void put(final String key, final ValueWrapper valueWrapper) {
+        final ValueWrapper existing = entries.get(key);
+        if (existing != null) {
+            segment(existing.segment).remove(key);
+        }
+        if (valueWrapper.weight > maxBytes) {
+            if (existing != null) {
+                entries.remove(key);
+            }
+            rejectionCount++;
+            return;
+        }
+
+        // a replaced entry keeps its place in the main area, anything else starts in the window.
+        segment(existing == null ? SegmentType.WINDOW : existing.segment).add(key, valueWrapper);
+        entries.put(key, valueWrapper);
+        sketch.ensureCapacity(itemCount());
+        demoteProtectedOverflow();
+
+        while (window.isOverLimit()) {
+            final Map.Entry<String, ValueWrapper> candidate = window.removeEldest();
+            if (admit(candidate.getValue())) {
+                probation.add(candidate.getKey(), candidate.getValue());
+            } else {
+                entries.remove(candidate.getKey());
+                rejectionCount++;
+            }
+        }
+
+        while (isOverLimit(0, 0)) {
+            evict(probation.isEmpty() ? protectedSegment.isEmpty() ? window : protectedSegment : probation);
+        }
+    }
+
+    /**
+     * Make room in the main area for a candidate leaving the window, evicting the least recently used entries as long
+     * as the candidate is used more often than each of them.
+     */
+    private boolean admit(final ValueWrapper candidate) {
+        final int candidateFrequency = sketch.frequency(candidate.hash);
+        while (isOverLimit(candidate.weight, 1)) {
+            final Segment victimSegment = probation.isEmpty() ? protectedSegment : probation;
+            final Map.Entry<String, ValueWrapper> victim = victimSegment.eldest();
+            if (victim == null) {
+                break;
+            }
+            if (candidateFrequency <= sketch.frequency(victim.getValue().hash)) {
+                return false;
+            }
+            evict(victimSegment);
+        }
+        return true;
+    }
+
+    private boolean isOverLimit(final long additionalBytes, final int additionalItems) {
+        return totalBytes() + additionalBytes > maxBytes || itemCount() + additionalItems > maxItems;
+    }
+
+    private void evict(final Segment segment) {
+        entries.remove(segment.removeEldest().getKey());
+        evictionCount++;
+    }
+
+    private void demoteProtectedOverflow() {
+        while (protectedSegment.isOverLimit()) {
+            final Map.Entry<String, ValueWrapper> demoted = protectedSegment.removeEldest();
+            probation.add(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    private Segment segment(final SegmentType segmentType) {
+        switch (segmentType) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedSegment;
+        }
+    }
+
+    private int itemCount() {
+        return window.entries.size() + probation.entries.size() + protectedSegment.entries.size();
+    }
+
+    private long totalBytes() {
+        return window.bytes + probation.bytes + protectedSegment.bytes;
+    }
+
+    private static class Segment {
+        private final SegmentType type;
+        private final long maxBytes;
+        private final int maxItems;
+        private final LinkedHashMap<String, ValueWrapper> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        private Segment(final SegmentType type, final long maxBytes, final int maxItems) {
+            this.type = type;
+            this.maxBytes = maxBytes;
+            this.maxItems = maxItems;
+        }
+
+        private boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        private boolean isOverLimit() {
+            return bytes > maxBytes || entries.size() > maxItems;
+        }
+
+        private void add(final String key, final ValueWrapper valueWrapper) {
+            valueWrapper.segment = type;
+            entries.put(key, valueWrapper);
+            bytes += valueWrapper.weight;
+        }
+
+        private void remove(final String key) {
+            final ValueWrapper removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.weight;
+            }
+        }
+
+        private Map.Entry<String, ValueWrapper> eldest() {
+            final Iterator<Map.Entry<String, ValueWrapper>> iterator = entries.entrySet().iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        private Map.Entry<String, ValueWrapper> removeEldest() {
+            final Iterator<Map.Entry<String, ValueWrapper>> iterator = entries.entrySet().iterator();
+            final Map.Entry<String, ValueWrapper> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue().weight;
+            return eldest;
+        }
+    }
+
     private static class ValueWrapper implements Serializable {
         final CacheKey cacheKey;
         final Date expirationDate;
         final String payload;
+        final int hash;
+        final long weight;
+        volatile SegmentType segment;
 
         private ValueWrapper(
                 CacheKey cacheKey,
                 Date expirationDate,
                 String payload
         )
+                throws PwmUnrecoverableException
         {
             this.cacheKey = cacheKey;
             this.expirationDate = expirationDate;
             this.payload = payload;
+            this.hash = cacheKey.getHash().hashCode();
+            // approximate heap size of the two strings and the wrapper
+            this.weight = ENTRY_OVERHEAD_BYTES + 2L * (payload.length() + cacheKey.getStorageValue().length());
         }
 
         public CacheKey getCacheKey()
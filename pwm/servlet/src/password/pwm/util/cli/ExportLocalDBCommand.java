@@ -28,9 +28,13 @@ import password.pwm.util.localdb.LocalDBUtility;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.util.Collections;
+import java.util.Arrays;
 
 public class ExportLocalDBCommand extends AbstractCliCommand {
+    protected static final String FORMAT_OPTIONNAME = "format";
+    protected static final String FORMAT_CSV = "csv";
+    protected static final String FORMAT_SNAPSHOT = "snapshot";
+
     @Override
     void doCommand()
             throws Exception
@@ -43,9 +47,19 @@ public class ExportLocalDBCommand extends AbstractCliCommand {
             return;
         }
 
+        final String format = (String)cliEnvironment.getOptions().get(FORMAT_OPTIONNAME);
+        if (format != null && !FORMAT_CSV.equalsIgnoreCase(format) && !FORMAT_SNAPSHOT.equalsIgnoreCase(format)) {
+            out("format must be '" + FORMAT_CSV + "' or '" + FORMAT_SNAPSHOT + "'");
+            return;
+        }
+
         final LocalDBUtility localDBUtility = new LocalDBUtility(localDB);
         try {
-            localDBUtility.exportLocalDB(new FileOutputStream(outputFile), System.out, true);
+            if (FORMAT_SNAPSHOT.equalsIgnoreCase(format)) {
+                localDBUtility.exportSnapshot(new FileOutputStream(outputFile), System.out);
+            } else {
+                localDBUtility.exportLocalDB(new FileOutputStream(outputFile), System.out, true);
+            }
         } catch (PwmOperationalException e) {
             out("error during export: " + e.getMessage());
         }
@@ -54,10 +68,28 @@ public class ExportLocalDBCommand extends AbstractCliCommand {
     @Override
     public CliParameters getCliParameters()
     {
+        final CliParameters.Option formatOption = new CliParameters.Option() {
+            public boolean isOptional()
+            {
+                return true;
+            }
+
+            public type getType()
+            {
+                return type.STRING;
+            }
+
+            public String getName()
+            {
+                return FORMAT_OPTIONNAME;
+            }
+        };
+
         CliParameters cliParameters = new CliParameters();
         cliParameters.commandName = "ExportLocalDB";
-        cliParameters.description = "Export the entire LocalDB contents to a backup file";
-        cliParameters.options = Collections.singletonList(CliParameters.REQUIRED_NEW_FILE);
+        cliParameters.description = "Export the entire LocalDB contents to a backup file, format is '" + FORMAT_CSV
+                + "' (default) or '" + FORMAT_SNAPSHOT + "' for a faster binary archive";
+        cliParameters.options = Arrays.asList(CliParameters.REQUIRED_NEW_FILE, formatOption);
 
         cliParameters.needsLocalDB = true;
         cliParameters.readOnly = true;
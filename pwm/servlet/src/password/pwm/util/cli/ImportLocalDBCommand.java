@@ -80,7 +80,7 @@ public class ImportLocalDBCommand extends AbstractCliCommand {
 
         CliParameters cliParameters = new CliParameters();
         cliParameters.commandName = "ImportLocalDB";
-        cliParameters.description = "Import the entire LocalDB contents from a backup file";
+        cliParameters.description = "Import the entire LocalDB contents from a backup file or snapshot archive";
         cliParameters.options = Collections.singletonList(outputFileOption);
 
         cliParameters.needsLocalDB = true;
@@ -26,6 +26,7 @@ import password.pwm.util.Helper;
 import password.pwm.util.JsonUtil;
 import password.pwm.util.TimeDuration;
 import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBOperationStats;
 import password.pwm.util.localdb.LocalDBUtility;
 
 import java.text.NumberFormat;
@@ -39,11 +40,21 @@ public class LocalDBInfoCommand extends AbstractCliCommand {
         final long localDBdiskSpace = Helper.getFileDirectorySize(localDB.getFileLocation());
         out("beginning LocalDBInfo");
         out("LocalDB total disk space = " + NumberFormat.getInstance().format(localDBdiskSpace) + " (" + Helper.formatDiskSize(localDBdiskSpace) + ")");
+        final LocalDBOperationStats.SavedStats savedOperationStats = LocalDBUtility.savedOperationStats(localDB);
+        if (savedOperationStats == null) {
+            out("no saved LocalDB operation stats found");
+        } else {
+            out("LocalDB operation stats as saved when the LocalDB was last closed at " + savedOperationStats.getCaptureTime());
+        }
         out("examining LocalDB, this may take a while.... ");
         for (final LocalDB.DB db : LocalDB.DB.values()) {
             out("---" + db.toString() + "---");
             final Map<LocalDBUtility.STATS_KEY,Object> stats = LocalDBUtility.dbStats(localDB, db);
             out(JsonUtil.serializeMap(stats, JsonUtil.Flag.PrettyPrint));
+            if (savedOperationStats != null && !savedOperationStats.getOperations(db).isEmpty()) {
+                out("saved operation stats:");
+                out(JsonUtil.serializeMap(savedOperationStats.getOperations(db), JsonUtil.Flag.PrettyPrint));
+            }
         }
         out("completed LocalDBInfo in " + TimeDuration.fromCurrent(startTime).asCompactString());
     }
@@ -27,6 +27,9 @@ import password.pwm.error.PwmDataStoreException;
 import password.pwm.util.ClosableIterator;
 import password.pwm.util.DataStore;
 
+import java.util.AbstractMap;
+import java.util.Map;
+
 public class DatabaseDataStore implements DataStore {
     private final DatabaseAccessorImpl databaseAccessor;
     private final DatabaseTable table;
@@ -52,6 +55,32 @@ public class DatabaseDataStore implements DataStore {
         return databaseAccessor.iterator(table);
     }
 
+    public ClosableIterator<Map.Entry<String, String>> entryIterator() throws PwmDataStoreException {
+        final ClosableIterator<String> keyIterator = databaseAccessor.iterator(table);
+        return new ClosableIterator<Map.Entry<String, String>>() {
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            public Map.Entry<String, String> next() {
+                final String key = keyIterator.next();
+                try {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, databaseAccessor.get(table, key));
+                } catch (PwmDataStoreException e) {
+                    throw new IllegalStateException("error reading value of " + key + ": " + e.getMessage());
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            public void close() {
+                keyIterator.close();
+            }
+        };
+    }
+
     public Status status() {
         final PwmService.STATUS dbStatus = databaseAccessor.status();
         if (dbStatus == null) {
@@ -28,11 +28,13 @@ import password.pwm.util.ClosableIterator;
 import password.pwm.util.DataStore;
 import password.pwm.util.JsonUtil;
 import password.pwm.util.TimeDuration;
+import password.pwm.util.localdb.LocalDBDataStore;
 import password.pwm.util.logging.PwmLogger;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 class DataStoreRecordStore implements RecordStore {
     private static final PwmLogger LOGGER = PwmLogger.forClass(DataStoreRecordStore.class);
@@ -40,12 +42,15 @@ class DataStoreRecordStore implements RecordStore {
 
     private final IntruderManager intruderManager;
     private final DataStore dataStore;
+    private final TimeDuration maxRecordAge;
 
     private Date eldestRecord = new Date(0);
+    private boolean legacyRecordsPurged;
 
-    public DataStoreRecordStore(final DataStore dataStore, final IntruderManager intruderManager) {
+    public DataStoreRecordStore(final DataStore dataStore, final IntruderManager intruderManager, final TimeDuration maxRecordAge) {
         this.dataStore = dataStore;
         this.intruderManager = intruderManager;
+        this.maxRecordAge = maxRecordAge;
     }
 
     public IntruderRecord read(final String key)
@@ -66,6 +71,10 @@ class DataStoreRecordStore implements RecordStore {
             return null;
         }
 
+        return parse(key, value);
+    }
+
+    private IntruderRecord parse(final String key, final String value) {
         if (value == null || value.length() < 1) {
             return null;
         }
@@ -85,7 +94,13 @@ class DataStoreRecordStore implements RecordStore {
     public void write(final String key, final IntruderRecord record) throws PwmOperationalException {
         final String jsonRecord = JsonUtil.serialize(record);
         try {
-            dataStore.put(key, jsonRecord);
+            if (dataStore instanceof LocalDBDataStore) {
+                final Date timestamp = record.getTimeStamp() == null ? new Date() : record.getTimeStamp();
+                final Date expirationDate = new Date(timestamp.getTime() + maxRecordAge.getTotalMilliseconds());
+                ((LocalDBDataStore)dataStore).put(key, jsonRecord, expirationDate);
+            } else {
+                dataStore.put(key, jsonRecord);
+            }
         } catch (PwmDataStoreException e) {
             throw new PwmOperationalException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,"error writing to LocalDB: " + e.getMessage()));
         }
@@ -94,16 +109,16 @@ class DataStoreRecordStore implements RecordStore {
     @Override
     public ClosableIterator<IntruderRecord> iterator() throws PwmOperationalException {
         try {
-            return new RecordIterator(dataStore.iterator());
+            return new RecordIterator(dataStore.entryIterator());
         } catch (PwmDataStoreException e) {
             throw new PwmOperationalException(PwmError.ERROR_UNKNOWN,"iterator unavailable:" + e.getMessage());
         }
     }
 
     private class RecordIterator implements ClosableIterator<IntruderRecord> {
-        private final ClosableIterator<String> dbIterator;
+        private final ClosableIterator<Map.Entry<String, String>> dbIterator;
 
-        private RecordIterator(ClosableIterator<String> dbIterator) {
+        private RecordIterator(ClosableIterator<Map.Entry<String, String>> dbIterator) {
             this.dbIterator = dbIterator;
         }
 
@@ -114,12 +129,8 @@ class DataStoreRecordStore implements RecordStore {
 
         @Override
         public IntruderRecord next() {
-            final String key = dbIterator.next();
-            try {
-                return read(key);
-            } catch (PwmUnrecoverableException e) {
-                throw new IllegalStateException(e);
-            }
+            final Map.Entry<String, String> entry = dbIterator.next();
+            return parse(entry.getKey(), entry.getValue());
         }
 
         @Override
@@ -133,8 +144,15 @@ class DataStoreRecordStore implements RecordStore {
     }
 
 
+    /**
+     * Records written to a {@link LocalDBDataStore} expire on their own, so the LocalDB store is no longer scanned once
+     * a complete sweep leaves no record that was written without an expiration date.
+     */
     @Override
     public void cleanup(final TimeDuration maxRecordAge) {
+        if (legacyRecordsPurged) {
+            return;
+        }
         if (TimeDuration.fromCurrent(eldestRecord).isShorterThan(maxRecordAge)) {
             return;
         }
@@ -149,6 +167,9 @@ class DataStoreRecordStore implements RecordStore {
         while (!complete && intruderManager.status() == PwmService.STATUS.OPEN) {
 
             List<String> recordsToRemove = discoverPurgableKeys(maxRecordAge);
+            if (recordsToRemove == null) {
+                break;
+            }
             if (recordsToRemove.isEmpty()) {
                 complete = true;
             }
@@ -162,18 +183,29 @@ class DataStoreRecordStore implements RecordStore {
             recordsRemoved += recordsToRemove.size();
             recordsToRemove.clear();
         }
+        if (complete && dataStore instanceof LocalDBDataStore) {
+            try {
+                legacyRecordsPurged = !((LocalDBDataStore)dataStore).containsUnexpiringRecords();
+            } catch (PwmDataStoreException e) {
+                LOGGER.error("unable to check intruder table for records without an expiration: " + e.getMessage());
+            }
+        }
         final TimeDuration totalDuration = TimeDuration.fromCurrent(startTime);
         LOGGER.trace("completed cleanup of intruder table in " + totalDuration.asCompactString() + ", recordsExamined=" + recordsExamined + ", recordsRemoved=" + recordsRemoved);
     }
 
+    /**
+     * @return the keys of records older than {@code maxRecordAge}, or null if the store could not be read
+     */
     private List<String> discoverPurgableKeys(final TimeDuration maxRecordAge) {
         final List<String> recordsToRemove = new ArrayList<>();
-        ClosableIterator<String> dbIterator = null;
+        ClosableIterator<Map.Entry<String, String>> dbIterator = null;
         try {
-            dbIterator = dataStore.iterator();
+            dbIterator = dataStore.entryIterator();
             while (intruderManager.status() == PwmService.STATUS.OPEN && dbIterator.hasNext() && recordsToRemove.size() < MAX_REMOVALS_PER_CYCLE) {
-                final String key = dbIterator.next();
-                final IntruderRecord record = read(key);
+                final Map.Entry<String, String> entry = dbIterator.next();
+                final String key = entry.getKey();
+                final IntruderRecord record = parse(key, entry.getValue());
                 if (record != null) {
                     if (TimeDuration.fromCurrent(record.getTimeStamp()).isLongerThan(maxRecordAge)) {
                         recordsToRemove.add(key);
@@ -185,8 +217,7 @@ class DataStoreRecordStore implements RecordStore {
             }
         } catch (PwmDataStoreException e) {
             LOGGER.error("unable to perform intruder table cleanup: " + e.getMessage());
-        } catch (PwmUnrecoverableException e) {
-            LOGGER.error("unable to perform intruder table cleanup: " + e.getMessage());
+            return null;
         } finally {
             if (dbIterator != null) {
                 dbIterator.close();
@@ -142,10 +142,10 @@ public class IntruderManager implements Serializable, PwmService {
         }
         final RecordStore recordStore;
         {
-            recordStore = new DataStoreRecordStore(dataStore, this);
+            final long maxRecordAge = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.INTRUDER_RETENTION_TIME_MS));
+            recordStore = new DataStoreRecordStore(dataStore, this, new TimeDuration(maxRecordAge));
             final String threadName = Helper.makeThreadName(pwmApplication, this.getClass()) + " timer";
             timer = new Timer(threadName, true);
-            final long maxRecordAge = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.INTRUDER_RETENTION_TIME_MS));
             final long cleanerRunFrequency = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.INTRUDER_CLEANUP_FREQUENCY_MS));
             timer.schedule(new TimerTask() {
                 @Override
@@ -33,12 +33,13 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
+public abstract class AbstractJDBC_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
     private static final PwmLogger LOGGER = PwmLogger.forClass(AbstractJDBC_LocalDB.class, true);
 
     private static final String KEY_COLUMN = "id";
     private static final String VALUE_COLUMN = "value";
     private final static int ITERATOR_LIMIT = 100;
+    private final static int GET_ALL_BATCH_SIZE = 100;
 
     private static final String WIDTH_KEY = String.valueOf(LocalDB.MAX_KEY_LENGTH);
 
@@ -46,14 +47,19 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
     protected File dbDirectory;
 
     // cache of dbIterators
-    private final Set<LocalDB.LocalDBIterator<String>> dbIterators = Collections.newSetFromMap(
-            new ConcurrentHashMap<LocalDB.LocalDBIterator<String>, Boolean>());
+    private final Set<AbstractDbIterator<?>> dbIterators = Collections.newSetFromMap(
+            new ConcurrentHashMap<AbstractDbIterator<?>, Boolean>());
 
-    // sql db connection
+    // sql db connection, used to create tables.
     protected Connection dbConnection;
 
-    // operation lock
-    protected final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    // each db has its own connection and lock so that a write transaction on one db does not block or commit work on
+    // another db.
+    private final Map<LocalDB.DB, Connection> dbConnections = new EnumMap<>(LocalDB.DB.class);
+    private final Map<LocalDB.DB, ReadWriteLock> locks = new EnumMap<>(LocalDB.DB.class);
+
+    // COUNT(*) reads the entire key index of the table.
+    private final LocalDBRecordCounts recordCounts = new LocalDBRecordCounts();
 
     protected LocalDB.Status status = LocalDB.Status.NEW;
     protected boolean readOnly = false;
@@ -150,6 +156,9 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
 
     AbstractJDBC_LocalDB()
             throws Exception {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.put(db, new ReentrantReadWriteLock());
+        }
     }
 
 // ------------------------ INTERFACE METHODS ------------------------
@@ -157,9 +166,24 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
 
     public void close()
             throws LocalDBException {
+        if (status == LocalDB.Status.OPEN && !readOnly) {
+            try {
+                put(LocalDB.DB.PWM_META, LocalDBRecordCounts.META_KEY, recordCounts.toMetaValue());
+            } catch (LocalDBException e) {
+                LOGGER.error("error while saving record counts: " + e.getMessage());
+            }
+        }
         status = LocalDB.Status.CLOSED;
         try {
-            LOCK.writeLock().lock();
+            lockAll();
+            for (final Connection connection : dbConnections.values()) {
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    LOGGER.debug("error while closing DB connection: " + e.getMessage());
+                }
+            }
+            dbConnections.clear();
             if (dbConnection != null) {
                 try {
                     closeConnection(dbConnection);
@@ -168,17 +192,19 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
                 }
             }
         } finally {
-            LOCK.writeLock().unlock();
+            unlockAll();
         }
 
         try {
-            LOCK.writeLock().lock();
-            DriverManager.deregisterDriver(driver);
-            driver = null;
+            lockAll();
+            if (driver != null) {
+                DriverManager.deregisterDriver(driver);
+                driver = null;
+            }
         } catch (SQLException e) {
             LOGGER.error("unable to de-register sql driver: " + e.getMessage());
         } finally {
-            LOCK.writeLock().unlock();
+            unlockAll();
         }
 
         LOGGER.debug("closed");
@@ -206,8 +232,8 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         try {
-            LOCK.readLock().lock();
-            statement = dbConnection.prepareStatement(sb.toString());
+            lock(db).readLock().lock();
+            statement = connection(db).prepareStatement(sb.toString());
             statement.setString(1, key);
             statement.setMaxRows(1);
             resultSet = statement.executeQuery();
@@ -219,7 +245,7 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         } finally {
             close(statement);
             close(resultSet);
-            LOCK.readLock().unlock();
+            lock(db).readLock().unlock();
         }
         return null;
     }
@@ -234,26 +260,97 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
             initTable(dbConnection, db);
         }
 
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            dbConnections.put(db, openConnection(dbDirectory, getDriverClasspath(), Collections.<String,String>emptyMap()));
+        }
+
         this.readOnly = readOnly;
         this.status = LocalDB.Status.OPEN;
+
+        recordCounts.load(get(LocalDB.DB.PWM_META, LocalDBRecordCounts.META_KEY), new LocalDBRecordCounts.RecordCounter() {
+            public long countRecords(final LocalDB.DB db) throws LocalDBException {
+                return AbstractJDBC_LocalDB.this.countRecords(db);
+            }
+        });
+        if (!readOnly) {
+            remove(LocalDB.DB.PWM_META, LocalDBRecordCounts.META_KEY);
+        }
     }
 
     public LocalDB.LocalDBIterator<String> iterator(final LocalDB.DB db)
             throws LocalDBException {
+        checkIteratorLimit();
+        return registerIterator(new DbIterator(db));
+    }
+
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(
+            final LocalDB.DB db,
+            final String fromKey,
+            final String toKey
+    )
+            throws LocalDBException
+    {
+        preCheck(false);
+        checkIteratorLimit();
+        return registerIterator(new DbEntryIterator(db, fromKey, toKey));
+    }
+
+    public Map<String, String> getAll(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        preCheck(false);
+        final Map<String, String> returnMap = new HashMap<>();
+        final List<String> keyList = new ArrayList<>(keys);
         try {
-            if (dbIterators.size() > ITERATOR_LIMIT) {
-                throw new LocalDBException(new ErrorInformation(PwmError.ERROR_UNKNOWN,"over " + ITERATOR_LIMIT + " iterators are outstanding, maximum limit exceeded"));
+            lock(db).readLock().lock();
+            for (int i = 0; i < keyList.size(); i += GET_ALL_BATCH_SIZE) {
+                final List<String> batch = keyList.subList(i, Math.min(keyList.size(), i + GET_ALL_BATCH_SIZE));
+                final StringBuilder sb = new StringBuilder();
+                sb.append("SELECT " + KEY_COLUMN + ", " + VALUE_COLUMN + " FROM ").append(db.toString());
+                sb.append(" WHERE " + KEY_COLUMN + " IN (");
+                for (int j = 0; j < batch.size(); j++) {
+                    sb.append(j == 0 ? "?" : ",?");
+                }
+                sb.append(")");
+
+                PreparedStatement statement = null;
+                ResultSet resultSet = null;
+                try {
+                    statement = connection(db).prepareStatement(sb.toString());
+                    for (int j = 0; j < batch.size(); j++) {
+                        statement.setString(j + 1, batch.get(j));
+                    }
+                    resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        returnMap.put(resultSet.getString(KEY_COLUMN), resultSet.getString(VALUE_COLUMN));
+                    }
+                } finally {
+                    close(statement);
+                    close(resultSet);
+                }
             }
+        } catch (SQLException ex) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
+        } finally {
+            lock(db).readLock().unlock();
+        }
+        return returnMap;
+    }
 
-            final LocalDB.LocalDBIterator iterator = new DbIterator(db);
-            dbIterators.add(iterator);
-            LOGGER.trace(this.getClass().getSimpleName() + " issued iterator for " + db.toString() + ", outstanding iterators: " + dbIterators.size());
-            return iterator;
-        } catch (Exception e) {
-            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
+    private void checkIteratorLimit()
+            throws LocalDBException
+    {
+        if (dbIterators.size() > ITERATOR_LIMIT) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_UNKNOWN,"over " + ITERATOR_LIMIT + " iterators are outstanding, maximum limit exceeded"));
         }
     }
 
+    private <T extends AbstractDbIterator<?>> T registerIterator(final T iterator) {
+        dbIterators.add(iterator);
+        LOGGER.trace(this.getClass().getSimpleName() + " issued iterator for " + iterator.db.toString() + ", outstanding iterators: " + dbIterators.size());
+        return iterator;
+    }
+
     public void putAll(final LocalDB.DB db, final Map<String, String> keyValueMap)
             throws LocalDBException {
         preCheck(true);
@@ -261,11 +358,12 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         final String removeSqlString = "DELETE FROM " + db.toString() + " WHERE " + KEY_COLUMN + "=?";
         final String insertSqlString = "INSERT INTO " + db.toString() + "(" + KEY_COLUMN + ", " + VALUE_COLUMN + ") VALUES(?,?)";
 
+        final Connection connection = connection(db);
         try {
-            LOCK.writeLock().lock();
+            lock(db).writeLock().lock();
             // just in case anyone was unclear: sql does indeed suck.
-            removeStatement = dbConnection.prepareStatement(removeSqlString);
-            insertStatement = dbConnection.prepareStatement(insertSqlString);
+            removeStatement = connection.prepareStatement(removeSqlString);
+            insertStatement = connection.prepareStatement(insertSqlString);
 
             for (final String loopKey : keyValueMap.keySet()) {
                 removeStatement.clearParameters();
@@ -278,15 +376,22 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
                 insertStatement.addBatch();
             }
 
-            removeStatement.executeBatch();
+            final int[] removeCounts = removeStatement.executeBatch();
             insertStatement.executeBatch();
-            dbConnection.commit();
+            connection.commit();
+
+            final long removedRecords = sumUpdateCounts(removeCounts);
+            if (removedRecords < 0) {
+                recordCounts.set(db, countRecords(db));
+            } else {
+                recordCounts.add(db, keyValueMap.size() - removedRecords);
+            }
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(removeStatement);
             close(insertStatement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
     }
 
@@ -299,17 +404,18 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
             PreparedStatement statement = null;
 
             try {
-                LOCK.writeLock().lock();
-                statement = dbConnection.prepareStatement(sqlText);
+                lock(db).writeLock().lock();
+                statement = connection(db).prepareStatement(sqlText);
                 statement.setString(1, key);
                 statement.setString(2, value);
                 statement.executeUpdate();
-                dbConnection.commit();
+                connection(db).commit();
+                recordCounts.increment(db);
             } catch (SQLException ex) {
                 throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
             } finally {
                 close(statement);
-                LOCK.writeLock().unlock();
+                lock(db).writeLock().unlock();
             }
             return false;
         }
@@ -318,17 +424,17 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         PreparedStatement statement = null;
 
         try {
-            LOCK.writeLock().lock();
-            statement = dbConnection.prepareStatement(sqlText);
+            lock(db).writeLock().lock();
+            statement = connection(db).prepareStatement(sqlText);
             statement.setString(1, value);
             statement.setString(2, key);
             statement.executeUpdate();
-            dbConnection.commit();
+            connection(db).commit();
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(statement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
 
         return true;
@@ -346,16 +452,17 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
 
         PreparedStatement statement = null;
         try {
-            LOCK.writeLock().lock();
-            statement = dbConnection.prepareStatement(sqlText.toString());
+            lock(db).writeLock().lock();
+            statement = connection(db).prepareStatement(sqlText.toString());
             statement.setString(1, key);
-            statement.executeUpdate();
-            dbConnection.commit();
+            final int removedRecords = statement.executeUpdate();
+            connection(db).commit();
+            recordCounts.add(db, -removedRecords);
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(statement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
 
         return true;
@@ -365,24 +472,33 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
             throws LocalDBException
     {
         preCheck(false);
+        if (LocalDBRecordCounts.isCounted(db)) {
+            return recordCounts.size(db);
+        }
+        return (int)countRecords(db);
+    }
+
+    private long countRecords(final LocalDB.DB db)
+            throws LocalDBException
+    {
         final StringBuilder sb = new StringBuilder();
         sb.append("SELECT COUNT(" + KEY_COLUMN + ") FROM ").append(db.toString());
 
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         try {
-            LOCK.readLock().lock();
-            statement = dbConnection.prepareStatement(sb.toString());
+            lock(db).readLock().lock();
+            statement = connection(db).prepareStatement(sb.toString());
             resultSet = statement.executeQuery();
             if (resultSet.next()) {
-                return resultSet.getInt(1);
+                return resultSet.getLong(1);
             }
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(statement);
             close(resultSet);
-            LOCK.readLock().unlock();
+            lock(db).readLock().unlock();
         }
 
         return 0;
@@ -397,24 +513,27 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
 
         PreparedStatement statement = null;
         try {
-            LOCK.writeLock().lock();
+            lock(db).writeLock().lock();
 
-            final Set<LocalDB.LocalDBIterator<String>> copiedIterators = new HashSet<>();
+            final Set<AbstractDbIterator<?>> copiedIterators = new HashSet<>();
             copiedIterators.addAll(dbIterators);
 
-            for (final LocalDB.LocalDBIterator dbIterator : copiedIterators) {
-                dbIterator.close();
+            for (final AbstractDbIterator<?> dbIterator : copiedIterators) {
+                if (dbIterator.db == db) {
+                    dbIterator.close();
+                }
             }
 
-            statement = dbConnection.prepareStatement(sqlText.toString());
+            statement = connection(db).prepareStatement(sqlText.toString());
             statement.executeUpdate();
-            dbConnection.commit();
-            initTable(dbConnection, db);
+            connection(db).commit();
+            initTable(connection(db), db);
+            recordCounts.set(db, 0);
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(statement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
     }
 
@@ -425,26 +544,66 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         final String sqlString = "DELETE FROM " + db.toString() + " WHERE " + KEY_COLUMN + "=?";
         PreparedStatement statement = null;
         try {
-            LOCK.writeLock().lock();
-            statement = dbConnection.prepareStatement(sqlString);
+            lock(db).writeLock().lock();
+            statement = connection(db).prepareStatement(sqlString);
 
             for (final String loopKey : keys) {
                 statement.clearParameters();
                 statement.setString(1, loopKey);
                 statement.addBatch();
             }
-            statement.executeBatch();
-            dbConnection.commit();
+            final long removedRecords = sumUpdateCounts(statement.executeBatch());
+            connection(db).commit();
+            if (removedRecords < 0) {
+                recordCounts.set(db, countRecords(db));
+            } else {
+                recordCounts.add(db, -removedRecords);
+            }
         } catch (SQLException ex) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
         } finally {
             close(statement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
     }
 
 // -------------------------- OTHER METHODS --------------------------
 
+    /**
+     * @return the total of the batch update counts, or -1 if the driver did not report a count for every statement
+     */
+    private static long sumUpdateCounts(final int[] updateCounts) {
+        long total = 0;
+        for (final int updateCount : updateCounts) {
+            if (updateCount < 0) {
+                return -1;
+            }
+            total += updateCount;
+        }
+        return total;
+    }
+
+    protected ReadWriteLock lock(final LocalDB.DB db) {
+        return locks.get(db);
+    }
+
+    protected Connection connection(final LocalDB.DB db) {
+        final Connection connection = dbConnections.get(db);
+        return connection == null ? dbConnection : connection;
+    }
+
+    private void lockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().unlock();
+        }
+    }
+
     abstract Connection openConnection(
             final File databaseDirectory,
             final String driverClasspath,
@@ -454,35 +613,36 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
 
 // -------------------------- INNER CLASSES --------------------------
 
-    private class DbIterator implements LocalDB.LocalDBIterator<String> {
-        private String nextItem;
-        private String currentItem;
+    private abstract class AbstractDbIterator<T> implements LocalDB.LocalDBIterator<T> {
+        private T nextItem;
 
+        private PreparedStatement statement;
         private ResultSet resultSet;
-        private final LocalDB.DB db;
+        final LocalDB.DB db;
 
-        private DbIterator(final LocalDB.DB db) throws LocalDBException {
+        private AbstractDbIterator(final LocalDB.DB db, final String sqlText, final String... parameters)
+                throws LocalDBException
+        {
             this.db = db;
-            init();
-            fetchNext();
-        }
-
-        private void init() throws LocalDBException {
-            final StringBuilder sb = new StringBuilder();
-            sb.append("SELECT * FROM ").append(db.toString());
-
             try {
-                final PreparedStatement statement = dbConnection.prepareStatement(sb.toString());
+                statement = connection(db).prepareStatement(sqlText);
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setString(i + 1, parameters[i]);
+                }
                 resultSet = statement.executeQuery();
             } catch (SQLException ex) {
+                close();
                 throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,ex.getMessage()));
             }
+            fetchNext();
         }
 
+        abstract T readRow(ResultSet resultSet) throws SQLException;
+
         private void fetchNext() {
             try {
-                if (resultSet.next()) {
-                    nextItem = resultSet.getString(KEY_COLUMN);
+                if (resultSet != null && resultSet.next()) {
+                    nextItem = readRow(resultSet);
                 } else {
                     nextItem = null;
                 }
@@ -502,15 +662,43 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
         public void close() {
             nextItem = null;
             AbstractJDBC_LocalDB.close(resultSet);
+            AbstractJDBC_LocalDB.close(statement);
+            resultSet = null;
+            statement = null;
             dbIterators.remove(this);
         }
 
-        public String next() {
-            currentItem = nextItem;
+        public T next() {
+            if (nextItem == null) {
+                throw new NoSuchElementException();
+            }
+            final T currentItem = nextItem;
             fetchNext();
             return currentItem;
         }
 
+        protected void finalize() throws Throwable {
+            super.finalize();
+            close();
+        }
+    }
+
+    private class DbIterator extends AbstractDbIterator<String> {
+        private String currentItem;
+
+        private DbIterator(final LocalDB.DB db) throws LocalDBException {
+            super(db, "SELECT " + KEY_COLUMN + " FROM " + db.toString());
+        }
+
+        String readRow(final ResultSet resultSet) throws SQLException {
+            return resultSet.getString(KEY_COLUMN);
+        }
+
+        public String next() {
+            currentItem = super.next();
+            return currentItem;
+        }
+
         public void remove() {
             if (currentItem != null) {
                 try {
@@ -520,11 +708,45 @@ public abstract class AbstractJDBC_LocalDB implements LocalDBProvider {
                 }
             }
         }
+    }
 
-        protected void finalize() throws Throwable {
-            super.finalize();
-            close();
+    private class DbEntryIterator extends AbstractDbIterator<Map.Entry<String, String>> {
+        private DbEntryIterator(final LocalDB.DB db, final String fromKey, final String toKey) throws LocalDBException {
+            super(db, rangeQuery(db, fromKey, toKey), rangeParameters(fromKey, toKey));
+        }
+
+        Map.Entry<String, String> readRow(final ResultSet resultSet) throws SQLException {
+            return new AbstractMap.SimpleImmutableEntry<>(resultSet.getString(KEY_COLUMN), resultSet.getString(VALUE_COLUMN));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("entry iterators do not support removals");
+        }
+    }
+
+    private static String rangeQuery(final LocalDB.DB db, final String fromKey, final String toKey) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("SELECT " + KEY_COLUMN + ", " + VALUE_COLUMN + " FROM ").append(db.toString());
+        if (fromKey != null && toKey != null) {
+            sb.append(" WHERE " + KEY_COLUMN + " >= ? AND " + KEY_COLUMN + " < ?");
+        } else if (fromKey != null) {
+            sb.append(" WHERE " + KEY_COLUMN + " >= ?");
+        } else if (toKey != null) {
+            sb.append(" WHERE " + KEY_COLUMN + " < ?");
+        }
+        sb.append(" ORDER BY " + KEY_COLUMN);
+        return sb.toString();
+    }
+
+    private static String[] rangeParameters(final String fromKey, final String toKey) {
+        final List<String> parameters = new ArrayList<>();
+        if (fromKey != null) {
+            parameters.add(fromKey);
+        }
+        if (toKey != null) {
+            parameters.add(toKey);
         }
+        return parameters.toArray(new String[parameters.size()]);
     }
 
     public File getFileLocation() {
@@ -0,0 +1,1207 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.PwmConstants;
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+import password.pwm.util.Helper;
+import password.pwm.util.TimeDuration;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static password.pwm.util.localdb.LocalDB.DB;
+
+/**
+ * Log structured LocalDB provider.  Every write is appended to the current segment file, and an in-memory hash index
+ * per db maps each key to the record holding its current value.  Full segments are sealed and read through a
+ * memory map, and a background task rewrites the live records of mostly-garbage segments so their files can be
+ * removed.
+ * <p/>
+ * Each record carries the generation of its db.  {@link #truncate(LocalDB.DB)} bumps the generation, so records
+ * from before the truncate are ignored on replay regardless of where compaction has moved them.  On a clean close
+ * the index is saved to a hint file, which lets the next open skip replaying the segments.
+ */
+public class AppendLog_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final PwmLogger LOGGER = PwmLogger.forClass(AppendLog_LocalDB.class, true);
+
+    private static final String SEGMENT_PREFIX = "appendlog-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HINT_FILENAME = "appendlog.hint";
+    private static final int HINT_MAGIC = 0x50574D48; // "PWMH"
+    private static final int HINT_VERSION = 1;
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_TRUNCATE = 3;
+
+    private static final String PARAM_SEGMENT_MAX_BYTES = "appendlog.segmentMaxBytes";
+    private static final String PARAM_FORCE_WRITES = "appendlog.forceWrites";
+    private static final String PARAM_COMPACTION_INTERVAL_SECONDS = "appendlog.compactionIntervalSeconds";
+    private static final String PARAM_COMPACTION_GARBAGE_RATIO = "appendlog.compactionGarbageRatio";
+
+    private final Map<LocalDB.DB, ConcurrentMap<String, Location>> indexes = new EnumMap<>(LocalDB.DB.class);
+    private final Map<LocalDB.DB, AtomicInteger> generations = new EnumMap<>(LocalDB.DB.class);
+    private final Map<LocalDB.DB, ReadWriteLock> locks = new EnumMap<>(LocalDB.DB.class);
+    private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // guards appends to the active segment and rolling to a new one.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private Segment activeSegment;
+
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesCompacted = new AtomicLong();
+
+    private File dbDirectory;
+    private boolean readOnly;
+    private long segmentMaxBytes = 64 * 1024 * 1024;
+    private boolean forceWrites = true;
+    private double compactionGarbageRatio = 0.5;
+    private Timer compactionTimer;
+    private volatile LocalDB.Status status = LocalDB.Status.NEW;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+    AppendLog_LocalDB() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            indexes.put(db, new ConcurrentHashMap<String, Location>());
+            generations.put(db, new AtomicInteger());
+            locks.put(db, new ReentrantReadWriteLock());
+        }
+    }
+
+// --------------------- Interface LocalDBProvider ---------------------
+
+    public void init(final File dbDirectory, final Map<String, String> initParameters, final boolean readOnly)
+            throws LocalDBException
+    {
+        final long startTime = System.currentTimeMillis();
+        this.dbDirectory = dbDirectory;
+        this.readOnly = readOnly;
+        readInitParameters(initParameters);
+
+        try {
+            if (!dbDirectory.exists() && !dbDirectory.mkdirs()) {
+                throw new IOException("unable to create directory " + dbDirectory.getAbsolutePath());
+            }
+
+            final List<Integer> segmentIds = listSegmentIds();
+            for (final Integer segmentId : segmentIds) {
+                final boolean isLast = segmentId.equals(segmentIds.get(segmentIds.size() - 1));
+                segments.put(segmentId, Segment.open(segmentFile(segmentId), segmentId, isLast && !readOnly));
+            }
+
+            final boolean hintLoaded = readHintFile();
+            if (!hintLoaded) {
+                for (final Segment segment : segments.values()) {
+                    replaySegment(segment, segment == segments.lastEntry().getValue());
+                }
+            }
+
+            if (segments.isEmpty()) {
+                if (readOnly) {
+                    activeSegment = null;
+                } else {
+                    activeSegment = Segment.open(segmentFile(1), 1, true);
+                    segments.put(1, activeSegment);
+                }
+            } else {
+                activeSegment = segments.lastEntry().getValue();
+            }
+            for (final Segment segment : segments.values()) {
+                if (segment != activeSegment || readOnly) {
+                    segment.seal();
+                }
+            }
+        } catch (IOException e) {
+            closeSegments();
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "unable to open append log LocalDB: " + e.getMessage()));
+        }
+
+        if (!readOnly) {
+            final long intervalMs = Long.parseLong(readParam(initParameters, PARAM_COMPACTION_INTERVAL_SECONDS, "60")) * 1000;
+            compactionTimer = new Timer(Helper.makeThreadName(null, AppendLog_LocalDB.class) + "-compaction", true);
+            compactionTimer.schedule(new CompactionTask(), intervalMs, intervalMs);
+        }
+
+        status = LocalDB.Status.OPEN;
+        LOGGER.info("LocalDB opened in " + TimeDuration.fromCurrent(startTime).asCompactString() + ", " + debugString());
+    }
+
+    public void close()
+            throws LocalDBException
+    {
+        if (status != LocalDB.Status.OPEN) {
+            return;
+        }
+        if (compactionTimer != null) {
+            compactionTimer.cancel();
+        }
+
+        compactionLock.lock();
+        lockAll();
+        try {
+            status = LocalDB.Status.CLOSED;
+            if (!readOnly) {
+                try {
+                    appendLock.lock();
+                    try {
+                        activeSegment.channel.force(false);
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    writeHintFile();
+                } catch (IOException e) {
+                    LOGGER.error("error writing index hint file: " + e.getMessage());
+                }
+            }
+            LOGGER.debug("closing, " + debugString());
+            closeSegments();
+            for (final LocalDB.DB db : LocalDB.DB.values()) {
+                indexes.get(db).clear();
+            }
+        } finally {
+            unlockAll();
+            compactionLock.unlock();
+        }
+    }
+
+    public LocalDB.Status getStatus() {
+        return status;
+    }
+
+    public File getFileLocation() {
+        return dbDirectory;
+    }
+
+    public boolean contains(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        return indexes.get(db).containsKey(key);
+    }
+
+    public String get(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        final ConcurrentMap<String, Location> index = indexes.get(db);
+        try {
+            while (true) {
+                final Location location = index.get(key);
+                if (location == null) {
+                    return null;
+                }
+                final Segment segment = segments.get(location.segmentId);
+                if (segment != null) {
+                    return Record.readValue(segment.read(location.offset, location.length));
+                }
+                // the segment was removed by compaction after the index was read, so the key has moved.
+            }
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getMessage()));
+        }
+    }
+
+    public LocalDB.LocalDBIterator<String> iterator(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        return new DbIterator(db);
+    }
+
+    /**
+     * The index is not ordered, so the matching keys are copied and sorted before iteration begins.
+     */
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(
+            final LocalDB.DB db,
+            final String fromKey,
+            final String toKey
+    )
+            throws LocalDBException
+    {
+        final List<String> keys = new ArrayList<>();
+        for (final String key : indexes.get(db).keySet()) {
+            if (LocalDBUtility.keyInRange(key, fromKey, toKey)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys);
+        return new LocalDBUtility.KeyListEntryIterator(keys) {
+            String readValue(final String key) throws LocalDBException {
+                return get(db, key);
+            }
+        };
+    }
+
+    /**
+     * Values are read in segment and offset order so that a batch touches each segment sequentially.
+     */
+    public Map<String, String> getAll(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        final ConcurrentMap<String, Location> index = indexes.get(db);
+        final List<Map.Entry<String, Location>> locatedKeys = new ArrayList<>();
+        for (final String key : keys) {
+            final Location location = index.get(key);
+            if (location != null) {
+                locatedKeys.add(new AbstractMap.SimpleImmutableEntry<>(key, location));
+            }
+        }
+        Collections.sort(locatedKeys, new Comparator<Map.Entry<String, Location>>() {
+            public int compare(final Map.Entry<String, Location> o1, final Map.Entry<String, Location> o2) {
+                final Location l1 = o1.getValue();
+                final Location l2 = o2.getValue();
+                if (l1.segmentId != l2.segmentId) {
+                    return l1.segmentId < l2.segmentId ? -1 : 1;
+                }
+                return l1.offset < l2.offset ? -1 : (l1.offset == l2.offset ? 0 : 1);
+            }
+        });
+
+        final Map<String, String> returnMap = new HashMap<>();
+        for (final Map.Entry<String, Location> entry : locatedKeys) {
+            final String value = get(db, entry.getKey());
+            if (value != null) {
+                returnMap.put(entry.getKey(), value);
+            }
+        }
+        return returnMap;
+    }
+
+    public void putAll(final LocalDB.DB db, final Map<String, String> keyValueMap)
+            throws LocalDBException
+    {
+        if (keyValueMap.isEmpty()) {
+            return;
+        }
+        checkWritable();
+
+        lock(db).writeLock().lock();
+        try {
+            final int generation = generations.get(db).get();
+            final List<String> keys = new ArrayList<>(keyValueMap.size());
+            final List<byte[]> records = new ArrayList<>(keyValueMap.size());
+            for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+                keys.add(entry.getKey());
+                records.add(Record.encode(OP_PUT, db, generation, entry.getKey(), entry.getValue()));
+            }
+            final List<Location> locations = appendBatch(records);
+            for (int i = 0; i < keys.size(); i++) {
+                replaceLocation(db, keys.get(i), locations.get(i));
+            }
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getMessage()));
+        } finally {
+            lock(db).writeLock().unlock();
+        }
+    }
+
+    public boolean put(final LocalDB.DB db, final String key, final String value)
+            throws LocalDBException
+    {
+        checkWritable();
+
+        lock(db).writeLock().lock();
+        try {
+            final byte[] record = Record.encode(OP_PUT, db, generations.get(db).get(), key, value);
+            final Location location = appendBatch(Collections.singletonList(record)).get(0);
+            return replaceLocation(db, key, location);
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getMessage()));
+        } finally {
+            lock(db).writeLock().unlock();
+        }
+    }
+
+    public boolean remove(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        checkWritable();
+
+        lock(db).writeLock().lock();
+        try {
+            if (!indexes.get(db).containsKey(key)) {
+                return false;
+            }
+            removeKeys(db, Collections.singletonList(key));
+            return true;
+        } finally {
+            lock(db).writeLock().unlock();
+        }
+    }
+
+    public void removeAll(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        checkWritable();
+
+        lock(db).writeLock().lock();
+        try {
+            final List<String> presentKeys = new ArrayList<>();
+            for (final String key : keys) {
+                if (indexes.get(db).containsKey(key)) {
+                    presentKeys.add(key);
+                }
+            }
+            removeKeys(db, presentKeys);
+        } finally {
+            lock(db).writeLock().unlock();
+        }
+    }
+
+    public int size(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        return indexes.get(db).size();
+    }
+
+    public void truncate(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        checkWritable();
+
+        lock(db).writeLock().lock();
+        try {
+            final int generation = generations.get(db).incrementAndGet();
+            final byte[] record = Record.encode(OP_TRUNCATE, db, generation, "", null);
+            try {
+                appendBatch(Collections.singletonList(record));
+            } catch (IOException e) {
+                generations.get(db).decrementAndGet();
+                throw e;
+            }
+            clearIndex(db);
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getMessage()));
+        } finally {
+            lock(db).writeLock().unlock();
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * Rewrite the live records of every sealed segment whose garbage ratio is at least the configured threshold,
+     * then delete the segment files.
+     *
+     * @return the number of segments removed
+     */
+    int compact()
+            throws LocalDBException
+    {
+        if (readOnly || status != LocalDB.Status.OPEN) {
+            return 0;
+        }
+
+        compactionLock.lock();
+        try {
+            final int activeId;
+            appendLock.lock();
+            try {
+                activeId = activeSegment.id;
+            } finally {
+                appendLock.unlock();
+            }
+
+            int compactedSegments = 0;
+            for (final Segment segment : new ArrayList<>(segments.headMap(activeId).values())) {
+                if (segment.compacted) {
+                    deleteCompactedSegment(segment);
+                    compactedSegments++;
+                    continue;
+                }
+                final double garbageRatio = segment.size == 0 ? 1 : 1 - ((double)segment.liveBytes.get() / segment.size);
+                if (garbageRatio >= compactionGarbageRatio) {
+                    compactSegment(segment);
+                    compactedSegments++;
+                }
+            }
+            return compactedSegments;
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "error during compaction: " + e.getMessage()));
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    String debugString() {
+        long totalBytes = 0;
+        long liveBytes = 0;
+        for (final Segment segment : segments.values()) {
+            totalBytes += segment.size;
+            liveBytes += segment.liveBytes.get();
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("segments=").append(segments.size());
+        sb.append(", size=").append(Helper.formatDiskSize(totalBytes));
+        sb.append(", live=").append(Helper.formatDiskSize(liveBytes));
+        sb.append(", written=").append(Helper.formatDiskSize(bytesWritten.get()));
+        sb.append(", compacted=").append(Helper.formatDiskSize(bytesCompacted.get()));
+        return sb.toString();
+    }
+
+    private void compactSegment(final Segment segment)
+            throws IOException
+    {
+        final long startTime = System.currentTimeMillis();
+        final boolean olderSegmentsExist = segments.lowerKey(segment.id) != null;
+        long copiedBytes = 0;
+
+        int offset = 0;
+        while (offset < segment.size) {
+            final Record record = Record.read(segment, offset, -1);
+            if (record == null) {
+                break;
+            }
+            final Location location = new Location(segment.id, offset, record.length);
+            offset += record.length;
+            if (record.db == null) {
+                continue;
+            }
+
+            lock(record.db).writeLock().lock();
+            try {
+                final boolean currentGeneration = record.generation == generations.get(record.db).get();
+                final boolean keep;
+                switch (record.op) {
+                    case OP_PUT:
+                        keep = location.equals(indexes.get(record.db).get(record.key));
+                        break;
+
+                    case OP_REMOVE:
+                        // a tombstone is only needed while an older segment may still hold a put for the key.
+                        keep = olderSegmentsExist && currentGeneration && !indexes.get(record.db).containsKey(record.key);
+                        break;
+
+                    default:
+                        keep = olderSegmentsExist && currentGeneration;
+                }
+
+                if (keep) {
+                    final Location newLocation;
+                    appendLock.lock();
+                    try {
+                        newLocation = append(record.bytes);
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    copiedBytes += record.length;
+                    if (record.op == OP_PUT) {
+                        replaceLocation(record.db, record.key, newLocation);
+                    }
+                }
+            } finally {
+                lock(record.db).writeLock().unlock();
+            }
+        }
+
+        appendLock.lock();
+        try {
+            activeSegment.channel.force(false);
+        } finally {
+            appendLock.unlock();
+        }
+
+        bytesCompacted.addAndGet(copiedBytes);
+        LOGGER.debug("compacted segment " + segment.id + ", copied " + Helper.formatDiskSize(copiedBytes) + " of "
+                + Helper.formatDiskSize(segment.size) + " in " + TimeDuration.fromCurrent(startTime).asCompactString());
+        deleteCompactedSegment(segment);
+    }
+
+    /**
+     * A segment file that is still on disk is replayed on the next open, so the segment stays in the segment list
+     * until its file is gone.  Otherwise compacting a newer segment would treat it as absent and drop tombstones for
+     * puts the file still holds.  The delete is retried by the next compaction, and the sealed segment's memory map
+     * stays readable after its channel is closed.
+     */
+    private void deleteCompactedSegment(final Segment segment)
+            throws IOException
+    {
+        segment.compacted = true;
+        segment.close();
+        if (segment.file.delete()) {
+            segments.remove(segment.id);
+            return;
+        }
+        throw new IOException("unable to delete compacted segment file " + segment.file.getAbsolutePath());
+    }
+
+    private void removeKeys(final LocalDB.DB db, final List<String> keys)
+            throws LocalDBException
+    {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            final int generation = generations.get(db).get();
+            final List<byte[]> records = new ArrayList<>(keys.size());
+            for (final String key : keys) {
+                records.add(Record.encode(OP_REMOVE, db, generation, key, null));
+            }
+            appendBatch(records);
+            for (final String key : keys) {
+                final Location previous = indexes.get(db).remove(key);
+                if (previous != null) {
+                    markDead(previous);
+                }
+            }
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getMessage()));
+        }
+    }
+
+    /**
+     * Append the records and force them to disk as one batch.  If an append or the force fails the batch is cut from
+     * the log again, so records the caller was told were not written cannot reappear when the segments are replayed.
+     *
+     * @return the location of each record, in the order given
+     */
+    private List<Location> appendBatch(final List<byte[]> records)
+            throws IOException
+    {
+        appendLock.lock();
+        try {
+            final Segment batchSegment = activeSegment;
+            final long batchOffset = batchSegment.size;
+            try {
+                final List<Location> locations = new ArrayList<>(records.size());
+                for (final byte[] record : records) {
+                    locations.add(append(record));
+                }
+                commit();
+                return locations;
+            } catch (IOException e) {
+                discardBatch(batchSegment, batchOffset);
+                throw e;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Cut the log back to the given segment and offset.  Segments rolled after that point are emptied before they are
+     * deleted, so that even if the delete fails they replay as empty.  Must be called holding the append lock.
+     */
+    private void discardBatch(final Segment batchSegment, final long batchOffset) {
+        try {
+            for (final Segment segment : new ArrayList<>(segments.tailMap(batchSegment.id, false).values())) {
+                segment.channel.truncate(0);
+                segment.channel.force(false);
+                segments.remove(segment.id);
+                segment.close();
+                if (!segment.file.delete()) {
+                    LOGGER.warn("unable to delete emptied segment file " + segment.file.getAbsolutePath());
+                }
+            }
+            batchSegment.mappedBuffer = null;
+            batchSegment.channel.truncate(batchOffset);
+            batchSegment.channel.force(false);
+            batchSegment.size = batchOffset;
+            activeSegment = batchSegment;
+        } catch (IOException e) {
+            LOGGER.error("unable to remove failed writes from " + batchSegment.file.getName() + ", they may reappear after a restart: " + e.getMessage());
+        }
+    }
+
+    private Location append(final byte[] record)
+            throws IOException
+    {
+        if (activeSegment.size > 0 && activeSegment.size + record.length > segmentMaxBytes) {
+            rollSegment();
+        }
+        final Segment segment = activeSegment;
+        final long offset = segment.size;
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += segment.channel.write(buffer, position);
+        }
+        segment.size = offset + record.length;
+        bytesWritten.addAndGet(record.length);
+        return new Location(segment.id, (int)offset, record.length);
+    }
+
+    private void commit()
+            throws IOException
+    {
+        if (forceWrites) {
+            activeSegment.channel.force(false);
+        }
+    }
+
+    private void rollSegment()
+            throws IOException
+    {
+        final Segment previousSegment = activeSegment;
+        previousSegment.channel.force(false);
+        final int nextId = previousSegment.id + 1;
+        activeSegment = Segment.open(segmentFile(nextId), nextId, true);
+        segments.put(nextId, activeSegment);
+        previousSegment.seal();
+    }
+
+    private boolean replaceLocation(final LocalDB.DB db, final String key, final Location location) {
+        final Location previous = indexes.get(db).put(key, location);
+        final Segment segment = segments.get(location.segmentId);
+        if (segment != null) {
+            segment.liveBytes.addAndGet(location.length);
+        }
+        if (previous != null) {
+            markDead(previous);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Live bytes are only counted for records the index points at, so tombstones and truncate records are garbage as
+     * soon as they are written.
+     */
+    private void markDead(final Location location) {
+        final Segment segment = segments.get(location.segmentId);
+        if (segment != null) {
+            segment.liveBytes.addAndGet(-location.length);
+        }
+    }
+
+    private void clearIndex(final LocalDB.DB db) {
+        final ConcurrentMap<String, Location> index = indexes.get(db);
+        for (final Location location : index.values()) {
+            final Segment segment = segments.get(location.segmentId);
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-location.length);
+            }
+        }
+        index.clear();
+    }
+
+    private void replaySegment(final Segment segment, final boolean isLast)
+            throws IOException
+    {
+        int offset = 0;
+        while (offset < segment.size) {
+            final Record record;
+            try {
+                record = Record.read(segment, offset, -1);
+            } catch (IOException e) {
+                LOGGER.warn("unreadable record in " + segment.file.getName() + " at offset " + offset + ": " + e.getMessage());
+                break;
+            }
+            if (record == null) {
+                break;
+            }
+            final Location location = new Location(segment.id, offset, record.length);
+            offset += record.length;
+            if (record.db == null) {
+                continue;
+            }
+
+            final AtomicInteger generation = generations.get(record.db);
+            if (record.generation < generation.get()) {
+                continue;
+            }
+            if (record.generation > generation.get()) {
+                clearIndex(record.db);
+                generation.set(record.generation);
+            }
+            if (record.op == OP_PUT) {
+                replaceLocation(record.db, record.key, location);
+            } else if (record.op == OP_REMOVE) {
+                final Location previous = indexes.get(record.db).remove(record.key);
+                if (previous != null) {
+                    markDead(previous);
+                }
+            }
+        }
+
+        if (offset < segment.size) {
+            if (isLast && !readOnly) {
+                LOGGER.warn("truncating incomplete records at the end of " + segment.file.getName() + " from " + segment.size + " to " + offset + " bytes");
+                segment.channel.truncate(offset);
+                segment.size = offset;
+            } else {
+                LOGGER.error("segment " + segment.file.getName() + " is damaged after offset " + offset + ", remaining records are ignored");
+            }
+        }
+    }
+
+    private boolean readHintFile() {
+        final File hintFile = new File(dbDirectory, HINT_FILENAME);
+        if (!hintFile.exists()) {
+            return false;
+        }
+
+        boolean loaded = false;
+        try {
+            final CheckedInputStream checkedInput = new CheckedInputStream(new BufferedInputStream(new FileInputStream(hintFile), 64 * 1024), new CRC32());
+            final DataInputStream input = new DataInputStream(checkedInput);
+            try {
+                if (input.readInt() != HINT_MAGIC || input.readInt() != HINT_VERSION) {
+                    LOGGER.debug("ignoring index hint file with unknown format");
+                    return false;
+                }
+                final int segmentCount = input.readInt();
+                if (segmentCount != segments.size()) {
+                    LOGGER.debug("ignoring index hint file, segment files have changed");
+                    return false;
+                }
+                for (int i = 0; i < segmentCount; i++) {
+                    final Segment segment = segments.get(input.readInt());
+                    if (segment == null || segment.size != input.readLong()) {
+                        LOGGER.debug("ignoring index hint file, segment files have changed");
+                        return false;
+                    }
+                }
+
+                final Map<LocalDB.DB, Integer> hintGenerations = new EnumMap<>(LocalDB.DB.class);
+                final Map<LocalDB.DB, ConcurrentMap<String, Location>> hintIndexes = new EnumMap<>(LocalDB.DB.class);
+                final int dbCount = input.readInt();
+                for (int i = 0; i < dbCount; i++) {
+                    final LocalDB.DB db = dbForName(input.readUTF());
+                    final int generation = input.readInt();
+                    final int entryCount = input.readInt();
+                    final ConcurrentMap<String, Location> entries = new ConcurrentHashMap<>(entryCount * 4 / 3 + 1);
+                    for (int j = 0; j < entryCount; j++) {
+                        final String key = input.readUTF();
+                        final Location location = new Location(input.readInt(), input.readInt(), input.readInt());
+                        if (!segments.containsKey(location.segmentId)) {
+                            throw new IOException("index hint file references unknown segment " + location.segmentId);
+                        }
+                        entries.put(key, location);
+                    }
+                    if (db != null) {
+                        hintGenerations.put(db, generation);
+                        hintIndexes.put(db, entries);
+                    }
+                }
+                final long expectedChecksum = checkedInput.getChecksum().getValue();
+                if (input.readLong() != expectedChecksum) {
+                    LOGGER.warn("ignoring index hint file with bad checksum");
+                    return false;
+                }
+
+                for (final LocalDB.DB db : hintIndexes.keySet()) {
+                    generations.get(db).set(hintGenerations.get(db));
+                    indexes.put(db, hintIndexes.get(db));
+                    for (final Location location : hintIndexes.get(db).values()) {
+                        segments.get(location.segmentId).liveBytes.addAndGet(location.length);
+                    }
+                }
+                loaded = true;
+                LOGGER.debug("loaded index from hint file");
+                return true;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to read index hint file: " + e.getMessage());
+            return false;
+        } finally {
+            // the hint only describes the segments as they were at close time.
+            if (!readOnly && !hintFile.delete()) {
+                LOGGER.warn("unable to delete index hint file " + hintFile.getAbsolutePath());
+            }
+            if (!loaded) {
+                for (final LocalDB.DB db : LocalDB.DB.values()) {
+                    clearIndex(db);
+                    generations.get(db).set(0);
+                }
+            }
+        }
+    }
+
+    private void writeHintFile()
+            throws IOException
+    {
+        final File hintFile = new File(dbDirectory, HINT_FILENAME);
+        final File tempFile = new File(dbDirectory, HINT_FILENAME + ".tmp");
+        final CheckedOutputStream checkedOutput = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024), new CRC32());
+        final DataOutputStream output = new DataOutputStream(checkedOutput);
+        try {
+            output.writeInt(HINT_MAGIC);
+            output.writeInt(HINT_VERSION);
+            output.writeInt(segments.size());
+            for (final Segment segment : segments.values()) {
+                output.writeInt(segment.id);
+                output.writeLong(segment.size);
+            }
+            output.writeInt(LocalDB.DB.values().length);
+            for (final LocalDB.DB db : LocalDB.DB.values()) {
+                final Map<String, Location> index = indexes.get(db);
+                output.writeUTF(db.name());
+                output.writeInt(generations.get(db).get());
+                output.writeInt(index.size());
+                for (final Map.Entry<String, Location> entry : index.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    output.writeInt(entry.getValue().segmentId);
+                    output.writeInt(entry.getValue().offset);
+                    output.writeInt(entry.getValue().length);
+                }
+            }
+            output.flush();
+            output.writeLong(checkedOutput.getChecksum().getValue());
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(hintFile)) {
+            throw new IOException("unable to rename index hint file to " + hintFile.getAbsolutePath());
+        }
+    }
+
+    private List<Integer> listSegmentIds() {
+        final List<Integer> segmentIds = new ArrayList<>();
+        final File[] files = dbDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segmentIds.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        LOGGER.warn("ignoring unexpected file " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        Collections.sort(segmentIds);
+        return segmentIds;
+    }
+
+    private File segmentFile(final int segmentId) {
+        return new File(dbDirectory, SEGMENT_PREFIX + String.format("%08d", segmentId) + SEGMENT_SUFFIX);
+    }
+
+    private void readInitParameters(final Map<String, String> initParameters) {
+        segmentMaxBytes = Math.min(1024L * 1024 * 1024, Long.parseLong(readParam(initParameters, PARAM_SEGMENT_MAX_BYTES, String.valueOf(segmentMaxBytes))));
+        forceWrites = Boolean.parseBoolean(readParam(initParameters, PARAM_FORCE_WRITES, String.valueOf(forceWrites)));
+        compactionGarbageRatio = Double.parseDouble(readParam(initParameters, PARAM_COMPACTION_GARBAGE_RATIO, String.valueOf(compactionGarbageRatio)));
+    }
+
+    private static String readParam(final Map<String, String> initParameters, final String name, final String defaultValue) {
+        final String value = initParameters == null ? null : initParameters.get(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static LocalDB.DB dbForName(final String name) {
+        try {
+            return LocalDB.DB.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void checkWritable()
+            throws LocalDBException
+    {
+        if (readOnly) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is open in read-only mode"));
+        }
+        if (status != LocalDB.Status.OPEN) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is not open"));
+        }
+    }
+
+    private ReadWriteLock lock(final LocalDB.DB db) {
+        return locks.get(db);
+    }
+
+    private void lockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().unlock();
+        }
+    }
+
+    private void closeSegments() {
+        for (final Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        activeSegment = null;
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    private static final class Location {
+        private final int segmentId;
+        private final int offset;
+        private final int length;
+
+        private Location(final int segmentId, final int offset, final int length) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Location)) {
+                return false;
+            }
+            final Location other = (Location)o;
+            return segmentId == other.segmentId && offset == other.offset && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segmentId + offset;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private volatile long size;
+        private volatile MappedByteBuffer mappedBuffer;
+        // live records have been copied to newer segments, only the file delete is outstanding.
+        private volatile boolean compacted;
+
+        private Segment(final int id, final File file, final FileChannel channel, final long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        private static Segment open(final File file, final int id, final boolean writable)
+                throws IOException
+        {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, writable ? "rw" : "r");
+            return new Segment(id, file, randomAccessFile.getChannel(), randomAccessFile.length());
+        }
+
+        private void seal()
+                throws IOException
+        {
+            if (size > 0) {
+                mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        private byte[] read(final long offset, final int length)
+                throws IOException
+        {
+            if (offset + length > size) {
+                throw new EOFException("read past end of segment " + file.getName());
+            }
+            final byte[] bytes = new byte[length];
+            final MappedByteBuffer mapped = mappedBuffer;
+            if (mapped != null) {
+                final ByteBuffer view = mapped.duplicate();
+                view.position((int)offset);
+                view.get(bytes);
+            } else {
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long position = offset;
+                while (buffer.hasRemaining()) {
+                    final int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("read past end of segment " + file.getName());
+                    }
+                    position += read;
+                }
+            }
+            return bytes;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("error closing segment " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Record {
+        private final byte[] bytes;
+        private final int length;
+        private final byte op;
+        private final LocalDB.DB db;
+        private final int generation;
+        private final String key;
+        private final String value;
+
+        private Record(final byte[] bytes, final byte op, final LocalDB.DB db, final int generation, final String key, final String value) {
+            this.bytes = bytes;
+            this.length = bytes.length;
+            this.op = op;
+            this.db = db;
+            this.generation = generation;
+            this.key = key;
+            this.value = value;
+        }
+
+        private static byte[] encode(final byte op, final LocalDB.DB db, final int generation, final String key, final String value)
+                throws IOException
+        {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(64 + (value == null ? 0 : value.length()));
+            final DataOutputStream output = new DataOutputStream(body);
+            output.writeByte(op);
+            output.writeUTF(db.name());
+            output.writeInt(generation);
+            output.writeUTF(key);
+            if (value != null) {
+                final byte[] valueBytes = value.getBytes(PwmConstants.DEFAULT_CHARSET);
+                output.writeInt(valueBytes.length);
+                output.write(valueBytes);
+            }
+            output.flush();
+
+            final byte[] bodyBytes = body.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(bodyBytes);
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + bodyBytes.length);
+            record.putInt(bodyBytes.length);
+            record.putInt((int)crc.getValue());
+            record.put(bodyBytes);
+            return record.array();
+        }
+
+        /**
+         * Decode only the value of a put record, skipping the db name, generation and key.
+         */
+        private static String readValue(final byte[] bytes) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(RECORD_HEADER_LENGTH + 1);
+            final int dbNameLength = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + dbNameLength + 4);
+            final int keyLength = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + keyLength);
+            final int valueLength = buffer.getInt();
+            return new String(bytes, buffer.position(), valueLength, PwmConstants.DEFAULT_CHARSET);
+        }
+
+        /**
+         * @param length the record length if known from the index, or -1 to read it from the record header
+         * @return the record, or null if the segment ends before a complete, valid record
+         */
+        private static Record read(final Segment segment, final long offset, final int length)
+                throws IOException
+        {
+            final byte[] bytes;
+            if (length < 0) {
+                if (offset + RECORD_HEADER_LENGTH > segment.size) {
+                    return null;
+                }
+                final int bodyLength = ByteBuffer.wrap(segment.read(offset, 4)).getInt();
+                if (bodyLength <= 0 || offset + RECORD_HEADER_LENGTH + bodyLength > segment.size) {
+                    return null;
+                }
+                bytes = segment.read(offset, RECORD_HEADER_LENGTH + bodyLength);
+                final CRC32 crc = new CRC32();
+                crc.update(bytes, RECORD_HEADER_LENGTH, bodyLength);
+                if (ByteBuffer.wrap(bytes).getInt(4) != (int)crc.getValue()) {
+                    return null;
+                }
+            } else {
+                bytes = segment.read(offset, length);
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, RECORD_HEADER_LENGTH, bytes.length - RECORD_HEADER_LENGTH));
+            final byte op = input.readByte();
+            final LocalDB.DB db = dbForName(input.readUTF());
+            final int generation = input.readInt();
+            final String key = input.readUTF();
+            String value = null;
+            if (op == OP_PUT) {
+                final byte[] valueBytes = new byte[input.readInt()];
+                input.readFully(valueBytes);
+                value = new String(valueBytes, PwmConstants.DEFAULT_CHARSET);
+            }
+            return new Record(bytes, op, db, generation, key, value);
+        }
+    }
+
+    private class DbIterator implements LocalDB.LocalDBIterator<String> {
+        private final LocalDB.DB db;
+        private final Iterator<String> innerIterator;
+        private String currentKey;
+
+        private DbIterator(final LocalDB.DB db) {
+            this.db = db;
+            this.innerIterator = indexes.get(db).keySet().iterator();
+        }
+
+        public boolean hasNext() {
+            return innerIterator.hasNext();
+        }
+
+        public String next() {
+            currentKey = innerIterator.next();
+            return currentKey;
+        }
+
+        public void remove() {
+            try {
+                AppendLog_LocalDB.this.remove(db, currentKey);
+            } catch (LocalDBException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public void close() {
+        }
+    }
+
+    private class CompactionTask extends TimerTask {
+        public void run() {
+            try {
+                final int compactedSegments = compact();
+                if (compactedSegments > 0) {
+                    LOGGER.debug("compaction removed " + compactedSegments + " segments, " + debugString());
+                }
+            } catch (Exception e) {
+                LOGGER.error("error during compaction: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -23,7 +23,8 @@
 package password.pwm.util.localdb;
 
 import com.sleepycat.bind.tuple.TupleBinding;
-import com.sleepycat.collections.StoredMap;
+import com.sleepycat.collections.CurrentTransaction;
+import com.sleepycat.collections.StoredSortedMap;
 import com.sleepycat.je.*;
 import com.sleepycat.util.RuntimeExceptionWrapper;
 import password.pwm.error.ErrorInformation;
@@ -41,7 +42,7 @@ import static password.pwm.util.localdb.LocalDB.DB;
 /**
  * @author Jason D. Rivard
  */
-public class Berkeley_LocalDB implements LocalDBProvider {
+public class Berkeley_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
 // ------------------------------ FIELDS ------------------------------
 
     private static final PwmLogger LOGGER = PwmLogger.forClass(Berkeley_LocalDB.class, true);
@@ -54,9 +55,12 @@ public class Berkeley_LocalDB implements LocalDBProvider {
     private final static TupleBinding<String> STRING_TUPLE = TupleBinding.getPrimitiveBinding(String.class);
 
     private Environment environment;
-    private final Map<DB, StoredMap<String, String>> cachedMaps = new ConcurrentHashMap<>();
+    private final Map<DB, StoredSortedMap<String, String>> cachedMaps = new ConcurrentHashMap<>();
     private final Map<DB, Database> cachedDatabases = new ConcurrentHashMap<>();
 
+    // StoredMap.size() counts every record of the database.
+    private final LocalDBRecordCounts recordCounts = new LocalDBRecordCounts();
+
     // cache of dbIterators
     private final Set<LocalDB.LocalDBIterator<String>> dbIterators = Collections.newSetFromMap(new ConcurrentHashMap<LocalDB.LocalDBIterator<String>,Boolean>());
 
@@ -76,9 +80,9 @@ public class Berkeley_LocalDB implements LocalDBProvider {
         return environment.openDatabase(null, db.toString(), dbConfig);
     }
 
-    private static StoredMap<String, String> openStoredMap(final Database database)
+    private static StoredSortedMap<String, String> openStoredMap(final Database database)
             throws DatabaseException {
-        final StoredMap<String, String> storedMap = new StoredMap<>(database, STRING_TUPLE, STRING_TUPLE, true);
+        final StoredSortedMap<String, String> storedMap = new StoredSortedMap<>(database, STRING_TUPLE, STRING_TUPLE, true);
         storedMap.getClass();
         return storedMap;
     }
@@ -127,8 +131,17 @@ public class Berkeley_LocalDB implements LocalDBProvider {
     public void close()
             throws LocalDBException {
         LOGGER.debug("LocalDB closing....");
+        final boolean wasOpen = status == LocalDB.Status.OPEN;
         status = LocalDB.Status.CLOSED;
 
+        if (wasOpen && !readOnly) {
+            try {
+                cachedMaps.get(DB.PWM_META).put(LocalDBRecordCounts.META_KEY, recordCounts.toMetaValue());
+            } catch (RuntimeExceptionWrapper e) {
+                LOGGER.error("error while saving record counts: " + e.getMessage());
+            }
+        }
+
         for (final DB key : cachedDatabases.keySet()) {
             try {
                 cachedDatabases.get(key).close();
@@ -199,6 +212,16 @@ public class Berkeley_LocalDB implements LocalDBProvider {
                 cachedMaps.put(db, openStoredMap(database));
                 LOGGER.trace("database '" + db.toString() + "' open");
             }
+
+            final StoredSortedMap<String, String> metaMap = cachedMaps.get(DB.PWM_META);
+            recordCounts.load(metaMap.get(LocalDBRecordCounts.META_KEY), new LocalDBRecordCounts.RecordCounter() {
+                public long countRecords(final DB db) {
+                    return cachedDatabases.get(db).count();
+                }
+            });
+            if (!readOnly) {
+                metaMap.remove(LocalDBRecordCounts.META_KEY);
+            }
         } catch (DatabaseException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
         }
@@ -223,12 +246,73 @@ public class Berkeley_LocalDB implements LocalDBProvider {
         }
     }
 
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        preCheck(false);
+        try {
+            final StoredSortedMap<String, String> dbMap = cachedMaps.get(db);
+            final SortedMap<String, String> rangeMap;
+            if (fromKey != null && toKey != null) {
+                rangeMap = dbMap.subMap(fromKey, true, toKey, false);
+            } else if (fromKey != null) {
+                rangeMap = dbMap.tailMap(fromKey, true);
+            } else if (toKey != null) {
+                rangeMap = dbMap.headMap(toKey, false);
+            } else {
+                rangeMap = dbMap;
+            }
+            return new DbEntryIterator(rangeMap.entrySet().iterator());
+        } catch (RuntimeExceptionWrapper e) {
+            LOGGER.error("error during entry iteration: " + e.toString());
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
+        }
+    }
+
+    public Map<String, String> getAll(final DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        preCheck(false);
+        try {
+            final StoredSortedMap<String, String> dbMap = cachedMaps.get(db);
+            final Map<String, String> returnMap = new HashMap<>();
+            for (final String key : keys) {
+                final String value = dbMap.get(key);
+                if (value != null) {
+                    returnMap.put(key, value);
+                }
+            }
+            return returnMap;
+        } catch (RuntimeExceptionWrapper e) {
+            LOGGER.error("error during multiple-get: " + e.toString());
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
+        }
+    }
+
     public void putAll(final DB db, final Map<String, String> keyValueMap)
             throws LocalDBException {
         preCheck(true);
 
         try {
-            cachedMaps.get(db).putAll(keyValueMap);
+            final StoredSortedMap<String, String> transactionDB = cachedMaps.get(db);
+            final CurrentTransaction currentTransaction = CurrentTransaction.getInstance(environment);
+            currentTransaction.beginTransaction(null);
+            int addedRecords = 0;
+            boolean committed = false;
+            try {
+                for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+                    if (transactionDB.put(entry.getKey(), entry.getValue()) == null) {
+                        addedRecords++;
+                    }
+                }
+                currentTransaction.commitTransaction();
+                committed = true;
+            } finally {
+                if (!committed) {
+                    currentTransaction.abortTransaction();
+                }
+            }
+            recordCounts.add(db, addedRecords);
         } catch (RuntimeExceptionWrapper e) {
             LOGGER.error("error during multiple-put: " + e.toString());
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
@@ -240,8 +324,12 @@ public class Berkeley_LocalDB implements LocalDBProvider {
         preCheck(true);
 
         try {
-            final StoredMap<String, String> transactionDB = cachedMaps.get(db);
-            return null != transactionDB.put(key, value);
+            final StoredSortedMap<String, String> transactionDB = cachedMaps.get(db);
+            final boolean preExisting = null != transactionDB.put(key, value);
+            if (!preExisting) {
+                recordCounts.increment(db);
+            }
+            return preExisting;
         } catch (RuntimeExceptionWrapper e) {
             LOGGER.error("error during put: " + e.toString());
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
@@ -252,7 +340,11 @@ public class Berkeley_LocalDB implements LocalDBProvider {
             throws LocalDBException {
         preCheck(true);
         try {
-            return cachedMaps.get(db).keySet().remove(key);
+            final boolean removed = cachedMaps.get(db).keySet().remove(key);
+            if (removed) {
+                recordCounts.decrement(db);
+            }
+            return removed;
         } catch (RuntimeExceptionWrapper e) {
             LOGGER.error("error during remove: " + e.toString());
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
@@ -264,7 +356,25 @@ public class Berkeley_LocalDB implements LocalDBProvider {
             throws LocalDBException {
         preCheck(true);
         try {
-            cachedMaps.get(db).keySet().removeAll(keys);
+            final Set<String> keySet = cachedMaps.get(db).keySet();
+            final CurrentTransaction currentTransaction = CurrentTransaction.getInstance(environment);
+            currentTransaction.beginTransaction(null);
+            int removedRecords = 0;
+            boolean committed = false;
+            try {
+                for (final String key : keys) {
+                    if (keySet.remove(key)) {
+                        removedRecords++;
+                    }
+                }
+                currentTransaction.commitTransaction();
+                committed = true;
+            } finally {
+                if (!committed) {
+                    currentTransaction.abortTransaction();
+                }
+            }
+            recordCounts.add(db, -removedRecords);
         } catch (RuntimeExceptionWrapper e) {
             LOGGER.error("error during removeAll: " + e.toString());
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
@@ -274,8 +384,11 @@ public class Berkeley_LocalDB implements LocalDBProvider {
     public int size(final DB db)
             throws LocalDBException {
         preCheck(false);
+        if (LocalDBRecordCounts.isCounted(db)) {
+            return recordCounts.size(db);
+        }
         try {
-            final StoredMap<String, String> dbMap = cachedMaps.get(db);
+            final StoredSortedMap<String, String> dbMap = cachedMaps.get(db);
             assert dbMap != null;
             return dbMap.size();
         } catch (RuntimeExceptionWrapper e) {
@@ -296,6 +409,7 @@ public class Berkeley_LocalDB implements LocalDBProvider {
             final Database database = openDatabase(db, environment, readOnly);
             cachedDatabases.put(db, database);
             cachedMaps.put(db, openStoredMap(database));
+            recordCounts.set(db, 0);
         } catch (DatabaseException e) {
             LOGGER.error("error during truncate: " + e.toString());
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.toString()));
@@ -332,6 +446,30 @@ public class Berkeley_LocalDB implements LocalDBProvider {
         }
     }
 
+    private static class DbEntryIterator implements LocalDB.LocalDBIterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, String>> innerIter;
+
+        private DbEntryIterator(final Iterator<Map.Entry<String, String>> innerIter) {
+            this.innerIter = innerIter;
+        }
+
+        public boolean hasNext() {
+            return innerIter.hasNext();
+        }
+
+        public Map.Entry<String, String> next() {
+            final Map.Entry<String, String> entry = innerIter.next();
+            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Berkeley LocalDB iterator does not support removals");
+        }
+
+        public void close() {
+        }
+    }
+
     public File getFileLocation() {
         if (environment == null) {
             return null;
@@ -117,7 +117,7 @@ public class Derby_LocalDB extends AbstractJDBC_LocalDB {
             throws LocalDBException
     {
         super.truncate(db);
-        reclaimSpace(this.dbConnection, db);
+        reclaimSpace(connection(db), db);
     }
 
     private void reclaimSpace(final Connection dbConnection, final LocalDB.DB db)
@@ -129,7 +129,7 @@ public class Derby_LocalDB extends AbstractJDBC_LocalDB {
         final long startTime = System.currentTimeMillis();
         CallableStatement statement = null;
         try {
-            LOCK.writeLock().lock();
+            lock(db).writeLock().lock();
             LOGGER.debug("beginning reclaim space in table " + db.toString());
             statement = dbConnection.prepareCall("CALL SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE(?, ?, ?, ?, ?)");
             statement.setString(1, DERBY_DEFAULT_SCHEMA);
@@ -142,7 +142,7 @@ public class Derby_LocalDB extends AbstractJDBC_LocalDB {
             LOGGER.error("error reclaiming space in table " + db.toString() + ": " + ex.getMessage());
         } finally {
             close(statement);
-            LOCK.writeLock().unlock();
+            lock(db).writeLock().unlock();
         }
         LOGGER.debug("completed reclaimed space in table " + db.toString() + " (" + TimeDuration.fromCurrent(startTime).asCompactString() + ")");
     }
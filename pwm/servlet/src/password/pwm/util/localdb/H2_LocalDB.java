@@ -70,8 +70,10 @@ public class H2_LocalDB extends AbstractJDBC_LocalDB {
         final String baseConnectionURL = "jdbc:h2:" + filePath;
 
         try {
-            final Driver driver = (Driver)Class.forName(H2_CLASSPATH).newInstance();
-            DriverManager.registerDriver(driver);
+            if (driver == null) {
+                driver = (Driver)Class.forName(H2_CLASSPATH).newInstance();
+                DriverManager.registerDriver(driver);
+            }
             final Connection connection = DriverManager.getConnection(baseConnectionURL);
             connection.setAutoCommit(false);
             return connection;
@@ -66,6 +66,32 @@ public interface LocalDB {
     LocalDBIterator<String> iterator(DB db)
             throws LocalDBException;
 
+    /**
+     * Iterate the keys and values of a database in ascending key order, reading each value along with its key.
+     * The returned iterator does not support {@link java.util.Iterator#remove()}.
+     *
+     * @param db      database to iterate
+     * @param fromKey first key (inclusive) to return, or null to start at the first key of the database
+     * @param toKey   key (exclusive) to stop at, or null to continue to the last key of the database
+     * @return iterator of key/value entries, must be closed by the caller
+     * @throws LocalDBException if there is an error reading the store
+     */
+    @ReadOperation
+    LocalDBIterator<Map.Entry<String, String>> entryIterator(DB db, String fromKey, String toKey)
+            throws LocalDBException;
+
+    /**
+     * Read the values of several keys of a database.
+     *
+     * @param db   database to read from
+     * @param keys keys to read
+     * @return map of the keys that exist in the database to their values; keys that are not present are omitted
+     * @throws LocalDBException if there is an error reading the store
+     */
+    @ReadOperation
+    Map<String, String> getAll(DB db, Collection<String> keys)
+            throws LocalDBException;
+
     @WriteOperation
     void putAll(DB db, Map<String, String> keyValueMap)
             throws LocalDBException;
@@ -116,6 +142,7 @@ public interface LocalDB {
         PWM_META,
         SHAREDHISTORY_META,
         SHAREDHISTORY_WORDS,
+        SHAREDHISTORY_BUCKETS,
         WORDLIST_META,
         WORDLIST_WORDS,
         SEEDLIST_META,
@@ -133,6 +160,10 @@ public interface LocalDB {
         TEMP,
         SYSLOG_QUEUE,
         CACHE,
+        /**
+         * Index of expiring records, see {@link LocalDBExpiration#put(DB, String, String, java.util.Date)}
+         */
+        EXPIRATION_INDEX,
     }
 
 
@@ -149,7 +180,7 @@ public interface LocalDB {
     }
 
 
-    public static interface LocalDBIterator<K> extends ClosableIterator<String> {
+    public static interface LocalDBIterator<K> extends ClosableIterator<K> {
     }
 
     public static class TransactionItem implements Serializable, Comparable {
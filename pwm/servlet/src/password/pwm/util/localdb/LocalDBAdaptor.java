@@ -25,32 +25,55 @@ package password.pwm.util.localdb;
 import password.pwm.PwmApplication;
 import password.pwm.error.ErrorInformation;
 import password.pwm.error.PwmError;
-import password.pwm.util.TimeDuration;
 import password.pwm.util.logging.PwmLogger;
 import password.pwm.util.stats.Statistic;
 
 import java.io.File;
-import java.util.Collection;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class LocalDBAdaptor implements LocalDB {
     private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBAdaptor.class);
 
     private final LocalDBProvider innerDB;
 
-    private final SizeCacheManager SIZE_CACHE_MANAGER = new SizeCacheManager();
     private final PwmApplication pwmApplication;
 
+    // writes share the read lock so that a snapshot opens between writes rather than during one.
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private LocalDBSnapshot snapshot;
+
+    private final LocalDBOperationStats operationStats;
+    private final boolean saveOperationStats;
+
     LocalDBAdaptor(final LocalDBProvider innerDB, final PwmApplication pwmApplication) {
+        this(innerDB, pwmApplication, 0, false);
+    }
+
+    /**
+     * @param slowOperationThresholdMs operations that take at least this long are logged, zero to disable
+     * @param saveOperationStats save the operation stats to {@link DB#PWM_META} on close, for a writable LocalDB
+     */
+    LocalDBAdaptor(
+            final LocalDBProvider innerDB,
+            final PwmApplication pwmApplication,
+            final long slowOperationThresholdMs,
+            final boolean saveOperationStats
+    ) {
         this.pwmApplication = pwmApplication;
         if (innerDB == null) {
             throw new IllegalArgumentException("innerDB can not be null");
         }
 
         this.innerDB = innerDB;
+        this.operationStats = new LocalDBOperationStats(slowOperationThresholdMs);
+        this.saveOperationStats = saveOperationStats;
+    }
 
+    public LocalDBOperationStats getOperationStats() {
+        return operationStats;
     }
 
     public File getFileLocation() {
@@ -59,6 +82,13 @@ public class LocalDBAdaptor implements LocalDB {
 
     @WriteOperation
     public void close() throws LocalDBException {
+        if (saveOperationStats && innerDB.getStatus() == Status.OPEN) {
+            try {
+                innerDB.put(DB.PWM_META, LocalDBOperationStats.META_KEY, operationStats.toMetaValue());
+            } catch (LocalDBException e) {
+                LOGGER.warn("unable to save LocalDB operation stats: " + e.getMessage());
+            }
+        }
         innerDB.close();
     }
 
@@ -66,7 +96,9 @@ public class LocalDBAdaptor implements LocalDB {
         ParameterValidator.validateDBValue(db);
         ParameterValidator.validateKeyValue(key);
 
+        final long startTime = System.nanoTime();
         final boolean value = innerDB.contains(db, key);
+        operationStats.record(db, LocalDBOperationStats.Operation.CONTAINS, startTime, 1);
         markRead(1);
         return value;
     }
@@ -76,7 +108,9 @@ public class LocalDBAdaptor implements LocalDB {
         ParameterValidator.validateDBValue(db);
         ParameterValidator.validateKeyValue(key);
 
+        final long startTime = System.nanoTime();
         final String value = innerDB.get(db, key);
+        operationStats.record(db, LocalDBOperationStats.Operation.GET, startTime, 1);
         markRead(1);
         return value;
     }
@@ -88,41 +122,124 @@ public class LocalDBAdaptor implements LocalDB {
 
     public LocalDBIterator<String> iterator(final DB db) throws LocalDBException {
         ParameterValidator.validateDBValue(db);
+        final long startTime = System.nanoTime();
         final LocalDBIterator<String> innerIterator = innerDB.iterator(db);
-        return new SizeIterator<String>(db, innerIterator);
+        return new InstrumentedIterator<>(db, innerIterator, System.nanoTime() - startTime, false);
+    }
+
+    public LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        ParameterValidator.validateDBValue(db);
+        final long startTime = System.nanoTime();
+        final LocalDBIterator<Map.Entry<String, String>> innerIterator;
+        if (innerDB instanceof LocalDBProvider.BulkReadSupport) {
+            innerIterator = ((LocalDBProvider.BulkReadSupport) innerDB).entryIterator(db, fromKey, toKey);
+        } else {
+            innerIterator = new LocalDBUtility.KeyListEntryIterator(readSortedKeys(db, fromKey, toKey)) {
+                String readValue(final String key) throws LocalDBException {
+                    return innerDB.get(db, key);
+                }
+            };
+        }
+        return new InstrumentedIterator<>(db, innerIterator, System.nanoTime() - startTime, true);
+    }
+
+    public Map<String, String> getAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        ParameterValidator.validateDBValue(db);
+        for (final String loopKey : keys) {
+            ParameterValidator.validateKeyValue(loopKey);
+        }
+
+        final long startTime = System.nanoTime();
+        final Map<String, String> returnMap;
+        if (innerDB instanceof LocalDBProvider.BulkReadSupport) {
+            returnMap = ((LocalDBProvider.BulkReadSupport) innerDB).getAll(db, keys);
+        } else {
+            returnMap = new HashMap<>();
+            for (final String loopKey : keys) {
+                final String value = innerDB.get(db, loopKey);
+                if (value != null) {
+                    returnMap.put(loopKey, value);
+                }
+            }
+        }
+        operationStats.record(db, LocalDBOperationStats.Operation.GET_ALL, startTime, keys.size());
+        markRead(keys.size());
+        return returnMap;
+    }
+
+    private List<String> readSortedKeys(final DB db, final String fromKey, final String toKey) throws LocalDBException {
+        final List<String> keys = new ArrayList<>();
+        final LocalDBIterator<String> keyIterator = innerDB.iterator(db);
+        try {
+            while (keyIterator.hasNext()) {
+                final String key = keyIterator.next();
+                if (LocalDBUtility.keyInRange(key, fromKey, toKey)) {
+                    keys.add(key);
+                }
+            }
+        } finally {
+            keyIterator.close();
+        }
+        Collections.sort(keys);
+        return keys;
     }
 
-    private class SizeIterator<K> implements LocalDBIterator<String> {
-        private final LocalDBIterator<String> innerIterator;
+    /**
+     * Iterator that measures the time spent in the provider's iterator, excluding the caller's time between calls,
+     * and records it as a single {@link LocalDBOperationStats.Operation#ITERATE} when closed.
+     */
+    private class InstrumentedIterator<K> implements LocalDBIterator<K> {
         private final DB db;
-        private String key;
+        private final LocalDBIterator<K> innerIterator;
+        private final boolean countReads;
+        private long elapsedNanos;
+        private int records;
+        private boolean closed;
 
-        SizeIterator(final DB db, final LocalDBIterator<String> innerIterator) {
-            this.innerIterator = innerIterator;
+        InstrumentedIterator(final DB db, final LocalDBIterator<K> innerIterator, final long openNanos, final boolean countReads) {
             this.db = db;
+            this.innerIterator = innerIterator;
+            this.elapsedNanos = openNanos;
+            this.countReads = countReads;
         }
 
         public boolean hasNext() {
-            return innerIterator.hasNext();
+            final long startTime = System.nanoTime();
+            try {
+                return innerIterator.hasNext();
+            } finally {
+                elapsedNanos += System.nanoTime() - startTime;
+            }
         }
 
-        public String next() {
-            key = innerIterator.next();
-            return key;
+        public K next() {
+            final long startTime = System.nanoTime();
+            final K next;
+            try {
+                next = innerIterator.next();
+            } finally {
+                elapsedNanos += System.nanoTime() - startTime;
+            }
+            records++;
+            if (countReads) {
+                markRead(1);
+            }
+            return next;
         }
 
         public void remove() {
             innerIterator.remove();
-            try {
-                SIZE_CACHE_MANAGER.decrementSize(db);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
         }
 
         @Override
         public void close() {
             innerIterator.close();
+            if (!closed) {
+                closed = true;
+                operationStats.recordDuration(db, LocalDBOperationStats.Operation.ITERATE, elapsedNanos, records);
+            }
         }
     }
 
@@ -140,11 +257,18 @@ public class LocalDBAdaptor implements LocalDB {
             }
         }
 
+        final long startTime = System.nanoTime();
+        final Lock lock = snapshotLock.readLock();
+        lock.lock();
         try {
+            if (snapshot != null) {
+                snapshot.beforeWrite(db, keyValueMap.keySet());
+            }
             innerDB.putAll(db, keyValueMap);
         } finally {
-            SIZE_CACHE_MANAGER.clearSize(db);
+            lock.unlock();
         }
+        operationStats.record(db, LocalDBOperationStats.Operation.PUT_ALL, startTime, keyValueMap.size());
 
         markWrite(keyValueMap.size());
     }
@@ -155,10 +279,19 @@ public class LocalDBAdaptor implements LocalDB {
         ParameterValidator.validateKeyValue(key);
         ParameterValidator.validateValueValue(value);
 
-        final boolean preExisting = innerDB.put(db, key, value);
-        if (!preExisting) {
-            SIZE_CACHE_MANAGER.incrementSize(db);
+        final long startTime = System.nanoTime();
+        final boolean preExisting;
+        final Lock lock = snapshotLock.readLock();
+        lock.lock();
+        try {
+            if (snapshot != null) {
+                snapshot.beforeWrite(db, Collections.singleton(key));
+            }
+            preExisting = innerDB.put(db, key, value);
+        } finally {
+            lock.unlock();
         }
+        operationStats.record(db, LocalDBOperationStats.Operation.PUT, startTime, 1);
 
         markWrite(1);
         return preExisting;
@@ -169,10 +302,19 @@ public class LocalDBAdaptor implements LocalDB {
         ParameterValidator.validateDBValue(db);
         ParameterValidator.validateKeyValue(key);
 
-        final boolean result = innerDB.remove(db, key);
-        if (result) {
-            SIZE_CACHE_MANAGER.decrementSize(db);
+        final long startTime = System.nanoTime();
+        final boolean result;
+        final Lock lock = snapshotLock.readLock();
+        lock.lock();
+        try {
+            if (snapshot != null) {
+                snapshot.beforeWrite(db, Collections.singleton(key));
+            }
+            result = innerDB.remove(db, key);
+        } finally {
+            lock.unlock();
         }
+        operationStats.record(db, LocalDBOperationStats.Operation.REMOVE, startTime, 1);
 
         markWrite(1);
         return result;
@@ -192,11 +334,18 @@ public class LocalDBAdaptor implements LocalDB {
         }
 
         if (keys.size() > 1) {
+            final long startTime = System.nanoTime();
+            final Lock lock = snapshotLock.readLock();
+            lock.lock();
             try {
+                if (snapshot != null) {
+                    snapshot.beforeWrite(db, keys);
+                }
                 innerDB.removeAll(db, keys);
             } finally {
-                SIZE_CACHE_MANAGER.clearSize(db);
+                lock.unlock();
             }
+            operationStats.record(db, LocalDBOperationStats.Operation.REMOVE_ALL, startTime, keys.size());
         } else {
             for (final String key : keys) {
                 remove(db,key);
@@ -208,103 +357,67 @@ public class LocalDBAdaptor implements LocalDB {
 
     public int size(final DB db) throws LocalDBException {
         ParameterValidator.validateDBValue(db);
-        return SIZE_CACHE_MANAGER.getSizeForDB(db, innerDB);
+        final long startTime = System.nanoTime();
+        final int size = innerDB.size(db);
+        operationStats.record(db, LocalDBOperationStats.Operation.SIZE, startTime, 1);
+        return size;
     }
 
     @WriteOperation
     public void truncate(final DB db) throws LocalDBException {
         ParameterValidator.validateDBValue(db);
+        final long startTime = System.nanoTime();
+        final Lock lock = snapshotLock.readLock();
+        lock.lock();
         try {
+            if (snapshot != null) {
+                snapshot.beforeTruncate(db);
+            }
             innerDB.truncate(db);
         } finally {
-            SIZE_CACHE_MANAGER.clearSize(db);
+            lock.unlock();
         }
+        operationStats.record(db, LocalDBOperationStats.Operation.TRUNCATE, startTime, 1);
     }
 
-    public Status status() {
-        if (innerDB == null) {
-            return Status.CLOSED;
-        }
-
-        return innerDB.getStatus();
-    }
-
-    private static class SizeCacheManager {
-        private static final Integer CACHE_DIRTY = -1;
-        private static final Integer CACHE_WORKING = -2;
-
-        private final ConcurrentMap<DB, Integer> sizeCache = new ConcurrentHashMap<>();
-
-        private SizeCacheManager() {
-            for (final DB db : DB.values()) {
-                sizeCache.put(db, CACHE_DIRTY);
+    /**
+     * Open a point-in-time view of the dbs.  Writes made while the snapshot is open save the values they replace
+     * until the snapshot has iterated past them, so the snapshot should be closed as soon as it has been read.
+     *
+     * @throws LocalDBException if another snapshot is already open
+     */
+    LocalDBSnapshot openSnapshot(final Set<DB> dbs) throws LocalDBException {
+        final Lock lock = snapshotLock.writeLock();
+        lock.lock();
+        try {
+            if (snapshot != null) {
+                throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,"a LocalDB snapshot opened at " + snapshot.getTimestamp() + " is still open"));
             }
+            snapshot = new LocalDBSnapshot(this, dbs);
+            return snapshot;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private void incrementSize(final DB db) {
-            modifySize(db, +1);
-        }
-
-        private void decrementSize(final DB db) {
-            modifySize(db, -1);
-        }
-
-        private void modifySize(final DB db, final int amount) {
-            // retrieve the current cache size.
-            final Integer cachedSize = sizeCache.get(db);
-
-            //update the cached value only if there is a meaningful value cached.
-            if (cachedSize >= 0) {
-
-                // calculate the new value
-                final int newSize = cachedSize + amount;
-
-                // replace the cached value with the new value, only if it hasn't been touched by another thread since it was
-                // retrieved from the cache a few lines ago.
-                if (!sizeCache.replace(db, cachedSize, newSize)) {
-
-                    // the cache was modified by some other thread, and so is no longer accurate.  Mark it dirty.
-                    clearSize(db);
-                }
+    void closeSnapshot(final LocalDBSnapshot closedSnapshot) {
+        final Lock lock = snapshotLock.writeLock();
+        lock.lock();
+        try {
+            if (snapshot == closedSnapshot) {
+                snapshot = null;
             }
-
-        }
-
-        private void clearSize(final DB db) {
-            sizeCache.put(db, CACHE_DIRTY);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        private int getSizeForDB(final DB db, final LocalDBProvider localDBProvider) throws LocalDBException {
-            // read the cached size out of the cache store
-            final Integer cachedSize = sizeCache.get(db);
-
-            if (cachedSize != null && cachedSize >= 0) {
-                // if there is a good cache value and its not dirty (-1) or being populated by another thread (-2)
-                return cachedSize;
-            }
-
-            final long beginTime = System.currentTimeMillis();
-
-            // mark the cache as population in progress
-            sizeCache.put(db, CACHE_WORKING);
-
-            // read the "real" value.  this is the line that might take a long time
-            final int theSize = localDBProvider.size(db);
-            final TimeDuration timeDuration = TimeDuration.fromCurrent(beginTime);
-
-            // so long as nothing else has touched the cache (perhaps another thread populated it, or someone else marked it dirty, then
-            // go ahead and update it.
-            final boolean savedInCache = sizeCache.replace(db, CACHE_WORKING, theSize);
-
-            final StringBuilder debugMsg = new StringBuilder();
-            debugMsg.append("performed real size lookup of ").append(theSize).append(" for ").append(db);
-            debugMsg.append(": ").append(timeDuration.asCompactString());
-            debugMsg.append(savedInCache ? ", cached" : ", not cached");
-            LOGGER.debug(debugMsg);
-
-            return theSize;
+    public Status status() {
+        if (innerDB == null) {
+            return Status.CLOSED;
         }
 
+        return innerDB.getStatus();
     }
 
     private static class ParameterValidator {
@@ -28,15 +28,76 @@ import password.pwm.util.logging.PwmLogger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class LocalDBCompressor implements LocalDB {
     private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBCompressor.class);
+    private static final int MIGRATION_BATCH_SIZE = 100;
 
+    /** Values written by earlier versions: gzip, then base64. */
     static final String COMPRESS_PREFIX = "c!";
 
+    /** Raw deflate using {@link #DICTIONARY_V1}, then base85. */
+    static final String DEFLATE_PREFIX = "d1!";
+
+    /**
+     * Preset deflate dictionary built from the json shapes most often stored in the LocalDB (token payloads,
+     * intruder records, user cache records and statistic bundles).  Deflate favours matches near the end of the
+     * dictionary, so the most common strings are last.  Values compressed with this dictionary can only be read
+     * with exactly the same bytes, so any change requires a new prefix.
+     */
+    private static final byte[] DICTIONARY_V1 = (
+            "<ResponseSet><challenge><response><answer format=\"SHA1_SALT\" hashcount=\"\" salt=\"\" locale=\"\" minRandom=\"\" required=\"true\" adminDefined=\"true\">"
+            + "{\"v\":\"1\",\"l\":\"INFO\",\"t\":\"password.pwm.\",\"m\":\"\",\"s\":\"\",\"a\":\"\",\"b\":\"\",\"d\":\""
+            + "\"AUTHENTICATIONS\":\"\",\"PASSWORD_CHANGES\":\"\",\"INTRUDER_ATTEMPTS\":\"\",\"HTTP_REQUESTS\":\"\",\"HTTP_SESSIONS\":\""
+            + "{\"date\":\"\",\"name\":\"\",\"data\":{},\"dest\":[\"\"],\"guid\":\"\",\"user\":{\"userDN\":\"cn=\",\"ldapProfile\":\"default\"}}"
+            + "{\"type\":\"USERNAME\",\"type\":\"ADDRESS\",\"subject\":\"\",\"timeStamp\":\"\",\"attemptCount\":0,\"alerted\":false}"
+            + "{\"userDN\":\"cn=\",ou=users,o=\",\"ldapProfile\":\"default\",\"userGUID\":\"\",\"username\":\"\",\"email\":\"@\",\"cacheTimestamp\":\"\","
+            + "\"passwordStatus\":{\"expired\":false,\"preExpired\":false,\"violatesPolicy\":false,\"warnPeriod\":false},"
+            + "\"passwordExpirationTime\":\"\",\"passwordChangeTime\":\"\",\"lastLoginTime\":\"\",\"accountExpirationTime\":\"\","
+            + "\"responseSetTime\":\"\",\"responseStorageMethod\":\"LDAP\",\"responseFormatType\":\"PBKDF2\",\"otpSecretSetTime\":\"\","
+            + "\"hasResponses\":false,\"hasHelpdeskResponses\":false,\"hasOtpSecret\":false,"
+            + "\"requiresPasswordUpdate\":false,\"requiresResponseUpdate\":false,\"requiresProfileUpdate\":false}"
+            + "\"hasResponses\":true,\"hasHelpdeskResponses\":true,\"hasOtpSecret\":true,"
+            + "\"requiresPasswordUpdate\":true,\"requiresResponseUpdate\":true,\"requiresProfileUpdate\":true}"
+            + "\":\"2015-01-01T00:00:00Z\",\""
+    ).getBytes(PwmConstants.DEFAULT_CHARSET);
+
+    private static final char[] BASE85_ALPHABET =
+            "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ.-:+=^!/*?&<>()[]{}@%$#".toCharArray();
+    private static final int[] BASE85_DECODE = new int[128];
+
+    static {
+        Arrays.fill(BASE85_DECODE, -1);
+        for (int i = 0; i < BASE85_ALPHABET.length; i++) {
+            BASE85_DECODE[BASE85_ALPHABET[i]] = i;
+        }
+    }
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
     final LocalDB innerLocalDB;
     final int minCompressLength;
     final boolean enableCompression;
@@ -82,6 +143,38 @@ public class LocalDBCompressor implements LocalDB {
         return innerLocalDB.iterator(db);
     }
 
+    @Override
+    public LocalDBIterator<Map.Entry<String, String>> entryIterator(DB db, String fromKey, String toKey) throws LocalDBException {
+        final LocalDBIterator<Map.Entry<String, String>> innerIterator = innerLocalDB.entryIterator(db, fromKey, toKey);
+        return new LocalDBIterator<Map.Entry<String, String>>() {
+            public boolean hasNext() {
+                return innerIterator.hasNext();
+            }
+
+            public Map.Entry<String, String> next() {
+                final Map.Entry<String, String> entry = innerIterator.next();
+                return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), decompressData(entry.getValue()));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("entry iterators do not support removals");
+            }
+
+            public void close() {
+                innerIterator.close();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, String> getAll(DB db, Collection<String> keys) throws LocalDBException {
+        final Map<String, String> returnMap = new HashMap<>();
+        for (final Map.Entry<String, String> entry : innerLocalDB.getAll(db, keys).entrySet()) {
+            returnMap.put(entry.getKey(), decompressData(entry.getValue()));
+        }
+        return returnMap;
+    }
+
     @Override
     public void putAll(DB db, Map<String, String> keyValueMap) throws LocalDBException {
         final Map<String,String> tempMap = new LinkedHashMap<>();
@@ -127,7 +220,49 @@ public class LocalDBCompressor implements LocalDB {
         return innerLocalDB.getFileLocation();
     }
 
-    private String compressData(final String input) {
+    /**
+     * Rewrite any values of the db still stored in the legacy gzip/base64 format using the current format.  The keys
+     * of legacy values are collected before anything is rewritten, because some providers' iterators do not tolerate
+     * writes to the db they are iterating.
+     *
+     * @return the number of values rewritten
+     */
+    int migrateLegacyValues(final DB db) throws LocalDBException {
+        final List<String> legacyKeys = new ArrayList<>();
+        final LocalDBIterator<String> iterator = innerLocalDB.iterator(db);
+        try {
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                final String rawValue = innerLocalDB.get(db, key);
+                if (rawValue != null && rawValue.startsWith(COMPRESS_PREFIX)) {
+                    legacyKeys.add(key);
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+
+        int migratedCount = 0;
+        final Map<String, String> updates = new LinkedHashMap<>();
+        for (final String key : legacyKeys) {
+            final String rawValue = innerLocalDB.get(db, key);
+            if (rawValue != null && rawValue.startsWith(COMPRESS_PREFIX)) {
+                updates.put(key, compressData(decompressData(rawValue)));
+                if (updates.size() >= MIGRATION_BATCH_SIZE) {
+                    innerLocalDB.putAll(db, updates);
+                    migratedCount += updates.size();
+                    updates.clear();
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            innerLocalDB.putAll(db, updates);
+            migratedCount += updates.size();
+        }
+        return migratedCount;
+    }
+
+    String compressData(final String input) {
         if (input == null) {
             return null;
         }
@@ -137,23 +272,59 @@ public class LocalDBCompressor implements LocalDB {
         if (input.length() < minCompressLength) {
             return input;
         }
-        final String compressedValue;
-        try {
-            compressedValue = StringUtil.base64Encode(input.getBytes(PwmConstants.DEFAULT_CHARSET),StringUtil.Base64Options.GZIP);
-        } catch (IOException e) {
-            return input;
+
+        final byte[] inputBytes = input.getBytes(PwmConstants.DEFAULT_CHARSET);
+        final Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY_V1);
+        deflater.setInput(inputBytes);
+        deflater.finish();
+        byte[] buffer = new byte[inputBytes.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
         }
-        if (compressedValue.length() < input.length()) {
-            return COMPRESS_PREFIX + compressedValue;
+
+        if (DEFLATE_PREFIX.length() + (length * 5 + 3) / 4 >= input.length()) {
+            return input;
         }
-        return input;
+        return DEFLATE_PREFIX + base85Encode(buffer, length);
     }
 
-    private String decompressData(final String input) {
+    String decompressData(final String input) {
         if (input == null) {
             return null;
         }
 
+        if (input.startsWith(DEFLATE_PREFIX)) {
+            try {
+                final byte[] compressedBytes = base85Decode(input, DEFLATE_PREFIX.length());
+                final Inflater inflater = INFLATER.get();
+                inflater.reset();
+                inflater.setDictionary(DICTIONARY_V1);
+                inflater.setInput(compressedBytes);
+                byte[] buffer = new byte[compressedBytes.length * 4 + 64];
+                int length = 0;
+                while (!inflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    final int inflated = inflater.inflate(buffer, length, buffer.length - length);
+                    if (inflated == 0 && inflater.needsInput()) {
+                        throw new DataFormatException("truncated compressed value");
+                    }
+                    length += inflated;
+                }
+                return new String(buffer, 0, length, PwmConstants.DEFAULT_CHARSET);
+            } catch (DataFormatException | IllegalArgumentException e) {
+                LOGGER.warn("error decompressing data string: " + input + "\n error: " + e.getMessage());
+                return input;
+            }
+        }
+
         if (input.startsWith(COMPRESS_PREFIX)) {
             final String compressedValue = input.substring(COMPRESS_PREFIX.length(),input.length());
             try {
@@ -166,4 +337,58 @@ public class LocalDBCompressor implements LocalDB {
 
         return input;
     }
+
+    /**
+     * Base85 using the Z85 alphabet; every 4 bytes become 5 chars, and a final partial group of n bytes becomes
+     * n + 1 chars.  All chars are printable ascii, so the value stays one byte per char in every provider.
+     */
+    static String base85Encode(final byte[] input, final int length) {
+        final char[] output = new char[(length / 4) * 5 + (length % 4 == 0 ? 0 : length % 4 + 1)];
+        int outputIndex = 0;
+        for (int i = 0; i < length; i += 4) {
+            long value = 0;
+            for (int j = 0; j < 4; j++) {
+                value = (value << 8) | (i + j < length ? input[i + j] & 0xFF : 0);
+            }
+            final char[] group = new char[5];
+            for (int j = 4; j >= 0; j--) {
+                group[j] = BASE85_ALPHABET[(int)(value % 85)];
+                value /= 85;
+            }
+            final int groupLength = Math.min(5, length - i + 1);
+            System.arraycopy(group, 0, output, outputIndex, groupLength);
+            outputIndex += groupLength;
+        }
+        return new String(output);
+    }
+
+    static byte[] base85Decode(final String input, final int startIndex) {
+        final int charCount = input.length() - startIndex;
+        if (charCount % 5 == 1) {
+            throw new IllegalArgumentException("invalid base85 length");
+        }
+        final byte[] output = new byte[(charCount / 5) * 4 + (charCount % 5 == 0 ? 0 : charCount % 5 - 1)];
+        int outputIndex = 0;
+        for (int i = startIndex; i < input.length(); i += 5) {
+            long value = 0;
+            for (int j = 0; j < 5; j++) {
+                final int digit;
+                if (i + j < input.length()) {
+                    final char c = input.charAt(i + j);
+                    digit = c < 128 ? BASE85_DECODE[c] : -1;
+                    if (digit < 0) {
+                        throw new IllegalArgumentException("invalid base85 character");
+                    }
+                } else {
+                    digit = 84;
+                }
+                value = value * 85 + digit;
+            }
+            final int groupLength = Math.min(4, input.length() - i - 1);
+            for (int j = 0; j < groupLength; j++) {
+                output[outputIndex++] = (byte)(value >>> (24 - j * 8));
+            }
+        }
+        return output;
+    }
 }
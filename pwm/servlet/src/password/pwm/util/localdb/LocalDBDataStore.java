@@ -26,6 +26,7 @@ import password.pwm.error.PwmDataStoreException;
 import password.pwm.util.ClosableIterator;
 import password.pwm.util.DataStore;
 
+import java.util.Date;
 import java.util.Map;
 
 public class LocalDBDataStore implements DataStore {
@@ -53,6 +54,10 @@ public class LocalDBDataStore implements DataStore {
         return localDB.iterator(db);
     }
 
+    public ClosableIterator<Map.Entry<String, String>> entryIterator() throws PwmDataStoreException {
+        return localDB.entryIterator(db, null, null);
+    }
+
     public void putAll(Map<String, String> keyValueMap) throws PwmDataStoreException {
         localDB.putAll(db, keyValueMap);
     }
@@ -81,6 +86,20 @@ public class LocalDBDataStore implements DataStore {
         return localDB.put(db, key, value);
     }
 
+    /**
+     * Store a value that the LocalDB will stop returning, and eventually remove, after {@code expirationDate}.
+     */
+    public boolean put(String key, String value, Date expirationDate) throws PwmDataStoreException {
+        return LocalDBUtility.put(localDB, db, key, value, expirationDate);
+    }
+
+    /**
+     * @return true if the store holds a record that will not expire on its own
+     */
+    public boolean containsUnexpiringRecords() throws PwmDataStoreException {
+        return LocalDBUtility.containsUnexpiringRecords(localDB, db);
+    }
+
     public boolean remove(String key) throws PwmDataStoreException {
         return localDB.remove(db, key);
     }
@@ -0,0 +1,533 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+import password.pwm.error.PwmUnrecoverableException;
+import password.pwm.util.SecureHelper;
+import password.pwm.util.TimeDuration;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Expiring records for the {@link LocalDB} decorator chain.  {@link #put(LocalDB.DB, String, String, Date)} stores the
+ * expiration time ahead of the value and adds an entry to {@link LocalDB.DB#EXPIRATION_INDEX}, whose keys sort by db
+ * and then by expiration time.  The purge task range-scans the index up to the current time, so each purge only
+ * visits records that have expired.
+ * <p/>
+ * Reads strip the expiration from stored values and hide a record as soon as it expires.  Key iteration and
+ * {@link #size(LocalDB.DB)} include expired records until the purge removes them.
+ */
+public class LocalDBExpiration implements LocalDB {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBExpiration.class);
+
+    static final String EXPIRATION_PREFIX = "e!";
+    private static final int TIMESTAMP_LENGTH = 12;
+    private static final int HEADER_LENGTH = EXPIRATION_PREFIX.length() + TIMESTAMP_LENGTH;
+    private static final char INDEX_SEPARATOR = ':';
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    final LocalDB innerLocalDB;
+
+    // writes to a db share its read lock; the purge takes the write lock while it removes records so that a record
+    // rewritten after the purge read it is not removed.
+    private final Map<DB, ReadWriteLock> purgeLocks = new EnumMap<>(DB.class);
+    private final Set<DB> expiringDBs = Collections.newSetFromMap(new ConcurrentHashMap<DB, Boolean>());
+    private final Timer purgeTimer;
+
+    LocalDBExpiration(final LocalDB innerLocalDB, final long purgeIntervalMs, final String threadName)
+            throws LocalDBException
+    {
+        this.innerLocalDB = innerLocalDB;
+        for (final DB db : DB.values()) {
+            purgeLocks.put(db, new ReentrantReadWriteLock());
+            if (db != DB.EXPIRATION_INDEX) {
+                final LocalDBIterator<Map.Entry<String, String>> iterator = LocalDBUtility.prefixIterator(
+                        innerLocalDB, DB.EXPIRATION_INDEX, indexPrefix(db));
+                try {
+                    if (iterator.hasNext()) {
+                        expiringDBs.add(db);
+                    }
+                } finally {
+                    iterator.close();
+                }
+            }
+        }
+
+        if (purgeIntervalMs > 0) {
+            purgeTimer = new Timer(threadName, true);
+            purgeTimer.schedule(new PurgeTask(), purgeIntervalMs, purgeIntervalMs);
+        } else {
+            purgeTimer = null;
+        }
+    }
+
+    @Override
+    public void close() throws LocalDBException {
+        if (purgeTimer != null) {
+            purgeTimer.cancel();
+        }
+        innerLocalDB.close();
+    }
+
+    @Override
+    public boolean contains(final DB db, final String key) throws LocalDBException {
+        if (!expiringDBs.contains(db)) {
+            return innerLocalDB.contains(db, key);
+        }
+        return get(db, key) != null;
+    }
+
+    @Override
+    public String get(final DB db, final String key) throws LocalDBException {
+        return readValue(innerLocalDB.get(db, key), System.currentTimeMillis());
+    }
+
+    @Override
+    public LocalDBIterator<String> iterator(final DB db) throws LocalDBException {
+        return innerLocalDB.iterator(db);
+    }
+
+    @Override
+    public LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        return new UnexpiredEntryIterator(innerLocalDB.entryIterator(db, fromKey, toKey));
+    }
+
+    @Override
+    public Map<String, String> getAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        final long now = System.currentTimeMillis();
+        final Map<String, String> returnMap = new HashMap<>();
+        for (final Map.Entry<String, String> entry : innerLocalDB.getAll(db, keys).entrySet()) {
+            final String value = readValue(entry.getValue(), now);
+            if (value != null) {
+                returnMap.put(entry.getKey(), value);
+            }
+        }
+        return returnMap;
+    }
+
+    @Override
+    public void putAll(final DB db, final Map<String, String> keyValueMap) throws LocalDBException {
+        final Map<String, String> storedValues = new HashMap<>();
+        for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+            storedValues.put(entry.getKey(), storedValue(entry.getValue()));
+        }
+        final Lock lock = purgeLocks.get(db).readLock();
+        lock.lock();
+        try {
+            innerLocalDB.putAll(db, storedValues);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Status status() {
+        return innerLocalDB.status();
+    }
+
+    @Override
+    public boolean put(final DB db, final String key, final String value) throws LocalDBException {
+        final Lock lock = purgeLocks.get(db).readLock();
+        lock.lock();
+        try {
+            return innerLocalDB.put(db, key, storedValue(value));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put a key/value into a database that expires at {@code expirationDate}.  Once the expiration date has passed
+     * the record is no longer returned by reads, and it is removed by a periodic purge that only examines expired
+     * records.  A later put of the same key replaces the expiration along with the value.
+     * <p/>
+     * Callers holding the outer LocalDB reach this through {@link LocalDBUtility#put(LocalDB, DB, String, String, Date)}.
+     *
+     * @return true if the key previously existed
+     */
+    @WriteOperation
+    public boolean put(final DB db, final String key, final String value, final Date expirationDate)
+            throws LocalDBException
+    {
+        if (expirationDate == null) {
+            throw new NullPointerException("expirationDate cannot be null");
+        }
+        if (db == DB.EXPIRATION_INDEX) {
+            throw new IllegalArgumentException("records of " + DB.EXPIRATION_INDEX + " cannot expire");
+        }
+
+        final long expirationTime = Math.max(1, expirationDate.getTime());
+        final Lock lock = purgeLocks.get(db).readLock();
+        lock.lock();
+        try {
+            expiringDBs.add(db);
+            final String newIndexKey = indexKey(db, expirationTime, key);
+            // the index entry is written first; an index entry without a matching record is discarded by the purge.
+            innerLocalDB.put(DB.EXPIRATION_INDEX, newIndexKey, key);
+            final long previousExpiration = readExpiration(innerLocalDB.get(db, key));
+            final boolean preExisting = innerLocalDB.put(db, key, encodeValue(value, expirationTime));
+            if (previousExpiration > 0) {
+                final String previousIndexKey = indexKey(db, previousExpiration, key);
+                if (!previousIndexKey.equals(newIndexKey)) {
+                    innerLocalDB.remove(DB.EXPIRATION_INDEX, previousIndexKey);
+                }
+            }
+            return preExisting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final DB db, final String key) throws LocalDBException {
+        final Lock lock = purgeLocks.get(db).readLock();
+        lock.lock();
+        try {
+            return innerLocalDB.remove(db, key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        final Lock lock = purgeLocks.get(db).readLock();
+        lock.lock();
+        try {
+            innerLocalDB.removeAll(db, keys);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size(final DB db) throws LocalDBException {
+        return innerLocalDB.size(db);
+    }
+
+    @Override
+    public void truncate(final DB db) throws LocalDBException {
+        final Lock lock = purgeLocks.get(db).writeLock();
+        lock.lock();
+        try {
+            innerLocalDB.truncate(db);
+            if (db != DB.EXPIRATION_INDEX && expiringDBs.contains(db)) {
+                removeIndexEntries(db, indexPrefix(db), LocalDBUtility.prefixEndKey(indexPrefix(db)), 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public File getFileLocation() {
+        return innerLocalDB.getFileLocation();
+    }
+
+    /**
+     * Remove the records of every db that have expired.
+     *
+     * @return the number of records removed
+     */
+    public int purgeExpiredRecords() throws LocalDBException {
+        final long now = System.currentTimeMillis();
+        int purgedRecords = 0;
+        for (final DB db : DB.values()) {
+            if (expiringDBs.contains(db)) {
+                final long startTime = System.currentTimeMillis();
+                final int purgedFromDB = removeIndexEntries(db, indexPrefix(db), indexPrefix(db) + formatTime(now + 1), now);
+                if (purgedFromDB > 0) {
+                    LOGGER.debug("purged " + purgedFromDB + " expired records from " + db + " in "
+                            + TimeDuration.fromCurrent(startTime).asCompactString());
+                }
+                purgedRecords += purgedFromDB;
+            }
+        }
+        return purgedRecords;
+    }
+
+    /**
+     * @return true if the db holds a record that was stored without an expiration date, and so is never purged
+     */
+    public boolean containsUnexpiringRecords(final DB db) throws LocalDBException {
+        final LocalDBIterator<Map.Entry<String, String>> iterator = innerLocalDB.entryIterator(db, null, null);
+        try {
+            while (iterator.hasNext()) {
+                if (readExpiration(iterator.next().getValue()) <= 0) {
+                    return true;
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild the index entries of a db from the expirations stored with its values, for a db that was bulk loaded
+     * without its index entries.
+     *
+     * @return the number of index entries written
+     */
+    public int rebuildIndex(final DB db) throws LocalDBException {
+        if (db == DB.EXPIRATION_INDEX) {
+            throw new IllegalArgumentException(DB.EXPIRATION_INDEX + " does not have an index");
+        }
+
+        int indexedRecords = 0;
+        final Lock lock = purgeLocks.get(db).writeLock();
+        lock.lock();
+        try {
+            removeIndexEntries(db, indexPrefix(db), LocalDBUtility.prefixEndKey(indexPrefix(db)), 0);
+            final Map<String, String> indexEntries = new HashMap<>();
+            final LocalDBIterator<Map.Entry<String, String>> iterator = innerLocalDB.entryIterator(db, null, null);
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    final long expirationTime = readExpiration(entry.getValue());
+                    if (expirationTime > 0) {
+                        indexEntries.put(indexKey(db, expirationTime, entry.getKey()), entry.getKey());
+                        if (indexEntries.size() >= PURGE_BATCH_SIZE) {
+                            innerLocalDB.putAll(DB.EXPIRATION_INDEX, indexEntries);
+                            indexedRecords += indexEntries.size();
+                            indexEntries.clear();
+                        }
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            if (!indexEntries.isEmpty()) {
+                innerLocalDB.putAll(DB.EXPIRATION_INDEX, indexEntries);
+                indexedRecords += indexEntries.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (indexedRecords > 0) {
+            expiringDBs.add(db);
+        }
+        return indexedRecords;
+    }
+
+    /**
+     * Remove the index entries of a db in the range, along with the records they refer to if those records have a
+     * stored expiration at or before {@code now}.  A {@code now} of zero removes only the index entries.
+     */
+    private int removeIndexEntries(final DB db, final String fromKey, final String toKey, final long now)
+            throws LocalDBException
+    {
+        int removedRecords = 0;
+        boolean complete = false;
+        while (!complete) {
+            final Map<String, String> indexEntries = new HashMap<>();
+            final LocalDBIterator<Map.Entry<String, String>> iterator = innerLocalDB.entryIterator(DB.EXPIRATION_INDEX, fromKey, toKey);
+            try {
+                while (iterator.hasNext() && indexEntries.size() < PURGE_BATCH_SIZE) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    indexEntries.put(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                iterator.close();
+            }
+            complete = indexEntries.size() < PURGE_BATCH_SIZE;
+            if (indexEntries.isEmpty()) {
+                break;
+            }
+
+            final Lock lock = purgeLocks.get(db).writeLock();
+            lock.lock();
+            try {
+                if (now > 0) {
+                    final List<String> expiredKeys = new ArrayList<>();
+                    final Map<String, String> storedValues = innerLocalDB.getAll(db, new HashSet<>(indexEntries.values()));
+                    for (final Map.Entry<String, String> entry : storedValues.entrySet()) {
+                        if (isExpired(entry.getValue(), now)) {
+                            expiredKeys.add(entry.getKey());
+                        }
+                    }
+                    if (!expiredKeys.isEmpty()) {
+                        innerLocalDB.removeAll(db, expiredKeys);
+                        removedRecords += expiredKeys.size();
+                    }
+                }
+                innerLocalDB.removeAll(DB.EXPIRATION_INDEX, indexEntries.keySet());
+            } finally {
+                lock.unlock();
+            }
+        }
+        return removedRecords;
+    }
+
+    private static String indexPrefix(final DB db) {
+        return db.toString() + INDEX_SEPARATOR;
+    }
+
+    /**
+     * @return the db whose record an index key refers to, or null if the key is not an index key
+     */
+    static DB indexedDB(final String indexKey) {
+        final int separator = indexKey.indexOf(INDEX_SEPARATOR);
+        if (separator > 0) {
+            try {
+                return DB.valueOf(indexKey.substring(0, separator));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static String indexKey(final DB db, final long expirationTime, final String key)
+            throws LocalDBException
+    {
+        final String prefix = indexPrefix(db) + formatTime(expirationTime) + INDEX_SEPARATOR;
+        if (prefix.length() + key.length() <= MAX_KEY_LENGTH) {
+            return prefix + key;
+        }
+        try {
+            return prefix + SecureHelper.md5sum(key);
+        } catch (PwmUnrecoverableException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,"unable to hash expiration index key: " + e.getMessage()));
+        }
+    }
+
+    private static String formatTime(final long time) {
+        final String hexTime = Long.toHexString(time);
+        final StringBuilder sb = new StringBuilder(TIMESTAMP_LENGTH);
+        for (int i = hexTime.length(); i < TIMESTAMP_LENGTH; i++) {
+            sb.append('0');
+        }
+        return sb.append(hexTime).toString();
+    }
+
+    static String encodeValue(final String value, final long expirationTime) {
+        return EXPIRATION_PREFIX + formatTime(expirationTime) + value;
+    }
+
+    /**
+     * Values that happen to begin with the expiration prefix are stored with a zero (never) expiration so that they
+     * are not mistaken for an expiring value when read.
+     */
+    private static String storedValue(final String value) {
+        if (value != null && value.startsWith(EXPIRATION_PREFIX)) {
+            return encodeValue(value, 0);
+        }
+        return value;
+    }
+
+    /**
+     * @return the expiration time of a stored value, zero if the value never expires, or -1 if the value was not
+     * stored with an expiration
+     */
+    static long readExpiration(final String storedValue) {
+        if (storedValue == null || storedValue.length() < HEADER_LENGTH || !storedValue.startsWith(EXPIRATION_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(storedValue.substring(EXPIRATION_PREFIX.length(), HEADER_LENGTH), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isExpired(final String storedValue, final long now) {
+        final long expirationTime = readExpiration(storedValue);
+        return expirationTime > 0 && expirationTime <= now;
+    }
+
+    /**
+     * @return the value with any stored expiration removed, or null if the value is null or has expired
+     */
+    static String readValue(final String storedValue, final long now) {
+        final long expirationTime = readExpiration(storedValue);
+        if (expirationTime < 0) {
+            return storedValue;
+        }
+        if (expirationTime > 0 && expirationTime <= now) {
+            return null;
+        }
+        return storedValue.substring(HEADER_LENGTH);
+    }
+
+    private static class UnexpiredEntryIterator implements LocalDBIterator<Map.Entry<String, String>> {
+        private final LocalDBIterator<Map.Entry<String, String>> innerIterator;
+        private final long now = System.currentTimeMillis();
+        private Map.Entry<String, String> nextEntry;
+
+        private UnexpiredEntryIterator(final LocalDBIterator<Map.Entry<String, String>> innerIterator) {
+            this.innerIterator = innerIterator;
+        }
+
+        public boolean hasNext() {
+            while (nextEntry == null && innerIterator.hasNext()) {
+                final Map.Entry<String, String> entry = innerIterator.next();
+                final String value = readValue(entry.getValue(), now);
+                if (value != null) {
+                    nextEntry = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value);
+                }
+            }
+            return nextEntry != null;
+        }
+
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, String> entry = nextEntry;
+            nextEntry = null;
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("entry iterators do not support removals");
+        }
+
+        public void close() {
+            innerIterator.close();
+        }
+    }
+
+    private class PurgeTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                if (innerLocalDB.status() == Status.OPEN) {
+                    purgeExpiredRecords();
+                }
+            } catch (Exception e) {
+                LOGGER.error("error while purging expired LocalDB records: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ import password.pwm.util.logging.PwmLogger;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -60,26 +61,44 @@ public class LocalDBFactory {
 
         final String className;
         final Map<String, String> initParameters;
+        final String partitions;
+        final long slowOperationThresholdMs;
         if (config == null) {
             className = AppProperty.LOCALDB_IMPLEMENTATION.getDefaultValue();
             final String initStrings = AppProperty.LOCALDB_INIT_STRING.getDefaultValue();
             initParameters = StringUtil.convertStringListToNameValuePair(Arrays.asList(initStrings.split(";;;")), "=");
+            partitions = AppProperty.LOCALDB_PARTITIONS.getDefaultValue();
+            slowOperationThresholdMs = Long.parseLong(AppProperty.LOCALDB_SLOW_OPERATION_THRESHOLD_MS.getDefaultValue());
         } else {
             className = config.readAppProperty(AppProperty.LOCALDB_IMPLEMENTATION);
             final String initStrings = config.readAppProperty(AppProperty.LOCALDB_INIT_STRING);
             initParameters = StringUtil.convertStringListToNameValuePair(Arrays.asList(initStrings.split(";;;")), "=");
+            partitions = config.readAppProperty(AppProperty.LOCALDB_PARTITIONS);
+            slowOperationThresholdMs = Long.parseLong(config.readAppProperty(AppProperty.LOCALDB_SLOW_OPERATION_THRESHOLD_MS));
         }
 
-        final LocalDBProvider dbProvider = createInstance(className);
+        final LocalDBProvider dbProvider = createPartitionedInstance(className, Partitioned_LocalDB.parsePartitions(partitions), dbDirectory);
         LOGGER.debug("initializing " + className + " localDBProvider instance");
 
-        LocalDB localDB = new LocalDBAdaptor(dbProvider, pwmApplication);
+        LocalDB localDB = new LocalDBAdaptor(dbProvider, pwmApplication, slowOperationThresholdMs, !readonly);
 
         initInstance(dbProvider, dbDirectory, initParameters, className, readonly);
         final TimeDuration openTime = new TimeDuration(System.currentTimeMillis() - startTime);
 
         localDB = wrapWithCompressor(localDB,config);
 
+        if (!readonly) {
+            migrateCompressedValues(localDB);
+        }
+
+        if (!readonly) {
+            localDB = wrapWithWriteBehind(localDB, pwmApplication, config);
+        }
+
+        localDB = wrapWithReadCache(localDB, config);
+
+        localDB = wrapWithExpiration(localDB, pwmApplication, config, readonly);
+
         if (!readonly) {
             LOGGER.trace("clearing TEMP db");
             localDB.truncate(LocalDB.DB.TEMP);
@@ -100,11 +119,38 @@ public class LocalDBFactory {
         if (freeSpace >= 0) {
             debugText.append(", ").append(Helper.formatDiskSize(freeSpace)).append(" free");
         }
+        if (dbProvider instanceof Partitioned_LocalDB) {
+            for (final Map.Entry<String, File> entry : ((Partitioned_LocalDB) dbProvider).getPartitionFileLocations().entrySet()) {
+                debugText.append(", partition ").append(entry.getKey()).append(" at ").append(entry.getValue());
+            }
+        }
         LOGGER.info(debugText);
 
         return localDB;
     }
 
+    private static LocalDBProvider createPartitionedInstance(
+            final String className,
+            final Map<LocalDB.DB, String> dbPartitions,
+            final File dbDirectory
+    )
+            throws Exception {
+        final LocalDBProvider defaultProvider = createInstance(className);
+        // a manifest left by earlier partitions means their records still have to be moved back
+        if (dbPartitions.isEmpty() && !Partitioned_LocalDB.hasPartitionManifest(dbDirectory)) {
+            return defaultProvider;
+        }
+
+        final Map<String, LocalDBProvider> partitionProviders = new LinkedHashMap<>();
+        for (final String partitionName : dbPartitions.values()) {
+            if (!partitionProviders.containsKey(partitionName)) {
+                partitionProviders.put(partitionName, createInstance(className));
+            }
+        }
+        LOGGER.debug("LocalDB partitions: " + dbPartitions);
+        return new Partitioned_LocalDB(defaultProvider, partitionProviders, dbPartitions);
+    }
+
     private static LocalDBProvider createInstance(final String className)
             throws Exception {
         final LocalDBProvider localDB;
@@ -138,9 +184,102 @@ public class LocalDBFactory {
         LOGGER.trace("db init completed for " + theClass);
     }
 
+    private static LocalDB wrapWithExpiration(
+            final LocalDB localDB,
+            final PwmApplication pwmApplication,
+            final Configuration config,
+            final boolean readonly
+    )
+            throws LocalDBException
+    {
+        final long purgeIntervalMs;
+        if (readonly) {
+            purgeIntervalMs = 0;
+        } else if (config == null) {
+            purgeIntervalMs = Long.parseLong(AppProperty.LOCALDB_EXPIRATION_PURGE_INTERVAL_MS.getDefaultValue());
+        } else {
+            purgeIntervalMs = Long.parseLong(config.readAppProperty(AppProperty.LOCALDB_EXPIRATION_PURGE_INTERVAL_MS));
+        }
+
+        return new LocalDBExpiration(localDB, purgeIntervalMs, Helper.makeThreadName(pwmApplication, LocalDBExpiration.class));
+    }
+
+    private static LocalDB wrapWithReadCache(final LocalDB localDB, final Configuration config) {
+        final boolean enabled;
+        final String cacheSizes;
+        if (config == null) {
+            enabled = Boolean.parseBoolean(AppProperty.LOCALDB_READ_CACHE_ENABLED.getDefaultValue());
+            cacheSizes = AppProperty.LOCALDB_READ_CACHE_SIZES.getDefaultValue();
+        } else {
+            enabled = Boolean.parseBoolean(config.readAppProperty(AppProperty.LOCALDB_READ_CACHE_ENABLED));
+            cacheSizes = config.readAppProperty(AppProperty.LOCALDB_READ_CACHE_SIZES);
+        }
+
+        if (!enabled || localDB == null) {
+            return localDB;
+        }
+
+        return new LocalDBReadCache(localDB, LocalDBReadCache.parseCacheSizes(cacheSizes));
+    }
+
+    private static LocalDB wrapWithWriteBehind(final LocalDB localDB, final PwmApplication pwmApplication, final Configuration config) {
+        final boolean enabled;
+        final String asyncDBs;
+        final long maxWaitMs;
+        final int maxBatchSize;
+        if (config == null) {
+            enabled = Boolean.parseBoolean(AppProperty.LOCALDB_WRITE_BEHIND_ENABLED.getDefaultValue());
+            asyncDBs = AppProperty.LOCALDB_WRITE_BEHIND_ASYNC_DBS.getDefaultValue();
+            maxWaitMs = Long.parseLong(AppProperty.LOCALDB_WRITE_BEHIND_MAX_WAIT_MS.getDefaultValue());
+            maxBatchSize = Integer.parseInt(AppProperty.LOCALDB_WRITE_BEHIND_MAX_BATCH_SIZE.getDefaultValue());
+        } else {
+            enabled = Boolean.parseBoolean(config.readAppProperty(AppProperty.LOCALDB_WRITE_BEHIND_ENABLED));
+            asyncDBs = config.readAppProperty(AppProperty.LOCALDB_WRITE_BEHIND_ASYNC_DBS);
+            maxWaitMs = Long.parseLong(config.readAppProperty(AppProperty.LOCALDB_WRITE_BEHIND_MAX_WAIT_MS));
+            maxBatchSize = Integer.parseInt(config.readAppProperty(AppProperty.LOCALDB_WRITE_BEHIND_MAX_BATCH_SIZE));
+        }
+
+        if (!enabled || localDB == null) {
+            return localDB;
+        }
+
+        return new LocalDBWriteBehind(
+                localDB,
+                LocalDBWriteBehind.parseDurabilities(asyncDBs),
+                maxWaitMs,
+                maxBatchSize,
+                Helper.makeThreadName(pwmApplication, LocalDBWriteBehind.class)
+        );
+    }
+
+    private static void migrateCompressedValues(final LocalDB localDB)
+            throws LocalDBException
+    {
+        final LocalDBCompressor compressor = LocalDBUtility.findInChain(localDB, LocalDBCompressor.class);
+        if (compressor == null || !compressor.enableCompression) {
+            return;
+        }
+
+        final String formatKey = PwmApplication.AppAttribute.LOCALDB_COMPRESSION_FORMAT.getKey();
+        if (LocalDBCompressor.DEFLATE_PREFIX.equals(localDB.get(LocalDB.DB.PWM_META, formatKey))) {
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        int migratedCount = 0;
+        for (final LocalDB.DB loopDB : LocalDB.DB.values()) {
+            if (!LocalDBUtility.BACKUP_IGNORE_DBs.contains(loopDB)) {
+                migratedCount += compressor.migrateLegacyValues(loopDB);
+            }
+        }
+        localDB.put(LocalDB.DB.PWM_META, formatKey, LocalDBCompressor.DEFLATE_PREFIX);
+        LOGGER.info("rewrote " + migratedCount + " compressed LocalDB values using the current compression format in "
+                + TimeDuration.fromCurrent(startTime).asCompactString());
+    }
+
     private static LocalDB wrapWithCompressor(final LocalDB localDB, final Configuration config) {
         if (config == null) {
-            return LocalDBCompressor.createLocalDBCompressor(localDB, 1024, false);
+            return LocalDBCompressor.createLocalDBCompressor(localDB, 128, false);
         }
 
         final boolean enableCompression = Boolean.parseBoolean(config.readAppProperty(AppProperty.LOCALDB_COMPRESSION_ENABLED));
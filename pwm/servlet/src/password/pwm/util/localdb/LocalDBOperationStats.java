@@ -0,0 +1,269 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import password.pwm.PwmApplication;
+import password.pwm.util.JsonUtil;
+import password.pwm.util.logging.PwmLogger;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-db, per-operation counts and latency histograms recorded by {@link LocalDBAdaptor}.  Each histogram has
+ * power of two microsecond buckets, so percentiles are reported as the upper bound of the bucket they fall in.
+ * <p/>
+ * Operations taking longer than the slow operation threshold are logged as they complete.
+ * <p/>
+ * The counts live only in the process that recorded them, so a writable {@link LocalDBAdaptor} saves them to
+ * {@link LocalDB.DB#PWM_META} when it closes.  Tools that open the LocalDB afterwards report the saved counts.
+ */
+public class LocalDBOperationStats {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBOperationStats.class);
+
+    private static final int BUCKET_COUNT = 32;
+
+    static final String META_KEY = PwmApplication.AppAttribute.LOCALDB_OPERATION_STATS.getKey();
+
+    public enum Operation {
+        GET("get"),
+        GET_ALL("getAll"),
+        CONTAINS("contains"),
+        ITERATE("entryIterator"),
+        SIZE("size"),
+        PUT("put"),
+        PUT_ALL("putAll"),
+        REMOVE("remove"),
+        REMOVE_ALL("removeAll"),
+        TRUNCATE("truncate"),
+        ;
+
+        private final boolean writeOperation;
+
+        Operation(final String methodName) {
+            this.writeOperation = isWriteOperation(methodName);
+        }
+
+        /**
+         * @return true if the {@link LocalDB} method of the operation is marked as a {@link LocalDB.WriteOperation}
+         */
+        public boolean isWriteOperation() {
+            return writeOperation;
+        }
+
+        private static boolean isWriteOperation(final String methodName) {
+            for (final Method method : LocalDB.class.getMethods()) {
+                if (method.getName().equals(methodName) && method.isAnnotationPresent(LocalDB.WriteOperation.class)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final long slowOperationThresholdMs;
+    private final Histogram[][] histograms = new Histogram[LocalDB.DB.values().length][Operation.values().length];
+
+    LocalDBOperationStats(final long slowOperationThresholdMs) {
+        this.slowOperationThresholdMs = slowOperationThresholdMs;
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            for (final Operation operation : Operation.values()) {
+                histograms[db.ordinal()][operation.ordinal()] = new Histogram();
+            }
+        }
+    }
+
+    /**
+     * Record an operation that began at {@code startNanos}, as read from {@link System#nanoTime()}.
+     */
+    void record(final LocalDB.DB db, final Operation operation, final long startNanos, final int recordCount) {
+        recordDuration(db, operation, System.nanoTime() - startNanos, recordCount);
+    }
+
+    void recordDuration(final LocalDB.DB db, final Operation operation, final long durationNanos, final int recordCount) {
+        histograms[db.ordinal()][operation.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+        if (slowOperationThresholdMs > 0) {
+            final long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+            if (durationMs >= slowOperationThresholdMs) {
+                LOGGER.warn("slow LocalDB operation " + operation + " on " + db + " took " + durationMs + "ms"
+                        + (recordCount != 1 ? " for " + recordCount + " records" : ""));
+            }
+        }
+    }
+
+    /**
+     * @return the summary of each operation that has been performed on the db
+     */
+    public Map<Operation, OperationSummary> summarize(final LocalDB.DB db) {
+        final Map<Operation, OperationSummary> returnMap = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            final OperationSummary summary = histograms[db.ordinal()][operation.ordinal()].summarize();
+            if (summary.getCount() > 0) {
+                returnMap.put(operation, summary);
+            }
+        }
+        return returnMap;
+    }
+
+    String toMetaValue() {
+        final Map<LocalDB.DB, Map<Operation, OperationSummary>> operations = new EnumMap<>(LocalDB.DB.class);
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            final Map<Operation, OperationSummary> summaries = summarize(db);
+            if (!summaries.isEmpty()) {
+                operations.put(db, summaries);
+            }
+        }
+        final Map<String, Object> savedValue = new LinkedHashMap<>();
+        savedValue.put("captureTime", new Date());
+        savedValue.put("operations", operations);
+        return JsonUtil.serializeMap(savedValue);
+    }
+
+    /**
+     * @return the stats saved by {@link #toMetaValue()}, or null if the value is missing or unreadable
+     */
+    static SavedStats parseMetaValue(final String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            final SavedStats savedStats = JsonUtil.deserialize(value, SavedStats.class);
+            return savedStats == null || savedStats.captureTime == null || savedStats.operations == null ? null : savedStats;
+        } catch (Exception e) {
+            LOGGER.debug("ignoring unreadable saved LocalDB operation stats: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Operation summaries of every db as saved by the process that last closed the LocalDB writable.
+     */
+    public static class SavedStats {
+        private Date captureTime;
+        private Map<LocalDB.DB, Map<Operation, OperationSummary>> operations;
+
+        public Date getCaptureTime() {
+            return captureTime;
+        }
+
+        public Map<Operation, OperationSummary> getOperations(final LocalDB.DB db) {
+            final Map<Operation, OperationSummary> summaries = operations.get(db);
+            return summaries == null ? new EnumMap<Operation, OperationSummary>(Operation.class) : summaries;
+        }
+    }
+
+    public static class OperationSummary {
+        private final long count;
+        private final long totalMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+
+        private OperationSummary(final long count, final long totalMicros, final long p50Micros, final long p99Micros, final long maxMicros) {
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMicros() {
+            return totalMicros;
+        }
+
+        public long getAverageMicros() {
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        public long getP50Micros() {
+            return p50Micros;
+        }
+
+        public long getP99Micros() {
+            return p99Micros;
+        }
+
+        public long getMaxMicros() {
+            return maxMicros;
+        }
+    }
+
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        private void record(final long micros) {
+            buckets.incrementAndGet(bucketIndex(micros));
+            totalMicros.addAndGet(micros);
+            long currentMax = maxMicros.get();
+            while (micros > currentMax && !maxMicros.compareAndSet(currentMax, micros)) {
+                currentMax = maxMicros.get();
+            }
+        }
+
+        private OperationSummary summarize() {
+            final long[] counts = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            final long max = maxMicros.get();
+            return new OperationSummary(count, totalMicros.get(), percentile(counts, count, 0.50, max), percentile(counts, count, 0.99, max), max);
+        }
+
+        /**
+         * Bucket {@code i} holds durations below 2^i microseconds that are not in a lower bucket.
+         */
+        private static int bucketIndex(final long micros) {
+            final int index = 64 - Long.numberOfLeadingZeros(micros);
+            return index < BUCKET_COUNT ? index : BUCKET_COUNT - 1;
+        }
+
+        private static long percentile(final long[] counts, final long count, final double fraction, final long max) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -74,5 +74,18 @@ public interface LocalDBProvider {
 
     LocalDB.Status getStatus();
 
+    /**
+     * Optional support for reading keys and values together.  Providers that do not implement this interface are
+     * served by {@link LocalDBAdaptor} using key iteration and individual reads.
+     */
+    interface BulkReadSupport {
+        @LocalDB.ReadOperation
+        LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(LocalDB.DB db, String fromKey, String toKey)
+                throws LocalDBException;
+
+        @LocalDB.ReadOperation
+        Map<String, String> getAll(LocalDB.DB db, Collection<String> keys)
+                throws LocalDBException;
+    }
 
 }
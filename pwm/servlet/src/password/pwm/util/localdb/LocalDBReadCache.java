@@ -0,0 +1,347 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through LRU cache of recently read values, sized per {@link LocalDB.DB}.  Dbs without a configured size are
+ * passed straight through to the wrapped {@link LocalDB}.
+ * <p/>
+ * Every write invalidates the affected keys after it reaches the wrapped LocalDB, and each db cache keeps a version
+ * number so that a read which raced with a write does not store the value it read.
+ */
+public class LocalDBReadCache implements LocalDB {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBReadCache.class);
+
+    private static final Object NULL_VALUE = new Object();
+
+    public enum CacheStat {
+        HITS,
+        MISSES,
+        EVICTIONS,
+        ENTRIES,
+        MAX_ENTRIES,
+    }
+
+    final LocalDB innerLocalDB;
+    private final Map<DB, DBCache> caches = new EnumMap<>(DB.class);
+
+    LocalDBReadCache(final LocalDB innerLocalDB, final Map<DB, Integer> cacheSizes) {
+        this.innerLocalDB = innerLocalDB;
+        for (final DB db : cacheSizes.keySet()) {
+            if (cacheSizes.get(db) > 0) {
+                caches.put(db, new DBCache(cacheSizes.get(db)));
+            }
+        }
+    }
+
+    /**
+     * @param cacheSizes comma separated list of {@code DB:maxEntries} pairs, for example {@code TOKENS:1000,OTP_SECRET:500}
+     */
+    static Map<DB, Integer> parseCacheSizes(final String cacheSizes) {
+        final Map<DB, Integer> returnMap = new EnumMap<>(DB.class);
+        if (cacheSizes != null) {
+            for (final String entry : cacheSizes.split(",")) {
+                if (entry.trim().length() > 0) {
+                    final String[] parts = entry.trim().split(":");
+                    try {
+                        returnMap.put(DB.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("ignoring invalid LocalDB read cache size '" + entry.trim() + "'");
+                    }
+                }
+            }
+        }
+        return returnMap;
+    }
+
+    /**
+     * @return the counters for the db's cache, or null if the db is not cached
+     */
+    public Map<CacheStat, Long> cacheStats(final DB db) {
+        final DBCache cache = caches.get(db);
+        if (cache == null) {
+            return null;
+        }
+        final Map<CacheStat, Long> returnMap = new EnumMap<>(CacheStat.class);
+        returnMap.put(CacheStat.HITS, cache.hits.get());
+        returnMap.put(CacheStat.MISSES, cache.misses.get());
+        returnMap.put(CacheStat.EVICTIONS, cache.evictions.get());
+        returnMap.put(CacheStat.ENTRIES, (long)cache.size());
+        returnMap.put(CacheStat.MAX_ENTRIES, (long)cache.maxEntries);
+        return returnMap;
+    }
+
+    public Set<DB> cachedDBs() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    @Override
+    public void close() throws LocalDBException {
+        for (final DB db : caches.keySet()) {
+            caches.get(db).clear();
+        }
+        innerLocalDB.close();
+    }
+
+    @Override
+    public boolean contains(final DB db, final String key) throws LocalDBException {
+        final DBCache cache = caches.get(db);
+        if (cache != null) {
+            final Object cachedValue = cache.get(key);
+            if (cachedValue != null) {
+                cache.hits.incrementAndGet();
+                return cachedValue != NULL_VALUE;
+            }
+        }
+        return innerLocalDB.contains(db, key);
+    }
+
+    @Override
+    public String get(final DB db, final String key) throws LocalDBException {
+        final DBCache cache = caches.get(db);
+        if (cache == null) {
+            return innerLocalDB.get(db, key);
+        }
+
+        final Object cachedValue = cache.get(key);
+        if (cachedValue != null) {
+            cache.hits.incrementAndGet();
+            return cachedValue == NULL_VALUE ? null : (String)cachedValue;
+        }
+
+        cache.misses.incrementAndGet();
+        final long version = cache.version();
+        final String value = innerLocalDB.get(db, key);
+        cache.store(key, value == null ? NULL_VALUE : value, version);
+        return value;
+    }
+
+    @Override
+    public LocalDBIterator<String> iterator(final DB db) throws LocalDBException {
+        final LocalDBIterator<String> innerIterator = innerLocalDB.iterator(db);
+        final DBCache cache = caches.get(db);
+        if (cache == null) {
+            return innerIterator;
+        }
+        return new LocalDBIterator<String>() {
+            private String currentKey;
+
+            public boolean hasNext() {
+                return innerIterator.hasNext();
+            }
+
+            public String next() {
+                currentKey = innerIterator.next();
+                return currentKey;
+            }
+
+            public void remove() {
+                try {
+                    innerIterator.remove();
+                } finally {
+                    cache.invalidate(Collections.singleton(currentKey));
+                }
+            }
+
+            public void close() {
+                innerIterator.close();
+            }
+        };
+    }
+
+    /**
+     * Entry iteration is passed straight through so that a full scan does not displace the cached working set.
+     */
+    @Override
+    public LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        return innerLocalDB.entryIterator(db, fromKey, toKey);
+    }
+
+    @Override
+    public Map<String, String> getAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        final DBCache cache = caches.get(db);
+        if (cache == null) {
+            return innerLocalDB.getAll(db, keys);
+        }
+
+        final Map<String, String> returnMap = new HashMap<>();
+        final List<String> missedKeys = new ArrayList<>();
+        for (final String key : keys) {
+            final Object cachedValue = cache.get(key);
+            if (cachedValue == null) {
+                missedKeys.add(key);
+            } else {
+                cache.hits.incrementAndGet();
+                if (cachedValue != NULL_VALUE) {
+                    returnMap.put(key, (String)cachedValue);
+                }
+            }
+        }
+
+        if (!missedKeys.isEmpty()) {
+            cache.misses.addAndGet(missedKeys.size());
+            final long version = cache.version();
+            final Map<String, String> readValues = innerLocalDB.getAll(db, missedKeys);
+            for (final String key : missedKeys) {
+                final String value = readValues.get(key);
+                cache.store(key, value == null ? NULL_VALUE : value, version);
+            }
+            returnMap.putAll(readValues);
+        }
+        return returnMap;
+    }
+
+    @Override
+    public void putAll(final DB db, final Map<String, String> keyValueMap) throws LocalDBException {
+        try {
+            innerLocalDB.putAll(db, keyValueMap);
+        } finally {
+            invalidate(db, keyValueMap.keySet());
+        }
+    }
+
+    @Override
+    public Status status() {
+        return innerLocalDB.status();
+    }
+
+    @Override
+    public boolean put(final DB db, final String key, final String value) throws LocalDBException {
+        try {
+            return innerLocalDB.put(db, key, value);
+        } finally {
+            invalidate(db, Collections.singleton(key));
+        }
+    }
+
+    @Override
+    public boolean remove(final DB db, final String key) throws LocalDBException {
+        try {
+            return innerLocalDB.remove(db, key);
+        } finally {
+            invalidate(db, Collections.singleton(key));
+        }
+    }
+
+    @Override
+    public void removeAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        try {
+            innerLocalDB.removeAll(db, keys);
+        } finally {
+            invalidate(db, keys);
+        }
+    }
+
+    @Override
+    public int size(final DB db) throws LocalDBException {
+        return innerLocalDB.size(db);
+    }
+
+    @Override
+    public void truncate(final DB db) throws LocalDBException {
+        try {
+            innerLocalDB.truncate(db);
+        } finally {
+            final DBCache cache = caches.get(db);
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    @Override
+    public File getFileLocation() {
+        return innerLocalDB.getFileLocation();
+    }
+
+    private void invalidate(final DB db, final Collection<String> keys) {
+        final DBCache cache = caches.get(db);
+        if (cache != null) {
+            cache.invalidate(keys);
+        }
+    }
+
+    private static class DBCache {
+        private final int maxEntries;
+        private final LinkedHashMap<String, Object> entries;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private long version;
+
+        private DBCache(final int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+                    if (size() > DBCache.this.maxEntries) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Object get(final String key) {
+            return entries.get(key);
+        }
+
+        private synchronized long version() {
+            return version;
+        }
+
+        private synchronized void store(final String key, final Object value, final long expectedVersion) {
+            if (version == expectedVersion) {
+                entries.put(key, value);
+            }
+        }
+
+        private synchronized void invalidate(final Collection<String> keys) {
+            version++;
+            for (final String key : keys) {
+                entries.remove(key);
+            }
+        }
+
+        private synchronized void clear() {
+            version++;
+            entries.clear();
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
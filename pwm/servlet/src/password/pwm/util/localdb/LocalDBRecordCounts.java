@@ -0,0 +1,146 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.PwmApplication;
+import password.pwm.util.TimeDuration;
+import password.pwm.util.logging.PwmLogger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-db record counts kept by a {@link LocalDBProvider} so that {@link LocalDBProvider#size(LocalDB.DB)} does not
+ * need to scan or count the underlying store.  Providers adjust the counts after each write is committed.
+ * <p/>
+ * The counts are saved to {@link LocalDB.DB#PWM_META} when the provider closes and removed from it when the provider
+ * opens, so a provider that was not closed cleanly recounts its dbs on the next open.  PWM_META itself is not counted
+ * since it holds the saved counts; it is small enough to be counted directly.
+ */
+class LocalDBRecordCounts {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBRecordCounts.class);
+
+    static final String META_KEY = PwmApplication.AppAttribute.LOCALDB_RECORD_COUNTS.getKey();
+
+    interface RecordCounter {
+        long countRecords(LocalDB.DB db) throws LocalDBException;
+    }
+
+    private final Map<LocalDB.DB, AtomicLong> counts = new EnumMap<>(LocalDB.DB.class);
+
+    LocalDBRecordCounts() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            counts.put(db, new AtomicLong());
+        }
+    }
+
+    static boolean isCounted(final LocalDB.DB db) {
+        return db != LocalDB.DB.PWM_META;
+    }
+
+    /**
+     * Load the counts saved by {@link #toMetaValue()}.  Dbs missing from the saved value, or all dbs if there is no
+     * saved value, are counted using {@code recordCounter}.
+     */
+    void load(final String savedValue, final RecordCounter recordCounter)
+            throws LocalDBException
+    {
+        final long startTime = System.currentTimeMillis();
+        final Map<LocalDB.DB, Long> savedCounts = parseMetaValue(savedValue);
+        int countedDBs = 0;
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            if (isCounted(db)) {
+                Long count = savedCounts.get(db);
+                if (count == null) {
+                    count = recordCounter.countRecords(db);
+                    countedDBs++;
+                }
+                counts.get(db).set(count);
+            }
+        }
+        if (countedDBs > 0) {
+            LOGGER.debug("counted records of " + countedDBs + " dbs in " + TimeDuration.fromCurrent(startTime).asCompactString()
+                    + (savedValue == null ? ", no saved record counts found" : ""));
+        }
+    }
+
+    int size(final LocalDB.DB db) {
+        final long count = counts.get(db).get();
+        return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)count;
+    }
+
+    void add(final LocalDB.DB db, final long delta) {
+        if (delta != 0) {
+            counts.get(db).addAndGet(delta);
+        }
+    }
+
+    void increment(final LocalDB.DB db) {
+        counts.get(db).incrementAndGet();
+    }
+
+    void decrement(final LocalDB.DB db) {
+        counts.get(db).decrementAndGet();
+    }
+
+    void set(final LocalDB.DB db, final long count) {
+        counts.get(db).set(count);
+    }
+
+    String toMetaValue() {
+        final StringBuilder sb = new StringBuilder();
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            if (isCounted(db)) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(db.toString()).append('=').append(counts.get(db).get());
+            }
+        }
+        return sb.toString();
+    }
+
+    static Map<LocalDB.DB, Long> parseMetaValue(final String value) {
+        final Map<LocalDB.DB, Long> returnMap = new EnumMap<>(LocalDB.DB.class);
+        if (value == null || value.isEmpty()) {
+            return returnMap;
+        }
+        for (final String entry : value.split(",")) {
+            final int separator = entry.indexOf('=');
+            if (separator > 0) {
+                try {
+                    final LocalDB.DB db = LocalDB.DB.valueOf(entry.substring(0, separator));
+                    final long count = Long.parseLong(entry.substring(separator + 1));
+                    if (count >= 0) {
+                        returnMap.put(db, count);
+                    }
+                } catch (IllegalArgumentException e) {
+                    LOGGER.debug("ignoring unreadable saved record count '" + entry + "'");
+                }
+            }
+        }
+        return returnMap;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import java.util.*;
+
+/**
+ * Point-in-time view of the dbs of a {@link LocalDBAdaptor}, opened with {@link LocalDBAdaptor#openSnapshot(Set)}
+ * while the LocalDB stays available for writes.
+ * <p/>
+ * The snapshot is copy-on-write: before the adaptor changes a key that the snapshot iterator has not yet passed, it
+ * saves the key's value as of the snapshot (or that the key did not exist).  The iterator reads the live db in
+ * ascending key order and returns the saved value in place of the live one, then returns the saved values of keys
+ * that were removed before the iterator reached them.  Only keys changed during the snapshot are held in memory.
+ */
+class LocalDBSnapshot {
+    private static final Object ABSENT = new Object();
+
+    private final LocalDBAdaptor localDB;
+    private final Map<LocalDB.DB, DBSnapshot> dbSnapshots = new EnumMap<>(LocalDB.DB.class);
+    private final Date timestamp = new Date();
+
+    LocalDBSnapshot(final LocalDBAdaptor localDB, final Set<LocalDB.DB> dbs) {
+        this.localDB = localDB;
+        for (final LocalDB.DB db : dbs) {
+            dbSnapshots.put(db, new DBSnapshot());
+        }
+    }
+
+    Date getTimestamp() {
+        return timestamp;
+    }
+
+    Set<LocalDB.DB> getDBs() {
+        return Collections.unmodifiableSet(dbSnapshots.keySet());
+    }
+
+    /**
+     * Called by the adaptor before it writes or removes the keys.
+     */
+    void beforeWrite(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        final DBSnapshot dbSnapshot = dbSnapshots.get(db);
+        if (dbSnapshot == null) {
+            return;
+        }
+        synchronized (dbSnapshot) {
+            if (dbSnapshot.complete) {
+                return;
+            }
+            final List<String> newKeys = new ArrayList<>();
+            for (final String key : keys) {
+                if (!dbSnapshot.isPassed(key) && !dbSnapshot.savedValues.containsKey(key)) {
+                    newKeys.add(key);
+                }
+            }
+            if (!newKeys.isEmpty()) {
+                final Map<String, String> currentValues = localDB.getAll(db, newKeys);
+                for (final String key : newKeys) {
+                    final String value = currentValues.get(key);
+                    dbSnapshot.savedValues.put(key, value == null ? ABSENT : value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the adaptor before it truncates the db.
+     */
+    void beforeTruncate(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        final DBSnapshot dbSnapshot = dbSnapshots.get(db);
+        if (dbSnapshot == null) {
+            return;
+        }
+        synchronized (dbSnapshot) {
+            if (dbSnapshot.complete) {
+                return;
+            }
+            final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = localDB.entryIterator(db, null, null);
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    if (!dbSnapshot.isPassed(entry.getKey()) && !dbSnapshot.savedValues.containsKey(entry.getKey())) {
+                        dbSnapshot.savedValues.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+        }
+    }
+
+    /**
+     * Iterate the entries of a db as they were when the snapshot was opened.  Each db of the snapshot can be iterated
+     * once, and the iterators of different dbs may be used concurrently.
+     */
+    LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        final DBSnapshot dbSnapshot = dbSnapshots.get(db);
+        if (dbSnapshot == null) {
+            throw new IllegalArgumentException(db + " is not part of the snapshot");
+        }
+        synchronized (dbSnapshot) {
+            if (dbSnapshot.iterated) {
+                throw new IllegalStateException(db + " has already been iterated");
+            }
+            dbSnapshot.iterated = true;
+        }
+        return new SnapshotIterator(dbSnapshot, localDB.entryIterator(db, null, null));
+    }
+
+    void close() {
+        localDB.closeSnapshot(this);
+        for (final DBSnapshot dbSnapshot : dbSnapshots.values()) {
+            synchronized (dbSnapshot) {
+                dbSnapshot.complete = true;
+                dbSnapshot.savedValues.clear();
+            }
+        }
+    }
+
+    private static class DBSnapshot {
+        private final Map<String, Object> savedValues = new HashMap<>();
+        private String lastKey;
+        private boolean iterated;
+        private boolean complete;
+
+        private boolean isPassed(final String key) {
+            return lastKey != null && key.compareTo(lastKey) <= 0;
+        }
+    }
+
+    private static class SnapshotIterator implements LocalDB.LocalDBIterator<Map.Entry<String, String>> {
+        private final DBSnapshot dbSnapshot;
+        private final LocalDB.LocalDBIterator<Map.Entry<String, String>> liveIterator;
+        private Iterator<Map.Entry<String, String>> removedEntries;
+        private Map.Entry<String, String> nextEntry;
+
+        private SnapshotIterator(
+                final DBSnapshot dbSnapshot,
+                final LocalDB.LocalDBIterator<Map.Entry<String, String>> liveIterator
+        )
+        {
+            this.dbSnapshot = dbSnapshot;
+            this.liveIterator = liveIterator;
+        }
+
+        public boolean hasNext() {
+            while (nextEntry == null) {
+                if (removedEntries == null) {
+                    if (liveIterator.hasNext()) {
+                        final Map.Entry<String, String> liveEntry = liveIterator.next();
+                        synchronized (dbSnapshot) {
+                            final Object savedValue = dbSnapshot.savedValues.remove(liveEntry.getKey());
+                            dbSnapshot.lastKey = liveEntry.getKey();
+                            if (savedValue == null) {
+                                nextEntry = liveEntry;
+                            } else if (savedValue != ABSENT) {
+                                nextEntry = new AbstractMap.SimpleImmutableEntry<>(liveEntry.getKey(), (String)savedValue);
+                            }
+                        }
+                    } else {
+                        final List<Map.Entry<String, String>> removed = new ArrayList<>();
+                        synchronized (dbSnapshot) {
+                            dbSnapshot.complete = true;
+                            for (final Map.Entry<String, Object> entry : dbSnapshot.savedValues.entrySet()) {
+                                if (entry.getValue() != ABSENT) {
+                                    removed.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), (String)entry.getValue()));
+                                }
+                            }
+                            dbSnapshot.savedValues.clear();
+                        }
+                        removedEntries = removed.iterator();
+                    }
+                } else if (removedEntries.hasNext()) {
+                    nextEntry = removedEntries.next();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, String> returnEntry = nextEntry;
+            nextEntry = null;
+            return returnEntry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("entry iterators do not support removals");
+        }
+
+        public void close() {
+            liveIterator.close();
+        }
+    }
+}
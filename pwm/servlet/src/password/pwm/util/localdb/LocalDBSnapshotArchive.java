@@ -0,0 +1,503 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import password.pwm.PwmConstants;
+import password.pwm.util.Helper;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary LocalDB archive written from a {@link LocalDBSnapshot}.  Each db is read by its own worker, which packs its
+ * records into separately deflated chunks; the chunks of all dbs are interleaved in the archive in the order they are
+ * completed.  Import inflates and loads the chunks in parallel, with one {@link LocalDB#putAll(LocalDB.DB, Map)} per
+ * chunk.
+ * <p/>
+ * Layout: a header of magic, version, comment, snapshot time and db names, followed by chunks that each begin with a
+ * type byte.  A records chunk holds the db name, record count, raw length, CRC32 of the raw bytes and the deflated
+ * records; a db end chunk holds the db name and its record count; the end chunk holds the total record count.
+ */
+class LocalDBSnapshotArchive {
+
+    static final int FILE_MAGIC = 0x50574D53; // "PWMS"
+    private static final int FILE_VERSION = 1;
+
+    private static final byte CHUNK_END = 0;
+    private static final byte CHUNK_RECORDS = 1;
+    private static final byte CHUNK_DB_END = 2;
+
+    private static final int CHUNK_MAX_RECORDS = 1000;
+    private static final int CHUNK_MAX_BYTES = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private LocalDBSnapshotArchive() {
+    }
+
+    /**
+     * @return true if the stream begins with the archive magic; the stream must support mark and reset
+     */
+    static boolean isArchive(final InputStream inputStream)
+            throws IOException
+    {
+        inputStream.mark(4);
+        try {
+            final byte[] magic = new byte[4];
+            int length = 0;
+            while (length < magic.length) {
+                final int read = inputStream.read(magic, length, magic.length - length);
+                if (read < 0) {
+                    return false;
+                }
+                length += read;
+            }
+            return new DataInputStream(new ByteArrayInputStream(magic)).readInt() == FILE_MAGIC;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Write every db of the snapshot to the output stream, which is closed once the archive is complete.
+     *
+     * @param valueDecoder compressor used to decode the values read from the snapshot
+     * @return the number of records written
+     */
+    static long write(
+            final LocalDBSnapshot snapshot,
+            final LocalDBCompressor valueDecoder,
+            final OutputStream outputStream,
+            final int threads,
+            final AtomicLong recordCounter
+    )
+            throws IOException, LocalDBException
+    {
+        final List<LocalDB.DB> dbs = new ArrayList<>(snapshot.getDBs());
+        final BlockingQueue<byte[]> chunkQueue = new ArrayBlockingQueue<>(Math.max(threads, 1) * 4);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, dbs.size())), makeThreadFactory("export"));
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        try {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeUTF(PwmConstants.PWM_APP_NAME + " " + PwmConstants.SERVLET_VERSION + " LocalDB snapshot");
+            output.writeLong(snapshot.getTimestamp().getTime());
+            output.writeInt(dbs.size());
+            for (final LocalDB.DB db : dbs) {
+                output.writeUTF(db.toString());
+            }
+
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (final LocalDB.DB db : dbs) {
+                futures.add(executor.submit(new ExportTask(snapshot, db, valueDecoder, chunkQueue, recordCounter)));
+            }
+
+            boolean complete = false;
+            while (!complete) {
+                final byte[] chunk = chunkQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    output.write(chunk);
+                } else {
+                    complete = true;
+                    for (final Future<Long> future : futures) {
+                        if (future.isDone()) {
+                            getResult(future); // fail fast if the worker failed
+                        } else {
+                            complete = false;
+                        }
+                    }
+                    if (complete) {
+                        final List<byte[]> remainingChunks = new ArrayList<>();
+                        chunkQueue.drainTo(remainingChunks);
+                        for (final byte[] remainingChunk : remainingChunks) {
+                            output.write(remainingChunk);
+                        }
+                    }
+                }
+            }
+
+            long totalRecords = 0;
+            for (final Future<Long> future : futures) {
+                totalRecords += getResult(future);
+            }
+            output.writeByte(CHUNK_END);
+            output.writeLong(totalRecords);
+            output.close();
+            return totalRecords;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while writing LocalDB snapshot archive");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Load every record of the archive into the LocalDB.
+     *
+     * @return the dbs the archive contained
+     */
+    static Set<LocalDB.DB> read(
+            final InputStream inputStream,
+            final LocalDB localDB,
+            final int threads,
+            final AtomicLong recordCounter
+    )
+            throws IOException, LocalDBException
+    {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        if (input.readInt() != FILE_MAGIC) {
+            throw new IOException("input is not a LocalDB snapshot archive");
+        }
+        final int version = input.readInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("unsupported LocalDB snapshot archive version " + version);
+        }
+        input.readUTF();
+        input.readLong();
+        final Set<LocalDB.DB> dbs = EnumSet.noneOf(LocalDB.DB.class);
+        final int dbCount = input.readInt();
+        for (int i = 0; i < dbCount; i++) {
+            dbs.add(readDB(input));
+        }
+
+        final Map<LocalDB.DB, AtomicLong> loadedCounts = new EnumMap<>(LocalDB.DB.class);
+        final Map<LocalDB.DB, Long> expectedCounts = new EnumMap<>(LocalDB.DB.class);
+        for (final LocalDB.DB db : dbs) {
+            loadedCounts.put(db, new AtomicLong());
+        }
+        final AtomicReference<Exception> loadError = new AtomicReference<>();
+        final int threadCount = Math.max(1, threads);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threadCount * 2),
+                makeThreadFactory("import"),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        try {
+            boolean complete = false;
+            long expectedTotal = 0;
+            while (!complete && loadError.get() == null) {
+                final byte chunkType = input.readByte();
+                switch (chunkType) {
+                    case CHUNK_RECORDS: {
+                        final LocalDB.DB db = readDB(input);
+                        if (!dbs.contains(db)) {
+                            throw new IOException("snapshot archive chunk for " + db + " is not listed in the archive header");
+                        }
+                        final int recordCount = input.readInt();
+                        final int rawLength = input.readInt();
+                        final int checksum = input.readInt();
+                        final byte[] compressedBytes = new byte[input.readInt()];
+                        input.readFully(compressedBytes);
+                        executor.execute(new ImportTask(localDB, db, recordCount, rawLength, checksum, compressedBytes,
+                                loadedCounts.get(db), recordCounter, loadError));
+                        break;
+                    }
+
+                    case CHUNK_DB_END: {
+                        final LocalDB.DB db = readDB(input);
+                        expectedCounts.put(db, input.readLong());
+                        break;
+                    }
+
+                    case CHUNK_END:
+                        expectedTotal = input.readLong();
+                        complete = true;
+                        break;
+
+                    default:
+                        throw new IOException("unknown snapshot archive chunk type " + chunkType);
+                }
+            }
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the loads still in progress
+            }
+            final Exception error = loadError.get();
+            if (error instanceof LocalDBException) {
+                throw (LocalDBException) error;
+            } else if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error != null) {
+                throw new IOException("error loading LocalDB snapshot archive: " + error.getMessage(), error);
+            }
+
+            long loadedTotal = 0;
+            for (final LocalDB.DB db : dbs) {
+                final long loaded = loadedCounts.get(db).get();
+                if (!expectedCounts.containsKey(db) || expectedCounts.get(db) != loaded) {
+                    throw new IOException("snapshot archive is incomplete, loaded " + loaded + " records of " + db
+                            + " but expected " + expectedCounts.get(db));
+                }
+                loadedTotal += loaded;
+            }
+            if (loadedTotal != expectedTotal) {
+                throw new IOException("snapshot archive is incomplete, loaded " + loadedTotal + " records but expected " + expectedTotal);
+            }
+            return dbs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading LocalDB snapshot archive");
+        } finally {
+            executor.shutdownNow();
+            input.close();
+        }
+    }
+
+    private static LocalDB.DB readDB(final DataInput input)
+            throws IOException
+    {
+        final String dbName = input.readUTF();
+        try {
+            return LocalDB.DB.valueOf(dbName);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("snapshot archive contains unknown db '" + dbName + "'");
+        }
+    }
+
+    private static long getResult(final Future<Long> future)
+            throws IOException, LocalDBException, InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof LocalDBException) {
+                throw (LocalDBException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("error writing LocalDB snapshot archive: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static ThreadFactory makeThreadFactory(final String purpose) {
+        final String threadName = Helper.makeThreadName(null, LocalDBSnapshotArchive.class) + "-" + purpose + "-";
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, threadName + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static void writeString(final DataOutputStream output, final String value)
+            throws IOException
+    {
+        final byte[] bytes = value.getBytes(PwmConstants.DEFAULT_CHARSET);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(final DataInputStream input)
+            throws IOException
+    {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, PwmConstants.DEFAULT_CHARSET);
+    }
+
+    private static class ExportTask implements Callable<Long> {
+        private final LocalDBSnapshot snapshot;
+        private final LocalDB.DB db;
+        private final LocalDBCompressor valueDecoder;
+        private final BlockingQueue<byte[]> chunkQueue;
+        private final AtomicLong recordCounter;
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+        private final DataOutputStream rawOutput = new DataOutputStream(rawBytes);
+        private int chunkRecords;
+
+        private ExportTask(
+                final LocalDBSnapshot snapshot,
+                final LocalDB.DB db,
+                final LocalDBCompressor valueDecoder,
+                final BlockingQueue<byte[]> chunkQueue,
+                final AtomicLong recordCounter
+        )
+        {
+            this.snapshot = snapshot;
+            this.db = db;
+            this.valueDecoder = valueDecoder;
+            this.chunkQueue = chunkQueue;
+            this.recordCounter = recordCounter;
+        }
+
+        public Long call()
+                throws IOException, LocalDBException, InterruptedException
+        {
+            long dbRecords = 0;
+            final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = snapshot.entryIterator(db);
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    writeString(rawOutput, entry.getKey());
+                    writeString(rawOutput, valueDecoder.decompressData(entry.getValue()));
+                    chunkRecords++;
+                    dbRecords++;
+                    if (chunkRecords >= CHUNK_MAX_RECORDS || rawBytes.size() >= CHUNK_MAX_BYTES) {
+                        writeChunk();
+                    }
+                }
+                if (chunkRecords > 0) {
+                    writeChunk();
+                }
+            } finally {
+                iterator.close();
+                deflater.end();
+            }
+
+            final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream();
+            final DataOutputStream chunkOutput = new DataOutputStream(chunkBytes);
+            chunkOutput.writeByte(CHUNK_DB_END);
+            chunkOutput.writeUTF(db.toString());
+            chunkOutput.writeLong(dbRecords);
+            chunkQueue.put(chunkBytes.toByteArray());
+            return dbRecords;
+        }
+
+        private void writeChunk()
+                throws IOException, InterruptedException
+        {
+            final byte[] raw = rawBytes.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(raw);
+
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            final ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(raw.length / 2 + 64);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                final int length = deflater.deflate(buffer);
+                compressedBytes.write(buffer, 0, length);
+            }
+
+            final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(compressedBytes.size() + 64);
+            final DataOutputStream chunkOutput = new DataOutputStream(chunkBytes);
+            chunkOutput.writeByte(CHUNK_RECORDS);
+            chunkOutput.writeUTF(db.toString());
+            chunkOutput.writeInt(chunkRecords);
+            chunkOutput.writeInt(raw.length);
+            chunkOutput.writeInt((int) crc.getValue());
+            chunkOutput.writeInt(compressedBytes.size());
+            compressedBytes.writeTo(chunkOutput);
+            chunkQueue.put(chunkBytes.toByteArray());
+
+            recordCounter.addAndGet(chunkRecords);
+            rawBytes.reset();
+            chunkRecords = 0;
+        }
+    }
+
+    private static class ImportTask implements Runnable {
+        private final LocalDB localDB;
+        private final LocalDB.DB db;
+        private final int recordCount;
+        private final int rawLength;
+        private final int checksum;
+        private final byte[] compressedBytes;
+        private final AtomicLong dbCounter;
+        private final AtomicLong recordCounter;
+        private final AtomicReference<Exception> loadError;
+
+        private ImportTask(
+                final LocalDB localDB,
+                final LocalDB.DB db,
+                final int recordCount,
+                final int rawLength,
+                final int checksum,
+                final byte[] compressedBytes,
+                final AtomicLong dbCounter,
+                final AtomicLong recordCounter,
+                final AtomicReference<Exception> loadError
+        )
+        {
+            this.localDB = localDB;
+            this.db = db;
+            this.recordCount = recordCount;
+            this.rawLength = rawLength;
+            this.checksum = checksum;
+            this.compressedBytes = compressedBytes;
+            this.dbCounter = dbCounter;
+            this.recordCounter = recordCounter;
+            this.loadError = loadError;
+        }
+
+        public void run() {
+            if (loadError.get() != null) {
+                return;
+            }
+            try {
+                final byte[] raw = new byte[rawLength];
+                final Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(compressedBytes);
+                    int length = 0;
+                    while (length < rawLength && !inflater.finished()) {
+                        final int inflated = inflater.inflate(raw, length, rawLength - length);
+                        if (inflated == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        length += inflated;
+                    }
+                    if (length != rawLength) {
+                        throw new IOException("snapshot archive chunk for " + db + " is truncated");
+                    }
+                } finally {
+                    inflater.end();
+                }
+
+                final CRC32 crc = new CRC32();
+                crc.update(raw);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("snapshot archive chunk for " + db + " has an invalid checksum");
+                }
+
+                final DataInputStream rawInput = new DataInputStream(new ByteArrayInputStream(raw));
+                final Map<String, String> records = new HashMap<>();
+                for (int i = 0; i < recordCount; i++) {
+                    final String key = readString(rawInput);
+                    records.put(key, readString(rawInput));
+                }
+                localDB.putAll(db, records);
+                dbCounter.addAndGet(recordCount);
+                recordCounter.addAndGet(recordCount);
+            } catch (IOException | LocalDBException | DataFormatException | RuntimeException e) {
+                loadError.compareAndSet(null, e);
+            }
+        }
+    }
+}
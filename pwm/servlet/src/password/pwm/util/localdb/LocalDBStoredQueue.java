@@ -25,7 +25,6 @@ package password.pwm.util.localdb;
 import password.pwm.PwmApplication;
 import password.pwm.util.logging.PwmLogger;
 
-import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -42,10 +41,25 @@ public class
     private final static PwmLogger LOGGER = PwmLogger.forClass(LocalDBStoredQueue.class, true);
     private final static int MAX_SIZE = Integer.MAX_VALUE - 3;
 
+    private final static String KEY_POSITIONS = "_POSITIONS";
+    private final static String KEY_VERSION = "_KEY_VERSION";
+    private final static String VALUE_VERSION = "8a";
+
+    // separately stored head and tail positions of the "7a" format, read only to migrate existing queues
     private final static String KEY_HEAD_POSITION = "_HEAD_POSITION";
     private final static String KEY_TAIL_POSITION = "_TAIL_POSITION";
-    private final static String KEY_VERSION = "_KEY_VERSION";
-    private final static String VALUE_VERSION = "7a";
+    private final static String LEGACY_VALUE_VERSION = "7a";
+
+    // leased values are stored under "_LEASE_<leaseID>_<index>" until they are acknowledged or returned to the queue
+    private final static String LEASE_KEY_PREFIX = "_LEASE_";
+    private final static String LEASED_VALUE_PREFIX = "L";
+    private final static String RETURNED_LEASE_VALUE = "R";
+
+    // positions are kept in the six character radix 36 key space used by earlier versions, so queues stored in
+    // the previous format keep their value keys when migrated.
+    private final static int POSITION_RADIX = 36;
+    private final static int POSITION_KEY_LENGTH = 6;
+    private final static long POSITION_COUNT = Long.parseLong("zzzzzz", POSITION_RADIX) + 1;
 
     private final InternalQueue internalQueue;
 
@@ -105,11 +119,7 @@ public class
 
 
     public boolean isEmpty() {
-        try {
-            return internalQueue.size() == 0;
-        } catch (LocalDBException e) {
-            throw new IllegalStateException(e);
-        }
+        return internalQueue.size() == 0;
     }
 
     public Object[] toArray() {
@@ -182,11 +192,7 @@ public class
     }
 
     public int size() {
-        try {
-            return internalQueue.size();
-        } catch (LocalDBException e) {
-            throw new IllegalStateException(e);
-        }
+        return internalQueue.size();
     }
 
 // --------------------- Interface Deque ---------------------
@@ -266,6 +272,82 @@ public class
         }
     }
 
+    /**
+     * Remove up to {@code count} values from the head of the queue.
+     *
+     * @return the removed values, in the order they were removed
+     */
+    public List<String> pollFirst(final int count) {
+        try {
+            return internalQueue.removeFirst(count);
+        } catch (LocalDBException e) {
+            throw new IllegalStateException("unexpected localDB error while modifying queue: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read up to {@code count} values from the head of the queue without removing them.
+     *
+     * @return the values, in the order they would be removed
+     */
+    public List<String> peekFirst(final int count) {
+        try {
+            return internalQueue.getFirst(count);
+        } catch (LocalDBException e) {
+            throw new IllegalStateException("unexpected localDB error while reading queue: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lease up to {@code count} values from the head of the queue.  Leased values are no longer part of the queue,
+     * but are kept in the LocalDB until the lease is passed to {@link #acknowledge(Lease)}.  A lease that is
+     * released, not acknowledged within {@code visibilityTimeoutMs}, or still outstanding when the queue is next
+     * opened has its values returned to the head of the queue.  Leases allow several consumers to drain a queue.
+     *
+     * @return the lease, or null if the queue is empty
+     */
+    public Lease lease(final int count, final long visibilityTimeoutMs) {
+        try {
+            final LeaseRecord leaseRecord = internalQueue.lease(count, visibilityTimeoutMs);
+            return leaseRecord == null ? null : new Lease(leaseRecord.leaseID, Collections.unmodifiableList(leaseRecord.values));
+        } catch (LocalDBException e) {
+            throw new IllegalStateException("unexpected localDB error while modifying queue: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Permanently remove the values of a lease.
+     *
+     * @return false if the lease had expired and its values have already been returned to the queue
+     */
+    public boolean acknowledge(final Lease lease) {
+        try {
+            return internalQueue.acknowledge(lease.leaseID);
+        } catch (LocalDBException e) {
+            throw new IllegalStateException("unexpected localDB error while modifying queue: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Return the values of a lease to the head of the queue.
+     *
+     * @return false if the lease had expired and its values have already been returned to the queue
+     */
+    public boolean release(final Lease lease) {
+        try {
+            return internalQueue.release(lease.leaseID);
+        } catch (LocalDBException e) {
+            throw new IllegalStateException("unexpected localDB error while modifying queue: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the number of values held by outstanding leases
+     */
+    public int leasedSize() {
+        return internalQueue.leasedSize();
+    }
+
     public String getFirst() {
         final String value = peekFirst();
         if (value == null) {
@@ -328,7 +410,7 @@ public class
 
     public Iterator<String> descendingIterator() {
         try {
-            return new InnerIterator<String>(internalQueue, false);
+            return new InnerIterator(internalQueue, false);
         } catch (LocalDBException e) {
             throw new IllegalStateException(e);
         }
@@ -338,7 +420,7 @@ public class
 
     public Iterator<String> iterator() {
         try {
-            return new InnerIterator<String>(internalQueue, true);
+            return new InnerIterator(internalQueue, true);
         } catch (LocalDBException e) {
             throw new IllegalStateException(e);
         }
@@ -378,46 +460,62 @@ public class
 
 // -------------------------- INNER CLASSES --------------------------
 
-    private class InnerIterator<K> implements Iterator {
-        private Position position;
+    public static class Lease {
+        private final long leaseID;
+        private final List<String> values;
+
+        private Lease(final long leaseID, final List<String> values) {
+            this.leaseID = leaseID;
+            this.values = values;
+        }
+
+        public List<String> getValues() {
+            return values;
+        }
+    }
+
+    private static class InnerIterator implements Iterator<String> {
+        private static final int FETCH_SIZE = 100;
+
         private final InternalQueue internalQueue;
         private final boolean first;
-        private int queueSizeAtCreate;
-        private int steps;
-
+        private final LinkedList<String> fetchedValues = new LinkedList<>();
+        private long position;
+        private int remaining;
 
         private InnerIterator(final InternalQueue internalQueue, final boolean first)
                 throws LocalDBException
         {
             this.internalQueue = internalQueue;
             this.first = first;
-            position = internalQueue.size() == 0 ? null : first ? internalQueue.headPosition : internalQueue.tailPosition;
-            queueSizeAtCreate = internalQueue.size();
+            try {
+                internalQueue.LOCK.readLock().lock();
+                position = first ? internalQueue.headPosition : internalQueue.tailPosition;
+                remaining = internalQueue.size;
+            } finally {
+                internalQueue.LOCK.readLock().unlock();
+            }
         }
 
         public boolean hasNext() {
-            return position != null;
+            return !fetchedValues.isEmpty() || remaining > 0;
         }
 
         public String next() {
-            if (position == null) {
-                throw new NoSuchElementException();
-            }
-            steps++;
-            try {
-                final String nextValue = internalQueue.localDB.get(internalQueue.DB, position.toString());
-                if (first) {
-                    position = position.equals(internalQueue.tailPosition) ? null : position.previous();
-                } else {
-                    position = position.equals(internalQueue.headPosition) ? null : position.next();
+            if (fetchedValues.isEmpty()) {
+                if (remaining < 1) {
+                    throw new NoSuchElementException();
                 }
-                if (steps > queueSizeAtCreate) {
-                    position = null;
+                try {
+                    final int fetchCount = Math.min(remaining, FETCH_SIZE);
+                    fetchedValues.addAll(internalQueue.readValues(position, fetchCount, first));
+                    position = first ? previousPosition(position, fetchCount) : nextPosition(position, fetchCount);
+                    remaining -= fetchCount;
+                } catch (LocalDBException e) {
+                    throw new IllegalStateException("unexpected localDB error while iterating queue: " + e.getMessage(), e);
                 }
-                return nextValue;
-            } catch (LocalDBException e) {
-                throw new IllegalStateException("unexpected localDB error while iterating queue: " + e.getMessage(), e);
             }
+            return fetchedValues.removeFirst();
         }
 
         public void remove() {
@@ -425,80 +523,74 @@ public class
         }
     }
 
-    private static class Position {
-        private final static int RADIX = 36;
-        private final static BigInteger MAXIMUM_POSITION = new BigInteger("zzzzzz", RADIX);
-        private final static BigInteger MINIMUM_POSITION = BigInteger.ZERO;
-
-        private final BigInteger bigInt;
+    private static long nextPosition(final long position, final int steps) {
+        return (position + steps) % POSITION_COUNT;
+    }
 
-        private Position(final BigInteger bigInt) {
-            this.bigInt = bigInt;
-        }
+    private static long previousPosition(final long position, final int steps) {
+        return (position - steps % POSITION_COUNT + POSITION_COUNT) % POSITION_COUNT;
+    }
 
-        public Position(final String bigInt) {
-            this.bigInt = new BigInteger(bigInt, RADIX);
-        }
+    private static int distanceToHead(final long tail, final long head) {
+        return (int)((head - tail + POSITION_COUNT) % POSITION_COUNT);
+    }
 
-        public Position next() {
-            BigInteger next = bigInt.add(BigInteger.ONE);
-            if (next.compareTo(MAXIMUM_POSITION) > 0) {
-                next = MINIMUM_POSITION;
-            }
-            return new Position(next);
+    private static String positionKey(final long position) {
+        final String positionString = Long.toString(position, POSITION_RADIX).toUpperCase();
+        if (positionString.length() >= POSITION_KEY_LENGTH) {
+            return positionString;
         }
-
-        public Position previous() {
-            BigInteger previous = bigInt.subtract(BigInteger.ONE);
-            if (previous.compareTo(MINIMUM_POSITION) < 0) {
-                previous = MAXIMUM_POSITION;
-            }
-            return new Position(previous);
+        final StringBuilder sb = new StringBuilder(POSITION_KEY_LENGTH);
+        for (int i = positionString.length(); i < POSITION_KEY_LENGTH; i++) {
+            sb.append('0');
         }
+        return sb.append(positionString).toString();
+    }
 
-        public BigInteger distanceToHead(final Position head) {
-            final int compareToValue = head.bigInt.compareTo(this.bigInt);
-            if (compareToValue == 0) {
-                return BigInteger.ZERO;
-            } else if (compareToValue == 1) {
-                return head.bigInt.subtract(this.bigInt);
-            }
+    private static long parsePosition(final String positionKey) {
+        return Long.parseLong(positionKey, POSITION_RADIX) % POSITION_COUNT;
+    }
 
-            final BigInteger tailToMax = MAXIMUM_POSITION.subtract(this.bigInt);
-            final BigInteger minToHead = head.bigInt.subtract(MINIMUM_POSITION);
-            return minToHead.add(tailToMax).add(BigInteger.ONE);
-        }
+    private static String leaseKey(final long leaseID, final int index) {
+        return LEASE_KEY_PREFIX + leaseID + "_" + index;
+    }
 
-        public String toString() {
-            final StringBuilder sb = new StringBuilder();
-            sb.append(bigInt.toString(RADIX).toUpperCase());
-            while (sb.length() < 6) {
-                sb.insert(0, "0");
+    private static final Comparator<String> LEASE_KEY_COMPARATOR = new Comparator<String>() {
+        public int compare(final String o1, final String o2) {
+            final String[] parts1 = o1.substring(LEASE_KEY_PREFIX.length()).split("_");
+            final String[] parts2 = o2.substring(LEASE_KEY_PREFIX.length()).split("_");
+            for (int i = 0; i < 2; i++) {
+                final int result = Long.valueOf(parts1[i]).compareTo(Long.valueOf(parts2[i]));
+                if (result != 0) {
+                    return result;
+                }
             }
-            return sb.toString();
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            final Position position = (Position) o;
-
-            return bigInt.equals(position.bigInt);
+            return 0;
         }
-
-        @Override
-        public int hashCode() {
-            return bigInt.hashCode();
+    };
+
+    private static class LeaseRecord {
+        private final long leaseID;
+        private final List<String> leaseKeys;
+        private final List<String> values;
+        private final long expirationTime;
+
+        private LeaseRecord(final long leaseID, final List<String> leaseKeys, final List<String> values, final long expirationTime) {
+            this.leaseID = leaseID;
+            this.leaseKeys = leaseKeys;
+            this.values = values;
+            this.expirationTime = expirationTime;
         }
     }
 
     private static class InternalQueue {
         private final LocalDB localDB;
         private final LocalDB.DB DB;
-        private volatile Position headPosition;
-        private volatile Position tailPosition;
+        private volatile long headPosition;
+        private volatile long tailPosition;
+        private volatile int size;
+        private final TreeMap<Long, LeaseRecord> leases = new TreeMap<>();
+        private long leaseCounter;
         private boolean developerDebug = false;
         private static final int DEBUG_MAX_ROWS = 50;
         private static final int DEBUG_MAX_WIDTH = 120;
@@ -537,30 +629,83 @@ public class
 
         private void init()
                 throws LocalDBException {
-            if (!checkVersion()) {
+            final String storedVersion = localDB.get(DB, KEY_VERSION);
+            if (VALUE_VERSION.equals(storedVersion)) {
+                if (!readPositions()) {
+                    LOGGER.warn("stored positions of db " + DB + " are missing or unreadable, the stored events will be purged!");
+                    clear();
+                }
+            } else if (LEGACY_VALUE_VERSION.equals(storedVersion)) {
+                migrateLegacyPositions();
+            } else {
+                LOGGER.warn("values in db " + DB + " use an outdated format, the stored events will be purged!");
                 clear();
             }
 
-            final String headPositionStr = localDB.get(DB, KEY_HEAD_POSITION);
-            final String tailPositionStr = localDB.get(DB, KEY_TAIL_POSITION);
-
-            headPosition = headPositionStr != null && headPositionStr.length() > 0 ? new Position(headPositionStr) : new Position("0");
-            tailPosition = tailPositionStr != null && tailPositionStr.length() > 0 ? new Position(tailPositionStr) : new Position("0");
-
-            LOGGER.trace("loaded for db " + DB + "; headPosition=" + headPosition + ", tailPosition=" + tailPosition + ", size=" + this.size());
+            LOGGER.trace("loaded for db " + DB + "; headPosition=" + positionKey(headPosition) + ", tailPosition=" + positionKey(tailPosition) + ", size=" + size);
 
             repair();
+            recoverLeases();
 
             debugOutput("post init()");
         }
 
-        private boolean checkVersion() throws LocalDBException {
-            final String storedVersion = localDB.get(DB, KEY_VERSION);
-            if (storedVersion == null || !VALUE_VERSION.equals(storedVersion)) {
-                LOGGER.warn("values in db " + DB + " use an outdated format, the stored events will be purged!");
+        private boolean readPositions() throws LocalDBException {
+            final String storedPositions = localDB.get(DB, KEY_POSITIONS);
+            if (storedPositions == null) {
                 return false;
             }
-            return true;
+            final String[] values = storedPositions.split(",");
+            if (values.length != 3) {
+                return false;
+            }
+            try {
+                headPosition = parsePosition(values[0]);
+                tailPosition = parsePosition(values[1]);
+                size = Integer.parseInt(values[2]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            return size >= 0 && size <= MAX_SIZE;
+        }
+
+        private String positionsValue(final long headPosition, final long tailPosition, final int size) {
+            return positionKey(headPosition) + "," + positionKey(tailPosition) + "," + size;
+        }
+
+        private void writePositions(final long headPosition, final long tailPosition, final int size)
+                throws LocalDBException
+        {
+            localDB.put(DB, KEY_POSITIONS, positionsValue(headPosition, tailPosition, size));
+            this.headPosition = headPosition;
+            this.tailPosition = tailPosition;
+            this.size = size;
+        }
+
+        /**
+         * Convert the separately stored head and tail positions of the previous format.  Value keys are unchanged,
+         * so only the position records are rewritten.
+         */
+        private void migrateLegacyPositions() throws LocalDBException {
+            final String headPositionStr = localDB.get(DB, KEY_HEAD_POSITION);
+            final String tailPositionStr = localDB.get(DB, KEY_TAIL_POSITION);
+
+            final long legacyHead = headPositionStr != null && headPositionStr.length() > 0 ? parsePosition(headPositionStr) : 0;
+            final long legacyTail = tailPositionStr != null && tailPositionStr.length() > 0 ? parsePosition(tailPositionStr) : 0;
+            final int legacySize = legacyHead == legacyTail && localDB.get(DB, positionKey(legacyHead)) == null
+                    ? 0
+                    : distanceToHead(legacyTail, legacyHead) + 1;
+
+            final Map<String, String> keyValueMap = new HashMap<>();
+            keyValueMap.put(KEY_POSITIONS, positionsValue(legacyHead, legacyTail, legacySize));
+            keyValueMap.put(KEY_VERSION, VALUE_VERSION);
+            localDB.putAll(DB, keyValueMap);
+            localDB.removeAll(DB, Arrays.asList(KEY_HEAD_POSITION, KEY_TAIL_POSITION));
+
+            headPosition = legacyHead;
+            tailPosition = legacyTail;
+            size = legacySize;
+            LOGGER.info("migrated db " + DB + " with " + size + " stored events to queue format " + VALUE_VERSION);
         }
 
         public void clear()
@@ -569,12 +714,14 @@ public class
                 LOCK.writeLock().lock();
                 localDB.truncate(DB);
 
-                headPosition = new Position("0");
-                tailPosition = new Position("0");
-                localDB.put(DB, KEY_HEAD_POSITION, headPosition.toString());
-                localDB.put(DB, KEY_TAIL_POSITION, tailPosition.toString());
-
-                localDB.put(DB, KEY_VERSION, VALUE_VERSION);
+                final Map<String, String> keyValueMap = new HashMap<>();
+                keyValueMap.put(KEY_POSITIONS, positionsValue(0, 0, 0));
+                keyValueMap.put(KEY_VERSION, VALUE_VERSION);
+                localDB.putAll(DB, keyValueMap);
+                headPosition = 0;
+                tailPosition = 0;
+                size = 0;
+                leases.clear();
 
                 debugOutput("post clear()");
             } finally {
@@ -582,24 +729,27 @@ public class
             }
         }
 
-        public int size()
-                throws LocalDBException
-        {
-            try {
-                LOCK.readLock().lock();
-                return internalSize();
-            } finally {
-                LOCK.readLock().unlock();
-            }
+        public int size() {
+            return size;
         }
 
-        private int internalSize()
+        /**
+         * Read consecutive values starting at {@code position}, moving towards the tail if {@code towardsTail} is
+         * true or towards the head otherwise.
+         */
+        private List<String> readValues(final long position, final int count, final boolean towardsTail)
                 throws LocalDBException
         {
-            if (headPosition.equals(tailPosition) && localDB.get(DB, headPosition.toString()) == null) {
-                return 0;
+            final List<String> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(positionKey(towardsTail ? previousPosition(position, i) : nextPosition(position, i)));
+            }
+            final Map<String, String> storedValues = localDB.getAll(DB, keys);
+            final List<String> returnList = new ArrayList<>(count);
+            for (final String key : keys) {
+                returnList.add(storedValues.get(key));
             }
-            return tailPosition.distanceToHead(headPosition).intValue() + 1;
+            return returnList;
         }
 
         public List<String> removeFirst(final int removalCount) throws LocalDBException {
@@ -608,26 +758,26 @@ public class
 
                 debugOutput("pre removeFirst()");
 
-                if (removalCount < 1) {
-                    Collections.emptyList();
+                final int count = Math.min(removalCount, size);
+                if (count < 1) {
+                    return Collections.emptyList();
                 }
 
-                final List<String> removalKeys = new ArrayList<>();
-                final List<String> removedValues = new ArrayList<>();
-                Position previousHead = headPosition;
-                int removedPositions = 0;
-                while (removedPositions < removalCount) {
-                    removalKeys.add(previousHead.toString());
-                    final String loopValue = localDB.get(DB, previousHead.toString());
+                final List<String> removalKeys = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    removalKeys.add(positionKey(previousPosition(headPosition, i)));
+                }
+                final List<String> removedValues = new ArrayList<>(count);
+                final Map<String, String> storedValues = localDB.getAll(DB, removalKeys);
+                for (final String key : removalKeys) {
+                    final String loopValue = storedValues.get(key);
                     if (loopValue != null) {
                         removedValues.add(loopValue);
                     }
-                    previousHead = previousHead.equals(tailPosition) ? previousHead : previousHead.previous();
-                    removedPositions++;
                 }
                 localDB.removeAll(DB, removalKeys);
-                localDB.put(DB, KEY_HEAD_POSITION, previousHead.toString());
-                headPosition = previousHead;
+                final long nextHead = count == size ? tailPosition : previousPosition(headPosition, count);
+                writePositions(nextHead, tailPosition, size - count);
 
                 debugOutput("post removeFirst()");
                 return Collections.unmodifiableList(removedValues);
@@ -642,26 +792,26 @@ public class
 
                 debugOutput("pre removeLast()");
 
-                if (removalCount < 1) {
-                    Collections.emptyList();
+                final int count = Math.min(removalCount, size);
+                if (count < 1) {
+                    return Collections.emptyList();
                 }
 
-                final List<String> removalKeys = new ArrayList<>();
-                final List<String> removedValues = new ArrayList<>();
-                Position nextTail = tailPosition;
-                int removedPositions = 0;
-                while (removedPositions < removalCount) {
-                    removalKeys.add(nextTail.toString());
-                    final String loopValue = localDB.get(DB, nextTail.toString());
+                final List<String> removalKeys = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    removalKeys.add(positionKey(nextPosition(tailPosition, i)));
+                }
+                final List<String> removedValues = new ArrayList<>(count);
+                final Map<String, String> storedValues = localDB.getAll(DB, removalKeys);
+                for (final String key : removalKeys) {
+                    final String loopValue = storedValues.get(key);
                     if (loopValue != null) {
                         removedValues.add(loopValue);
                     }
-                    nextTail = nextTail.equals(headPosition) ? nextTail : nextTail.next();
-                    removedPositions++;
                 }
                 localDB.removeAll(DB, removalKeys);
-                localDB.put(DB, KEY_TAIL_POSITION, nextTail.toString());
-                tailPosition = nextTail;
+                final long nextTail = count == size ? headPosition : nextPosition(tailPosition, count);
+                writePositions(headPosition, nextTail, size - count);
 
                 debugOutput("post removeLast()");
                 return Collections.unmodifiableList(removedValues);
@@ -681,27 +831,11 @@ public class
                     return;
                 }
 
-                if (internalSize() + values.size() > MAX_SIZE) {
+                if (size + values.size() > MAX_SIZE) {
                     throw new IllegalStateException("queue overflow");
                 }
 
-                final Iterator<String> valueIterator = values.iterator();
-
-                final Map<String, String> keyValueMap = new HashMap<>();
-                Position nextHead = headPosition;
-
-                if (internalSize() == 0) {
-                    keyValueMap.put(nextHead.toString(), valueIterator.next());
-                }
-
-                while (valueIterator.hasNext()) {
-                    nextHead = nextHead.next();
-                    keyValueMap.put(nextHead.toString(), valueIterator.next());
-                }
-
-                localDB.putAll(DB, keyValueMap);
-                localDB.put(DB, KEY_HEAD_POSITION, String.valueOf(nextHead));
-                headPosition = nextHead;
+                putFirst(values, new HashMap<String, String>());
 
                 debugOutput("post addFirst()");
             } finally {
@@ -709,6 +843,32 @@ public class
             }
         }
 
+        /**
+         * Add values to the head of the queue.  The new values and positions are written in a single batch along
+         * with any {@code keyValueMap} entries already supplied by the caller.
+         */
+        private void putFirst(final Collection<String> values, final Map<String, String> keyValueMap)
+                throws LocalDBException
+        {
+            final Iterator<String> valueIterator = values.iterator();
+            long nextHead = headPosition;
+
+            if (size == 0) {
+                keyValueMap.put(positionKey(nextHead), valueIterator.next());
+            }
+
+            while (valueIterator.hasNext()) {
+                nextHead = nextPosition(nextHead, 1);
+                keyValueMap.put(positionKey(nextHead), valueIterator.next());
+            }
+
+            final int nextSize = size + values.size();
+            keyValueMap.put(KEY_POSITIONS, positionsValue(nextHead, tailPosition, nextSize));
+            localDB.putAll(DB, keyValueMap);
+            headPosition = nextHead;
+            size = nextSize;
+        }
+
         public void addLast(final Collection<String> values) throws LocalDBException {
             try {
                 LOCK.writeLock().lock();
@@ -717,27 +877,29 @@ public class
                     return;
                 }
 
-                if (internalSize() + values.size() > MAX_SIZE) {
+                if (size + values.size() > MAX_SIZE) {
                     throw new IllegalStateException("queue overflow");
                 }
 
                 final Iterator<String> valueIterator = values.iterator();
 
                 final Map<String, String> keyValueMap = new HashMap<>();
-                Position nextTail = tailPosition;
+                long nextTail = tailPosition;
 
-                if (internalSize() == 0) {
-                    keyValueMap.put(nextTail.toString(), valueIterator.next());
+                if (size == 0) {
+                    keyValueMap.put(positionKey(nextTail), valueIterator.next());
                 }
 
                 while (valueIterator.hasNext()) {
-                    nextTail = nextTail.previous();
-                    keyValueMap.put(nextTail.toString(), valueIterator.next());
+                    nextTail = previousPosition(nextTail, 1);
+                    keyValueMap.put(positionKey(nextTail), valueIterator.next());
                 }
 
+                final int nextSize = size + values.size();
+                keyValueMap.put(KEY_POSITIONS, positionsValue(headPosition, nextTail, nextSize));
                 localDB.putAll(DB, keyValueMap);
-                localDB.put(DB, KEY_TAIL_POSITION, String.valueOf(nextTail));
                 tailPosition = nextTail;
+                size = nextSize;
 
                 debugOutput("post addLast()");
             } finally {
@@ -745,28 +907,179 @@ public class
             }
         }
 
-        public List<String> getFirst(int getCount)
-                throws LocalDBException {
+        /**
+         * Move up to {@code count} values from the head of the queue into a lease.  The lease entries and the new
+         * positions are written in a single batch, so a value is always either queued or leased.
+         */
+        public LeaseRecord lease(final int count, final long visibilityTimeoutMs) throws LocalDBException {
+            try {
+                LOCK.writeLock().lock();
+                returnExpiredLeases();
+
+                final int leaseCount = Math.min(count, size);
+                if (leaseCount < 1) {
+                    return null;
+                }
+
+                final List<String> positionKeys = new ArrayList<>(leaseCount);
+                for (int i = 0; i < leaseCount; i++) {
+                    positionKeys.add(positionKey(previousPosition(headPosition, i)));
+                }
+                final Map<String, String> storedValues = localDB.getAll(DB, positionKeys);
+
+                final long leaseID = ++leaseCounter;
+                final Map<String, String> keyValueMap = new HashMap<>();
+                final List<String> leaseKeys = new ArrayList<>(leaseCount);
+                final List<String> values = new ArrayList<>(leaseCount);
+                for (final String positionKey : positionKeys) {
+                    final String value = storedValues.get(positionKey);
+                    if (value != null) {
+                        final String leaseKey = leaseKey(leaseID, values.size());
+                        keyValueMap.put(leaseKey, LEASED_VALUE_PREFIX + value);
+                        leaseKeys.add(leaseKey);
+                        values.add(value);
+                    }
+                }
+
+                final long nextHead = leaseCount == size ? tailPosition : previousPosition(headPosition, leaseCount);
+                keyValueMap.put(KEY_POSITIONS, positionsValue(nextHead, tailPosition, size - leaseCount));
+                localDB.putAll(DB, keyValueMap);
+                localDB.removeAll(DB, positionKeys);
+                headPosition = nextHead;
+                size = size - leaseCount;
+
+                final LeaseRecord leaseRecord = new LeaseRecord(leaseID, leaseKeys, values, System.currentTimeMillis() + visibilityTimeoutMs);
+                leases.put(leaseID, leaseRecord);
+
+                debugOutput("post lease()");
+                return leaseRecord;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        }
+
+        public boolean acknowledge(final long leaseID) throws LocalDBException {
+            try {
+                LOCK.writeLock().lock();
+                final LeaseRecord leaseRecord = leases.remove(leaseID);
+                if (leaseRecord == null) {
+                    return false;
+                }
+                localDB.removeAll(DB, leaseRecord.leaseKeys);
+                return true;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        }
+
+        public boolean release(final long leaseID) throws LocalDBException {
+            try {
+                LOCK.writeLock().lock();
+                final LeaseRecord leaseRecord = leases.remove(leaseID);
+                if (leaseRecord == null) {
+                    return false;
+                }
+                returnToHead(leaseRecord.leaseKeys, leaseRecord.values);
+                debugOutput("post release()");
+                return true;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        }
+
+        public int leasedSize() {
             try {
                 LOCK.readLock().lock();
-                debugOutput("pre getFirst()");
+                int leasedSize = 0;
+                for (final LeaseRecord leaseRecord : leases.values()) {
+                    leasedSize += leaseRecord.values.size();
+                }
+                return leasedSize;
+            } finally {
+                LOCK.readLock().unlock();
+            }
+        }
 
-                if (getCount < 1) {
-                    return Collections.emptyList();
+        private void returnExpiredLeases() throws LocalDBException {
+            final long now = System.currentTimeMillis();
+            // newest leases are returned first so the oldest values end up nearest the head
+            for (final Iterator<LeaseRecord> iterator = leases.descendingMap().values().iterator(); iterator.hasNext(); ) {
+                final LeaseRecord leaseRecord = iterator.next();
+                if (leaseRecord.expirationTime <= now) {
+                    iterator.remove();
+                    returnToHead(leaseRecord.leaseKeys, leaseRecord.values);
+                    LOGGER.debug("lease of " + leaseRecord.values.size() + " values from db " + DB + " expired, values returned to queue");
                 }
+            }
+        }
 
-                if (getCount > internalSize()) {
-                    getCount = internalSize();
+        /**
+         * Put leased values back at the head of the queue in their original order.  The lease entries are overwritten
+         * with a returned marker in the same batch as the values, so a crash before they are removed does not return
+         * the values a second time.
+         */
+        private void returnToHead(final List<String> leaseKeys, final List<String> values) throws LocalDBException {
+            if (leaseKeys.isEmpty()) {
+                return;
+            }
+            if (size + values.size() > MAX_SIZE) {
+                throw new IllegalStateException("queue overflow");
+            }
+            final Map<String, String> keyValueMap = new HashMap<>();
+            for (final String leaseKey : leaseKeys) {
+                keyValueMap.put(leaseKey, RETURNED_LEASE_VALUE);
+            }
+            if (values.isEmpty()) {
+                localDB.putAll(DB, keyValueMap);
+            } else {
+                final List<String> reversedValues = new ArrayList<>(values);
+                Collections.reverse(reversedValues);
+                putFirst(reversedValues, keyValueMap);
+            }
+            localDB.removeAll(DB, leaseKeys);
+        }
+
+        /**
+         * Return values that were leased when the queue was last closed.
+         */
+        private void recoverLeases() throws LocalDBException {
+            final SortedMap<String, String> leaseEntries = new TreeMap<>(LEASE_KEY_COMPARATOR);
+            final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = LocalDBUtility.prefixIterator(localDB, DB, LEASE_KEY_PREFIX);
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    leaseEntries.put(entry.getKey(), entry.getValue());
                 }
+            } finally {
+                iterator.close();
+            }
+            if (leaseEntries.isEmpty()) {
+                return;
+            }
 
-                final List<String> returnList = new ArrayList<>();
+            final List<String> values = new ArrayList<>();
+            for (final String value : leaseEntries.values()) {
+                if (value != null && value.startsWith(LEASED_VALUE_PREFIX)) {
+                    values.add(value.substring(LEASED_VALUE_PREFIX.length()));
+                }
+            }
+            returnToHead(new ArrayList<>(leaseEntries.keySet()), values);
+            LOGGER.info("returned " + values.size() + " values leased before shutdown to db " + DB);
+        }
 
-                Position nextHead = headPosition;
-                while (returnList.size() < getCount) {
-                    returnList.add(localDB.get(DB, nextHead.toString()));
-                    nextHead = nextHead.previous();
+        public List<String> getFirst(final int getCount)
+                throws LocalDBException {
+            try {
+                LOCK.readLock().lock();
+                debugOutput("pre getFirst()");
+
+                final int count = Math.min(getCount, size);
+                if (count < 1) {
+                    return Collections.emptyList();
                 }
 
+                final List<String> returnList = readValues(headPosition, count, true);
+
                 debugOutput("post getFirst()");
 
                 return returnList;
@@ -775,28 +1088,19 @@ public class
             }
         }
 
-        public List<String> getLast(int getCount)
+        public List<String> getLast(final int getCount)
                 throws LocalDBException {
             try {
                 LOCK.readLock().lock();
 
                 debugOutput("pre getLast()");
 
-                if (getCount < 1) {
+                final int count = Math.min(getCount, size);
+                if (count < 1) {
                     return Collections.emptyList();
                 }
 
-                if (getCount > internalSize()) {
-                    getCount = internalSize();
-                }
-
-                final List<String> returnList = new ArrayList<>();
-
-                Position nextTail = tailPosition;
-                while (returnList.size() < getCount) {
-                    returnList.add(localDB.get(DB, nextTail.toString()));
-                    nextTail = nextTail.next();
-                }
+                final List<String> returnList = readValues(tailPosition, count, false);
 
                 debugOutput("post getLast()");
 
@@ -814,8 +1118,8 @@ public class
             final StringBuilder sb = new StringBuilder();
             try {
                 sb.append(input);
-                sb.append("  tailPosition=").append(tailPosition).append(", headPosition=").append(headPosition).append(", db=").append(DB);
-                sb.append(", size=").append(internalSize()).append("\n");
+                sb.append("  tailPosition=").append(positionKey(tailPosition)).append(", headPosition=").append(positionKey(headPosition)).append(", db=").append(DB);
+                sb.append(", size=").append(size).append("\n");
 
                 LocalDB.LocalDBIterator<String> keyIter = null;
                 try {
@@ -849,23 +1153,33 @@ public class
 
             debugOutput("pre repair()");
 
+            long repairedHead = headPosition;
+            long repairedTail = tailPosition;
+            int repairedSize = size;
+
             // trim the top.
-            while (!headPosition.equals(tailPosition) && localDB.get(DB,headPosition.toString()) == null) {
-                headPosition = headPosition.previous();
-                localDB.put(DB, KEY_HEAD_POSITION, headPosition.toString());
+            while (repairedSize > 0 && localDB.get(DB, positionKey(repairedHead)) == null) {
+                repairedHead = repairedSize == 1 ? repairedHead : previousPosition(repairedHead, 1);
+                repairedSize--;
                 headTrim++;
             }
 
             // trim the bottom.
-            while (!headPosition.equals(tailPosition) && localDB.get(DB,tailPosition.toString()) == null) {
-                tailPosition = tailPosition.next();
-                localDB.put(DB, KEY_TAIL_POSITION, tailPosition.toString());
+            while (repairedSize > 0 && localDB.get(DB, positionKey(repairedTail)) == null) {
+                repairedTail = repairedSize == 1 ? repairedTail : nextPosition(repairedTail, 1);
+                repairedSize--;
                 tailTrim++;
             }
 
+            if (repairedSize == 0) {
+                repairedTail = repairedHead;
+            }
+
             if (tailTrim == 0 && headTrim == 0) {
                 LOGGER.trace("repair unnecessary for " + DB);
             } else {
+                writePositions(repairedHead, repairedTail, repairedSize);
+
                 if (headTrim > 0) {
                     LOGGER.warn("trimmed " + headTrim + " from head position against database " + DB);
                 }
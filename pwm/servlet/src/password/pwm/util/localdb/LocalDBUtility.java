@@ -37,6 +37,7 @@ import password.pwm.util.logging.PwmLogger;
 import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -45,6 +46,8 @@ public class LocalDBUtility {
     private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBUtility.class);
 
     final static List<LocalDB.DB> BACKUP_IGNORE_DBs;
+    private static final int SNAPSHOT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
     private final LocalDB localDB;
     private int exportLineCounter;
     private int importLineCounter;
@@ -105,18 +108,24 @@ public class LocalDBUtility {
         },30 * 1000, 30 * 1000);
 
 
+        final LocalDBSnapshot snapshot = openSnapshot(exportedDBs());
+        final LocalDBCompressor valueDecoder = snapshotValueDecoder();
         final CSVPrinter csvPrinter = Helper.makeCsvPrinter(new GZIPOutputStream(outputStream));
         try {
             csvPrinter.printComment(PwmConstants.PWM_APP_NAME + " " + PwmConstants.SERVLET_VERSION + " LocalDB export on " + PwmConstants.DEFAULT_DATETIME_FORMAT.format(new Date()));
             for (LocalDB.DB loopDB : LocalDB.DB.values()) {
                 if (!BACKUP_IGNORE_DBs.contains(loopDB)) {
                     csvPrinter.printComment("Export of " + loopDB.toString());
-                    final LocalDB.LocalDBIterator<String> localDBIterator = localDB.iterator(loopDB);
+                    final LocalDB.LocalDBIterator<Map.Entry<String, String>> localDBIterator = snapshot != null
+                            ? snapshot.entryIterator(loopDB)
+                            : storedValueLocalDB().entryIterator(loopDB, null, null);
                     try {
                         while (localDBIterator.hasNext()) {
-                            final String key = localDBIterator.next();
-                            final String value = localDB.get(loopDB, key);
-                            csvPrinter.printRecord(loopDB.toString(), key, value);
+                            final Map.Entry<String, String> entry = localDBIterator.next();
+                            final String value = snapshot != null
+                                    ? valueDecoder.decompressData(entry.getValue())
+                                    : entry.getValue();
+                            csvPrinter.printRecord(loopDB.toString(), entry.getKey(), value);
                             exportLineCounter++;
                         }
                     } finally {
@@ -125,6 +134,9 @@ public class LocalDBUtility {
                 }
             }
         } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
             if (csvPrinter != null) {
                 csvPrinter.printComment("export completed at " + PwmConstants.DEFAULT_DATETIME_FORMAT.format(new Date()));
                 csvPrinter.close();
@@ -135,6 +147,45 @@ public class LocalDBUtility {
         statTimer.cancel();
     }
 
+    /**
+     * Export a point-in-time snapshot of the LocalDB to a binary archive, see {@link LocalDBSnapshotArchive}.  The
+     * LocalDB remains available for writes during the export, and each db is read and compressed by its own thread.
+     * The expiration index is not exported since the import rebuilds it.
+     */
+    public void exportSnapshot(final OutputStream outputStream, final Appendable debugOutput)
+            throws PwmOperationalException, IOException
+    {
+        if (outputStream == null) {
+            throw new PwmOperationalException(PwmError.ERROR_UNKNOWN,"outputFileStream for exportSnapshot cannot be null");
+        }
+
+        final Set<LocalDB.DB> snapshotDBs = exportedDBs();
+        snapshotDBs.remove(LocalDB.DB.EXPIRATION_INDEX);
+        final LocalDBSnapshot snapshot = openSnapshot(snapshotDBs);
+        if (snapshot == null) {
+            throw new PwmOperationalException(PwmError.ERROR_UNKNOWN,"LocalDB does not support snapshots");
+        }
+
+        writeStringToOut(debugOutput,"snapshot export beginning, snapshot time " + PwmConstants.DEFAULT_DATETIME_FORMAT.format(snapshot.getTimestamp()));
+        final long startTime = System.currentTimeMillis();
+        final AtomicLong recordCounter = new AtomicLong();
+        final Timer statTimer = new Timer(true);
+        statTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                writeStringToOut(debugOutput," exported " + recordCounter.get() + " records");
+            }
+        },30 * 1000, 30 * 1000);
+
+        try {
+            final long exportedRecords = LocalDBSnapshotArchive.write(snapshot, snapshotValueDecoder(), outputStream, SNAPSHOT_THREADS, recordCounter);
+            writeStringToOut(debugOutput, "snapshot export complete, exported " + exportedRecords + " records in " + TimeDuration.fromCurrent(startTime).asLongString());
+        } finally {
+            statTimer.cancel();
+            snapshot.close();
+        }
+    }
+
     private static void writeStringToOut(final Appendable out, final String string) {
         if (out == null) {
             return;
@@ -160,6 +211,13 @@ public class LocalDBUtility {
             throw new PwmOperationalException(PwmError.ERROR_UNKNOWN,"inputFile for importLocalDB does not exist");
         }
 
+        final InputStream fileInputStream = new BufferedInputStream(new FileInputStream(inputFile));
+        if (LocalDBSnapshotArchive.isArchive(fileInputStream)) {
+            importSnapshot(fileInputStream, out);
+            return;
+        }
+        fileInputStream.close();
+
         writeStringToOut(out, "counting records in input file...");
         importLineCounter = 0;
         Reader csvReader = null;
@@ -182,10 +240,63 @@ public class LocalDBUtility {
         importLocalDB(inputStream, out, totalLines);
     }
 
+    /**
+     * Import either a CSV export or a snapshot archive.
+     */
     public void importLocalDB(final InputStream inputStream, final Appendable out)
             throws PwmOperationalException, IOException
     {
-        importLocalDB(inputStream, out, 0);
+        final InputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        if (LocalDBSnapshotArchive.isArchive(bufferedInputStream)) {
+            importSnapshot(bufferedInputStream, out);
+        } else {
+            importLocalDB(bufferedInputStream, out, 0);
+        }
+    }
+
+    /**
+     * Import a snapshot archive written by {@link #exportSnapshot(OutputStream, Appendable)}.  The archive chunks are
+     * loaded by parallel threads, and the expiration index is built once every record has been loaded rather than
+     * maintained record by record.
+     */
+    public void importSnapshot(final InputStream inputStream, final Appendable out)
+            throws PwmOperationalException, IOException
+    {
+        this.prepareForImport();
+
+        writeStringToOut(out, "beginning snapshot restore...");
+        final long startTime = System.currentTimeMillis();
+        final AtomicLong recordCounter = new AtomicLong();
+        final Timer statTimer = new Timer(true);
+        statTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                writeStringToOut(out," restored " + recordCounter.get() + " records");
+            }
+        },30 * 1000, 30 * 1000);
+
+        final Set<LocalDB.DB> importedDBs;
+        try {
+            importedDBs = LocalDBSnapshotArchive.read(inputStream, storedValueLocalDB(), SNAPSHOT_THREADS, recordCounter);
+        } finally {
+            statTimer.cancel();
+        }
+
+        final LocalDBExpiration expiration = findInChain(localDB, LocalDBExpiration.class);
+        if (expiration != null) {
+            for (final LocalDB.DB loopDB : importedDBs) {
+                if (loopDB != LocalDB.DB.EXPIRATION_INDEX) {
+                    final int indexedRecords = expiration.rebuildIndex(loopDB);
+                    if (indexedRecords > 0) {
+                        writeStringToOut(out, " built " + indexedRecords + " expiration index entries for " + loopDB);
+                    }
+                }
+            }
+        }
+
+        this.markImportComplete();
+
+        writeStringToOut(out, "snapshot restore complete, restored " + recordCounter.get() + " records in " + TimeDuration.fromCurrent(startTime).asLongString());
     }
 
     private void importLocalDB(final InputStream inputStream, final Appendable out, final int totalLines)
@@ -201,6 +312,7 @@ public class LocalDBUtility {
         final Date startTime = new Date();
         final TransactionSizeCalculator transactionCalculator = new TransactionSizeCalculator(900, 50, 50 * 1000);
 
+        final LocalDB importLocalDB = storedValueLocalDB();
         final Map<LocalDB.DB,Map<String,String>> transactionMap = new HashMap<>();
         for (final LocalDB.DB loopDB : LocalDB.DB.values()) {
             transactionMap.put(loopDB,new TreeMap<String, String>());
@@ -239,7 +351,7 @@ public class LocalDBUtility {
                 if (cachedTransactions >= transactionCalculator.getTransactionSize()) {
                     final long startTxnTime = System.currentTimeMillis();
                     for (final LocalDB.DB loopDB : LocalDB.DB.values()) {
-                        localDB.putAll(loopDB, transactionMap.get(loopDB));
+                        importLocalDB.putAll(loopDB, transactionMap.get(loopDB));
                         transactionMap.get(loopDB).clear();
                     }
                     transactionCalculator.recordLastTransactionDuration(TimeDuration.fromCurrent(startTxnTime));
@@ -251,7 +363,7 @@ public class LocalDBUtility {
         }
 
         for (final LocalDB.DB loopDB : LocalDB.DB.values()) {
-            localDB.putAll(loopDB, transactionMap.get(loopDB));
+            importLocalDB.putAll(loopDB, transactionMap.get(loopDB));
             transactionMap.get(loopDB).clear();
         }
 
@@ -274,23 +386,23 @@ public class LocalDBUtility {
         long uncompressedChars = 0;
         long compressedCharSavings = 0;
 
-        final LocalDBCompressor compressorLocalDB = localDB instanceof LocalDBCompressor
-                ? (LocalDBCompressor) localDB
+        final LocalDBCompressor chainCompressor = findInChain(localDB, LocalDBCompressor.class);
+        final LocalDBCompressor compressorLocalDB = chainCompressor != null
+                ? chainCompressor
                 : new LocalDBCompressor(localDB, 0, true);
 
-        LocalDB.LocalDBIterator<String> iter = null;
+        LocalDB.LocalDBIterator<Map.Entry<String, String>> iter = null;
         try {
-            iter = compressorLocalDB.iterator(db);
+            iter = compressorLocalDB.innerLocalDB.entryIterator(db, null, null);
             while (iter.hasNext()) {
-                final String key = iter.next();
-                final String rawValue = compressorLocalDB.innerLocalDB.get(db, key);
+                final String rawValue = iter.next().getValue();
                 if (rawValue != null) {
                     totalValues++;
                     storedChars += rawValue.length();
-                    if (rawValue.startsWith(LocalDBCompressor.COMPRESS_PREFIX)) {
+                    if (rawValue.startsWith(LocalDBCompressor.COMPRESS_PREFIX) || rawValue.startsWith(LocalDBCompressor.DEFLATE_PREFIX)) {
                         compressedValues++;
 
-                        final String uncompressedValue = compressorLocalDB.get(db, key);
+                        final String uncompressedValue = compressorLocalDB.decompressData(rawValue);
                         uncompressedChars += uncompressedValue.length();
 
                         final int diff = uncompressedValue.length() - rawValue.length();
@@ -317,9 +429,225 @@ public class LocalDBUtility {
         returnObj.put(STATS_KEY.COMPRESSED_CHAR_DIFF,compressedCharSavings);
         returnObj.put(STATS_KEY.STORED_CHARS,storedChars);
         returnObj.put(STATS_KEY.AVG_VALUE_LENGTH,avgValueLength);
+
+        final LocalDBReadCache readCache = findInChain(localDB, LocalDBReadCache.class);
+        final Map<LocalDBReadCache.CacheStat, Long> cacheStats = readCache == null ? null : readCache.cacheStats(db);
+        if (cacheStats != null) {
+            returnObj.put(STATS_KEY.CACHE_HITS,cacheStats.get(LocalDBReadCache.CacheStat.HITS));
+            returnObj.put(STATS_KEY.CACHE_MISSES,cacheStats.get(LocalDBReadCache.CacheStat.MISSES));
+            returnObj.put(STATS_KEY.CACHE_EVICTIONS,cacheStats.get(LocalDBReadCache.CacheStat.EVICTIONS));
+        }
         return returnObj;
     }
 
+    /**
+     * @return the operation counts and latencies recorded for the db by the {@link LocalDBAdaptor} of the chain, or
+     * null if the chain does not include an adaptor
+     */
+    public static Map<LocalDBOperationStats.Operation, LocalDBOperationStats.OperationSummary> operationStats(
+            final LocalDB localDB,
+            final LocalDB.DB db
+    )
+    {
+        final LocalDBAdaptor adaptor = findInChain(localDB, LocalDBAdaptor.class);
+        return adaptor == null ? null : adaptor.getOperationStats().summarize(db);
+    }
+
+    /**
+     * The counts returned by {@link #operationStats(LocalDB, LocalDB.DB)} cover only the current process.  A tool
+     * opening the LocalDB on its own reads the stats the last writable process saved when it closed the LocalDB.
+     *
+     * @return the saved operation stats, or null if none have been saved
+     */
+    public static LocalDBOperationStats.SavedStats savedOperationStats(final LocalDB localDB)
+            throws LocalDBException
+    {
+        return LocalDBOperationStats.parseMetaValue(localDB.get(LocalDB.DB.PWM_META, LocalDBOperationStats.META_KEY));
+    }
+
+    /**
+     * Exports and imports read and write values as stored beneath {@link LocalDBExpiration}, so that record
+     * expirations and the expiration index are carried along with the data.
+     */
+    private LocalDB storedValueLocalDB() {
+        final LocalDBExpiration expiration = findInChain(localDB, LocalDBExpiration.class);
+        return expiration == null ? localDB : expiration.innerLocalDB;
+    }
+
+    private static Set<LocalDB.DB> exportedDBs() {
+        final Set<LocalDB.DB> dbs = EnumSet.allOf(LocalDB.DB.class);
+        dbs.removeAll(BACKUP_IGNORE_DBs);
+        return dbs;
+    }
+
+    /**
+     * Open a snapshot on the adaptor at the bottom of the chain, after committing any writes still held by
+     * {@link LocalDBWriteBehind}.
+     * @return the snapshot, or null if the chain does not end in a {@link LocalDBAdaptor}
+     */
+    private LocalDBSnapshot openSnapshot(final Set<LocalDB.DB> dbs)
+            throws LocalDBException
+    {
+        final LocalDBWriteBehind writeBehind = findInChain(localDB, LocalDBWriteBehind.class);
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+        final LocalDBAdaptor adaptor = findInChain(localDB, LocalDBAdaptor.class);
+        return adaptor == null ? null : adaptor.openSnapshot(dbs);
+    }
+
+    /**
+     * Snapshots read values as stored by the adaptor, so values compressed by {@link LocalDBCompressor} are decoded
+     * to match {@link #storedValueLocalDB()}.
+     */
+    private LocalDBCompressor snapshotValueDecoder() {
+        final LocalDBCompressor chainCompressor = findInChain(localDB, LocalDBCompressor.class);
+        return chainCompressor != null ? chainCompressor : new LocalDBCompressor(localDB, 0, false);
+    }
+
+    /**
+     * Find a decorator of the given type in the chain of LocalDB wrappers built by {@link LocalDBFactory}.
+     * @return the decorator, or null if it is not part of the chain
+     */
+    public static <T extends LocalDB> T findInChain(final LocalDB localDB, final Class<T> type) {
+        LocalDB loopDB = localDB;
+        while (loopDB != null) {
+            if (type.isInstance(loopDB)) {
+                return type.cast(loopDB);
+            }
+            if (loopDB instanceof LocalDBExpiration) {
+                loopDB = ((LocalDBExpiration) loopDB).innerLocalDB;
+            } else if (loopDB instanceof LocalDBReadCache) {
+                loopDB = ((LocalDBReadCache) loopDB).innerLocalDB;
+            } else if (loopDB instanceof LocalDBWriteBehind) {
+                loopDB = ((LocalDBWriteBehind) loopDB).innerLocalDB;
+            } else if (loopDB instanceof LocalDBCompressor) {
+                loopDB = ((LocalDBCompressor) loopDB).innerLocalDB;
+            } else {
+                loopDB = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a record that expires at {@code expirationDate} using the {@link LocalDBExpiration} of the chain.  A LocalDB
+     * built without one stores the record without an expiration, so callers must still check the expiration they
+     * keep with the value.
+     *
+     * @return true if the key previously existed
+     */
+    public static boolean put(
+            final LocalDB localDB,
+            final LocalDB.DB db,
+            final String key,
+            final String value,
+            final Date expirationDate
+    )
+            throws LocalDBException
+    {
+        final LocalDBExpiration expiration = findInChain(localDB, LocalDBExpiration.class);
+        if (expiration == null) {
+            return localDB.put(db, key, value);
+        }
+        return expiration.put(db, key, value, expirationDate);
+    }
+
+    /**
+     * Check for records that will never expire on their own, such as records written before a db was given expiring
+     * records.  Every record of a LocalDB built without a {@link LocalDBExpiration} counts as unexpiring.
+     */
+    public static boolean containsUnexpiringRecords(final LocalDB localDB, final LocalDB.DB db)
+            throws LocalDBException
+    {
+        final LocalDBExpiration expiration = findInChain(localDB, LocalDBExpiration.class);
+        if (expiration == null) {
+            return localDB.size(db) > 0;
+        }
+        return expiration.containsUnexpiringRecords(db);
+    }
+
+    /**
+     * Iterate the entries of a db whose keys begin with the prefix, in ascending key order.
+     */
+    public static LocalDB.LocalDBIterator<Map.Entry<String, String>> prefixIterator(
+            final LocalDB localDB,
+            final LocalDB.DB db,
+            final String prefix
+    )
+            throws LocalDBException
+    {
+        return localDB.entryIterator(db, prefix, prefixEndKey(prefix));
+    }
+
+    /**
+     * @return the lowest key greater than every key that begins with the prefix, or null if there is none
+     */
+    static String prefixEndKey(final String prefix) {
+        if (prefix == null) {
+            return null;
+        }
+        int length = prefix.length();
+        while (length > 0 && prefix.charAt(length - 1) == Character.MAX_VALUE) {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return prefix.substring(0, length - 1) + (char)(prefix.charAt(length - 1) + 1);
+    }
+
+    static boolean keyInRange(final String key, final String fromKey, final String toKey) {
+        return (fromKey == null || key.compareTo(fromKey) >= 0) && (toKey == null || key.compareTo(toKey) < 0);
+    }
+
+    /**
+     * Entry iterator over a sorted list of keys that reads each value as the iterator advances.  Keys whose value has
+     * been removed since the list was made are skipped.
+     */
+    abstract static class KeyListEntryIterator implements LocalDB.LocalDBIterator<Map.Entry<String, String>> {
+        private final Iterator<String> keyIterator;
+        private Map.Entry<String, String> nextEntry;
+
+        KeyListEntryIterator(final List<String> sortedKeys) {
+            this.keyIterator = sortedKeys.iterator();
+        }
+
+        abstract String readValue(String key) throws LocalDBException;
+
+        public boolean hasNext() {
+            while (nextEntry == null && keyIterator.hasNext()) {
+                final String key = keyIterator.next();
+                final String value;
+                try {
+                    value = readValue(key);
+                } catch (LocalDBException e) {
+                    throw new IllegalStateException("error during db iteration: " + e.getMessage(), e);
+                }
+                if (value != null) {
+                    nextEntry = new AbstractMap.SimpleImmutableEntry<>(key, value);
+                }
+            }
+            return nextEntry != null;
+        }
+
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, String> returnEntry = nextEntry;
+            nextEntry = null;
+            return returnEntry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("entry iterators do not support removals");
+        }
+
+        public void close() {
+        }
+    }
+
     public enum STATS_KEY {
         TOTAL_VALUES,
         COMPRESSED_VALUES,
@@ -328,6 +656,9 @@ public class LocalDBUtility {
         STORED_CHARS,
         COMPRESSED_CHAR_DIFF,
         AVG_VALUE_LENGTH,
+        CACHE_HITS,
+        CACHE_MISSES,
+        CACHE_EVICTIONS,
     }
 
     public void prepareForImport()
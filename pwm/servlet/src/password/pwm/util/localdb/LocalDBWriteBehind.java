@@ -0,0 +1,482 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces writes from many threads into group commits against the wrapped {@link LocalDB}.  Pending writes are held
+ * in an in-memory overlay, so reads always see the caller's own writes.
+ * <p/>
+ * Each {@link LocalDB.DB} has a {@link Durability}.  {@link Durability#SYNC} writes block until the group containing
+ * them has been committed, while {@link Durability#ASYNC} writes return immediately and are committed within
+ * {@code maxWaitMs} or as soon as {@code maxBatchSize} writes are pending.
+ */
+public class LocalDBWriteBehind implements LocalDB {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(LocalDBWriteBehind.class);
+
+    private static final Object REMOVED = new Object();
+
+    public enum Durability {
+        SYNC,
+        ASYNC,
+    }
+
+    final LocalDB innerLocalDB;
+    private final Map<DB, Durability> durabilities;
+    private final long maxWaitMs;
+    private final int maxBatchSize;
+
+    private final Map<DB, ConcurrentMap<String, Object>> pendingWrites = new EnumMap<>(DB.class);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicLong writeSequence = new AtomicLong();
+    private final AtomicInteger unflushedWrites = new AtomicInteger();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedWriteCount = new AtomicLong();
+
+    // guarded by flushMonitor.  Sequences are tracked per db so that a db whose commits fail does not hold up or
+    // fail the writers of other dbs.
+    private final Object flushMonitor = new Object();
+    private final Map<DB, Long> flushedSequences = new EnumMap<>(DB.class);
+    private final Map<DB, Long> failedSequences = new EnumMap<>(DB.class);
+    private final Map<DB, LocalDBException> lastFlushErrors = new EnumMap<>(DB.class);
+    private boolean flushRequested;
+
+    private volatile boolean closed;
+    private final Thread flushThread;
+
+    LocalDBWriteBehind(
+            final LocalDB innerLocalDB,
+            final Map<DB, Durability> durabilities,
+            final long maxWaitMs,
+            final int maxBatchSize,
+            final String threadName
+    ) {
+        this.innerLocalDB = innerLocalDB;
+        this.durabilities = new EnumMap<>(durabilities);
+        this.maxWaitMs = maxWaitMs;
+        this.maxBatchSize = maxBatchSize;
+        for (final DB db : DB.values()) {
+            pendingWrites.put(db, new ConcurrentHashMap<String, Object>());
+            flushedSequences.put(db, 0L);
+            failedSequences.put(db, 0L);
+            if (!this.durabilities.containsKey(db)) {
+                this.durabilities.put(db, Durability.SYNC);
+            }
+        }
+
+        flushThread = new FlushThread();
+        flushThread.setName(threadName);
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * @param asyncDBs comma separated list of {@link LocalDB.DB} names that should use {@link Durability#ASYNC}, all
+     *                 other dbs use {@link Durability#SYNC}.
+     */
+    static Map<DB, Durability> parseDurabilities(final String asyncDBs) {
+        final Map<DB, Durability> durabilities = new EnumMap<>(DB.class);
+        for (final DB db : DB.values()) {
+            durabilities.put(db, Durability.SYNC);
+        }
+        if (asyncDBs != null) {
+            for (final String name : asyncDBs.split(",")) {
+                if (name.trim().length() > 0) {
+                    try {
+                        durabilities.put(DB.valueOf(name.trim()), Durability.ASYNC);
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.warn("ignoring unknown LocalDB db name '" + name.trim() + "' in write-behind async db list");
+                    }
+                }
+            }
+        }
+        return durabilities;
+    }
+
+    @Override
+    public void close() throws LocalDBException {
+        closed = true;
+        synchronized (flushMonitor) {
+            flushRequested = true;
+            flushMonitor.notifyAll();
+        }
+        try {
+            flushThread.join(maxWaitMs * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            LOGGER.debug("closed, committed " + flushedWriteCount.get() + " writes in " + flushCount.get() + " group commits");
+            innerLocalDB.close();
+        }
+    }
+
+    @Override
+    public boolean contains(final DB db, final String key) throws LocalDBException {
+        final Object pendingValue = pendingWrites.get(db).get(key);
+        if (pendingValue != null) {
+            return pendingValue != REMOVED;
+        }
+        return innerLocalDB.contains(db, key);
+    }
+
+    @Override
+    public String get(final DB db, final String key) throws LocalDBException {
+        final Object pendingValue = pendingWrites.get(db).get(key);
+        if (pendingValue != null) {
+            return pendingValue == REMOVED ? null : (String)pendingValue;
+        }
+        return innerLocalDB.get(db, key);
+    }
+
+    @Override
+    public LocalDBIterator<String> iterator(final DB db) throws LocalDBException {
+        flush(EnumSet.of(db));
+        return innerLocalDB.iterator(db);
+    }
+
+    @Override
+    public LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        flush(EnumSet.of(db));
+        return innerLocalDB.entryIterator(db, fromKey, toKey);
+    }
+
+    @Override
+    public Map<String, String> getAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        final Map<String, String> returnMap = new HashMap<>();
+        final List<String> unwrittenKeys = new ArrayList<>();
+        final ConcurrentMap<String, Object> pending = pendingWrites.get(db);
+        for (final String key : keys) {
+            final Object pendingValue = pending.get(key);
+            if (pendingValue == null) {
+                unwrittenKeys.add(key);
+            } else if (pendingValue != REMOVED) {
+                returnMap.put(key, (String)pendingValue);
+            }
+        }
+        if (!unwrittenKeys.isEmpty()) {
+            returnMap.putAll(innerLocalDB.getAll(db, unwrittenKeys));
+        }
+        return returnMap;
+    }
+
+    @Override
+    public void putAll(final DB db, final Map<String, String> keyValueMap) throws LocalDBException {
+        for (final String key : keyValueMap.keySet()) {
+            validateWrite(db, key, keyValueMap.get(key));
+        }
+
+        if (durability(db, keyValueMap.keySet()) == Durability.SYNC && keyValueMap.size() >= maxBatchSize) {
+            // large batches are already a group commit of their own, so skip copying them through the overlay.
+            flushLock.lock();
+            try {
+                flush(EnumSet.of(db));
+                innerLocalDB.putAll(db, keyValueMap);
+            } finally {
+                flushLock.unlock();
+            }
+            return;
+        }
+
+        write(db, new HashMap<String, Object>(keyValueMap));
+    }
+
+    @Override
+    public Status status() {
+        return innerLocalDB.status();
+    }
+
+    @Override
+    public boolean put(final DB db, final String key, final String value) throws LocalDBException {
+        validateWrite(db, key, value);
+        final boolean preExisting = contains(db, key);
+        write(db, Collections.<String, Object>singletonMap(key, value));
+        return preExisting;
+    }
+
+    @Override
+    public boolean remove(final DB db, final String key) throws LocalDBException {
+        validateWrite(db, key, "");
+        final boolean preExisting = contains(db, key);
+        write(db, Collections.singletonMap(key, REMOVED));
+        return preExisting;
+    }
+
+    @Override
+    public void removeAll(final DB db, final Collection<String> keys) throws LocalDBException {
+        final Map<String, Object> removals = new HashMap<>();
+        for (final String key : keys) {
+            validateWrite(db, key, "");
+            removals.put(key, REMOVED);
+        }
+        write(db, removals);
+    }
+
+    @Override
+    public int size(final DB db) throws LocalDBException {
+        flush(EnumSet.of(db));
+        return innerLocalDB.size(db);
+    }
+
+    @Override
+    public void truncate(final DB db) throws LocalDBException {
+        flushLock.lock();
+        try {
+            pendingWrites.get(db).clear();
+            innerLocalDB.truncate(db);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public File getFileLocation() {
+        return innerLocalDB.getFileLocation();
+    }
+
+    private void write(final DB db, final Map<String, Object> values) throws LocalDBException {
+        if (closed) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is closed"));
+        }
+
+        pendingWrites.get(db).putAll(values);
+        final long sequence = writeSequence.incrementAndGet();
+        final int unflushed = unflushedWrites.addAndGet(values.size());
+
+        if (durability(db, values.keySet()) == Durability.ASYNC) {
+            if (unflushed >= maxBatchSize) {
+                synchronized (flushMonitor) {
+                    flushRequested = true;
+                    flushMonitor.notifyAll();
+                }
+            }
+            return;
+        }
+
+        synchronized (flushMonitor) {
+            flushRequested = true;
+            flushMonitor.notifyAll();
+            while (flushedSequences.get(db) < sequence) {
+                if (failedSequences.get(db) >= sequence) {
+                    break;
+                }
+                if (!flushThread.isAlive()) {
+                    throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is closed"));
+                }
+                try {
+                    flushMonitor.wait(maxWaitMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "interrupted while waiting for LocalDB commit"));
+                }
+            }
+        }
+        discardFailedWrite(db, values, sequence);
+    }
+
+    /**
+     * Called when the group commit containing a sync write has failed.  Holding the flush lock means no commit is in
+     * progress, so either a retry has since committed the write, or its entries are taken out of the overlay so that
+     * readers do not see a value that the writer was told was not written, and the flush thread does not retry it.
+     */
+    private void discardFailedWrite(final DB db, final Map<String, Object> values, final long sequence)
+            throws LocalDBException
+    {
+        flushLock.lock();
+        try {
+            final LocalDBException flushError;
+            synchronized (flushMonitor) {
+                if (flushedSequences.get(db) >= sequence) {
+                    return;
+                }
+                flushError = lastFlushErrors.get(db);
+            }
+            final ConcurrentMap<String, Object> pending = pendingWrites.get(db);
+            for (final Map.Entry<String, Object> entry : values.entrySet()) {
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+            throw flushError;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Commit every pending write to the inner LocalDB.  Entries stay in the overlay until the inner LocalDB has
+     * accepted them, and are only removed if they have not been overwritten in the mean time.
+     */
+    void flush() throws LocalDBException {
+        flush(EnumSet.allOf(DB.class));
+    }
+
+    /**
+     * A db that fails to commit does not stop the remaining dbs from being committed.  The first failure is thrown
+     * once every db has been attempted.
+     */
+    private void flush(final Set<DB> dbs) throws LocalDBException {
+        flushLock.lock();
+        try {
+            final long targetSequence = writeSequence.get();
+            if (dbs.size() == DB.values().length) {
+                unflushedWrites.set(0);
+            }
+            LocalDBException firstError = null;
+            for (final DB db : dbs) {
+                try {
+                    flushDB(db);
+                    synchronized (flushMonitor) {
+                        flushedSequences.put(db, Math.max(flushedSequences.get(db), targetSequence));
+                    }
+                } catch (LocalDBException e) {
+                    synchronized (flushMonitor) {
+                        failedSequences.put(db, targetSequence);
+                        lastFlushErrors.put(db, e);
+                    }
+                    if (firstError == null) {
+                        firstError = e;
+                    }
+                }
+            }
+            synchronized (flushMonitor) {
+                flushMonitor.notifyAll();
+            }
+            if (firstError != null) {
+                throw firstError;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushDB(final DB db) throws LocalDBException {
+        final ConcurrentMap<String, Object> pending = pendingWrites.get(db);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final Map<String, Object> snapshot = new HashMap<>(pending);
+        final Map<String, String> puts = new HashMap<>();
+        final List<String> removes = new ArrayList<>();
+        for (final Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                removes.add(entry.getKey());
+            } else {
+                puts.put(entry.getKey(), (String)entry.getValue());
+            }
+        }
+
+        if (!puts.isEmpty()) {
+            innerLocalDB.putAll(db, puts);
+        }
+        if (!removes.isEmpty()) {
+            innerLocalDB.removeAll(db, removes);
+        }
+
+        for (final Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            pending.remove(entry.getKey(), entry.getValue());
+        }
+        flushCount.incrementAndGet();
+        flushedWriteCount.addAndGet(snapshot.size());
+    }
+
+    /**
+     * Expiration index entries are written with the durability of the db they index, so that expiring writes to an
+     * async db are not held up by a sync index commit.
+     */
+    private Durability durability(final DB db, final Collection<String> keys) {
+        if (db != DB.EXPIRATION_INDEX) {
+            return durabilities.get(db);
+        }
+        for (final String key : keys) {
+            final DB indexedDB = LocalDBExpiration.indexedDB(key);
+            if (indexedDB == null || durabilities.get(indexedDB) == Durability.SYNC) {
+                return Durability.SYNC;
+            }
+        }
+        return Durability.ASYNC;
+    }
+
+    private static void validateWrite(final DB db, final String key, final String value) throws LocalDBException {
+        // async writes are only checked by the inner LocalDB at commit time, so reject bad values up front.
+        if (db == null) {
+            throw new NullPointerException("db cannot be null");
+        }
+        if (key == null) {
+            throw new NullPointerException("key cannot be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value cannot be null");
+        }
+        if (key.length() > LocalDB.MAX_KEY_LENGTH) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_UNKNOWN,"key length " + key.length() + " is greater than max " + LocalDB.MAX_KEY_LENGTH));
+        }
+        if (value.length() > LocalDB.MAX_VALUE_LENGTH) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_UNKNOWN,"value length " + value.length() + " is greater than max " + LocalDB.MAX_VALUE_LENGTH));
+        }
+    }
+
+    private class FlushThread extends Thread {
+        public void run() {
+            boolean lastFlushFailed = false;
+            while (!closed) {
+                synchronized (flushMonitor) {
+                    // after a failure only a sync writer's request cuts the retry delay short.
+                    if (!flushRequested && (lastFlushFailed || unflushedWrites.get() < maxBatchSize)) {
+                        try {
+                            flushMonitor.wait(maxWaitMs);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    flushRequested = false;
+                }
+                try {
+                    flush();
+                    lastFlushFailed = false;
+                } catch (LocalDBException e) {
+                    LOGGER.error("error committing pending LocalDB writes, will retry: " + e.getMessage());
+                    lastFlushFailed = true;
+                } catch (Exception e) {
+                    LOGGER.error("unexpected error committing pending LocalDB writes, will retry: " + e.getMessage(), e);
+                    lastFlushFailed = true;
+                }
+            }
+        }
+    }
+}
@@ -30,10 +30,14 @@ import password.pwm.util.logging.PwmLogger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -42,24 +46,36 @@ import static password.pwm.util.localdb.LocalDB.DB;
 /**
  * @author Jason D. Rivard
  */
-public class MapDB_LocalDB implements LocalDBProvider {
+public class MapDB_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
 // ------------------------------ FIELDS ------------------------------
 
     private static final PwmLogger LOGGER = PwmLogger.forClass(MapDB_LocalDB.class, true);
     private static final String FILE_NAME = "mapdb";
 
     private org.mapdb.DB recman;
-    private final Map<LocalDB.DB, Map<String, String>> treeMap = new HashMap<>();
+    private final Map<LocalDB.DB, ConcurrentNavigableMap<String, String>> treeMap = new EnumMap<>(LocalDB.DB.class);
     private File dbDirectory;
 
-    // operation lock
-    private final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    // operation locks, one per db so that writes to one db do not block reads of another.
+    private final Map<LocalDB.DB, ReadWriteLock> locks = new EnumMap<>(LocalDB.DB.class);
+
+    // the mapdb commit covers every db, so concurrent writers to different dbs share commits.  A writer's changes are
+    // durable once committedSequence reaches the sequence number it was issued after making them.
+    private final Object commitLock = new Object();
+    private final AtomicLong writeSequence = new AtomicLong();
+    private long committedSequence = 0;
+
+    // BTreeMap.size() walks every leaf of the tree.
+    private final LocalDBRecordCounts recordCounts = new LocalDBRecordCounts();
 
     private LocalDB.Status status = LocalDB.Status.NEW;
 
 // --------------------------- CONSTRUCTORS ---------------------------
 
     MapDB_LocalDB() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.put(db, new ReentrantReadWriteLock());
+        }
     }
 
 // ------------------------ INTERFACE METHODS ------------------------
@@ -69,6 +85,7 @@ public class MapDB_LocalDB implements LocalDBProvider {
 
     public void close()
             throws LocalDBException {
+        final boolean wasOpen = status == LocalDB.Status.OPEN;
         status = LocalDB.Status.CLOSED;
 
         if (recman == null) {
@@ -76,18 +93,24 @@ public class MapDB_LocalDB implements LocalDBProvider {
         }
 
         try {
-            LOCK.writeLock().lock();
+            lockAll();
             final long startTime = System.currentTimeMillis();
             LOGGER.debug("closing pwmDB");
-            recman.commit();
-            recman.close();
-            recman = null;
+            synchronized (commitLock) {
+                if (wasOpen) {
+                    treeMap.get(LocalDB.DB.PWM_META).put(LocalDBRecordCounts.META_KEY, recordCounts.toMetaValue());
+                }
+                recman.commit();
+                recman.close();
+                recman = null;
+            }
+            treeMap.clear();
             LOGGER.info("LocalDB closed in " + TimeDuration.fromCurrent(startTime).asCompactString());
         } catch (Exception e) {
             LOGGER.error("error while closing LocalDB: " + e.getMessage(), e);
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            unlockAll();
         }
     }
 
@@ -98,24 +121,24 @@ public class MapDB_LocalDB implements LocalDBProvider {
     public boolean contains(final LocalDB.DB db, final String key)
             throws LocalDBException {
         try {
-            LOCK.readLock().lock();
+            locks.get(db).readLock().lock();
             return get(db, key) != null;
         } finally {
-            LOCK.readLock().unlock();
+            locks.get(db).readLock().unlock();
         }
     }
 
     public String get(final LocalDB.DB db, final String key)
             throws LocalDBException {
         try {
-            LOCK.readLock().lock();
+            locks.get(db).readLock().lock();
             final Map<String, String> tree = getHTree(db);
             final Object value = tree.get(key);
             return value == null ? null : value.toString();
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.readLock().unlock();
+            locks.get(db).readLock().unlock();
         }
     }
 
@@ -131,18 +154,33 @@ public class MapDB_LocalDB implements LocalDBProvider {
 
         final long startTime = System.currentTimeMillis();
         try {
-            LOCK.writeLock().lock();
+            lockAll();
             this.dbDirectory = dbDirectory;
             final File dbFile = new File(dbDirectory.getAbsolutePath() + File.separator + FILE_NAME);
             recman = DBMaker.newFileDB(dbFile).make();
 
+            // open every tree up front so the tree map is not modified while dbs are locked independently
+            for (final LocalDB.DB db : LocalDB.DB.values()) {
+                treeMap.put(db, openHTree(db.toString(), recman));
+            }
+
+            final ConcurrentNavigableMap<String, String> metaTree = treeMap.get(LocalDB.DB.PWM_META);
+            recordCounts.load(metaTree.get(LocalDBRecordCounts.META_KEY), new LocalDBRecordCounts.RecordCounter() {
+                public long countRecords(final DB db) {
+                    return treeMap.get(db).size();
+                }
+            });
+            if (metaTree.remove(LocalDBRecordCounts.META_KEY) != null) {
+                recman.commit();
+            }
+
             LOGGER.info("LocalDB opened in " + TimeDuration.fromCurrent(startTime).asCompactString());
             status = LocalDB.Status.OPEN;
         } catch (Exception e) {
             LOGGER.error("error while opening localDB: " + e.getMessage(), e);
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            unlockAll();
         }
     }
 
@@ -155,34 +193,83 @@ public class MapDB_LocalDB implements LocalDBProvider {
         }
     }
 
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException {
+        try {
+            ConcurrentNavigableMap<String, String> tree = getHTree(db);
+            if (fromKey != null) {
+                tree = tree.tailMap(fromKey, true);
+            }
+            if (toKey != null) {
+                tree = tree.headMap(toKey, false);
+            }
+            return new MapDBEntryIterator(tree.entrySet().iterator());
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
+        }
+    }
+
+    public Map<String, String> getAll(final DB db, final Collection<String> keys)
+            throws LocalDBException {
+        try {
+            locks.get(db).readLock().lock();
+            final Map<String, String> tree = getHTree(db);
+            final Map<String, String> returnMap = new HashMap<>();
+            for (final String key : keys) {
+                final String value = tree.get(key);
+                if (value != null) {
+                    returnMap.put(key, value);
+                }
+            }
+            return returnMap;
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
+        } finally {
+            locks.get(db).readLock().unlock();
+        }
+    }
+
     public void putAll(final DB db, final Map<String, String> keyValueMap)
             throws LocalDBException {
         try {
-            LOCK.writeLock().lock();
+            locks.get(db).writeLock().lock();
             final Map<String, String> tree = getHTree(db);
-            tree.putAll(keyValueMap);
-            recman.commit();
+            try {
+                for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+                    if (tree.put(entry.getKey(), entry.getValue()) == null) {
+                        recordCounts.increment(db);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // the record manager is shared by every db, so a rollback here would discard other writers' changes.
+                // the puts that did complete stay in the transaction and are committed with the next write.
+                recordCounts.set(db, tree.size());
+                throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "error writing to " + db + ": " + e.getMessage()));
+            }
         } catch (IOException e) {
-            recman.rollback();
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            locks.get(db).writeLock().unlock();
         }
+        commit();
     }
 
     public boolean put(final LocalDB.DB db, final String key, final String value)
             throws LocalDBException {
         final boolean preExists;
         try {
-            LOCK.writeLock().lock();
-            preExists = remove(db, key);
+            locks.get(db).writeLock().lock();
             final Map<String, String> tree = getHTree(db);
-            tree.put(key, value);
-            recman.commit();
+            preExists = tree.put(key, value) != null;
+            if (!preExists) {
+                recordCounts.increment(db);
+            }
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            locks.get(db).writeLock().unlock();
         }
+        commit();
 
         return preExists;
     }
@@ -190,28 +277,33 @@ public class MapDB_LocalDB implements LocalDBProvider {
 
     public boolean remove(final LocalDB.DB db, final String key)
             throws LocalDBException {
+        final String removedValue;
         try {
-            LOCK.writeLock().lock();
+            locks.get(db).writeLock().lock();
             final Map<String, String> tree = getHTree(db);
-            final String removedValue = tree.remove(key);
-            recman.commit();
-            return removedValue != null;
+            removedValue = tree.remove(key);
+            if (removedValue != null) {
+                recordCounts.decrement(db);
+            }
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            locks.get(db).writeLock().unlock();
         }
+        commit();
+        return removedValue != null;
     }
 
     public int size(final LocalDB.DB db)
             throws LocalDBException {
         try {
-            LOCK.readLock().lock();
-            return getHTree(db).size();
+            locks.get(db).readLock().lock();
+            final Map<String, String> tree = getHTree(db);
+            return LocalDBRecordCounts.isCounted(db) ? recordCounts.size(db) : tree.size();
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.readLock().unlock();
+            locks.get(db).readLock().unlock();
         }
     }
 
@@ -224,15 +316,16 @@ public class MapDB_LocalDB implements LocalDBProvider {
         final long startTime = System.currentTimeMillis();
 
         try {
-            LOCK.writeLock().lock();
+            locks.get(db).writeLock().lock();
             final Map<String, String> tree = getHTree(db);
             tree.keySet().clear();
-            recman.commit();
+            recordCounts.set(db, 0);
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            locks.get(db).writeLock().unlock();
         }
+        commit();
 
         LOGGER.debug("truncate complete of " + db.toString() + ", " + startSize + " records in " + new TimeDuration(System.currentTimeMillis(), startTime).asCompactString() + ", " + size(db) + " records in database");
     }
@@ -244,30 +337,61 @@ public class MapDB_LocalDB implements LocalDBProvider {
     public void removeAll(final LocalDB.DB db, final Collection<String> keys)
             throws LocalDBException {
         try {
-            LOCK.writeLock().lock();
+            locks.get(db).writeLock().lock();
             final Map<String, String> tree = getHTree(db);
-            tree.keySet().removeAll(keys);
-            recman.commit();
+            for (final String key : keys) {
+                if (tree.remove(key) != null) {
+                    recordCounts.decrement(db);
+                }
+            }
         } catch (IOException e) {
             throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,e.getMessage()));
         } finally {
-            LOCK.writeLock().unlock();
+            locks.get(db).writeLock().unlock();
         }
+        commit();
     }
 
 // -------------------------- OTHER METHODS --------------------------
 
-    private Map<String, String> getHTree(final DB keyName)
+    /**
+     * Commit all changes made so far.  If another writer's commit started after this writer's changes were made,
+     * those changes are already durable and no further commit is needed.
+     */
+    private void commit() {
+        final long sequence = writeSequence.incrementAndGet();
+        synchronized (commitLock) {
+            if (committedSequence >= sequence || recman == null) {
+                return;
+            }
+            final long commitSequence = writeSequence.get();
+            recman.commit();
+            committedSequence = commitSequence;
+        }
+    }
+
+    private void lockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            locks.get(db).writeLock().unlock();
+        }
+    }
+
+    private ConcurrentNavigableMap<String, String> getHTree(final DB keyName)
             throws IOException {
-        Map<String, String> tree = treeMap.get(keyName);
+        final ConcurrentNavigableMap<String, String> tree = treeMap.get(keyName);
         if (tree == null) {
-            tree = openHTree(keyName.toString(), recman);
-            treeMap.put(keyName, tree);
+            throw new IOException("LocalDB is not open");
         }
         return tree;
     }
 
-    private static Map<String, String> openHTree(
+    private static ConcurrentNavigableMap<String, String> openHTree(
             final String name,
             final org.mapdb.DB recman
     )
@@ -278,9 +402,12 @@ public class MapDB_LocalDB implements LocalDBProvider {
 // -------------------------- INNER CLASSES --------------------------
 
     private class MapDBIterator<K> implements LocalDB.LocalDBIterator<String> {
+        private final DB db;
         private Iterator<String> theIterator;
+        private String currentKey;
 
         private MapDBIterator(final DB db) throws IOException, LocalDBException {
+            this.db = db;
             this.theIterator = getHTree(db).keySet().iterator();
         }
 
@@ -297,11 +424,16 @@ public class MapDB_LocalDB implements LocalDBProvider {
         }
 
         public String next() {
-            return theIterator.next();
+            currentKey = theIterator.next();
+            return currentKey;
         }
 
         public void remove() {
-            theIterator.remove();
+            try {
+                MapDB_LocalDB.this.remove(db, currentKey);
+            } catch (LocalDBException e) {
+                throw new IllegalStateException(e);
+            }
         }
 
         protected void finalize() throws Throwable {
@@ -310,4 +442,28 @@ public class MapDB_LocalDB implements LocalDBProvider {
         }
     }
 
+    private static class MapDBEntryIterator implements LocalDB.LocalDBIterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, String>> theIterator;
+
+        private MapDBEntryIterator(final Iterator<Map.Entry<String, String>> theIterator) {
+            this.theIterator = theIterator;
+        }
+
+        public boolean hasNext() {
+            return theIterator.hasNext();
+        }
+
+        public Map.Entry<String, String> next() {
+            final Map.Entry<String, String> entry = theIterator.next();
+            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("entry iterators do not support removals");
+        }
+
+        public void close() {
+        }
+    }
+
 }
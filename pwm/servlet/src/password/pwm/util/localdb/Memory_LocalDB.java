@@ -28,7 +28,8 @@ import password.pwm.util.Helper;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import static password.pwm.util.localdb.LocalDB.DB;
 
@@ -36,12 +37,15 @@ import static password.pwm.util.localdb.LocalDB.DB;
 /**
  * @author Jason D. Rivard
  */
-public class Memory_LocalDB implements LocalDBProvider {
+public class Memory_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
 // ------------------------------ FIELDS ------------------------------
 
     private static final long MIN_FREE_MEMORY = 1024 * 1024;  // 1mb
     private LocalDB.Status state = LocalDB.Status.NEW;
-    private Map<DB, Map<String, String>> maps = new HashMap<>();
+    private Map<DB, ConcurrentNavigableMap<String, String>> maps = new HashMap<>();
+
+    // the skip list maps count their entries on every size() call.
+    private final LocalDBRecordCounts recordCounts = new LocalDBRecordCounts();
 
 // -------------------------- STATIC METHODS --------------------------
 
@@ -68,7 +72,7 @@ public class Memory_LocalDB implements LocalDBProvider {
 
     public Memory_LocalDB() {
         for (final DB db : LocalDB.DB.values()) {
-            final Map<String, String> newMap = new ConcurrentHashMap<>();
+            final ConcurrentNavigableMap<String, String> newMap = new ConcurrentSkipListMap<>();
             maps.put(db, newMap);
         }
     }
@@ -120,6 +124,35 @@ public class Memory_LocalDB implements LocalDBProvider {
         return new DbIterator(db);
     }
 
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        opertationPreCheck();
+        ConcurrentNavigableMap<String, String> map = maps.get(db);
+        if (fromKey != null) {
+            map = map.tailMap(fromKey, true);
+        }
+        if (toKey != null) {
+            map = map.headMap(toKey, false);
+        }
+        return new DbEntryIterator(map.entrySet().iterator());
+    }
+
+    public Map<String, String> getAll(final DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        opertationPreCheck();
+        final Map<String, String> map = maps.get(db);
+        final Map<String, String> returnMap = new HashMap<>();
+        for (final String key : keys) {
+            final String value = map.get(key);
+            if (value != null) {
+                returnMap.put(key, value);
+            }
+        }
+        return returnMap;
+    }
+
     @LocalDB.WriteOperation
     public void putAll(final DB db, final Map<String, String> keyValueMap)
             throws LocalDBException {
@@ -127,7 +160,11 @@ public class Memory_LocalDB implements LocalDBProvider {
 
         if (keyValueMap != null) {
             final Map<String, String> map = maps.get(db);
-            map.putAll(keyValueMap);
+            for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+                if (map.put(entry.getKey(), entry.getValue()) == null) {
+                    recordCounts.increment(db);
+                }
+            }
         }
     }
 
@@ -137,7 +174,11 @@ public class Memory_LocalDB implements LocalDBProvider {
         opertationPreCheck();
 
         final Map<String, String> map = maps.get(db);
-        return null != map.put(key, value);
+        final boolean preExisting = null != map.put(key, value);
+        if (!preExisting) {
+            recordCounts.increment(db);
+        }
+        return preExisting;
     }
 
     @LocalDB.WriteOperation
@@ -146,7 +187,11 @@ public class Memory_LocalDB implements LocalDBProvider {
         opertationPreCheck();
 
         final Map<String, String> map = maps.get(db);
-        return null != map.remove(key);
+        final boolean removed = null != map.remove(key);
+        if (removed) {
+            recordCounts.decrement(db);
+        }
+        return removed;
     }
 
     public void returnIterator(final DB db) throws LocalDBException {
@@ -156,6 +201,9 @@ public class Memory_LocalDB implements LocalDBProvider {
             throws LocalDBException {
         opertationPreCheck();
 
+        if (LocalDBRecordCounts.isCounted(db)) {
+            return recordCounts.size(db);
+        }
         final Map<String, String> map = maps.get(db);
         return map.size();
     }
@@ -167,12 +215,18 @@ public class Memory_LocalDB implements LocalDBProvider {
 
         final Map<String, String> map = maps.get(db);
         map.clear();
+        recordCounts.set(db, 0);
     }
 
     public void removeAll(final DB db, final Collection<String> keys) throws LocalDBException {
         opertationPreCheck();
 
-        maps.get(db).keySet().removeAll(keys);
+        final Map<String, String> map = maps.get(db);
+        for (final String key : keys) {
+            if (map.remove(key) != null) {
+                recordCounts.decrement(db);
+            }
+        }
     }
 
     public LocalDB.Status getStatus() {
@@ -185,9 +239,12 @@ public class Memory_LocalDB implements LocalDBProvider {
 // -------------------------- INNER CLASSES --------------------------
 
     private class DbIterator<K> implements LocalDB.LocalDBIterator<String> {
+        private final DB db;
         private final Iterator<String> iterator;
+        private String currentKey;
 
         private DbIterator(final DB db) {
+            this.db = db;
             iterator = maps.get(db).keySet().iterator();
         }
 
@@ -196,11 +253,42 @@ public class Memory_LocalDB implements LocalDBProvider {
         }
 
         public String next() {
-            return iterator.next();
+            currentKey = iterator.next();
+            return currentKey;
+        }
+
+        public void remove() {
+            if (currentKey == null) {
+                throw new IllegalStateException();
+            }
+            if (maps.get(db).remove(currentKey) != null) {
+                recordCounts.decrement(db);
+            }
+            currentKey = null;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class DbEntryIterator implements LocalDB.LocalDBIterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, String>> iterator;
+
+        private DbEntryIterator(final Iterator<Map.Entry<String, String>> iterator) {
+            this.iterator = iterator;
+        }
+
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        public Map.Entry<String, String> next() {
+            final Map.Entry<String, String> entry = iterator.next();
+            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
         }
 
         public void remove() {
-            iterator.remove();
+            throw new UnsupportedOperationException("entry iterators do not support removals");
         }
 
         public void close() {
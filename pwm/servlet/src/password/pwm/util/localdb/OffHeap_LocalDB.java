@@ -0,0 +1,707 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.PwmConstants;
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static password.pwm.util.localdb.LocalDB.DB;
+
+/**
+ * In-memory LocalDB provider that keeps its records outside of the java heap.  Keys and values are stored as UTF-8
+ * in direct {@link ByteBuffer} slabs, and each db has an open addressing hash index of slab addresses held in
+ * primitive arrays, so a db of millions of records is a handful of buffers and arrays rather than millions of
+ * strings for the garbage collector to trace.
+ * <p/>
+ * Records are appended to the last slab of the db and never changed in place.  A replaced or removed record is left
+ * as garbage until the db is compacted, which happens as part of a write once the garbage reaches the configured
+ * share of the written bytes.  Compaction and index resizing build a new {@link Table} and leave the old one intact,
+ * so open iterators continue over the table they started with.
+ * <p/>
+ * Like {@link Memory_LocalDB}, nothing is persisted.  Off-heap memory is limited by the jvm's
+ * {@code -XX:MaxDirectMemorySize} setting and optionally by the {@code offheap.maxBytes} init parameter.
+ */
+public class OffHeap_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
+// ------------------------------ FIELDS ------------------------------
+
+    private static final PwmLogger LOGGER = PwmLogger.forClass(OffHeap_LocalDB.class);
+
+    private static final String PARAM_SLAB_MAX_BYTES = "offheap.slabMaxBytes";
+    private static final String PARAM_MAX_BYTES = "offheap.maxBytes";
+    private static final String PARAM_COMPACTION_GARBAGE_RATIO = "offheap.compactionGarbageRatio";
+
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int MIN_SLAB_BYTES = 64 * 1024;
+    private static final int MIN_INDEX_CAPACITY = 16;
+
+    // addresses are (slab number + 1) << 32 | slab offset, so neither marker is a valid address.
+    private static final long EMPTY = 0;
+    private static final long REMOVED = 1;
+
+    private final Map<DB, Store> stores = new EnumMap<>(DB.class);
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private int slabMaxBytes = 16 * 1024 * 1024;
+    private long maxBytes = 0;
+    private double compactionGarbageRatio = 0.5;
+    private boolean readOnly;
+    private volatile LocalDB.Status status = LocalDB.Status.NEW;
+
+// --------------------------- CONSTRUCTORS ---------------------------
+
+    public OffHeap_LocalDB() {
+        for (final DB db : DB.values()) {
+            stores.put(db, new Store());
+        }
+    }
+
+// --------------------- Interface LocalDBProvider ---------------------
+
+    public void init(final File dbDirectory, final Map<String, String> initParameters, final boolean readOnly)
+            throws LocalDBException
+    {
+        if (status == LocalDB.Status.OPEN) {
+            throw new IllegalStateException("cannot init db more than one time");
+        }
+        if (status == LocalDB.Status.CLOSED) {
+            throw new IllegalStateException("db is closed");
+        }
+        this.readOnly = readOnly;
+        slabMaxBytes = (int)Math.min(1024L * 1024 * 1024, Math.max(MIN_SLAB_BYTES, Long.parseLong(readParam(initParameters, PARAM_SLAB_MAX_BYTES, String.valueOf(slabMaxBytes)))));
+        maxBytes = Long.parseLong(readParam(initParameters, PARAM_MAX_BYTES, String.valueOf(maxBytes)));
+        compactionGarbageRatio = Double.parseDouble(readParam(initParameters, PARAM_COMPACTION_GARBAGE_RATIO, String.valueOf(compactionGarbageRatio)));
+        status = LocalDB.Status.OPEN;
+    }
+
+    public void close()
+            throws LocalDBException
+    {
+        if (status != LocalDB.Status.OPEN) {
+            return;
+        }
+        LOGGER.debug("closing, " + debugString());
+        status = LocalDB.Status.CLOSED;
+        for (final Store store : stores.values()) {
+            store.lock.writeLock().lock();
+            try {
+                store.reset();
+            } finally {
+                store.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public LocalDB.Status getStatus() {
+        return status;
+    }
+
+    public File getFileLocation() {
+        return null;
+    }
+
+    public boolean contains(final DB db, final String key)
+            throws LocalDBException
+    {
+        checkOpen();
+        final Store store = stores.get(db);
+        store.lock.readLock().lock();
+        try {
+            return store.table.findSlot(hash(key), encode(key)) >= 0;
+        } finally {
+            store.lock.readLock().unlock();
+        }
+    }
+
+    public String get(final DB db, final String key)
+            throws LocalDBException
+    {
+        checkOpen();
+        final Store store = stores.get(db);
+        store.lock.readLock().lock();
+        try {
+            return store.get(key);
+        } finally {
+            store.lock.readLock().unlock();
+        }
+    }
+
+    public LocalDB.LocalDBIterator<String> iterator(final DB db)
+            throws LocalDBException
+    {
+        checkOpen();
+        return new DbIterator(db);
+    }
+
+    /**
+     * The index is not ordered, so the matching keys are copied and sorted before iteration begins.
+     */
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        checkOpen();
+        final Store store = stores.get(db);
+        final List<String> keys = new ArrayList<>();
+        store.lock.readLock().lock();
+        try {
+            final Table table = store.table;
+            for (final long address : table.addresses) {
+                if (address != EMPTY && address != REMOVED) {
+                    final String key = table.readKey(address);
+                    if (LocalDBUtility.keyInRange(key, fromKey, toKey)) {
+                        keys.add(key);
+                    }
+                }
+            }
+        } finally {
+            store.lock.readLock().unlock();
+        }
+        Collections.sort(keys);
+        return new LocalDBUtility.KeyListEntryIterator(keys) {
+            String readValue(final String key) throws LocalDBException {
+                return get(db, key);
+            }
+        };
+    }
+
+    public Map<String, String> getAll(final DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        checkOpen();
+        final Store store = stores.get(db);
+        final Map<String, String> returnMap = new HashMap<>();
+        store.lock.readLock().lock();
+        try {
+            for (final String key : keys) {
+                final String value = store.get(key);
+                if (value != null) {
+                    returnMap.put(key, value);
+                }
+            }
+        } finally {
+            store.lock.readLock().unlock();
+        }
+        return returnMap;
+    }
+
+    public void putAll(final DB db, final Map<String, String> keyValueMap)
+            throws LocalDBException
+    {
+        checkWritable();
+        if (keyValueMap == null || keyValueMap.isEmpty()) {
+            return;
+        }
+        final Store store = stores.get(db);
+        store.lock.writeLock().lock();
+        try {
+            for (final Map.Entry<String, String> entry : keyValueMap.entrySet()) {
+                store.put(entry.getKey(), entry.getValue());
+            }
+            store.compactIfNeeded();
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean put(final DB db, final String key, final String value)
+            throws LocalDBException
+    {
+        checkWritable();
+        final Store store = stores.get(db);
+        store.lock.writeLock().lock();
+        try {
+            final boolean preExisting = store.put(key, value);
+            store.compactIfNeeded();
+            return preExisting;
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(final DB db, final String key)
+            throws LocalDBException
+    {
+        checkWritable();
+        final Store store = stores.get(db);
+        store.lock.writeLock().lock();
+        try {
+            final boolean removed = store.remove(key);
+            store.compactIfNeeded();
+            return removed;
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(final DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        checkWritable();
+        final Store store = stores.get(db);
+        store.lock.writeLock().lock();
+        try {
+            for (final String key : keys) {
+                store.remove(key);
+            }
+            store.compactIfNeeded();
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+    public int size(final DB db)
+            throws LocalDBException
+    {
+        checkOpen();
+        final Store store = stores.get(db);
+        store.lock.readLock().lock();
+        try {
+            return store.table.liveCount;
+        } finally {
+            store.lock.readLock().unlock();
+        }
+    }
+
+    public void truncate(final DB db)
+            throws LocalDBException
+    {
+        checkWritable();
+        final Store store = stores.get(db);
+        store.lock.writeLock().lock();
+        try {
+            store.reset();
+        } finally {
+            store.lock.writeLock().unlock();
+        }
+    }
+
+// -------------------------- OTHER METHODS --------------------------
+
+    /**
+     * @return the capacity of the slabs currently in use by all dbs
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    String debugString() {
+        long records = 0;
+        long liveBytes = 0;
+        for (final Store store : stores.values()) {
+            store.lock.readLock().lock();
+            try {
+                records += store.table.liveCount;
+                liveBytes += store.table.liveBytes;
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+        return "records=" + records + ", liveBytes=" + liveBytes + ", allocatedBytes=" + allocatedBytes.get()
+                + (maxBytes > 0 ? ", maxBytes=" + maxBytes : "");
+    }
+
+    private void checkOpen()
+            throws LocalDBException
+    {
+        if (status != LocalDB.Status.OPEN) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is not open"));
+        }
+    }
+
+    private void checkWritable()
+            throws LocalDBException
+    {
+        if (readOnly) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "LocalDB is open in read-only mode"));
+        }
+        checkOpen();
+    }
+
+    private ByteBuffer allocateSlab(final int size, final boolean enforceLimit)
+            throws LocalDBException
+    {
+        if (enforceLimit && maxBytes > 0 && allocatedBytes.get() + size > maxBytes) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "off-heap LocalDB limit of " + maxBytes + " bytes reached, unable to add new records"));
+        }
+        final ByteBuffer slab;
+        try {
+            slab = ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "out of direct memory, unable to add new records: " + e.getMessage()));
+        }
+        allocatedBytes.addAndGet(size);
+        return slab;
+    }
+
+    private void releaseSlabs(final List<ByteBuffer> slabs) {
+        for (final ByteBuffer slab : slabs) {
+            allocatedBytes.addAndGet(-slab.capacity());
+        }
+    }
+
+    private static byte[] encode(final String value) {
+        return value.getBytes(PwmConstants.DEFAULT_CHARSET);
+    }
+
+    private static int hash(final String key) {
+        final int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the smallest power of two index capacity that holds {@code count} entries within the load factor
+     */
+    private static int capacityFor(final int count) {
+        int capacity = MIN_INDEX_CAPACITY;
+        while (count > capacity / 4 * 3) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private static String readParam(final Map<String, String> initParameters, final String name, final String defaultValue) {
+        final String value = initParameters == null ? null : initParameters.get(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+// -------------------------- INNER CLASSES --------------------------
+
+    /**
+     * The current table of a db.  Reads hold the read lock, and writes, resizes and compactions hold the write lock.
+     */
+    private class Store {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private Table table = new Table(MIN_INDEX_CAPACITY, new ArrayList<ByteBuffer>());
+
+        private String get(final String key) {
+            final int slot = table.findSlot(hash(key), encode(key));
+            return slot < 0 ? null : table.readValue(table.addresses[slot]);
+        }
+
+        private boolean put(final String key, final String value)
+                throws LocalDBException
+        {
+            final int hash = hash(key);
+            final byte[] keyBytes = encode(key);
+            final byte[] valueBytes = encode(value);
+            final int slot = table.findSlot(hash, keyBytes);
+            if (slot < 0 && table.usedSlots + 1 > table.addresses.length / 4 * 3) {
+                // rehashing drops the removed markers, so the index only grows if it is mostly live.
+                table = table.rehash(capacityFor(table.liveCount + 1), table.slabs);
+            }
+            final long address = table.append(keyBytes, valueBytes);
+            table.liveBytes += RECORD_HEADER_LENGTH + keyBytes.length + valueBytes.length;
+            if (slot >= 0) {
+                table.liveBytes -= table.recordLength(table.addresses[slot]);
+                table.addresses[slot] = address;
+                return true;
+            }
+            table.insert(hash, address);
+            table.liveCount++;
+            return false;
+        }
+
+        private boolean remove(final String key) {
+            final int slot = table.findSlot(hash(key), encode(key));
+            if (slot < 0) {
+                return false;
+            }
+            table.liveBytes -= table.recordLength(table.addresses[slot]);
+            table.addresses[slot] = REMOVED;
+            table.liveCount--;
+            return true;
+        }
+
+        private void compactIfNeeded()
+                throws LocalDBException
+        {
+            final long garbageBytes = table.writtenBytes - table.liveBytes;
+            if (garbageBytes < MIN_SLAB_BYTES || garbageBytes < table.writtenBytes * compactionGarbageRatio) {
+                return;
+            }
+            final List<ByteBuffer> oldSlabs = table.slabs;
+            final Table newTable = new Table(capacityFor(table.liveCount), new ArrayList<ByteBuffer>());
+            try {
+                for (int slot = 0; slot < table.addresses.length; slot++) {
+                    final long address = table.addresses[slot];
+                    if (address != EMPTY && address != REMOVED) {
+                        newTable.insert(table.hashes[slot], newTable.copyRecord(table, address));
+                    }
+                }
+            } catch (LocalDBException e) {
+                releaseSlabs(newTable.slabs);
+                LOGGER.warn("unable to compact off-heap LocalDB: " + e.getMessage());
+                return;
+            }
+            newTable.liveCount = table.liveCount;
+            newTable.liveBytes = table.liveBytes;
+            table = newTable;
+            releaseSlabs(oldSlabs);
+        }
+
+        private void reset() {
+            releaseSlabs(table.slabs);
+            table = new Table(MIN_INDEX_CAPACITY, new ArrayList<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Open addressing index with linear probing over records stored in slabs.  Each record is a key length and value
+     * length followed by the UTF-8 key and value.  Slots hold the record address and the hash of its key, so the
+     * table can be rehashed without reading the keys back out of the slabs.
+     */
+    private class Table {
+        private final long[] addresses;
+        private final int[] hashes;
+        private final List<ByteBuffer> slabs;
+        private int usedSlots;
+        private int liveCount;
+        private long liveBytes;
+        private long writtenBytes;
+        private int writeOffset;
+
+        private Table(final int capacity, final List<ByteBuffer> slabs) {
+            this.addresses = new long[capacity];
+            this.hashes = new int[capacity];
+            this.slabs = slabs;
+        }
+
+        private int findSlot(final int hash, final byte[] keyBytes) {
+            final int mask = addresses.length - 1;
+            int slot = hash & mask;
+            while (true) {
+                final long address = addresses[slot];
+                if (address == EMPTY) {
+                    return -1;
+                }
+                if (address != REMOVED && hashes[slot] == hash && keyEquals(address, keyBytes)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Insert a key that is known not to be in the table, reusing the first removed slot on its probe path.
+         */
+        private void insert(final int hash, final long address) {
+            final int mask = addresses.length - 1;
+            int slot = hash & mask;
+            while (addresses[slot] != EMPTY && addresses[slot] != REMOVED) {
+                slot = (slot + 1) & mask;
+            }
+            if (addresses[slot] == EMPTY) {
+                usedSlots++;
+            }
+            addresses[slot] = address;
+            hashes[slot] = hash;
+        }
+
+        private Table rehash(final int capacity, final List<ByteBuffer> slabs) {
+            final Table newTable = new Table(capacity, slabs);
+            for (int slot = 0; slot < addresses.length; slot++) {
+                if (addresses[slot] != EMPTY && addresses[slot] != REMOVED) {
+                    newTable.insert(hashes[slot], addresses[slot]);
+                }
+            }
+            newTable.liveCount = liveCount;
+            newTable.liveBytes = liveBytes;
+            newTable.writtenBytes = writtenBytes;
+            newTable.writeOffset = writeOffset;
+            return newTable;
+        }
+
+        private long append(final byte[] keyBytes, final byte[] valueBytes)
+                throws LocalDBException
+        {
+            final long address = reserve(RECORD_HEADER_LENGTH + keyBytes.length + valueBytes.length, true);
+            final ByteBuffer view = view(address);
+            view.putInt(keyBytes.length);
+            view.putInt(valueBytes.length);
+            view.put(keyBytes);
+            view.put(valueBytes);
+            return address;
+        }
+
+        private long copyRecord(final Table source, final long address)
+                throws LocalDBException
+        {
+            final int length = source.recordLength(address);
+            final ByteBuffer sourceView = source.view(address);
+            sourceView.limit(sourceView.position() + length);
+            final long newAddress = reserve(length, false);
+            view(newAddress).put(sourceView);
+            return newAddress;
+        }
+
+        /**
+         * @return the address of {@code length} bytes at the end of the last slab, adding a slab if it is full
+         */
+        private long reserve(final int length, final boolean enforceLimit)
+                throws LocalDBException
+        {
+            if (slabs.isEmpty() || writeOffset + length > slabs.get(slabs.size() - 1).capacity()) {
+                long slabBytes = 0;
+                for (final ByteBuffer slab : slabs) {
+                    slabBytes += slab.capacity();
+                }
+                // slabs double in size up to the maximum, so small dbs stay small.
+                final int size = Math.max(length, (int)Math.min(slabMaxBytes, Math.max(MIN_SLAB_BYTES, slabBytes)));
+                slabs.add(allocateSlab(size, enforceLimit));
+                writeOffset = 0;
+            }
+            final long address = ((long)slabs.size() << 32) | writeOffset;
+            writeOffset += length;
+            writtenBytes += length;
+            return address;
+        }
+
+        /**
+         * @return a view of the record's slab positioned at the record, safe to use alongside other readers
+         */
+        private ByteBuffer view(final long address) {
+            final ByteBuffer view = slabs.get((int)(address >>> 32) - 1).duplicate();
+            view.position((int)address);
+            return view;
+        }
+
+        private int recordLength(final long address) {
+            final ByteBuffer slab = slabs.get((int)(address >>> 32) - 1);
+            final int offset = (int)address;
+            return RECORD_HEADER_LENGTH + slab.getInt(offset) + slab.getInt(offset + 4);
+        }
+
+        private boolean keyEquals(final long address, final byte[] keyBytes) {
+            final ByteBuffer slab = slabs.get((int)(address >>> 32) - 1);
+            final int offset = (int)address;
+            if (slab.getInt(offset) != keyBytes.length) {
+                return false;
+            }
+            final int keyOffset = offset + RECORD_HEADER_LENGTH;
+            for (int i = 0; i < keyBytes.length; i++) {
+                if (slab.get(keyOffset + i) != keyBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String readKey(final long address) {
+            final ByteBuffer view = view(address);
+            final int keyLength = view.getInt();
+            view.getInt();
+            return readString(view, keyLength);
+        }
+
+        private String readValue(final long address) {
+            final ByteBuffer view = view(address);
+            final int keyLength = view.getInt();
+            final int valueLength = view.getInt();
+            view.position(view.position() + keyLength);
+            return readString(view, valueLength);
+        }
+
+        private String readString(final ByteBuffer view, final int length) {
+            final byte[] bytes = new byte[length];
+            view.get(bytes);
+            return new String(bytes, PwmConstants.DEFAULT_CHARSET);
+        }
+    }
+
+    /**
+     * Iterates the slots of the table that was current when the iterator was created.  Removals made through other
+     * callers are seen if the table has not been replaced since, and records added to a new table are not.
+     */
+    private class DbIterator implements LocalDB.LocalDBIterator<String> {
+        private final DB db;
+        private final Store store;
+        private final Table table;
+        private int nextSlot;
+        private String nextKey;
+        private String currentKey;
+
+        private DbIterator(final DB db) {
+            this.db = db;
+            this.store = stores.get(db);
+            store.lock.readLock().lock();
+            try {
+                this.table = store.table;
+            } finally {
+                store.lock.readLock().unlock();
+            }
+        }
+
+        public boolean hasNext() {
+            if (nextKey != null) {
+                return true;
+            }
+            store.lock.readLock().lock();
+            try {
+                while (nextSlot < table.addresses.length) {
+                    final long address = table.addresses[nextSlot++];
+                    if (address != EMPTY && address != REMOVED) {
+                        nextKey = table.readKey(address);
+                        return true;
+                    }
+                }
+            } finally {
+                store.lock.readLock().unlock();
+            }
+            return false;
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            currentKey = nextKey;
+            nextKey = null;
+            return currentKey;
+        }
+
+        public void remove() {
+            if (currentKey == null) {
+                throw new IllegalStateException();
+            }
+            try {
+                OffHeap_LocalDB.this.remove(db, currentKey);
+            } catch (LocalDBException e) {
+                throw new IllegalStateException(e);
+            }
+            currentKey = null;
+        }
+
+        public void close() {
+        }
+    }
+}
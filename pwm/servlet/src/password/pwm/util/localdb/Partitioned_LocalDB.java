@@ -0,0 +1,503 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Routes groups of {@link LocalDB.DB}s to separately initialized providers so that each group has its own
+ * directory, cache and cleaner.  DBs not assigned to a partition are kept by the default provider.
+ * <p/>
+ * Init parameters prefixed with a partition name and a period apply only to that partition, and override the
+ * unprefixed parameters shared with the default provider.  The {@code <partition>.path} parameter sets the partition's
+ * directory, which otherwise is a subdirectory of the LocalDB directory named for the partition.
+ * <p/>
+ * The partition directories are recorded in a manifest in the LocalDB directory.  When a db is no longer assigned to
+ * a partition, or a partition is removed, its records are moved back to the provider that now holds the db.
+ */
+public class Partitioned_LocalDB implements LocalDBProvider, LocalDBProvider.BulkReadSupport {
+    private static final PwmLogger LOGGER = PwmLogger.forClass(Partitioned_LocalDB.class);
+
+    static final String PATH_PARAMETER = "path";
+    static final String PARTITION_MANIFEST_FILENAME = "localdb-partitions.properties";
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    private final LocalDBProvider defaultProvider;
+    private final Map<String, LocalDBProvider> partitionProviders;
+    private final Map<LocalDB.DB, LocalDBProvider> dbProviders = new EnumMap<>(LocalDB.DB.class);
+    private final Map<LocalDB.DB, String> dbPartitions;
+
+    Partitioned_LocalDB(
+            final LocalDBProvider defaultProvider,
+            final Map<String, LocalDBProvider> partitionProviders,
+            final Map<LocalDB.DB, String> dbPartitions
+    )
+    {
+        this.defaultProvider = defaultProvider;
+        this.partitionProviders = Collections.unmodifiableMap(new LinkedHashMap<>(partitionProviders));
+        this.dbPartitions = Collections.unmodifiableMap(new EnumMap<>(dbPartitions));
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            final String partitionName = dbPartitions.get(db);
+            final LocalDBProvider provider = partitionName == null ? defaultProvider : partitionProviders.get(partitionName);
+            if (provider == null) {
+                throw new IllegalArgumentException("no provider for LocalDB partition " + partitionName);
+            }
+            if (!(provider instanceof LocalDBProvider.BulkReadSupport)) {
+                throw new IllegalArgumentException(provider.getClass().getName() + " does not support partitioning");
+            }
+            dbProviders.put(db, provider);
+        }
+    }
+
+    /**
+     * Parse a partition list of the form {@code name=DB,DB;name=DB}.
+     *
+     * @return the partition name of each assigned db
+     */
+    static Map<LocalDB.DB, String> parsePartitions(final String partitions) {
+        final Map<LocalDB.DB, String> returnMap = new EnumMap<>(LocalDB.DB.class);
+        if (partitions != null) {
+            for (final String entry : partitions.split(";")) {
+                if (entry.trim().length() > 0) {
+                    final String[] parts = entry.trim().split("=");
+                    final String partitionName = parts[0].trim();
+                    if (parts.length != 2 || partitionName.length() < 1 || partitionName.contains(".")) {
+                        LOGGER.warn("ignoring invalid LocalDB partition '" + entry.trim() + "'");
+                        continue;
+                    }
+                    for (final String dbName : parts[1].split(",")) {
+                        try {
+                            returnMap.put(LocalDB.DB.valueOf(dbName.trim()), partitionName);
+                        } catch (IllegalArgumentException e) {
+                            LOGGER.warn("ignoring unknown db '" + dbName.trim() + "' of LocalDB partition " + partitionName);
+                        }
+                    }
+                }
+            }
+        }
+        return returnMap;
+    }
+
+    @Override
+    public void init(final File dbDirectory, final Map<String, String> initParameters, final boolean readOnly)
+            throws LocalDBException
+    {
+        final Map<String, String> sharedParameters = new HashMap<>();
+        for (final Map.Entry<String, String> entry : initParameters.entrySet()) {
+            if (!isPartitionParameter(entry.getKey())) {
+                sharedParameters.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final List<LocalDBProvider> openedProviders = new ArrayList<>();
+        final Map<String, File> partitionDirectories = new LinkedHashMap<>();
+        try {
+            defaultProvider.init(dbDirectory, sharedParameters, readOnly);
+            openedProviders.add(defaultProvider);
+
+            for (final Map.Entry<String, LocalDBProvider> entry : partitionProviders.entrySet()) {
+                final String partitionName = entry.getKey();
+                final String prefix = partitionName + ".";
+                final Map<String, String> partitionParameters = new HashMap<>(sharedParameters);
+                for (final Map.Entry<String, String> parameter : initParameters.entrySet()) {
+                    if (parameter.getKey().startsWith(prefix)) {
+                        partitionParameters.put(parameter.getKey().substring(prefix.length()), parameter.getValue());
+                    }
+                }
+                final String path = partitionParameters.remove(PATH_PARAMETER);
+                final File partitionDirectory = path == null || path.trim().isEmpty()
+                        ? new File(dbDirectory, partitionName)
+                        : new File(path.trim());
+                if (readOnly && !partitionDirectory.exists()) {
+                    throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                            "LocalDB partition " + partitionName + " does not exist at " + partitionDirectory.getAbsolutePath()
+                                    + ", open the LocalDB writable to create it"));
+                }
+                if (partitionDirectory.mkdirs()) {
+                    LOGGER.trace("created directory for LocalDB partition " + partitionName + " at " + partitionDirectory.getAbsolutePath());
+                }
+                entry.getValue().init(partitionDirectory, partitionParameters, readOnly);
+                openedProviders.add(entry.getValue());
+                partitionDirectories.put(partitionName, partitionDirectory.getAbsoluteFile());
+                LOGGER.debug("opened LocalDB partition " + partitionName + " at " + partitionDirectory.getAbsolutePath());
+            }
+
+            final Set<File> openDirectories = new HashSet<>(partitionDirectories.values());
+            openDirectories.add(dbDirectory.getAbsoluteFile());
+            for (final Map.Entry<String, File> entry : readPartitionManifest(dbDirectory).entrySet()) {
+                if (!openDirectories.contains(entry.getValue().getAbsoluteFile())) {
+                    migrateFromRemovedPartition(entry.getKey(), entry.getValue(), sharedParameters, readOnly);
+                }
+            }
+
+            for (final Map.Entry<String, LocalDBProvider> entry : partitionProviders.entrySet()) {
+                migrateFromPartition(entry.getKey(), entry.getValue(), readOnly);
+            }
+            if (readOnly) {
+                for (final LocalDB.DB db : dbPartitions.keySet()) {
+                    checkNoRecords(defaultProvider, db, "default LocalDB");
+                }
+            } else {
+                migrateToPartitions();
+                writePartitionManifest(dbDirectory, partitionDirectories);
+            }
+        } catch (LocalDBException | RuntimeException e) {
+            for (final LocalDBProvider provider : openedProviders) {
+                try {
+                    provider.close();
+                } catch (Exception closeException) {
+                    LOGGER.error("error closing LocalDB partition after failed open: " + closeException.getMessage());
+                }
+            }
+            throw e;
+        }
+    }
+
+    private boolean isPartitionParameter(final String key) {
+        for (final String partitionName : partitionProviders.keySet()) {
+            if (key.startsWith(partitionName + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move records of newly partitioned dbs out of the default provider.  Partitioned dbs are never written to the
+     * default provider, so any records found there are copied again if an earlier move was interrupted.  A read-only
+     * open cannot move them and fails instead, as reads would go to the partition and hide them.
+     */
+    private void migrateToPartitions()
+            throws LocalDBException
+    {
+        for (final Map.Entry<LocalDB.DB, String> entry : dbPartitions.entrySet()) {
+            moveRecords(defaultProvider, entry.getKey(), "LocalDB partition " + entry.getValue());
+        }
+    }
+
+    /**
+     * Move records of dbs that are no longer assigned to a partition back to the provider that now holds them.  A
+     * read-only open cannot move the records, so it fails rather than hide them.
+     */
+    private void migrateFromPartition(final String partitionName, final LocalDBProvider partitionProvider, final boolean readOnly)
+            throws LocalDBException
+    {
+        for (final LocalDB.DB db : LocalDB.DB.values()) {
+            if (!partitionName.equals(dbPartitions.get(db))) {
+                if (readOnly) {
+                    checkNoRecords(partitionProvider, db, "LocalDB partition " + partitionName);
+                } else {
+                    moveRecords(partitionProvider, db, describeOwner(db));
+                }
+            }
+        }
+    }
+
+    /**
+     * Move all records of a partition that has been removed from the configuration back to the providers that now
+     * hold its dbs.  The partition stays in the manifest until the move has completed, so an interrupted move is
+     * resumed on the next open.
+     */
+    private void migrateFromRemovedPartition(
+            final String partitionName,
+            final File partitionDirectory,
+            final Map<String, String> sharedParameters,
+            final boolean readOnly
+    )
+            throws LocalDBException
+    {
+        if (!partitionDirectory.exists()) {
+            LOGGER.warn("directory " + partitionDirectory.getAbsolutePath() + " of removed LocalDB partition " + partitionName + " no longer exists");
+            return;
+        }
+
+        final LocalDBProvider removedProvider;
+        try {
+            removedProvider = defaultProvider.getClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "unable to open removed LocalDB partition " + partitionName + ": " + e.getMessage()));
+        }
+        removedProvider.init(partitionDirectory, sharedParameters, readOnly);
+        try {
+            for (final LocalDB.DB db : LocalDB.DB.values()) {
+                if (readOnly) {
+                    checkNoRecords(removedProvider, db, "removed LocalDB partition " + partitionName + " at " + partitionDirectory.getAbsolutePath());
+                } else {
+                    moveRecords(removedProvider, db, describeOwner(db));
+                }
+            }
+            if (!readOnly) {
+                LOGGER.info("removed LocalDB partition " + partitionName + " is empty, " + partitionDirectory.getAbsolutePath() + " may be deleted");
+            }
+        } finally {
+            removedProvider.close();
+        }
+    }
+
+    private static void checkNoRecords(final LocalDBProvider provider, final LocalDB.DB db, final String description)
+            throws LocalDBException
+    {
+        if (provider.size(db) > 0) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    description + " still holds records of " + db + " which is no longer assigned to it,"
+                            + " open the LocalDB writable to move them"));
+        }
+    }
+
+    private String describeOwner(final LocalDB.DB db) {
+        final String partitionName = dbPartitions.get(db);
+        return partitionName == null ? "default LocalDB" : "LocalDB partition " + partitionName;
+    }
+
+    /**
+     * Copy the records of {@code db} from {@code sourceProvider} to the provider the db is assigned to, then truncate
+     * the db in the source.
+     */
+    private void moveRecords(final LocalDBProvider sourceProvider, final LocalDB.DB db, final String targetDescription)
+            throws LocalDBException
+    {
+        final LocalDBProvider targetProvider = dbProviders.get(db);
+        if (sourceProvider == targetProvider || sourceProvider.size(db) == 0) {
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        int movedRecords = 0;
+        final Map<String, String> batch = new HashMap<>();
+        final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator =
+                ((LocalDBProvider.BulkReadSupport)sourceProvider).entryIterator(db, null, null);
+        try {
+            while (iterator.hasNext()) {
+                final Map.Entry<String, String> record = iterator.next();
+                batch.put(record.getKey(), record.getValue());
+                if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                    targetProvider.putAll(db, batch);
+                    movedRecords += batch.size();
+                    batch.clear();
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+        if (!batch.isEmpty()) {
+            targetProvider.putAll(db, batch);
+            movedRecords += batch.size();
+        }
+        sourceProvider.truncate(db);
+        LOGGER.info("moved " + movedRecords + " records of " + db + " to " + targetDescription
+                + " in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * The manifest in the LocalDB directory lists the directory of each partition, so that data left in a partition
+     * that is later removed from the configuration can be found again.
+     */
+    static boolean hasPartitionManifest(final File dbDirectory) {
+        return new File(dbDirectory, PARTITION_MANIFEST_FILENAME).exists();
+    }
+
+    private static Map<String, File> readPartitionManifest(final File dbDirectory)
+            throws LocalDBException
+    {
+        final Map<String, File> returnMap = new LinkedHashMap<>();
+        final File manifestFile = new File(dbDirectory, PARTITION_MANIFEST_FILENAME);
+        if (!manifestFile.exists()) {
+            return returnMap;
+        }
+        final Properties properties = new Properties();
+        try (FileInputStream inputStream = new FileInputStream(manifestFile)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "unable to read LocalDB partition manifest " + manifestFile.getAbsolutePath() + ": " + e.getMessage()));
+        }
+        for (final String partitionName : properties.stringPropertyNames()) {
+            returnMap.put(partitionName, new File(properties.getProperty(partitionName)));
+        }
+        return returnMap;
+    }
+
+    private static void writePartitionManifest(final File dbDirectory, final Map<String, File> partitionDirectories)
+            throws LocalDBException
+    {
+        final File manifestFile = new File(dbDirectory, PARTITION_MANIFEST_FILENAME);
+        if (partitionDirectories.isEmpty()) {
+            if (manifestFile.exists() && !manifestFile.delete()) {
+                LOGGER.warn("unable to delete LocalDB partition manifest " + manifestFile.getAbsolutePath());
+            }
+            return;
+        }
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, File> entry : partitionDirectories.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().getAbsolutePath());
+        }
+        final File tempFile = new File(dbDirectory, PARTITION_MANIFEST_FILENAME + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            properties.store(outputStream, "LocalDB partition directories");
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "unable to write LocalDB partition manifest " + manifestFile.getAbsolutePath() + ": " + e.getMessage()));
+        }
+        try {
+            Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE,
+                    "unable to replace LocalDB partition manifest " + manifestFile.getAbsolutePath() + ": " + e.getMessage()));
+        }
+    }
+
+    @Override
+    public void close()
+            throws LocalDBException
+    {
+        LocalDBException closeException = null;
+        for (final LocalDBProvider provider : partitionProviders.values()) {
+            try {
+                provider.close();
+            } catch (LocalDBException e) {
+                LOGGER.error("error closing LocalDB partition: " + e.getMessage());
+                closeException = e;
+            }
+        }
+        defaultProvider.close();
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+
+    @Override
+    public boolean contains(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).contains(db, key);
+    }
+
+    @Override
+    public String get(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).get(db, key);
+    }
+
+    @Override
+    public LocalDB.LocalDBIterator<String> iterator(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).iterator(db);
+    }
+
+    @Override
+    public LocalDB.LocalDBIterator<Map.Entry<String, String>> entryIterator(final LocalDB.DB db, final String fromKey, final String toKey)
+            throws LocalDBException
+    {
+        return ((LocalDBProvider.BulkReadSupport)dbProviders.get(db)).entryIterator(db, fromKey, toKey);
+    }
+
+    @Override
+    public Map<String, String> getAll(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        return ((LocalDBProvider.BulkReadSupport)dbProviders.get(db)).getAll(db, keys);
+    }
+
+    @Override
+    public void putAll(final LocalDB.DB db, final Map<String, String> keyValueMap)
+            throws LocalDBException
+    {
+        dbProviders.get(db).putAll(db, keyValueMap);
+    }
+
+    @Override
+    public boolean put(final LocalDB.DB db, final String key, final String value)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).put(db, key, value);
+    }
+
+    @Override
+    public boolean remove(final LocalDB.DB db, final String key)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).remove(db, key);
+    }
+
+    @Override
+    public void removeAll(final LocalDB.DB db, final Collection<String> keys)
+            throws LocalDBException
+    {
+        dbProviders.get(db).removeAll(db, keys);
+    }
+
+    @Override
+    public int size(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        return dbProviders.get(db).size(db);
+    }
+
+    @Override
+    public void truncate(final LocalDB.DB db)
+            throws LocalDBException
+    {
+        dbProviders.get(db).truncate(db);
+    }
+
+    @Override
+    public File getFileLocation() {
+        return defaultProvider.getFileLocation();
+    }
+
+    /**
+     * @return the file location of each partition
+     */
+    public Map<String, File> getPartitionFileLocations() {
+        final Map<String, File> returnMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, LocalDBProvider> entry : partitionProviders.entrySet()) {
+            returnMap.put(entry.getKey(), entry.getValue().getFileLocation());
+        }
+        return returnMap;
+    }
+
+    @Override
+    public LocalDB.Status getStatus() {
+        final LocalDB.Status status = defaultProvider.getStatus();
+        for (final LocalDBProvider provider : partitionProviders.values()) {
+            if (provider.getStatus() != status) {
+                return provider.getStatus() == LocalDB.Status.CLOSED ? LocalDB.Status.CLOSED : status;
+            }
+        }
+        return status;
+    }
+}
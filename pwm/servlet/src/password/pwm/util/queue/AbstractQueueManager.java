@@ -56,7 +56,10 @@ public abstract class AbstractQueueManager implements PwmService {
     protected PwmApplication.AppAttribute itemCountAppAttribute;
     protected String serviceName = AbstractQueueManager.class.getSimpleName();
 
-    protected FailureInfo lastFailure;
+    protected volatile FailureInfo lastFailure;
+
+    private int senderThreads = 1;
+    private long leaseTimeoutMs;
 
     static class FailureInfo {
         private Date time = new Date();
@@ -91,7 +94,7 @@ public abstract class AbstractQueueManager implements PwmService {
             return 0;
         }
 
-        return this.sendQueue.size();
+        return this.sendQueue.size() + this.sendQueue.leasedSize();
     }
     
     public Date eldestItem() {
@@ -195,6 +198,8 @@ public abstract class AbstractQueueManager implements PwmService {
         }
 
         itemIDCounter = readItemIDCounter();
+        senderThreads = Math.max(1, Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.QUEUE_SENDER_THREADS)));
+        leaseTimeoutMs = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.QUEUE_LEASE_TIMEOUT_MS));
         sendQueue = LocalDBStoredQueue.createLocalDBStoredQueue(pwmApplication, localDB, DB);
         final String threadName = Helper.makeThreadName(pwmApplication, this.getClass()) + " timer thread";
         timerThread = new Timer(threadName,true);
@@ -237,16 +242,16 @@ public abstract class AbstractQueueManager implements PwmService {
         final Date startTime = new Date();
         final int maxCloseWaitMs = Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.QUEUE_MAX_CLOSE_TIMEOUT_MS));
 
-        if (sendQueue != null && !sendQueue.isEmpty()) {
+        if (hasPendingItems()) {
             if (timerThread != null) {
                 timerThread.schedule(new QueueProcessorTask(),1);
                 LOGGER.warn("waiting up to 5 seconds for " + sendQueue.size() + " items in the queue to process");
-                while (!sendQueue.isEmpty() && TimeDuration.fromCurrent(startTime).isShorterThan(maxCloseWaitMs)) {
+                while (hasPendingItems() && TimeDuration.fromCurrent(startTime).isShorterThan(maxCloseWaitMs)) {
                     Helper.pause(100);
                 }
             }
-            if (!sendQueue.isEmpty()) {
-                LOGGER.warn("closing queue with " + sendQueue.size() + " message in queue");
+            if (hasPendingItems()) {
+                LOGGER.warn("closing queue with " + (sendQueue.size() + sendQueue.leasedSize()) + " message in queue");
             }
         }
 
@@ -256,6 +261,10 @@ public abstract class AbstractQueueManager implements PwmService {
         timerThread = null;
     }
 
+    private boolean hasPendingItems() {
+        return sendQueue != null && (!sendQueue.isEmpty() || sendQueue.leasedSize() > 0);
+    }
+
     public List<HealthRecord> healthCheck() {
         if (pwmApplication.getLocalDB() == null || pwmApplication.getLocalDB().status() != LocalDB.Status.OPEN) {
             return Collections.singletonList(HealthRecord.forMessage(HealthMessage.ServiceClosed_LocalDBUnavail, serviceName));
@@ -282,41 +291,126 @@ public abstract class AbstractQueueManager implements PwmService {
 
         lastSendTime = new Date();
 
-        boolean sendFailure = false;
-        while (sendQueue.peekFirst() != null && !sendFailure) {
-            final String jsonEvent = sendQueue.peekFirst();
-            if (jsonEvent != null) {
-                final QueueEvent event = JsonUtil.deserialize(jsonEvent, QueueEvent.class);
-
-                if (event == null || event.getTimestamp() == null) {
-                    sendQueue.pollFirst();
-                } else if (TimeDuration.fromCurrent(event.getTimestamp()).isLongerThan(
-                        settings.getMaxQueueItemAge())) {
-                    LOGGER.debug("discarding event due to maximum retry age: " + queueItemToDebugString(event));
-                    sendQueue.pollFirst();
-                    noteDiscardedItem(event);
-                } else {
-                    final String item = event.getItem();
-
-                    LOGGER.trace("preparing to send item in queue: " + queueItemToDebugString(
-                            event) + ", queue size: " + sendQueue.size());
-
-                    // execute operation
+        if (senderThreads < 2) {
+            processQueueItems();
+            return;
+        }
+
+        final int extraSenders = Math.min(senderThreads, sendQueue.size()) - 1;
+        if (extraSenders < 1) {
+            processLeasedQueueItems();
+            return;
+        }
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < extraSenders; i++) {
+            final Thread senderThread = new Thread(new Runnable() {
+                public void run() {
                     try {
-                        sendItem(item);
-                        sendQueue.pollFirst();
-                        LOGGER.trace("queued item processed and removed from queue: " + queueItemToDebugString(event) + ", queue size: " + sendQueue.size());
-                        lastFailure = null;
-                    } catch (PwmOperationalException e) {
-                        sendFailure = true;
-                        lastFailure = new FailureInfo(e.getErrorInformation(),event);
-                        LOGGER.debug("queued item was not successfully processed, will retry: " + queueItemToDebugString(event) + ", queue size: " + sendQueue.size());
+                        processLeasedQueueItems();
+                    } catch (Exception e) {
+                        LOGGER.error("unexpected exception while processing " + settings.getDebugName() + " queue: " + e.getMessage(), e);
                     }
                 }
+            }, Helper.makeThreadName(pwmApplication, this.getClass()) + " sender" + i);
+            senderThread.setDaemon(true);
+            senderThread.start();
+            threads.add(senderThread);
+        }
+        processLeasedQueueItems();
+        for (final Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
+    /**
+     * Send queued items until the queue is empty or a send fails.  With a single sender the head of the queue is
+     * sent in place and removed once the send has completed, which costs one LocalDB commit per item.
+     */
+    private void processQueueItems() {
+        while (true) {
+            final String jsonEvent = sendQueue.peekFirst();
+            if (jsonEvent == null || !sendEvent(jsonEvent)) {
+                return;
+            }
+            sendQueue.pollFirst();
+        }
+    }
+
+    /**
+     * Send queued items until the queue is empty or a send fails.  Each item is leased while it is sent, so several
+     * senders can drain the queue at once, and an item is only removed once its send has completed.  A lease that
+     * was not acknowledged is always released, so an unexpected exception does not hold the item until the lease
+     * times out.
+     */
+    private void processLeasedQueueItems() {
+        while (true) {
+            final LocalDBStoredQueue.Lease lease = sendQueue.lease(1, leaseTimeoutMs);
+            if (lease == null) {
+                return;
+            }
+            boolean acknowledged = false;
+            try {
+                final String jsonEvent = lease.getValues().isEmpty() ? null : lease.getValues().get(0);
+                if (!sendEvent(jsonEvent)) {
+                    return;
+                }
+                sendQueue.acknowledge(lease);
+                acknowledged = true;
+            } finally {
+                if (!acknowledged) {
+                    sendQueue.release(lease);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a single queued item.
+     *
+     * @return false if the send failed and the item should remain in the queue to be retried
+     */
+    private boolean sendEvent(final String jsonEvent) {
+        QueueEvent event = null;
+        if (jsonEvent != null) {
+            try {
+                event = JsonUtil.deserialize(jsonEvent, QueueEvent.class);
+            } catch (Exception e) {
+                LOGGER.error("discarding unreadable item in " + settings.getDebugName() + " queue: " + e.getMessage());
+            }
+        }
+
+        if (event == null || event.getTimestamp() == null) {
+            return true;
+        }
+
+        if (TimeDuration.fromCurrent(event.getTimestamp()).isLongerThan(settings.getMaxQueueItemAge())) {
+            LOGGER.debug("discarding event due to maximum retry age: " + queueItemToDebugString(event));
+            noteDiscardedItem(event);
+            return true;
+        }
+
+        LOGGER.trace("preparing to send item in queue: " + queueItemToDebugString(
+                event) + ", queue size: " + sendQueue.size());
+
+        // execute operation
+        try {
+            sendItem(event.getItem());
+            LOGGER.trace("queued item processed: " + queueItemToDebugString(event) + ", queue size: " + sendQueue.size());
+            lastFailure = null;
+            return true;
+        } catch (PwmOperationalException e) {
+            lastFailure = new FailureInfo(e.getErrorInformation(),event);
+            LOGGER.debug("queued item was not successfully processed, will retry: " + queueItemToDebugString(event) + ", queue size: " + sendQueue.size());
+            return false;
+        }
+    }
+
 
     abstract void sendItem(String item) throws PwmOperationalException;
 
@@ -424,9 +424,9 @@ public class ReportService implements PwmService {
 
     public class RecordIterator implements ClosableIterator<UserCacheRecord> {
 
-        private ClosableIterator<UserCacheService.StorageKey> storageKeyIterator;
+        private ClosableIterator<Map.Entry<UserCacheService.StorageKey, UserCacheRecord>> storageKeyIterator;
 
-        public RecordIterator(ClosableIterator<UserCacheService.StorageKey> storageKeyIterator) {
+        public RecordIterator(ClosableIterator<Map.Entry<UserCacheService.StorageKey, UserCacheRecord>> storageKeyIterator) {
             this.storageKeyIterator = storageKeyIterator;
         }
 
@@ -439,8 +439,9 @@ public class ReportService implements PwmService {
             try {
                 UserCacheRecord returnBean = null;
                 while (returnBean == null && this.storageKeyIterator.hasNext()) {
-                    UserCacheService.StorageKey key = this.storageKeyIterator.next();
-                    returnBean = userCacheService.readStorageKey(key);
+                    final Map.Entry<UserCacheService.StorageKey, UserCacheRecord> entry = this.storageKeyIterator.next();
+                    final UserCacheService.StorageKey key = entry.getKey();
+                    returnBean = entry.getValue();
                     if (returnBean != null) {
                         if (returnBean.getCacheTimestamp() == null) {
                             LOGGER.debug(PwmConstants.REPORTING_SESSION_LABEL,"purging record due to missing cache timestamp: " + JsonUtil.serialize(returnBean));
@@ -36,12 +36,17 @@ import password.pwm.ldap.LdapOperationsHelper;
 import password.pwm.util.ClosableIterator;
 import password.pwm.util.JsonUtil;
 import password.pwm.util.SecureHelper;
+import password.pwm.util.TimeDuration;
 import password.pwm.util.localdb.LocalDB;
 import password.pwm.util.localdb.LocalDBException;
+import password.pwm.util.localdb.LocalDBUtility;
 import password.pwm.util.logging.PwmLogger;
 
+import java.util.AbstractMap;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public class UserCacheService implements PwmService {
 
@@ -102,7 +107,11 @@ public class UserCacheService implements PwmService {
         cacheStore.clear();
     }
 
-    public ClosableIterator<StorageKey> iterator() {
+    /**
+     * Iterate the stored records along with their keys.  The record of an entry is null if the stored value could
+     * not be read, in which case the stored value has been removed.
+     */
+    public ClosableIterator<Map.Entry<StorageKey, UserCacheRecord>> iterator() {
         try {
             return new UserStatusCacheBeanIterator();
         } catch (LocalDBException e) {
@@ -111,21 +120,28 @@ public class UserCacheService implements PwmService {
         }
     }
 
-    private class UserStatusCacheBeanIterator implements ClosableIterator {
+    private class UserStatusCacheBeanIterator implements ClosableIterator<Map.Entry<StorageKey, UserCacheRecord>> {
 
-        private LocalDB.LocalDBIterator<String> innerIterator;
+        private LocalDB.LocalDBIterator<Map.Entry<String, String>> innerIterator;
 
         private UserStatusCacheBeanIterator() throws LocalDBException {
-            innerIterator = cacheStore.localDB.iterator(CacheStoreWrapper.DB);
+            innerIterator = cacheStore.localDB.entryIterator(CacheStoreWrapper.DB, null, null);
         }
 
         public boolean hasNext() {
             return innerIterator.hasNext();
         }
 
-        public StorageKey next() {
-            final String nextKey = innerIterator.next();
-            return new StorageKey(nextKey);
+        public Map.Entry<StorageKey, UserCacheRecord> next() {
+            final Map.Entry<String, String> nextEntry = innerIterator.next();
+            final StorageKey storageKey = new StorageKey(nextEntry.getKey());
+            final UserCacheRecord record;
+            try {
+                record = cacheStore.parse(storageKey, nextEntry.getValue());
+            } catch (LocalDBException e) {
+                throw new IllegalStateException("unexpected iterator traversal error while reading LocalDB: " + e.getMessage());
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(storageKey, record);
         }
 
         public void remove() {
@@ -139,7 +155,8 @@ public class UserCacheService implements PwmService {
 
     public void init(final PwmApplication pwmApplication) throws PwmException {
         status = STATUS.OPENING;
-        this.cacheStore = new CacheStoreWrapper(pwmApplication.getLocalDB());
+        final TimeDuration maxCacheAge = ReportSettings.readSettingsFromConfig(pwmApplication.getConfig()).getMaxCacheAge();
+        this.cacheStore = new CacheStoreWrapper(pwmApplication.getLocalDB(), maxCacheAge);
         status = STATUS.OPEN;
     }
 
@@ -203,23 +220,32 @@ public class UserCacheService implements PwmService {
         private static final LocalDB.DB DB = LocalDB.DB.USER_CACHE;
 
         private final LocalDB localDB;
+        private final TimeDuration maxCacheAge;
 
-        private CacheStoreWrapper(LocalDB localDB)
+        private CacheStoreWrapper(LocalDB localDB, TimeDuration maxCacheAge)
         {
             this.localDB = localDB;
+            this.maxCacheAge = maxCacheAge;
         }
 
         private void write(StorageKey key, UserCacheRecord cacheBean)
                 throws LocalDBException
         {
             final String jsonValue = JsonUtil.serialize(cacheBean);
-            localDB.put(DB,key.getKey(),jsonValue);
+            final Date cacheTimestamp = cacheBean.getCacheTimestamp() == null ? new Date() : cacheBean.getCacheTimestamp();
+            final Date expirationDate = new Date(cacheTimestamp.getTime() + maxCacheAge.getTotalMilliseconds());
+            LocalDBUtility.put(localDB,DB,key.getKey(),jsonValue,expirationDate);
         }
 
         private UserCacheRecord read(StorageKey key)
                 throws LocalDBException
         {
-            final String jsonValue = localDB.get(DB,key.getKey());
+            return parse(key, localDB.get(DB,key.getKey()));
+        }
+
+        private UserCacheRecord parse(StorageKey key, String jsonValue)
+                throws LocalDBException
+        {
             if (jsonValue != null && !jsonValue.isEmpty()) {
                 try {
                     return JsonUtil.deserialize(jsonValue,UserCacheRecord.class);
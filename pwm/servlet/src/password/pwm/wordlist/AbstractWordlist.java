@@ -22,6 +22,7 @@
 
 package password.pwm.wordlist;
 
+import password.pwm.AppProperty;
 import password.pwm.PwmApplication;
 import password.pwm.PwmService;
 import password.pwm.config.option.DataStorageMethod;
@@ -33,6 +34,7 @@ import password.pwm.health.HealthRecord;
 import password.pwm.health.HealthStatus;
 import password.pwm.health.HealthTopic;
 import password.pwm.util.Helper;
+import password.pwm.util.JsonUtil;
 import password.pwm.util.SecureHelper;
 import password.pwm.util.Sleeper;
 import password.pwm.util.TimeDuration;
@@ -57,9 +59,28 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
     protected static final PwmLogger LOGGER = PwmLogger.forClass(AbstractWordlist.class);
     protected String DEBUG_LABEL = "Generic Wordlist";
 
+    protected static final String DELTA_SEGMENT_PREFIX = "delta:";
+
     protected int storedSize = 0;
     protected boolean debugTrace;
 
+    protected boolean bloomFilterEnabled;
+    protected double bloomFilterFalsePositiveRate;
+    protected long bloomFilterMaxBytes;
+    protected volatile WordlistBloomFilter bloomFilter;
+
+    // optional second ZIP whose entries are added to the wordlist as additional segments
+    protected File deltaFile;
+    private volatile String pendingChecksum;
+
+    protected boolean alwaysHashFiles;
+    private Map<String,String> fileHashes;
+    private TimeDuration checksumDuration;
+    private TimeDuration startupDuration;
+
+    // number of populator threads calling getWriteTxnForValue(), wordlists that are not thread safe must leave this at 1
+    protected int populatorWorkerThreads = 1;
+
     private ErrorInformation lastError;
 
 
@@ -73,6 +94,7 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
         if (pwmApplication.getConfig().isDevDebugMode()) {
             debugTrace = true;
         }
+        alwaysHashFiles = Boolean.parseBoolean(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_ALWAYS_HASH_FILES));
     }
 
     protected final void startup(final LocalDB localDB, final WordlistConfiguration wordlistConfiguration) {
@@ -137,10 +159,18 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
             return;
         }
 
+        try {
+            initBloomFilter();
+        } catch (Exception e) {
+            LOGGER.warn(DEBUG_LABEL + " unable to initialize bloom filter, lookups will use LocalDB only: " + e.getMessage());
+            bloomFilter = null;
+        }
+
         if (wlStatus == STATUS.OPENING) {
             wlStatus = STATUS.OPEN;
             final int wordlistSize = size();
             final TimeDuration totalTime = TimeDuration.fromCurrent(startTime);
+            startupDuration = totalTime;
             LOGGER.debug(DEBUG_LABEL + " open with " + wordlistSize + " words in " + totalTime.asCompactString());
         } else {
             final String errorMsg = DEBUG_LABEL + " status changed unexpectedly during startup, closing";
@@ -164,35 +194,131 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
         return word.length() > 0 ? word : null;
     }
 
+    /**
+     * Normalize a line read from the wordlist source the same way for every storage mode.
+     * @return the word to store, or null if the line should be ignored
+     */
+    String normalizeLine(final String line) {
+        final String word = normalizeWord(line);
+
+        if (word == null || word.startsWith(Populator.COMMENT_PREFIX)) {
+            return null;
+        }
+
+        if (word.length() > Populator.MAX_LINE_LENGTH) {
+            return word.substring(0, Populator.MAX_LINE_LENGTH);
+        }
+
+        return word;
+    }
+
     protected String makeChecksumString(final File wordlistFile)
-            throws PwmUnrecoverableException, IOException {
+            throws PwmUnrecoverableException, IOException, LocalDBException {
+        final long startTime = System.currentTimeMillis();
         final StringBuilder checksumString = new StringBuilder();
-        checksumString.append("hash=").append(SecureHelper.md5sum(wordlistFile));
+        checksumString.append("hash=").append(fileHash(wordlistFile));
         checksumString.append(",length=").append(wordlistFile.length());
         checksumString.append(",caseSensitive=").append(wordlistConfiguration.isCaseSensitive());
+        if (deltaFile != null && deltaFile.exists()) {
+            checksumString.append(",deltaHash=").append(fileHash(deltaFile));
+            checksumString.append(",deltaLength=").append(deltaFile.length());
+        }
+        writeFileHashes();
+        checksumDuration = TimeDuration.fromCurrent(startTime);
         return checksumString.toString();
     }
 
+    /**
+     * Hashing a large wordlist takes minutes, so the md5 of each file is cached in the meta db along with a fingerprint
+     * of the file's length, modification time and ZIP central directory.  The file is only read in full when the
+     * fingerprint changes or {@link #alwaysHashFiles} is set.
+     */
+    private String fileHash(final File file)
+            throws PwmUnrecoverableException, IOException, LocalDBException
+    {
+        if (fileHashes == null) {
+            final String storedValue = localDB.get(META_DB, KEY_FILE_HASHES);
+            fileHashes = new TreeMap<>();
+            if (storedValue != null) {
+                fileHashes.putAll(JsonUtil.deserializeStringMap(storedValue));
+            }
+        }
+
+        final String key = file.getAbsolutePath();
+        final String fingerprint = makeFingerprint(file);
+        final String storedValue = fileHashes.get(key);
+        if (!alwaysHashFiles && storedValue != null && storedValue.startsWith(fingerprint + "=")) {
+            LOGGER.trace(DEBUG_LABEL + " fingerprint of " + key + " is unchanged, using stored hash");
+            return storedValue.substring(fingerprint.length() + 1);
+        }
+
+        LOGGER.debug(DEBUG_LABEL + " calculating hash of " + key);
+        final String hash = SecureHelper.md5sum(file);
+        fileHashes.put(key, fingerprint + "=" + hash);
+        return hash;
+    }
+
+    private static String makeFingerprint(final File file)
+            throws PwmUnrecoverableException, IOException
+    {
+        final StringBuilder entries = new StringBuilder();
+        for (final ZipReader.Segment segment : ZipReader.readSegments(file, "")) {
+            entries.append(segment.getKey()).append(':').append(segment.getCrc()).append(':').append(segment.getSize()).append('\n');
+        }
+        return file.length() + ":" + file.lastModified() + ":" + SecureHelper.md5sum(entries.toString());
+    }
+
+    private void writeFileHashes()
+            throws LocalDBException
+    {
+        if (fileHashes != null) {
+            localDB.put(META_DB, KEY_FILE_HASHES, JsonUtil.serializeMap(fileHashes));
+        }
+    }
+
     protected void checkPopulation()
             throws Exception {
         LOGGER.trace("calculating hash of " + wordlistConfiguration.getWordlistFile().getAbsolutePath());
         final String checksumString = makeChecksumString(wordlistConfiguration.getWordlistFile());
         LOGGER.trace("hash of " + wordlistConfiguration.getWordlistFile().getAbsolutePath() + " complete, result: " + checksumString);
 
+        final List<ZipReader.Segment> segments = currentSegments();
         final boolean clearRequired = !checkDbStatus() || !checkDbVersion() || !checkChecksum(checksumString);
         final boolean isComplete = !clearRequired && VALUE_STATUS.COMPLETE.equals(VALUE_STATUS.forString(localDB.get(META_DB, KEY_STATUS)));
 
         if (!clearRequired && isComplete) {
+            if (localDB.get(META_DB, KEY_SEGMENTS) == null) {
+                writeSegments(segments);
+            }
             return;
         }
 
+        if (clearRequired && isDeltaPopulationSupported()) {
+            final List<ZipReader.Segment> deltaSegments = planDelta(segments);
+            if (deltaSegments != null) {
+                populateDelta(segments, deltaSegments, checksumString);
+                return;
+            }
+        }
+
         LOGGER.debug(DEBUG_LABEL + " previous population incomplete, resuming");
 
         if (clearRequired) {
             resetDB(checksumString);
         }
 
-        final ZipReader zipReader = new ZipReader(wordlistConfiguration.getWordlistFile());
+        if (runPopulator(segments)) {
+            writeSegments(segments);
+        }
+    }
+
+    /**
+     * @return true if population completed
+     */
+    private boolean runPopulator(final List<ZipReader.Segment> segments)
+            throws Exception
+    {
+        final ZipReader zipReader = new ZipReader(segments);
         final Sleeper sleeper = new Sleeper(wordlistConfiguration.getLoadFactor());
 
         try {
@@ -203,6 +329,142 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
             LOGGER.warn("unexpected error running populator: " + e.getMessage());
         }
         populator = null;
+
+        return VALUE_STATUS.COMPLETE.equals(VALUE_STATUS.forString(localDB.get(META_DB, KEY_STATUS)));
+    }
+
+    /**
+     * Wordlists whose stored keys do not depend on the position of a word in the source may be updated by adding
+     * only new segments rather than being cleared and repopulated.
+     */
+    protected boolean isDeltaPopulationSupported() {
+        return false;
+    }
+
+    /**
+     * @return the entries of the wordlist file, followed by the entries of the delta file if one is configured
+     */
+    protected List<ZipReader.Segment> currentSegments()
+            throws IOException
+    {
+        final List<ZipReader.Segment> segments = new ArrayList<>(ZipReader.readSegments(wordlistConfiguration.getWordlistFile(), ""));
+        if (deltaFile != null && deltaFile.exists()) {
+            segments.addAll(ZipReader.readSegments(deltaFile, DELTA_SEGMENT_PREFIX));
+        }
+        return segments;
+    }
+
+    protected ZipReader openWordlistReader()
+            throws Exception
+    {
+        return new ZipReader(currentSegments());
+    }
+
+    /**
+     * Compare the current segments to the segments recorded when the db was last completely populated.
+     * @return the new segments (or the appended portion of existing segments) to add, or null if a segment was
+     * removed or rewritten and the db must be repopulated from scratch
+     */
+    private List<ZipReader.Segment> planDelta(final List<ZipReader.Segment> segments)
+            throws Exception
+    {
+        final String storedSegmentsJson = localDB.get(META_DB, KEY_SEGMENTS);
+        if (storedSegmentsJson == null || !makeVersionString().equals(localDB.get(META_DB, KEY_VERSION))) {
+            return null;
+        }
+
+        final Map<String,String> storedSegments = JsonUtil.deserializeStringMap(storedSegmentsJson);
+        final Map<String,ZipReader.Segment> currentSegments = new HashMap<>();
+        for (final ZipReader.Segment segment : segments) {
+            currentSegments.put(segment.getKey(), segment);
+        }
+
+        final Set<String> appendedKeys = new HashSet<>();
+        final Map<String,Long> appendedOffsets = new HashMap<>();
+        for (final String key : storedSegments.keySet()) {
+            final ZipReader.Segment segment = currentSegments.get(key);
+            if (segment == null) {
+                LOGGER.info(DEBUG_LABEL + " segment " + key + " has been removed from the wordlist, full population required");
+                return null;
+            }
+
+            final String[] storedValues = storedSegments.get(key).split(":");
+            final long storedCrc = Long.parseLong(storedValues[0]);
+            final long storedLength = Long.parseLong(storedValues[1]);
+            if (segment.getCrc() == storedCrc && segment.getSize() == storedLength) {
+                appendedKeys.add(key);
+            } else if (segment.getSize() > storedLength && ZipReader.hasPrefix(segment, storedLength, storedCrc)) {
+                LOGGER.debug(DEBUG_LABEL + " segment " + key + " has been appended to since last population");
+                appendedOffsets.put(key, storedLength);
+            } else {
+                LOGGER.info(DEBUG_LABEL + " segment " + key + " has been modified, full population required");
+                return null;
+            }
+        }
+
+        final List<ZipReader.Segment> deltaSegments = new ArrayList<>();
+        for (final ZipReader.Segment segment : segments) {
+            if (appendedOffsets.containsKey(segment.getKey())) {
+                deltaSegments.add(segment.withStartOffset(appendedOffsets.get(segment.getKey())));
+            } else if (!appendedKeys.contains(segment.getKey())) {
+                deltaSegments.add(segment);
+            }
+        }
+        return deltaSegments;
+    }
+
+    private void populateDelta(
+            final List<ZipReader.Segment> segments,
+            final List<ZipReader.Segment> deltaSegments,
+            final String checksumString
+    )
+            throws Exception
+    {
+        final StringBuilder keys = new StringBuilder();
+        for (final ZipReader.Segment segment : deltaSegments) {
+            keys.append(keys.length() > 0 ? ", " : "").append(segment.getKey());
+            if (segment.getStartOffset() > 0) {
+                keys.append(" (from offset ").append(segment.getStartOffset()).append(")");
+            }
+        }
+        LOGGER.info(DEBUG_LABEL + " wordlist has changed, adding " + deltaSegments.size() + " new segments without clearing db: " + keys);
+
+        // load the existing filter before the checksum changes so the new words can be added to it
+        bloomFilter = null;
+        if (bloomFilterEnabled) {
+            final WordlistBloomFilter storedFilter = WordlistBloomFilter.read(bloomFilterFile(), localDB.get(META_DB, KEY_CHECKSUM));
+            if (storedFilter != null && storedFilter.matchesSettings(bloomFilterFalsePositiveRate, bloomFilterMaxBytes)) {
+                bloomFilter = storedFilter;
+            }
+        }
+
+        // positions are relative to the segment list being read, so a delta population always starts over.  The
+        // checksum is only updated once the delta is complete, an interrupted delta is re-planned on the next startup.
+        localDB.remove(META_DB, KEY_POSITION);
+        pendingChecksum = checksumString;
+        try {
+            if (!deltaSegments.isEmpty() && !runPopulator(deltaSegments)) {
+                bloomFilter = null;
+                return;
+            }
+        } finally {
+            pendingChecksum = null;
+        }
+
+        localDB.remove(META_DB, KEY_POSITION);
+        localDB.put(META_DB, KEY_CHECKSUM, checksumString);
+        localDB.put(META_DB, KEY_STATUS, VALUE_STATUS.COMPLETE.toString());
+        writeSegments(segments);
+    }
+
+    private void writeSegments(final List<ZipReader.Segment> segments)
+            throws LocalDBException
+    {
+        final Map<String,String> segmentValues = new TreeMap<>();
+        for (final ZipReader.Segment segment : segments) {
+            segmentValues.put(segment.getKey(), segment.getCrc() + ":" + segment.getSize());
+        }
+        localDB.put(META_DB, KEY_SEGMENTS, JsonUtil.serializeMap(segmentValues));
     }
 
     private boolean checkChecksum(final String checksum)
@@ -213,7 +475,7 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
         final boolean result = checksum.equals(checksumInDb);
 
         if (!result) {
-            LOGGER.info("existing ZIP hash does not match current wordlist file, db=(" + checksumInDb + "), file=(" + checksum + "), clearing db");
+            LOGGER.info("existing ZIP hash does not match current wordlist file, db=(" + checksumInDb + "), file=(" + checksum + ")");
         } else {
             LOGGER.trace("existing ZIP hash matches current wordlist file, db=(" + checksumInDb + "), file=(" + checksum + ")");
         }
@@ -253,10 +515,16 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
         return result;
     }
 
-    private void resetDB(final String checksum)
+    protected void resetDB(final String checksum)
             throws Exception {
         localDB.put(META_DB, KEY_VERSION, makeVersionString() + "_ClearInProgress");
 
+        bloomFilter = null;
+        final File bloomFilterFile = bloomFilterFile();
+        if (bloomFilterFile != null && bloomFilterFile.exists() && !bloomFilterFile.delete()) {
+            LOGGER.warn("unable to remove outdated bloom filter file " + bloomFilterFile.getAbsolutePath());
+        }
+
         for (final LocalDB.DB db : new LocalDB.DB[]{META_DB, WORD_DB}) {
             LOGGER.debug("clearing " + db);
             localDB.truncate(db);
@@ -264,6 +532,7 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
 
         localDB.put(META_DB, KEY_VERSION, makeVersionString());
         localDB.put(META_DB, KEY_CHECKSUM, checksum);
+        writeFileHashes();
     }
 
     public boolean containsWord(final String word) {
@@ -277,22 +546,33 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
             return false;
         }
 
+        return containsNormalizedWord(testWord);
+    }
 
-        final Set<String> testWords = chunkWord(testWord, this.wordlistConfiguration.getCheckSize());
+    protected boolean containsNormalizedWord(final String testWord) {
+        // every stored chunk longer than checkSize begins with a stored chunk of exactly checkSize, so only the
+        // checkSize length substrings of the test word need to be looked up.
+        final int checkSize = this.wordlistConfiguration.getCheckSize();
+        final int chunkSize = checkSize == 0 || checkSize > testWord.length() ? testWord.length() : checkSize;
+        final int chunkCount = testWord.length() - chunkSize + 1;
 
         final Date startTime = new Date();
         try {
             boolean result = false;
-            for (final String t : testWords) {
-                if (!result) { // stop checking once found
+            final WordlistBloomFilter filter = bloomFilter;
+            for (int i = 0; i < chunkCount && !result; i++) { // stop checking once found
+                final String t = testWord.substring(i, i + chunkSize);
+                if (filter == null || filter.mightContain(t)) {
                     if (localDB.contains(WORD_DB, t)) {
                         result = true;
+                    } else if (filter != null) {
+                        filter.markFalsePositive();
                     }
                 }
             }
             final TimeDuration timeDuration = TimeDuration.fromCurrent(startTime);
             if (timeDuration.isLongerThan(100)) {
-                LOGGER.debug("wordlist search time for " + testWords.size() + " wordlist permutations was greater then 100ms: " + timeDuration.asCompactString());
+                LOGGER.debug("wordlist search time for " + chunkCount + " wordlist permutations was greater then 100ms: " + timeDuration.asCompactString());
             }
             return result;
         } catch (Exception e) {
@@ -330,6 +610,7 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
         }
 
         wlStatus = STATUS.CLOSED;
+        bloomFilter = null;
         localDB = null;
     }
 
@@ -348,9 +629,99 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
     public String getDebugStatus() {
         if (wlStatus == STATUS.OPENING && populator != null) {
             return populator.makeStatString();
+        } else if (bloomFilter != null) {
+            return wlStatus.toString() + startupDebugString() + ", " + bloomFilter.debugString();
         } else {
-            return wlStatus.toString();
+            return wlStatus.toString() + startupDebugString();
+        }
+    }
+
+    protected String startupDebugString() {
+        final StringBuilder sb = new StringBuilder();
+        if (startupDuration != null) {
+            sb.append(", startupTime=").append(startupDuration.asCompactString());
+        }
+        if (checksumDuration != null) {
+            sb.append(", checksumTime=").append(checksumDuration.asCompactString());
         }
+        return sb.toString();
+    }
+
+    private File bloomFilterFile() {
+        if (localDB == null || localDB.getFileLocation() == null) {
+            return null;
+        }
+        return new File(localDB.getFileLocation(), WORD_DB.toString() + ".bloom");
+    }
+
+    private void initBloomFilter()
+            throws LocalDBException, IOException
+    {
+        if (!bloomFilterEnabled || bloomFilter != null) {
+            return;
+        }
+
+        final String checksum = localDB.get(META_DB, KEY_CHECKSUM);
+        final WordlistBloomFilter storedFilter = WordlistBloomFilter.read(bloomFilterFile(), checksum);
+        if (storedFilter != null && storedFilter.matchesSettings(bloomFilterFalsePositiveRate, bloomFilterMaxBytes)) {
+            bloomFilter = storedFilter;
+            LOGGER.debug(DEBUG_LABEL + " loaded " + storedFilter.debugString());
+            return;
+        }
+
+        LOGGER.debug(DEBUG_LABEL + " no usable stored bloom filter, rebuilding from LocalDB");
+        buildBloomFilter(storedSize);
+    }
+
+    /**
+     * Called when population completes.  A filter that was loaded before a delta population has had the new
+     * words added to it and is saved under the current checksum, otherwise the filter is rebuilt from the db.
+     */
+    void completeBloomFilter(final int wordCount)
+            throws LocalDBException, IOException
+    {
+        final WordlistBloomFilter filter = bloomFilter;
+        final File bloomFilterFile = bloomFilterFile();
+        if (filter != null && bloomFilterFile != null && filter.hasCapacity(wordCount)) {
+            filter.write(bloomFilterFile, bloomFilterChecksum());
+            LOGGER.debug(DEBUG_LABEL + " saved updated " + filter.debugString());
+            return;
+        }
+        buildBloomFilter(wordCount);
+    }
+
+    /**
+     * Build (or rebuild) the bloom filter from the words currently stored in the LocalDB and save it alongside
+     * the LocalDB so it can be re-read on the next startup.
+     */
+    void buildBloomFilter(final int wordCount)
+            throws LocalDBException, IOException
+    {
+        if (!bloomFilterEnabled) {
+            return;
+        }
+
+        final WordlistBloomFilter newFilter = WordlistBloomFilter.buildFromLocalDB(
+                localDB, WORD_DB, wordCount, bloomFilterFalsePositiveRate, bloomFilterMaxBytes);
+
+        final File bloomFilterFile = bloomFilterFile();
+        final String checksum = bloomFilterChecksum();
+        if (bloomFilterFile != null && checksum != null) {
+            newFilter.write(bloomFilterFile, checksum);
+            LOGGER.trace(DEBUG_LABEL + " saved bloom filter to " + bloomFilterFile.getAbsolutePath());
+        }
+
+        bloomFilter = newFilter;
+    }
+
+    /**
+     * A delta population does not store the new checksum until it completes, but the filter is saved as part of
+     * completion and must be keyed to the new checksum.
+     */
+    private String bloomFilterChecksum()
+            throws LocalDBException
+    {
+        return pendingChecksum != null ? pendingChecksum : localDB.get(META_DB, KEY_CHECKSUM);
     }
 
     protected abstract Map<String, String> getWriteTxnForValue(String value);
@@ -386,6 +757,12 @@ abstract class AbstractWordlist implements Wordlist, PwmService {
             final HealthRecord healthRecord = new HealthRecord(HealthStatus.WARN, HealthTopic.Application, this.DEBUG_LABEL + " error: " + lastError.toDebugStr());
             return Collections.singletonList(healthRecord);
         }
+
+        final WordlistBloomFilter filter = bloomFilter;
+        if (wlStatus == STATUS.OPEN && filter != null) {
+            final HealthRecord healthRecord = new HealthRecord(HealthStatus.INFO, HealthTopic.Application, this.DEBUG_LABEL + " " + filter.debugString());
+            return Collections.singletonList(healthRecord);
+        }
         return null;
     }
 
@@ -0,0 +1,225 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import password.pwm.util.Helper;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton that reports whether any dictionary word appears in a candidate password, using the
+ * same substring semantics as {@link AbstractWordlist#chunkWord(String, int)}.
+ * <p>
+ * Because every matching substring of <i>checkSize</i> or more characters begins with a matching substring of exactly
+ * <i>checkSize</i> characters, the automaton only holds the distinct <i>checkSize</i> length substrings of the words.
+ * All patterns therefore have the same length, so a match is simply reaching a leaf.  Words shorter than
+ * <i>checkSize</i> (or every word when <i>checkSize</i> is zero) only ever match a candidate that is exactly equal,
+ * and are kept in a set instead.
+ * <p>
+ * The trie is laid out breadth first so the children of each node are contiguous and sorted, which allows the
+ * automaton to be stored in a few primitive arrays and scanned without allocation.
+ */
+class AhoCorasickMatcher {
+
+    private static final int ROOT = 0;
+
+    private final int checkSize;
+    private final Set<String> wholeWords;
+
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final char[] label;
+    private final int[] fail;
+    private final int nodeCount;
+
+    private AhoCorasickMatcher(
+            final int checkSize,
+            final Set<String> wholeWords,
+            final int[] firstChild,
+            final int[] childCount,
+            final char[] label,
+            final int[] fail,
+            final int nodeCount
+    )
+    {
+        this.checkSize = checkSize;
+        this.wholeWords = wholeWords;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.label = label;
+        this.fail = fail;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * @param words normalized words, as returned by {@link AbstractWordlist#normalizeLine(String)}
+     */
+    static AhoCorasickMatcher build(final Collection<String> words, final int checkSize) {
+        final Set<String> wholeWords = new HashSet<>();
+        final Set<String> patternSet = new HashSet<>();
+        for (final String word : words) {
+            if (checkSize == 0 || word.length() < checkSize) {
+                wholeWords.add(word);
+            } else {
+                for (int i = 0; i + checkSize <= word.length(); i++) {
+                    patternSet.add(word.substring(i, i + checkSize));
+                }
+            }
+        }
+
+        final String[] patterns = patternSet.toArray(new String[patternSet.size()]);
+        Arrays.sort(patterns);
+
+        // each node covers the range of sorted patterns sharing its prefix, so the children of a node are the
+        // runs of equal characters at the node's depth within that range.
+        int capacity = Math.max(16, patterns.length * 2);
+        int[] firstChild = new int[capacity];
+        int[] childCount = new int[capacity];
+        char[] label = new char[capacity];
+        int[] rangeStart = new int[capacity];
+        int[] rangeEnd = new int[capacity];
+        int[] depth = new int[capacity];
+
+        int nodeCount = 1;
+        rangeStart[ROOT] = 0;
+        rangeEnd[ROOT] = patterns.length;
+
+        for (int node = 0; node < nodeCount; node++) {
+            firstChild[node] = nodeCount;
+            if (depth[node] >= checkSize) {
+                continue;
+            }
+            int i = rangeStart[node];
+            while (i < rangeEnd[node]) {
+                final char c = patterns[i].charAt(depth[node]);
+                int j = i + 1;
+                while (j < rangeEnd[node] && patterns[j].charAt(depth[node]) == c) {
+                    j++;
+                }
+
+                if (nodeCount == capacity) {
+                    capacity = capacity * 2;
+                    firstChild = Arrays.copyOf(firstChild, capacity);
+                    childCount = Arrays.copyOf(childCount, capacity);
+                    label = Arrays.copyOf(label, capacity);
+                    rangeStart = Arrays.copyOf(rangeStart, capacity);
+                    rangeEnd = Arrays.copyOf(rangeEnd, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                }
+
+                final int child = nodeCount++;
+                label[child] = c;
+                rangeStart[child] = i;
+                rangeEnd[child] = j;
+                depth[child] = depth[node] + 1;
+                childCount[node]++;
+                i = j;
+            }
+        }
+
+        final int[] fail = new int[nodeCount];
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(
+                checkSize,
+                wholeWords,
+                Arrays.copyOf(firstChild, nodeCount),
+                Arrays.copyOf(childCount, nodeCount),
+                Arrays.copyOf(label, nodeCount),
+                fail,
+                nodeCount
+        );
+
+        // nodes are numbered breadth first, so every node's parent and failure target are already resolved.
+        for (int node = 0; node < nodeCount; node++) {
+            for (int child = matcher.firstChild[node]; child < matcher.firstChild[node] + matcher.childCount[node]; child++) {
+                if (node == ROOT) {
+                    fail[child] = ROOT;
+                } else {
+                    int state = fail[node];
+                    int next = matcher.transition(state, matcher.label[child]);
+                    while (next < 0 && state != ROOT) {
+                        state = fail[state];
+                        next = matcher.transition(state, matcher.label[child]);
+                    }
+                    fail[child] = next < 0 ? ROOT : next;
+                }
+            }
+        }
+
+        return matcher;
+    }
+
+    /**
+     * @param word a normalized candidate
+     * @return true if the candidate would be found by the chunked lookup against the words this matcher was built from
+     */
+    boolean matches(final String word) {
+        final int length = word.length();
+        if (checkSize == 0 || length < checkSize) {
+            return wholeWords.contains(word);
+        }
+
+        int state = ROOT;
+        for (int i = 0; i < length; i++) {
+            final char c = word.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+            if (childCount[state] == 0 && state != ROOT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    long getMemoryBytes() {
+        return (long)nodeCount * (4 + 4 + 2 + 4) + (long)wholeWords.size() * 64;
+    }
+
+    String debugString() {
+        return "matcher nodes=" + nodeCount + ", wholeWords=" + wholeWords.size() + ", size=" + Helper.formatDiskSize(getMemoryBytes());
+    }
+
+    private int transition(final int state, final char c) {
+        int low = firstChild[state];
+        int high = low + childCount[state] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midLabel = label[mid];
+            if (midLabel < c) {
+                low = mid + 1;
+            } else if (midLabel > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
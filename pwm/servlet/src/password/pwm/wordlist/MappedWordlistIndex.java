@@ -0,0 +1,551 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import password.pwm.util.Helper;
+import password.pwm.util.Sleeper;
+import password.pwm.util.TimeDuration;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Immutable, memory-mapped sorted index of the wordlist.
+ * <p>
+ * Rather than storing every substring of every word, the index stores only the distinct substrings of exactly
+ * <i>checkSize</i> characters, plus any word shorter than <i>checkSize</i> as a whole.  Any longer matching
+ * substring always begins with one of these, so the lookup result is the same as the LocalDB storage mode.
+ * When <i>checkSize</i> is zero, only whole words are stored.
+ * <p>
+ * File layout: a fixed header, the UTF-16 characters of every entry in sorted order, then a table of
+ * <i>count + 1</i> int character offsets into the data section.  Lookups are a binary search directly against
+ * the mapped buffer and do not allocate.
+ */
+class MappedWordlistIndex {
+
+    private static final PwmLogger LOGGER = PwmLogger.forClass(MappedWordlistIndex.class);
+
+    private static final int FILE_MAGIC = 0x50574D49; // "PWMI"
+    private static final int FILE_VERSION = 1;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int dataOffset;
+    private final int offsetsOffset;
+    private final int count;
+
+    private MappedWordlistIndex(
+            final File file,
+            final MappedByteBuffer buffer,
+            final int dataOffset,
+            final int offsetsOffset,
+            final int count
+    )
+    {
+        this.file = file;
+        this.buffer = buffer;
+        this.dataOffset = dataOffset;
+        this.offsetsOffset = offsetsOffset;
+        this.count = count;
+    }
+
+    /**
+     * Open a previously built index.
+     * @return the index, or null if the file is missing, unreadable, or was built from a different wordlist
+     */
+    static MappedWordlistIndex open(final File file, final String identity) {
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        try {
+            final long dataOffset;
+            final long offsetsOffset;
+            final int count;
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                    LOGGER.debug("ignoring wordlist index file " + file.getAbsolutePath() + " with unknown format");
+                    return null;
+                }
+                dataOffset = input.readLong();
+                offsetsOffset = input.readLong();
+                count = input.readInt();
+                final String storedIdentity = input.readUTF();
+                if (!storedIdentity.equals(identity)) {
+                    LOGGER.debug("ignoring wordlist index file " + file.getAbsolutePath() + " built for a different wordlist");
+                    return null;
+                }
+            } finally {
+                input.close();
+            }
+
+            final long expectedLength = offsetsOffset + ((long)count + 1) * 4L;
+            if (count < 0 || offsetsOffset <= 0 || file.length() != expectedLength) {
+                LOGGER.debug("ignoring truncated wordlist index file " + file.getAbsolutePath());
+                return null;
+            }
+
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, expectedLength);
+                return new MappedWordlistIndex(file, buffer, (int)dataOffset, (int)offsetsOffset, count);
+            } finally {
+                // the mapping remains valid after the channel is closed
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("unable to open wordlist index file " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getFileSize() {
+        return file.length();
+    }
+
+    /**
+     * Test the (already normalized) word using the same substring semantics as {@link AbstractWordlist#chunkWord(String, int)}.
+     */
+    boolean containsWord(final String word, final int checkSize) {
+        final int length = word.length();
+        if (checkSize == 0 || checkSize >= length) {
+            return contains(word, 0, length);
+        }
+
+        for (int i = 0; i + checkSize <= length; i++) {
+            if (contains(word, i, i + checkSize)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean contains(final CharSequence value, final int start, final int end) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int comparison = compareEntry(mid, value, start, end);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String debugString() {
+        return "mappedIndex entries=" + count + ", size=" + Helper.formatDiskSize(getFileSize());
+    }
+
+    private int compareEntry(final int entry, final CharSequence value, final int start, final int end) {
+        final int entryStart = buffer.getInt(offsetsOffset + entry * 4);
+        final int entryEnd = buffer.getInt(offsetsOffset + (entry + 1) * 4);
+        final int entryLength = entryEnd - entryStart;
+        final int valueLength = end - start;
+        final int compareLength = Math.min(entryLength, valueLength);
+
+        int position = dataOffset + entryStart * 2;
+        for (int i = 0; i < compareLength; i++) {
+            final char entryChar = buffer.getChar(position);
+            final char valueChar = value.charAt(start + i);
+            if (entryChar != valueChar) {
+                return entryChar - valueChar;
+            }
+            position += 2;
+        }
+        return entryLength - valueLength;
+    }
+
+    /**
+     * Compiles a wordlist ZIP into an index file.  Distinct entries are collected in memory, spilled to sorted
+     * run files when the buffer fills, and the runs are then merged into the final file.
+     */
+    static class Builder {
+        private static final int SPILL_THRESHOLD = 500 * 1000;
+        private static final long DEBUG_OUTPUT_FREQUENCY = 3 * 60 * 1000;  // 3 minutes
+
+        private final AbstractWordlist rootWordlist;
+        private final ZipReader zipReader;
+        private final Sleeper sleeper;
+        private final File outputFile;
+        private final String identity;
+        private final int checkSize;
+
+        private final Set<String> buffer = new HashSet<>();
+        private final List<File> runFiles = new ArrayList<>();
+
+        private volatile boolean abortFlag;
+        private volatile int lines;
+        private volatile int entries;
+        private final long startTime = System.currentTimeMillis();
+
+        Builder(
+                final AbstractWordlist rootWordlist,
+                final ZipReader zipReader,
+                final Sleeper sleeper,
+                final File outputFile,
+                final String identity
+        )
+        {
+            this.rootWordlist = rootWordlist;
+            this.zipReader = zipReader;
+            this.sleeper = sleeper;
+            this.outputFile = outputFile;
+            this.identity = identity;
+            this.checkSize = rootWordlist.wordlistConfiguration.getCheckSize();
+        }
+
+        void abort() {
+            abortFlag = true;
+        }
+
+        String makeStatString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(rootWordlist.DEBUG_LABEL);
+            sb.append(" building mapped index, lines=").append(lines);
+            sb.append(", runs=").append(runFiles.size());
+            if (entries > 0) {
+                sb.append(", entries=").append(entries);
+            }
+            sb.append(", elapsed=").append(TimeDuration.fromCurrent(startTime).asCompactString());
+            sb.append(", current zipEntry=").append(zipReader.currentZipName());
+            return sb.toString();
+        }
+
+        /**
+         * @return the opened index, or null if the build was aborted
+         */
+        MappedWordlistIndex build()
+                throws IOException
+        {
+            LOGGER.info(rootWordlist.DEBUG_LABEL + " building mapped index from " + zipReader.getSourceFile().getAbsolutePath()
+                    + " (" + zipReader.getSourceFile().length() + " bytes)");
+            try {
+                readWordlist();
+                if (abortFlag) {
+                    LOGGER.warn("aborting " + rootWordlist.DEBUG_LABEL + " mapped index build");
+                    return null;
+                }
+                writeIndex();
+                if (abortFlag) {
+                    LOGGER.warn("aborting " + rootWordlist.DEBUG_LABEL + " mapped index build");
+                    return null;
+                }
+            } finally {
+                zipReader.close();
+                for (final File runFile : runFiles) {
+                    if (runFile.exists() && !runFile.delete()) {
+                        LOGGER.warn("unable to remove temporary index file " + runFile.getAbsolutePath());
+                    }
+                }
+            }
+
+            final MappedWordlistIndex index = open(outputFile, identity);
+            if (index == null) {
+                throw new IOException("unable to open newly built wordlist index file " + outputFile.getAbsolutePath());
+            }
+            LOGGER.info(rootWordlist.DEBUG_LABEL + " mapped index build complete, read " + lines + " lines in "
+                    + TimeDuration.fromCurrent(startTime).asCompactString() + ", " + index.debugString());
+            return index;
+        }
+
+        private void readWordlist()
+                throws IOException
+        {
+            long lastReportTime = System.currentTimeMillis();
+            sleeper.reset();
+            String line;
+            while (!abortFlag && (line = zipReader.nextLine()) != null) {
+                sleeper.sleep();
+                lines++;
+                addLine(line);
+
+                if (buffer.size() >= SPILL_THRESHOLD) {
+                    spillBuffer();
+                }
+
+                if (TimeDuration.fromCurrent(lastReportTime).isLongerThan(DEBUG_OUTPUT_FREQUENCY)) {
+                    LOGGER.info(makeStatString());
+                    lastReportTime = System.currentTimeMillis();
+                }
+            }
+        }
+
+        private void addLine(final String input) {
+            final String word = rootWordlist.normalizeLine(input);
+            if (word == null) {
+                return;
+            }
+
+            if (checkSize == 0 || word.length() <= checkSize) {
+                buffer.add(word);
+            } else {
+                for (int i = 0; i + checkSize <= word.length(); i++) {
+                    buffer.add(word.substring(i, i + checkSize));
+                }
+            }
+        }
+
+        private void spillBuffer()
+                throws IOException
+        {
+            final File runFile = new File(outputFile.getAbsolutePath() + ".run" + runFiles.size());
+            runFiles.add(runFile);
+            final String[] sorted = sortedBuffer();
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 256 * 1024));
+            try {
+                for (final String value : sorted) {
+                    output.writeUTF(value);
+                }
+            } finally {
+                output.close();
+            }
+            LOGGER.trace(rootWordlist.DEBUG_LABEL + " wrote " + sorted.length + " index entries to " + runFile.getName());
+        }
+
+        private String[] sortedBuffer() {
+            final String[] sorted = buffer.toArray(new String[buffer.size()]);
+            buffer.clear();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private void writeIndex()
+                throws IOException
+        {
+            final IndexWriter indexWriter = new IndexWriter(outputFile, identity);
+            try {
+                if (runFiles.isEmpty()) {
+                    for (final String value : sortedBuffer()) {
+                        indexWriter.add(value);
+                    }
+                } else {
+                    if (!buffer.isEmpty()) {
+                        spillBuffer();
+                    }
+                    mergeRuns(indexWriter);
+                }
+                if (!abortFlag) {
+                    indexWriter.complete();
+                    entries = indexWriter.count;
+                }
+            } finally {
+                indexWriter.close();
+            }
+        }
+
+        private void mergeRuns(final IndexWriter indexWriter)
+                throws IOException
+        {
+            final PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size());
+            try {
+                for (final File runFile : runFiles) {
+                    final RunReader runReader = new RunReader(runFile);
+                    if (runReader.advance()) {
+                        queue.add(runReader);
+                    } else {
+                        runReader.close();
+                    }
+                }
+
+                String lastValue = null;
+                while (!queue.isEmpty() && !abortFlag) {
+                    final RunReader runReader = queue.poll();
+                    if (!runReader.current.equals(lastValue)) {
+                        lastValue = runReader.current;
+                        indexWriter.add(lastValue);
+                    }
+                    if (runReader.advance()) {
+                        queue.add(runReader);
+                    } else {
+                        runReader.close();
+                    }
+                }
+            } finally {
+                for (final RunReader runReader : queue) {
+                    runReader.close();
+                }
+            }
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+        private final DataInputStream input;
+        private String current;
+
+        private RunReader(final File file)
+                throws IOException
+        {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+
+        private boolean advance()
+                throws IOException
+        {
+            try {
+                current = input.readUTF();
+                return true;
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                input.close();
+            } catch (IOException e) { /* do nothing */ }
+        }
+
+        public int compareTo(final RunReader o) {
+            return current.compareTo(o.current);
+        }
+    }
+
+    /**
+     * Writes the header and character data to the index file while collecting the offset table in a temporary
+     * file, which is appended once all entries have been written.
+     */
+    private static class IndexWriter {
+        private final File file;
+        private final File tempFile;
+        private final File offsetsFile;
+        private final String identity;
+        private final DataOutputStream dataOutput;
+        private final DataOutputStream offsetsOutput;
+        private final int headerLength;
+
+        private long charPosition;
+        private int count;
+        private String lastValue;
+
+        private IndexWriter(final File file, final String identity)
+                throws IOException
+        {
+            this.file = file;
+            this.identity = identity;
+            this.tempFile = new File(file.getAbsolutePath() + ".tmp");
+            this.offsetsFile = new File(file.getAbsolutePath() + ".offsets");
+
+            final ByteArrayOutputStream header = new ByteArrayOutputStream();
+            writeHeader(new DataOutputStream(header), 0, 0, 0);
+            headerLength = header.size();
+
+            dataOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 256 * 1024));
+            offsetsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile), 256 * 1024));
+            dataOutput.write(header.toByteArray());
+        }
+
+        private void writeHeader(final DataOutputStream output, final long dataOffset, final long offsetsOffset, final int count)
+                throws IOException
+        {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeLong(dataOffset);
+            output.writeLong(offsetsOffset);
+            output.writeInt(count);
+            output.writeUTF(identity);
+        }
+
+        private void add(final String value)
+                throws IOException
+        {
+            if (lastValue != null && lastValue.compareTo(value) >= 0) {
+                throw new IOException("wordlist index entries must be added in sorted order");
+            }
+            offsetsOutput.writeInt((int)charPosition);
+            dataOutput.writeChars(value);
+            charPosition += value.length();
+            count++;
+            lastValue = value;
+
+            if (headerLength + charPosition * 2 + ((long)count + 1) * 4L > Integer.MAX_VALUE) {
+                throw new IOException("wordlist index exceeds the maximum mapped file size");
+            }
+        }
+
+        private void complete()
+                throws IOException
+        {
+            offsetsOutput.writeInt((int)charPosition);
+            offsetsOutput.close();
+            final long offsetsOffset = headerLength + charPosition * 2;
+
+            final InputStream offsetsInput = new BufferedInputStream(new FileInputStream(offsetsFile), 256 * 1024);
+            try {
+                final byte[] copyBuffer = new byte[64 * 1024];
+                int read;
+                while ((read = offsetsInput.read(copyBuffer)) > 0) {
+                    dataOutput.write(copyBuffer, 0, read);
+                }
+            } finally {
+                offsetsInput.close();
+            }
+            dataOutput.close();
+
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            try {
+                final ByteArrayOutputStream header = new ByteArrayOutputStream();
+                writeHeader(new DataOutputStream(header), headerLength, offsetsOffset, count);
+                randomAccessFile.seek(0);
+                randomAccessFile.write(header.toByteArray());
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (file.exists() && !file.delete()) {
+                throw new IOException("unable to remove previous wordlist index file " + file.getAbsolutePath());
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("unable to rename wordlist index file to " + file.getAbsolutePath());
+            }
+        }
+
+        private void close() {
+            try {
+                dataOutput.close();
+            } catch (IOException e) { /* do nothing */ }
+            try {
+                offsetsOutput.close();
+            } catch (IOException e) { /* do nothing */ }
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+            if (offsetsFile.exists()) {
+                offsetsFile.delete();
+            }
+        }
+    }
+}
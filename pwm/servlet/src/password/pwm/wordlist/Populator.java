@@ -34,14 +34,22 @@ import password.pwm.util.localdb.LocalDB;
 import password.pwm.util.localdb.LocalDBException;
 import password.pwm.util.logging.PwmLogger;
 
-import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Populates the wordlist db from the source ZIP using a pipeline: a reader thread decompresses and normalizes lines
+ * into blocks, worker threads convert each block into the words to be stored, and the calling thread commits the
+ * results to the LocalDB in batches sized by {@link TransactionSizeCalculator}.
+ * <p>
+ * After each commit the ZIP position of the last fully committed block is stored so an interrupted population
+ * can resume by seeking directly to that position.
+ *
  * @author Jason D. Rivard
  */
 class Populator {
@@ -50,13 +58,16 @@ class Populator {
     private static final PwmLogger LOGGER = PwmLogger.forClass(Populator.class);
 
 
-    private static final int MAX_LINE_LENGTH = 64; // words truncated to this length, prevents massive words if the input
+    static final int MAX_LINE_LENGTH = 64; // words truncated to this length, prevents massive words if the input
 
     private static final long DEBUG_OUTPUT_FREQUENCY = 3 * 60 * 1000;  // 3 minutes
 
-    private static final String COMMENT_PREFIX = "!#comment:"; // words tarting with this prefix are ignored.
+    static final String COMMENT_PREFIX = "!#comment:"; // words tarting with this prefix are ignored.
     private static final NumberFormat PERCENT_FORMAT = DecimalFormat.getPercentInstance();
 
+    private static final int LINES_PER_BLOCK = 1000;
+    private static final int QUEUE_BLOCKS_PER_WORKER = 4;
+
     private final ZipReader zipFileReader;
 
     private volatile boolean abortFlag;
@@ -64,8 +75,7 @@ class Populator {
 
     private final PopulationStats overallStats = new PopulationStats();
     private PopulationStats perReportStats = new PopulationStats();
-    private int totalLines;
-    private TransactionSizeCalculator transactionCalculator = new TransactionSizeCalculator(600, 10, 50 * 1000);
+    private TransactionSizeCalculator transactionCalculator = new TransactionSizeCalculator(600, 10, 200 * 1000);
     private int loopLines;
 
     private final Map<String,String> bufferedWords = new TreeMap<>();
@@ -79,6 +89,19 @@ class Populator {
     private final String DEBUG_LABEL;
 
     private final AbstractWordlist rootWordlist;
+    private final int workerThreads;
+
+    private final BlockingQueue<LineBlock> lineQueue;
+    private final BlockingQueue<WordBlock> wordQueue;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Exception pipelineError;
+    private volatile long producedBlocks = -1;
+
+    private final SortedMap<Long,ZipReader.Position> completedBlocks = new TreeMap<>();
+    private long nextCommitBlock;
+    private volatile ZipReader.Position committedPosition;
+    private float sessionStartPercent;
+    private final long sessionStartTime = System.currentTimeMillis();
 
 // -------------------------- STATIC METHODS --------------------------
 
@@ -102,6 +125,9 @@ class Populator {
         this.sleeper = sleeper;
         this.DEBUG_LABEL = rootWordlist.DEBUG_LABEL;
         this.rootWordlist = rootWordlist;
+        this.workerThreads = Math.max(1, rootWordlist.populatorWorkerThreads);
+        this.lineQueue = new ArrayBlockingQueue<>(workerThreads * QUEUE_BLOCKS_PER_WORKER);
+        this.wordQueue = new ArrayBlockingQueue<>(workerThreads * QUEUE_BLOCKS_PER_WORKER);
 
         sleeper.reset();
     }
@@ -117,16 +143,13 @@ class Populator {
                         + " (" + zipFileReader.getSourceFile().length() + " bytes)"
         );
 
-        wordlistSize(zipFileReader.getSourceFile());
-
         if (abortFlag) return;
 
-        final Object lastLineValue = localDB.get(wordlistMetaDB, WordlistManager.KEY_LASTLINE);
-        if (lastLineValue != null) {
-            final int startLine = Integer.parseInt(lastLineValue.toString());
-            while (startLine > overallStats.getLines()) {
-                overallStats.incrementLines();
-            }
+        final ZipReader.Position startPosition = ZipReader.Position.fromString(localDB.get(wordlistMetaDB, WordlistManager.KEY_POSITION));
+        if (startPosition != null) {
+            zipFileReader.seek(startPosition);
+            committedPosition = startPosition;
+            sessionStartPercent = zipFileReader.percentComplete(startPosition);
 
             final Object elapsedSecondsValue = localDB.get(wordlistMetaDB, WordlistManager.KEY_ELAPSEDSECONDS);
             if (elapsedSecondsValue != null) {
@@ -134,44 +157,17 @@ class Populator {
                 overallStats.incrementElapsedSeconds(elapsedSeconds);
             }
 
-            LOGGER.info(DEBUG_LABEL + " resuming from line " + startLine + " of " + totalLines + " lines (" + percentComplete() + ") elapsed time " + TimeDuration.asCompactString(overallStats.getElapsedSeconds() * 1000));
-        } else {
-            LOGGER.info(DEBUG_LABEL + " source ZIP has " + totalLines + " lines");
+            LOGGER.info(DEBUG_LABEL + " resuming from position " + startPosition + " (" + percentComplete() + ") elapsed time " + TimeDuration.asCompactString(overallStats.getElapsedSeconds() * 1000));
         }
 
         localDB.put(wordlistMetaDB, WordlistManager.KEY_STATUS, WordlistManager.VALUE_STATUS.DIRTY.toString());
 
-        if (overallStats.getLines() > 0) {
-            for (int i = 0; i < overallStats.getLines(); i++) {
-                zipFileReader.nextLine();
-            }
-        }
         status = PwmService.STATUS.OPEN;
     }
 
-    private void wordlistSize(final File wordlistFile)
-            throws Exception
-    {
-        LOGGER.trace(DEBUG_LABEL + " beginning to count total input ZIP file lines");
-        final ZipReader zipFileReader = new ZipReader(wordlistFile);
-        totalLines = 0;
-
-        while (zipFileReader.nextLine() != null) {
-            totalLines++;
-            if (abortFlag) return;
-        }
-
-        LOGGER.trace(DEBUG_LABEL + " input file line counting complete at " + totalLines + " lines");
-    }
-
     public String percentComplete()
     {
-        if (totalLines <= 0) {
-            return "0%";
-        }
-
-        final float percentComplete = ((float) overallStats.getLines() / (float) totalLines);
-        return PERCENT_FORMAT.format(percentComplete);
+        return PERCENT_FORMAT.format(zipFileReader.percentComplete(committedPosition));
     }
 
 // -------------------------- OTHER METHODS --------------------------
@@ -204,12 +200,13 @@ class Populator {
     public String makeStatString()
     {
         if (status == PwmService.STATUS.NEW) {
-            return "initializing, examining wordlist, lines read=" + totalLines;
+            return "initializing, examining wordlist";
         }
 
         final int lps = perReportStats.getElapsedSeconds() <= 0 ? 0 : perReportStats.getLines() / perReportStats.getElapsedSeconds();
-        final int linesRemaining = totalLines - overallStats.getLines();
-        final int msRemaining = lps <= 0 ? 0 : (linesRemaining / lps) * 1000;
+        final float percent = zipFileReader.percentComplete(committedPosition);
+        final float sessionPercent = percent - sessionStartPercent;
+        final long msRemaining = sessionPercent <= 0 ? 0 : (long)(TimeDuration.fromCurrent(sessionStartTime).getTotalMilliseconds() * ((1 - percent) / sessionPercent));
 
         final StringBuilder sb = new StringBuilder();
 
@@ -224,6 +221,8 @@ class Populator {
 
         sb.append(", lines/second=").append(lps);
         sb.append(", line=").append(overallStats.getLines());
+        sb.append(", workers=").append(workerThreads);
+        sb.append(", transactionSize=").append(transactionCalculator.getTransactionSize());
         sb.append(")");
         sb.append(" current zipEntry=").append(zipFileReader.currentZipName());
 
@@ -234,18 +233,33 @@ class Populator {
     void populate() throws IOException, LocalDBException, PwmUnrecoverableException {
 
         try {
+            startPipeline();
+
             long lastReportTime = System.currentTimeMillis() - (long)(DEBUG_OUTPUT_FREQUENCY * 0.33);
+            long consumedBlocks = 0;
 
             sleeper.reset();
-            String line;
-            while (!abortFlag && (line = zipFileReader.nextLine()) != null) {
-                sleeper.sleep();
+            while (!abortFlag && (producedBlocks < 0 || consumedBlocks < producedBlocks)) {
+                if (pipelineError != null) {
+                    throw new IOException("error reading wordlist: " + pipelineError.getMessage(), pipelineError);
+                }
 
-                overallStats.incrementLines();
-                perReportStats.incrementLines();
+                final WordBlock wordBlock;
+                try {
+                    wordBlock = wordQueue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (wordBlock == null) {
+                    continue;
+                }
 
-                addLine(line);
-                loopLines++;
+                consumedBlocks++;
+                overallStats.incrementLines(wordBlock.lineCount);
+                perReportStats.incrementLines(wordBlock.lineCount);
+                loopLines += wordBlock.lineCount;
+                bufferedWords.putAll(wordBlock.words);
+                completedBlocks.put(wordBlock.sequence, wordBlock.endPosition);
 
                 if (TimeDuration.fromCurrent(lastReportTime).isLongerThan(DEBUG_OUTPUT_FREQUENCY)) {
                     LOGGER.info(makeStatString());
@@ -254,9 +268,11 @@ class Populator {
 
                 if (bufferedWords.size() > transactionCalculator.getTransactionSize()) {
                     flushBuffer();
+                    sleeper.sleep();
                 }
             }
         } finally {
+            stopPipeline();
             zipFileReader.close();
         }
 
@@ -269,22 +285,96 @@ class Populator {
         status = PwmService.STATUS.CLOSED;
     }
 
-    private void addLine(String line)
-            throws IOException
+    private void startPipeline() {
+        final String threadName = Helper.makeThreadName(null, Populator.class);
+
+        final Thread readerThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    readLines();
+                } catch (Exception e) {
+                    pipelineError = e;
+                }
+            }
+        }, threadName + "-reader");
+        threads.add(readerThread);
+
+        for (int i = 0; i < workerThreads; i++) {
+            final Thread workerThread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        processBlocks();
+                    } catch (InterruptedException e) {
+                        /* aborted */
+                    } catch (Exception e) {
+                        pipelineError = e;
+                    }
+                }
+            }, threadName + "-worker" + i);
+            threads.add(workerThread);
+        }
+
+        for (final Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void stopPipeline() {
+        abortFlag = abortFlag || producedBlocks < 0;
+        for (final Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (final Thread thread : threads) {
+            try {
+                thread.join(10 * 1000);
+            } catch (InterruptedException e) { /* do nothing */ }
+        }
+        threads.clear();
+    }
+
+    private void readLines()
+            throws IOException, InterruptedException
     {
-        // check for word suitability
-        line = rootWordlist.normalizeWord(line);
+        long sequence = 0;
+        List<String> words = new ArrayList<>(LINES_PER_BLOCK);
+        int lineCount = 0;
+        String line;
+        while (!abortFlag && (line = zipFileReader.nextLine()) != null) {
+            lineCount++;
+            final String word = rootWordlist.normalizeLine(line);
+            if (word != null) {
+                words.add(word);
+            }
 
-        if (line == null || line.length() < 1 || line.startsWith(COMMENT_PREFIX)) {
-            return;
+            if (lineCount >= LINES_PER_BLOCK) {
+                lineQueue.put(new LineBlock(sequence++, words, lineCount, zipFileReader.position()));
+                words = new ArrayList<>(LINES_PER_BLOCK);
+                lineCount = 0;
+            }
         }
 
-        if (line.length() > MAX_LINE_LENGTH) {
-            line = line.substring(0,MAX_LINE_LENGTH);
+        if (!abortFlag) {
+            if (lineCount > 0) {
+                lineQueue.put(new LineBlock(sequence++, words, lineCount, zipFileReader.position()));
+            }
+            producedBlocks = sequence;
         }
+    }
 
-        final Map<String,String> wordTxn = rootWordlist.getWriteTxnForValue(line);
-        bufferedWords.putAll(wordTxn);
+    private void processBlocks()
+            throws InterruptedException
+    {
+        while (!abortFlag) {
+            final LineBlock lineBlock = lineQueue.poll(1, TimeUnit.SECONDS);
+            if (lineBlock != null) {
+                final Map<String,String> words = new HashMap<>();
+                for (final String word : lineBlock.words) {
+                    words.putAll(rootWordlist.getWriteTxnForValue(word));
+                }
+                wordQueue.put(new WordBlock(lineBlock.sequence, words, lineBlock.lineCount, lineBlock.endPosition));
+            }
+        }
     }
 
     private void flushBuffer()
@@ -295,8 +385,22 @@ class Populator {
         //add the elements
         localDB.putAll(wordlistDB, bufferedWords);
 
-        //update the src ZIP line counter in the localdb.
-        localDB.put(wordlistMetaDB, WordlistManager.KEY_LASTLINE, String.valueOf(overallStats.getLines()));
+        //a filter is only present during a delta population, keep it current with the words being added.
+        final WordlistBloomFilter bloomFilter = rootWordlist.bloomFilter;
+        if (bloomFilter != null) {
+            for (final String word : bufferedWords.keySet()) {
+                bloomFilter.add(word);
+            }
+        }
+
+        //every block up to the first gap has now been committed, so record the position following it.
+        while (!completedBlocks.isEmpty() && completedBlocks.firstKey() == nextCommitBlock) {
+            committedPosition = completedBlocks.remove(nextCommitBlock);
+            nextCommitBlock++;
+        }
+        if (committedPosition != null) {
+            localDB.put(wordlistMetaDB, WordlistManager.KEY_POSITION, committedPosition.toString());
+        }
 
         if (abortFlag) {
             return;
@@ -338,14 +442,48 @@ class Populator {
             throw new PwmUnrecoverableException(new ErrorInformation(PwmError.ERROR_UNKNOWN, DEBUG_LABEL + " population completed, but no words stored"));
         }
 
+        try {
+            rootWordlist.completeBloomFilter(wordlistSize);
+        } catch (IOException e) {
+            LOGGER.warn(DEBUG_LABEL + " unable to save bloom filter: " + e.getMessage());
+        }
+
         final StringBuilder sb = new StringBuilder();
         sb.append(DEBUG_LABEL);
         sb.append(" population complete, added ").append(wordlistSize);
         sb.append(" total words in ").append(new TimeDuration(overallStats.getElapsedSeconds() * 1000).asCompactString());
-        sb.append(", ignored ").append(totalLines - wordlistSize).append(" words");
+        sb.append(" from ").append(overallStats.getLines()).append(" lines");
         LOGGER.info(sb.toString());
     }
 
+    private static class LineBlock {
+        private final long sequence;
+        private final List<String> words;
+        private final int lineCount;
+        private final ZipReader.Position endPosition;
+
+        private LineBlock(final long sequence, final List<String> words, final int lineCount, final ZipReader.Position endPosition) {
+            this.sequence = sequence;
+            this.words = words;
+            this.lineCount = lineCount;
+            this.endPosition = endPosition;
+        }
+    }
+
+    private static class WordBlock {
+        private final long sequence;
+        private final Map<String,String> words;
+        private final int lineCount;
+        private final ZipReader.Position endPosition;
+
+        private WordBlock(final long sequence, final Map<String,String> words, final int lineCount, final ZipReader.Position endPosition) {
+            this.sequence = sequence;
+            this.words = words;
+            this.lineCount = lineCount;
+            this.endPosition = endPosition;
+        }
+    }
+
     private static class PopulationStats {
         // ------------------------------ FIELDS ------------------------------
 
@@ -361,9 +499,9 @@ class Populator {
 
         // -------------------------- OTHER METHODS --------------------------
 
-        public void incrementLines()
+        public void incrementLines(final int count)
         {
-            lines++;
+            lines += count;
         }
 
         public int getElapsedSeconds()
@@ -22,6 +22,7 @@
 
 package password.pwm.wordlist;
 
+import password.pwm.AppProperty;
 import password.pwm.PwmApplication;
 import password.pwm.PwmConstants;
 import password.pwm.config.PwmSetting;
@@ -30,11 +31,16 @@ import password.pwm.util.Helper;
 import password.pwm.util.PwmRandom;
 import password.pwm.util.TimeDuration;
 import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBException;
 import password.pwm.util.logging.PwmLogger;
 
 import java.io.File;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SeedlistManager extends AbstractWordlist implements Wordlist {
 
@@ -42,6 +48,14 @@ public class SeedlistManager extends AbstractWordlist implements Wordlist {
 
     private int initialPopulationCounter = 0;
 
+    // seeds sampled uniformly from the seedlist, replaced in the background once as many seeds have been handed out
+    // as the pool holds.
+    private int seedPoolSize;
+    private volatile String[] seedPool;
+    private final AtomicInteger seedPoolDraws = new AtomicInteger();
+    private final AtomicBoolean seedPoolRefillPending = new AtomicBoolean();
+    private Timer seedPoolTimer;
+
     public SeedlistManager() {
     }
 
@@ -49,17 +63,19 @@ public class SeedlistManager extends AbstractWordlist implements Wordlist {
         if (wlStatus != STATUS.OPEN) {
             return null;
         }
+
+        final String[] pool = seedPool;
+        if (pool != null) {
+            if (seedPoolDraws.incrementAndGet() >= pool.length) {
+                scheduleSeedPoolRefill();
+            }
+            return pool[PwmRandom.getInstance().nextInt(pool.length)];
+        }
+
         final long startTime = System.currentTimeMillis();
         String returnValue = null;
         try {
-            final int seedCount = size();
-            if (seedCount > 1000) {
-                final int randomKey = PwmRandom.getInstance().nextInt(size());
-                final Object obj = localDB.get(WORD_DB, String.valueOf(randomKey));
-                if (obj != null) {
-                    returnValue = obj.toString();
-                }
-            }
+            returnValue = readRandomSeed();
         } catch (Exception e) {
             LOGGER.warn("error while generating random word: " + e.getMessage());
         }
@@ -70,6 +86,79 @@ public class SeedlistManager extends AbstractWordlist implements Wordlist {
         return returnValue;
     }
 
+    private String readRandomSeed()
+            throws LocalDBException
+    {
+        final int seedCount = size();
+        if (seedCount > 1000) {
+            final int randomKey = PwmRandom.getInstance().nextInt(seedCount);
+            final Object obj = localDB.get(WORD_DB, String.valueOf(randomKey));
+            if (obj != null) {
+                return obj.toString();
+            }
+        }
+        return null;
+    }
+
+    private void fillSeedPool() {
+        if (seedPoolSize < 1 || wlStatus != STATUS.OPEN) {
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        try {
+            final String[] newPool = new String[seedPoolSize];
+            for (int i = 0; i < seedPoolSize; i++) {
+                final String seed = readRandomSeed();
+                if (seed == null) {
+                    return;
+                }
+                newPool[i] = seed;
+            }
+            seedPool = newPool;
+            seedPoolDraws.set(0);
+            if (debugTrace) {
+                LOGGER.trace("filled seed pool with " + seedPoolSize + " seeds in " + TimeDuration.fromCurrent(startTime).asCompactString());
+            }
+        } catch (Exception e) {
+            LOGGER.warn("error while filling seed pool: " + e.getMessage());
+        } finally {
+            seedPoolRefillPending.set(false);
+        }
+    }
+
+    private void scheduleSeedPoolRefill() {
+        final Timer timer = seedPoolTimer;
+        if (timer != null && seedPoolRefillPending.compareAndSet(false, true)) {
+            try {
+                timer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        fillSeedPool();
+                    }
+                }, 0);
+            } catch (IllegalStateException e) {
+                // timer has been cancelled by close()
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (seedPoolTimer != null) {
+            seedPoolTimer.cancel();
+            seedPoolTimer = null;
+        }
+        seedPool = null;
+        super.close();
+    }
+
+    @Override
+    public String getDebugStatus() {
+        final String[] pool = seedPool;
+        return pool == null ? super.getDebugStatus() : super.getDebugStatus() + ", seedPool=" + pool.length;
+    }
+
     protected Map<String, String> getWriteTxnForValue(final String value) {
         final Map<String, String> txItem = Collections.singletonMap(String.valueOf(initialPopulationCounter), value);
         initialPopulationCounter++;
@@ -93,21 +182,42 @@ public class SeedlistManager extends AbstractWordlist implements Wordlist {
         final File seedlistFile = setting == null || setting.length() < 1 ? null : Helper.figureFilepath(setting, pwmApplication.getWebInfPath());
         final int loadFactor = PwmConstants.DEFAULT_WORDLIST_LOADFACTOR;
         final WordlistConfiguration wordlistConfiguration = new WordlistConfiguration(seedlistFile, loadFactor, true, 0);
-
-        this.DEBUG_LABEL = PwmConstants.PWM_APP_NAME + "-Seedist";
-        this.META_DB = LocalDB.DB.SEEDLIST_META;
-        this.WORD_DB = LocalDB.DB.SEEDLIST_WORDS;
+        configure(
+                Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.SEEDLIST_POOL_SIZE)),
+                Helper.makeThreadName(pwmApplication,SeedlistManager.class)
+        );
 
         final Thread t = new Thread(new Runnable() {
             public void run() {
                 LOGGER.debug(DEBUG_LABEL + " starting up in background thread");
                 startup(pwmApplication.getLocalDB(), wordlistConfiguration);
+                fillSeedPool();
             }
         }, Helper.makeThreadName(pwmApplication,SeedlistManager.class));
 
         t.start();
     }
 
+    /**
+     * Start against a LocalDB without the application configuration.  The seedlist is populated and the seed pool
+     * filled before this returns.
+     */
+    void init(final LocalDB localDB, final File seedlistFile, final int seedPoolSize, final String threadName) {
+        configure(seedPoolSize, threadName);
+        startup(localDB, new WordlistConfiguration(seedlistFile, PwmConstants.DEFAULT_WORDLIST_LOADFACTOR, true, 0));
+        fillSeedPool();
+    }
+
+    private void configure(final int seedPoolSize, final String threadName) {
+        this.DEBUG_LABEL = PwmConstants.PWM_APP_NAME + "-Seedist";
+        this.META_DB = LocalDB.DB.SEEDLIST_META;
+        this.WORD_DB = LocalDB.DB.SEEDLIST_WORDS;
+        this.seedPoolSize = seedPoolSize;
+        if (seedPoolSize > 0) {
+            seedPoolTimer = new Timer(threadName + " seed pool", true);
+        }
+    }
+
     @Override
     protected String makeVersionString()
     {
@@ -41,6 +41,10 @@ import java.io.ByteArrayInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 
 public class SharedHistoryManager implements Wordlist {
@@ -50,12 +54,22 @@ public class SharedHistoryManager implements Wordlist {
 
     private static final String KEY_OLDEST_ENTRY = "oldest_entry";
     private static final String KEY_VERSION = "version";
+    private static final String KEY_BUCKET_VERSION = "version_buckets";
+    private static final String KEY_BUCKET_PREFIX = "bucket_";
+
+    private static final String VALUE_BUCKET_VERSION = "1";
+
+    private static final long BUCKET_DURATION_MS = 1000 * 60 * 60 * 24; // 1 day
+    private static final int BUCKET_CHUNK_SIZE = 1000;
 
     private static final int MIN_CLEANER_FREQUENCY = 1000 * 60 * 60; // 1 hour
     private static final int MAX_CLEANER_FREQUENCY = 1000 * 60 * 60 * 24; // 1 day
 
+    private static final int MAX_WRITE_BATCH_SIZE = 500;
+
     private static final LocalDB.DB META_DB = LocalDB.DB.SHAREDHISTORY_META;
     private static final LocalDB.DB WORDS_DB = LocalDB.DB.SHAREDHISTORY_WORDS;
+    private static final LocalDB.DB BUCKETS_DB = LocalDB.DB.SHAREDHISTORY_BUCKETS;
 
     private volatile PwmService.STATUS status = STATUS.NEW;
 
@@ -63,10 +77,22 @@ public class SharedHistoryManager implements Wordlist {
 
     private LocalDB localDB;
     private String salt;
-    private long oldestEntry;
+
+    // each stored word is also indexed in the bucket for the day it was added, so expired days can be removed without
+    // examining the words of the remaining days.  Bucket counters are kept here and persisted to the meta db.
+    private final SortedMap<Long,Bucket> buckets = new TreeMap<>();
+    private final Object bucketLock = new Object();
 
     private final Settings settings = new Settings();
 
+    // hashes of words submitted by addWord() wait here for the writer thread.  Until written they remain visible to
+    // containsWord() through pendingWords, which maps each hashed word to the time it was added.  Only the hash that is
+    // stored in the LocalDB is kept, never the word itself.
+    private BlockingQueue<String> writeQueue = new LinkedBlockingQueue<>();
+    private final Map<String,Long> pendingWords = new ConcurrentHashMap<>();
+    private volatile boolean writerThreadActive = false;
+
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
 
 // --------------------------- CONSTRUCTORS ---------------------------
 
@@ -77,10 +103,25 @@ public class SharedHistoryManager implements Wordlist {
 
     public void close() {
         status = STATUS.CLOSED;
-        LOGGER.debug("closed");
         if (cleanerTimer != null) {
             cleanerTimer.cancel();
         }
+
+        { // wait for the writer to exit, then write anything it left behind.
+            final long startTime = System.currentTimeMillis();
+            while (writerThreadActive && TimeDuration.fromCurrent(startTime).isShorterThan(30 * 1000)) {
+                Helper.pause(100);
+            }
+            if (writerThreadActive) {
+                LOGGER.warn("writer thread still open");
+            } else if (localDB != null && !writeQueue.isEmpty()) {
+                final List<String> remainingHashes = new ArrayList<>();
+                writeQueue.drainTo(remainingHashes);
+                writeWords(remainingHashes);
+            }
+        }
+
+        LOGGER.debug("closed");
         localDB = null;
     }
 
@@ -100,6 +141,12 @@ public class SharedHistoryManager implements Wordlist {
 
         try {
             final String hashedWord = hashWord(testWord);
+
+            final Long pendingTimestamp = pendingWords.get(hashedWord);
+            if (pendingTimestamp != null && System.currentTimeMillis() - pendingTimestamp < settings.maxAgeMs) {
+                return true;
+            }
+
             final boolean inDB = localDB.contains(WORDS_DB, hashedWord);
             if (inDB) {
                 final long timeStamp = Long.parseLong(localDB.get(WORDS_DB, hashedWord));
@@ -122,14 +169,23 @@ public class SharedHistoryManager implements Wordlist {
     }
 
     public Date getOldestEntryTime() {
-        if (size() > 0) {
+        final long oldestEntry = oldestEntry();
+        if (oldestEntry > 0) {
             return new Date(oldestEntry);
         }
         return null;
     }
 
     public int size() {
-        if (localDB != null) {
+        if (status == STATUS.OPEN) {
+            synchronized (bucketLock) {
+                int size = 0;
+                for (final Bucket bucket : buckets.values()) {
+                    size += bucket.liveCount;
+                }
+                return size;
+            }
+        } else if (localDB != null) {
             try {
                 return localDB.size(WORDS_DB);
             } catch (Exception e) {
@@ -141,6 +197,17 @@ public class SharedHistoryManager implements Wordlist {
         }
     }
 
+    private long oldestEntry() {
+        synchronized (bucketLock) {
+            for (final Bucket bucket : buckets.values()) {
+                if (bucket.liveCount > 0) {
+                    return bucket.oldestTimestamp;
+                }
+            }
+        }
+        return 0;
+    }
+
     private boolean checkDbVersion()
             throws Exception {
         LOGGER.trace("checking version number stored in LocalDB");
@@ -152,8 +219,9 @@ public class SharedHistoryManager implements Wordlist {
         if (!result) {
             LOGGER.info("existing db version does not match current db version db=(" + versionInDB + ")  current=(" + currentVersion + "), clearing db");
             localDB.truncate(WORDS_DB);
+            localDB.truncate(BUCKETS_DB);
+            localDB.truncate(META_DB);
             localDB.put(META_DB, KEY_VERSION, currentVersion);
-            localDB.remove(META_DB, KEY_OLDEST_ENTRY);
         } else {
             LOGGER.trace("existing db version matches current db version db=(" + versionInDB + ")  current=(" + currentVersion + ")");
         }
@@ -162,6 +230,57 @@ public class SharedHistoryManager implements Wordlist {
     }
 
     private void init(final PwmApplication pwmApplication, final long maxAgeMs) {
+        open(Helper.makeThreadName(pwmApplication, this.getClass()) + " writer");
+        if (status != STATUS.OPEN) {
+            return;
+        }
+
+        if (pwmApplication.getApplicationMode() == PwmApplication.MODE.RUNNING || pwmApplication.getApplicationMode() == PwmApplication.MODE.CONFIGURATION) {
+            long frequencyMs = maxAgeMs > MAX_CLEANER_FREQUENCY ? MAX_CLEANER_FREQUENCY : maxAgeMs;
+            frequencyMs = frequencyMs < MIN_CLEANER_FREQUENCY ? MIN_CLEANER_FREQUENCY : frequencyMs;
+
+            LOGGER.debug("scheduling cleaner task to run once every " + new TimeDuration(frequencyMs).asCompactString());
+            final String threadName = Helper.makeThreadName(pwmApplication, this.getClass()) + " timer";
+            cleanerTimer = new Timer(threadName, true);
+            cleanerTimer.schedule(new CleanerTask(), 1000, frequencyMs);
+        }
+    }
+
+    /**
+     * Open against a LocalDB without the application configuration, using the default hash and case settings.  The
+     * writer thread is only started if {@code writerThreadName} is not null, and the cleaner is not scheduled; see
+     * {@link #removeExpiredWords()}.
+     */
+    void init(
+            final LocalDB localDB,
+            final String salt,
+            final long maxAgeMs,
+            final int hashIterations,
+            final int writeQueueSize,
+            final String writerThreadName
+    )
+    {
+        settings.maxAgeMs = maxAgeMs;
+        settings.caseInsensitive = Boolean.parseBoolean(AppProperty.SECURITY_SHAREDHISTORY_CASE_INSENSITIVE.getDefaultValue());
+        settings.hashName = AppProperty.SECURITY_SHAREDHISTORY_HASH_NAME.getDefaultValue();
+        settings.hashIterations = hashIterations;
+        settings.version = "2" + "_" + settings.hashName + "_" + settings.hashIterations + "_" + settings.caseInsensitive;
+        writeQueue = new LinkedBlockingQueue<>(writeQueueSize);
+        this.localDB = localDB;
+        this.salt = salt;
+        open(writerThreadName);
+    }
+
+    /**
+     * Remove the words of expired buckets now rather than on the cleaner schedule.
+     */
+    void removeExpiredWords()
+            throws LocalDBException
+    {
+        new CleanerTask().reduceWordDB();
+    }
+
+    private void open(final String writerThreadName) {
         status = STATUS.OPENING;
         final long startTime = System.currentTimeMillis();
 
@@ -175,48 +294,123 @@ public class SharedHistoryManager implements Wordlist {
 
 
         try {
-            final String oldestEntryStr = localDB.get(META_DB, KEY_OLDEST_ENTRY);
-            if (oldestEntryStr == null || oldestEntryStr.length() < 1) {
-                oldestEntry = 0;
-                LOGGER.trace("no oldestEntry timestamp stored, will rescan");
-            } else {
-                oldestEntry = Long.parseLong(oldestEntryStr);
-                LOGGER.trace("oldest timestamp loaded from localDB, age is " + TimeDuration.fromCurrent(oldestEntry).asCompactString());
-            }
+            loadBuckets();
         } catch (LocalDBException e) {
-            LOGGER.error("unexpected error loading oldest-entry meta record, will remain closed: " + e.getMessage(), e);
+            LOGGER.error("unexpected error loading bucket meta records, will remain closed: " + e.getMessage(), e);
             status = STATUS.CLOSED;
             return;
         }
 
-        try {
-            final int size = localDB.size(WORDS_DB);
+        status = STATUS.OPEN;
+
+        {
             final StringBuilder sb = new StringBuilder();
-            sb.append("open with ").append(size).append(" words (");
+            sb.append("open with ").append(size()).append(" words in ").append(buckets.size()).append(" buckets (");
             sb.append(new TimeDuration(System.currentTimeMillis(), startTime).asCompactString()).append(")");
-            sb.append(", maxAgeMs=").append(new TimeDuration(maxAgeMs).asCompactString());
-            sb.append(", oldestEntry=").append(new TimeDuration(System.currentTimeMillis(), oldestEntry).asCompactString());
+            sb.append(", maxAgeMs=").append(new TimeDuration(settings.maxAgeMs).asCompactString());
+            sb.append(", oldestEntry=").append(new TimeDuration(System.currentTimeMillis(), oldestEntry()).asCompactString());
             LOGGER.info(sb.toString());
-        } catch (LocalDBException e) {
-            LOGGER.error("unexpected error examining size of DB, will remain closed: " + e.getMessage(), e);
-            status = STATUS.CLOSED;
-            return;
         }
 
-        status = STATUS.OPEN;
         //populateFromWordlist();  //only used for debugging!!!
 
-        if (pwmApplication.getApplicationMode() == PwmApplication.MODE.RUNNING || pwmApplication.getApplicationMode() == PwmApplication.MODE.CONFIGURATION) {
-            long frequencyMs = maxAgeMs > MAX_CLEANER_FREQUENCY ? MAX_CLEANER_FREQUENCY : maxAgeMs;
-            frequencyMs = frequencyMs < MIN_CLEANER_FREQUENCY ? MIN_CLEANER_FREQUENCY : frequencyMs;
+        if (writerThreadName != null) {
+            startWriterThread(writerThreadName);
+        }
+    }
 
-            LOGGER.debug("scheduling cleaner task to run once every " + new TimeDuration(frequencyMs).asCompactString());
-            final String threadName = Helper.makeThreadName(pwmApplication, this.getClass()) + " timer";
-            cleanerTimer = new Timer(threadName, true);
-            cleanerTimer.schedule(new CleanerTask(), 1000, frequencyMs);
+    private void loadBuckets()
+            throws LocalDBException
+    {
+        synchronized (bucketLock) {
+            buckets.clear();
+            if (!VALUE_BUCKET_VERSION.equals(localDB.get(META_DB, KEY_BUCKET_VERSION))) {
+                rebuildBuckets();
+                return;
+            }
+
+            LocalDB.LocalDBIterator<String> keyIterator = null;
+            try {
+                keyIterator = localDB.iterator(META_DB);
+                while (keyIterator.hasNext()) {
+                    final String key = keyIterator.next();
+                    if (key.startsWith(KEY_BUCKET_PREFIX)) {
+                        final Bucket bucket = Bucket.fromMetaValue(Long.parseLong(key.substring(KEY_BUCKET_PREFIX.length())), localDB.get(META_DB, key));
+                        buckets.put(bucket.bucketId, bucket);
+                    }
+                }
+            } finally {
+                if (keyIterator != null) {
+                    keyIterator.close();
+                }
+            }
         }
     }
 
+    /**
+     * Index the existing words of a db written before words were bucketed.  This is the only operation that reads every
+     * stored word and is done once.
+     */
+    private void rebuildBuckets()
+            throws LocalDBException
+    {
+        final long startTime = System.currentTimeMillis();
+        LOGGER.info("building bucket index for existing shared history words");
+
+        localDB.truncate(BUCKETS_DB);
+        final Map<String,String> bucketEntries = new HashMap<>();
+        LocalDB.LocalDBIterator<String> keyIterator = null;
+        try {
+            keyIterator = localDB.iterator(WORDS_DB);
+            while (keyIterator.hasNext()) {
+                final String hashedWord = keyIterator.next();
+                final String value = localDB.get(WORDS_DB, hashedWord);
+                if (value != null) {
+                    final Bucket bucket = bucketFor(Long.parseLong(value));
+                    bucketEntries.put(bucket.nextEntryKey(), hashedWord);
+                    bucket.liveCount++;
+                }
+                if (bucketEntries.size() >= BUCKET_CHUNK_SIZE) {
+                    localDB.putAll(BUCKETS_DB, bucketEntries);
+                    bucketEntries.clear();
+                }
+            }
+        } finally {
+            if (keyIterator != null) {
+                keyIterator.close();
+            }
+        }
+        localDB.putAll(BUCKETS_DB, bucketEntries);
+
+        writeBucketMeta(buckets.values());
+        localDB.remove(META_DB, KEY_OLDEST_ENTRY);
+        localDB.put(META_DB, KEY_BUCKET_VERSION, VALUE_BUCKET_VERSION);
+        LOGGER.info("completed bucket index of " + size() + " words in " + buckets.size() + " buckets (" + TimeDuration.fromCurrent(startTime).asCompactString() + ")");
+    }
+
+    private Bucket bucketFor(final long timestamp) {
+        final long bucketId = timestamp / BUCKET_DURATION_MS;
+        Bucket bucket = buckets.get(bucketId);
+        if (bucket == null) {
+            bucket = new Bucket(bucketId, 0, 0, timestamp);
+            buckets.put(bucketId, bucket);
+        }
+        if (timestamp < bucket.oldestTimestamp) {
+            bucket.oldestTimestamp = timestamp;
+        }
+        return bucket;
+    }
+
+    private void writeBucketMeta(final Collection<Bucket> modifiedBuckets)
+            throws LocalDBException
+    {
+        final Map<String,String> metaValues = new HashMap<>();
+        for (final Bucket bucket : modifiedBuckets) {
+            metaValues.put(KEY_BUCKET_PREFIX + bucket.bucketId, bucket.toMetaValue());
+        }
+        localDB.putAll(META_DB, metaValues);
+    }
+
     private String normalizeWord(final String input) {
         if (input == null) {
             return null;
@@ -231,7 +425,11 @@ public class SharedHistoryManager implements Wordlist {
         return word.length() > 0 ? word : null;
     }
 
-    public synchronized void addWord(final PwmSession pwmSession, final String word) {
+    /**
+     * Queue a word to be added to the history.  The word is hashed on the caller's thread and written by the writer
+     * thread, but is visible to {@link #containsWord(String)} immediately.
+     */
+    public void addWord(final PwmSession pwmSession, final String word) {
         if (status != STATUS.OPEN) {
             return;
         }
@@ -242,28 +440,86 @@ public class SharedHistoryManager implements Wordlist {
             return;
         }
 
-        final long startTime = System.currentTimeMillis();
+        final String hashedWord;
+        try {
+            hashedWord = hashWord(addWord);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.warn(pwmSession, "error adding word to global history list: " + e.getMessage());
+            return;
+        }
+
+        pendingWords.put(hashedWord, System.currentTimeMillis());
+        if (!writerThreadActive || !writeQueue.offer(hashedWord)) {
+            // the writer is not keeping up (or not running), so write on the caller's thread rather than lose the word
+            LOGGER.trace(pwmSession, "write queue unavailable, adding word directly");
+            writeWords(Collections.singletonList(hashedWord));
+        }
+    }
 
+    private void startWriterThread(final String threadName) {
+        final Thread writerThread = new Thread(new WriterThread());
+        writerThread.setName(threadName);
+        writerThread.setDaemon(true);
+        writerThreadActive = true;
+        writerThread.start();
+    }
+
+    private void writeWords(final Collection<String> hashes) {
+        final long startTime = System.currentTimeMillis();
+        final Map<String,Long> wordTimestamps = new HashMap<>();
         try {
-            final String hashedWord = hashWord(addWord);
+            final Map<String,String> hashedWords = new HashMap<>();
+            for (final String hashedWord : hashes) {
+                final Long timestamp = pendingWords.get(hashedWord);
+                if (timestamp != null && !wordTimestamps.containsKey(hashedWord)) {
+                    wordTimestamps.put(hashedWord, timestamp);
+                    hashedWords.put(hashedWord, Long.toString(timestamp));
+                }
+            }
 
-            final boolean preExisting = localDB.contains(WORDS_DB, hashedWord);
-            localDB.put(WORDS_DB, hashedWord, Long.toString(System.currentTimeMillis()));
+            if (!hashedWords.isEmpty()) {
+                synchronized (bucketLock) {
+                    final Map<String,String> bucketEntries = new HashMap<>();
+                    final Set<Bucket> modifiedBuckets = new HashSet<>();
+                    for (final Map.Entry<String,String> entry : hashedWords.entrySet()) {
+                        // a word added again moves from the bucket of its previous timestamp to the current bucket
+                        final String previousValue = localDB.get(WORDS_DB, entry.getKey());
+                        if (previousValue != null) {
+                            final Bucket previousBucket = buckets.get(Long.parseLong(previousValue) / BUCKET_DURATION_MS);
+                            if (previousBucket != null && previousBucket.liveCount > 0) {
+                                previousBucket.liveCount--;
+                                modifiedBuckets.add(previousBucket);
+                            }
+                        }
+                        final Bucket bucket = bucketFor(Long.parseLong(entry.getValue()));
+                        bucketEntries.put(bucket.nextEntryKey(), entry.getKey());
+                        bucket.liveCount++;
+                        modifiedBuckets.add(bucket);
+                    }
 
-            {
-                final StringBuilder logOutput = new StringBuilder();
-                logOutput.append(preExisting ? "updated" : "added").append(" word");
-                logOutput.append(" (").append(new TimeDuration(System.currentTimeMillis(), startTime).asCompactString()).append(")");
-                logOutput.append(" (").append(this.size()).append(" total words)");
-                LOGGER.trace(logOutput.toString());
+                    // index entries are written first so that every stored word can be expired
+                    localDB.putAll(BUCKETS_DB, bucketEntries);
+                    localDB.putAll(WORDS_DB, hashedWords);
+                    writeBucketMeta(modifiedBuckets);
+                }
+                LOGGER.trace("added " + hashedWords.size() + " words (" + TimeDuration.fromCurrent(startTime).asCompactString() + ")");
             }
         } catch (Exception e) {
-            LOGGER.warn(pwmSession, "error adding word to global history list: " + e.getMessage());
+            LOGGER.warn("error adding words to global history list: " + e.getMessage());
+        } finally {
+            // only remove the overlay entry if the word has not been added again since it was read.
+            for (final Map.Entry<String,Long> entry : wordTimestamps.entrySet()) {
+                pendingWords.remove(entry.getKey(), entry.getValue());
+            }
         }
     }
 
     private String hashWord(final String word) throws NoSuchAlgorithmException {
-        final MessageDigest md = MessageDigest.getInstance(settings.hashName);
+        MessageDigest md = digests.get();
+        if (md == null) {
+            md = MessageDigest.getInstance(settings.hashName);
+            digests.set(md);
+        }
         final String wordWithSalt = salt + word;
         final int hashLoopCount = settings.hashIterations;
         byte[] hashedAnswer = md.digest((wordWithSalt).getBytes());
@@ -277,6 +533,29 @@ public class SharedHistoryManager implements Wordlist {
 
     // -------------------------- INNER CLASSES --------------------------
 
+    private class WriterThread implements Runnable {
+        public void run() {
+            LOGGER.debug("writer thread open");
+            try {
+                while (status == STATUS.OPEN) {
+                    final String firstHash = writeQueue.poll(1, TimeUnit.SECONDS);
+                    if (firstHash != null) {
+                        final List<String> hashes = new ArrayList<>();
+                        hashes.add(firstHash);
+                        writeQueue.drainTo(hashes, MAX_WRITE_BATCH_SIZE - 1);
+                        writeWords(hashes);
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("writer thread interrupted");
+            } catch (Exception e) {
+                LOGGER.error("unexpected error in writer thread: " + e.getMessage(), e);
+            }
+            writerThreadActive = false;
+            LOGGER.debug("writer thread exiting");
+        }
+    }
+
     private class CleanerTask extends TimerTask {
         final Sleeper sleeper = new Sleeper(10);
 
@@ -299,67 +578,121 @@ public class SharedHistoryManager implements Wordlist {
                 return;
             }
 
-            final long oldestEntryAge = System.currentTimeMillis() - oldestEntry;
-            if (oldestEntryAge < settings.maxAgeMs) {
+            final long expireTime = System.currentTimeMillis() - settings.maxAgeMs;
+            final List<Bucket> expiredBuckets = new ArrayList<>();
+            synchronized (bucketLock) {
+                for (final Bucket bucket : buckets.values()) {
+                    if (bucket.endTime() <= expireTime) {
+                        expiredBuckets.add(bucket);
+                    }
+                }
+            }
+
+            if (expiredBuckets.isEmpty()) {
                 LOGGER.debug("skipping wordDB reduce operation, eldestEntry="
-                        + TimeDuration.asCompactString(oldestEntryAge)
+                        + TimeDuration.asCompactString(System.currentTimeMillis() - oldestEntry())
                         + ", maxAge="
                         + TimeDuration.asCompactString(settings.maxAgeMs));
                 return;
             }
 
             final long startTime = System.currentTimeMillis();
-            final int initialSize = size();
             int removeCount = 0;
-            long localOldestEntry = System.currentTimeMillis();
 
-            LOGGER.debug("beginning wordDB reduce operation, examining " + initialSize + " words for entries older than " + TimeDuration.asCompactString(settings.maxAgeMs));
+            LOGGER.debug("beginning wordDB reduce operation, removing " + expiredBuckets.size() + " buckets older than " + TimeDuration.asCompactString(settings.maxAgeMs));
 
-            LocalDB.LocalDBIterator<String> keyIterator = null;
-            try {
-                keyIterator = localDB.iterator(WORDS_DB);
-                while (status == STATUS.OPEN && keyIterator.hasNext()) {
-                    final String key = keyIterator.next();
-                    final String value = localDB.get(WORDS_DB, key);
-                    final long timeStamp = Long.parseLong(value);
-                    final long entryAge = System.currentTimeMillis() - timeStamp;
-
-                    if (entryAge > settings.maxAgeMs) {
-                        localDB.remove(WORDS_DB, key);
-                        removeCount++;
-
-                        if (removeCount % 1000 == 0) {
-                            LOGGER.trace("wordDB reduce operation in progress, removed=" + removeCount + ", total=" + (initialSize - removeCount));
-                        }
-                    } else {
-                        localOldestEntry = timeStamp < localOldestEntry ? timeStamp : localOldestEntry;
-                    }
-                    sleeper.sleep();
+            for (final Bucket bucket : expiredBuckets) {
+                if (status != STATUS.OPEN) {
+                    break;
                 }
-            } finally {
-                try {
-                    if (keyIterator != null) {
-                        keyIterator.close();
-                    }
-                } catch (Exception e) {
-                    LOGGER.warn("error returning LocalDB iterator: " + e.getMessage());
-                }
-            }
-
-            //update the oldest entry
-            if (status == STATUS.OPEN) {
-                oldestEntry = localOldestEntry;
-                localDB.put(META_DB, KEY_OLDEST_ENTRY, Long.toString(oldestEntry));
+                removeCount += removeBucket(bucket);
             }
 
             final StringBuilder sb = new StringBuilder();
             sb.append("completed wordDB reduce operation");
             sb.append(", removed=").append(removeCount);
             sb.append(", totalRemaining=").append(size());
-            sb.append(", oldestEntry=").append(TimeDuration.asCompactString(oldestEntry));
+            sb.append(", oldestEntry=").append(TimeDuration.asCompactString(System.currentTimeMillis() - oldestEntry()));
             sb.append(" in ").append(TimeDuration.asCompactString(System.currentTimeMillis() - startTime));
             LOGGER.debug(sb.toString());
         }
+
+        private int removeBucket(final Bucket bucket)
+                throws LocalDBException
+        {
+            int removeCount = 0;
+            for (int chunkStart = 0; chunkStart < bucket.nextSequence; chunkStart += BUCKET_CHUNK_SIZE) {
+                if (status != STATUS.OPEN) {
+                    return removeCount;
+                }
+
+                synchronized (bucketLock) {
+                    final int chunkEnd = Math.min(bucket.nextSequence, chunkStart + BUCKET_CHUNK_SIZE);
+                    final List<String> entryKeys = new ArrayList<>();
+                    final List<String> expiredWords = new ArrayList<>();
+                    for (int sequence = chunkStart; sequence < chunkEnd; sequence++) {
+                        final String entryKey = bucket.entryKey(sequence);
+                        entryKeys.add(entryKey);
+                        final String hashedWord = localDB.get(BUCKETS_DB, entryKey);
+                        if (hashedWord != null) {
+                            // the word may have been added again since, in which case it belongs to a newer bucket.
+                            final String value = localDB.get(WORDS_DB, hashedWord);
+                            if (value != null && Long.parseLong(value) / BUCKET_DURATION_MS == bucket.bucketId) {
+                                expiredWords.add(hashedWord);
+                            }
+                        }
+                    }
+                    localDB.removeAll(WORDS_DB, expiredWords);
+                    localDB.removeAll(BUCKETS_DB, entryKeys);
+                    bucket.liveCount = Math.max(0, bucket.liveCount - expiredWords.size());
+                    writeBucketMeta(Collections.singletonList(bucket));
+                    removeCount += expiredWords.size();
+                }
+                sleeper.sleep();
+            }
+
+            synchronized (bucketLock) {
+                buckets.remove(bucket.bucketId);
+                localDB.remove(META_DB, KEY_BUCKET_PREFIX + bucket.bucketId);
+            }
+            LOGGER.trace("removed bucket " + bucket.bucketId + " with " + removeCount + " expired words");
+            return removeCount;
+        }
+    }
+
+    private static class Bucket {
+        private final long bucketId;
+        private int nextSequence;
+        private int liveCount;
+        private long oldestTimestamp;
+
+        private Bucket(final long bucketId, final int nextSequence, final int liveCount, final long oldestTimestamp) {
+            this.bucketId = bucketId;
+            this.nextSequence = nextSequence;
+            this.liveCount = liveCount;
+            this.oldestTimestamp = oldestTimestamp;
+        }
+
+        private String entryKey(final int sequence) {
+            return bucketId + "." + sequence;
+        }
+
+        private String nextEntryKey() {
+            return entryKey(nextSequence++);
+        }
+
+        private long endTime() {
+            return (bucketId + 1) * BUCKET_DURATION_MS;
+        }
+
+        private String toMetaValue() {
+            return nextSequence + ":" + liveCount + ":" + oldestTimestamp;
+        }
+
+        private static Bucket fromMetaValue(final long bucketId, final String value) {
+            final String[] parts = value.split(":");
+            return new Bucket(bucketId, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+        }
     }
 
     public List<HealthRecord> healthCheck() {
@@ -374,6 +707,7 @@ public class SharedHistoryManager implements Wordlist {
         settings.hashName = pwmApplication.getConfig().readAppProperty(AppProperty.SECURITY_SHAREDHISTORY_HASH_NAME);
         settings.hashIterations = Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.SECURITY_SHAREDHISTORY_HASH_ITERATIONS));
         settings.version = "2" + "_" + settings.hashName + "_" + settings.hashIterations + "_" + settings.caseInsensitive;
+        writeQueue = new LinkedBlockingQueue<>(Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.SECURITY_SHAREDHISTORY_WRITE_QUEUE_SIZE)));
 
         this.localDB = pwmApplication.getLocalDB();
 
@@ -389,6 +723,8 @@ public class SharedHistoryManager implements Wordlist {
             LOGGER.trace("clearing wordlist");
             try {
                 localDB.truncate(WORDS_DB);
+                localDB.truncate(BUCKETS_DB);
+                localDB.remove(META_DB, KEY_BUCKET_VERSION);
             } catch (Exception e) {
                 LOGGER.error("error during wordlist truncate", e);
             }
@@ -28,11 +28,13 @@ import password.pwm.PwmService;
 public interface Wordlist extends PwmService {
 
     static final String KEY_STATUS = "STATUS";
-    static final String KEY_LASTLINE = "LASTLINE";
+    static final String KEY_POSITION = "POSITION";
     static final String KEY_VERSION = "VERSION";
     static final String KEY_CHECKSUM = "CHECKSUM";
     static final String KEY_ELAPSEDSECONDS = "RUNTIME";
     static final String KEY_SIZE = "SIZE";
+    static final String KEY_SEGMENTS = "SEGMENTS";
+    static final String KEY_FILE_HASHES = "FILE_HASHES";
 
     // string used as localdb version hash, if different then value in localdb, localdb will be cleared.
     static final String VALUE_VERSION = "wordlist-db-12";
@@ -0,0 +1,284 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import password.pwm.util.Helper;
+import password.pwm.util.TimeDuration;
+import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBException;
+import password.pwm.util.logging.PwmLogger;
+
+import java.io.*;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory bloom filter of the words stored in a wordlist's LocalDB word table.  A negative answer from
+ * {@link #mightContain(String)} is authoritative, so callers can skip the LocalDB lookup entirely.
+ */
+class WordlistBloomFilter {
+
+    private static final PwmLogger LOGGER = PwmLogger.forClass(WordlistBloomFilter.class);
+
+    private static final int FILE_MAGIC = 0x50574D42; // "PWMB"
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    private static final NumberFormat RATE_FORMAT = new DecimalFormat("0.#####");
+
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long insertions;
+    private final double requestedFalsePositiveRate;
+
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+    private final AtomicLong falsePositiveCount = new AtomicLong();
+
+    private WordlistBloomFilter(
+            final long[] bits,
+            final int numHashes,
+            final long insertions,
+            final double requestedFalsePositiveRate
+    )
+    {
+        this.bits = bits;
+        this.numBits = (long)bits.length * 64L;
+        this.numHashes = numHashes;
+        this.insertions = insertions;
+        this.requestedFalsePositiveRate = requestedFalsePositiveRate;
+    }
+
+    static WordlistBloomFilter create(
+            final long expectedInsertions,
+            final double falsePositiveRate,
+            final long maxBytes
+    )
+    {
+        final long n = expectedInsertions < 1 ? 1 : expectedInsertions;
+        final double p = falsePositiveRate <= 0 || falsePositiveRate >= 1 ? 0.01 : falsePositiveRate;
+
+        long desiredBits = (long)Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        final long maxBits = Math.max(64, maxBytes * 8L);
+        if (desiredBits > maxBits) {
+            desiredBits = maxBits;
+        }
+        final int wordCount = (int)Math.min(Integer.MAX_VALUE - 8, (desiredBits + 63) / 64);
+        final long actualBits = (long)wordCount * 64L;
+
+        int hashes = (int)Math.round((double)actualBits / n * Math.log(2));
+        hashes = Math.max(1, Math.min(MAX_HASH_FUNCTIONS, hashes));
+
+        return new WordlistBloomFilter(new long[wordCount], hashes, n, p);
+    }
+
+    /**
+     * Build a new filter by reading every key of the word db.  The caller is responsible for supplying
+     * the number of keys in the db so the filter can be sized before iteration begins.
+     */
+    static WordlistBloomFilter buildFromLocalDB(
+            final LocalDB localDB,
+            final LocalDB.DB wordDB,
+            final int wordCount,
+            final double falsePositiveRate,
+            final long maxBytes
+    )
+            throws LocalDBException
+    {
+        final long startTime = System.currentTimeMillis();
+        final WordlistBloomFilter bloomFilter = create(wordCount, falsePositiveRate, maxBytes);
+        LocalDB.LocalDBIterator<String> iterator = null;
+        try {
+            iterator = localDB.iterator(wordDB);
+            while (iterator.hasNext()) {
+                bloomFilter.add(iterator.next());
+            }
+        } finally {
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+        LOGGER.debug("built bloom filter for " + wordDB + " with " + wordCount + " words in "
+                + TimeDuration.fromCurrent(startTime).asCompactString() + ", " + bloomFilter.debugString());
+        return bloomFilter;
+    }
+
+    void add(final String word) {
+        final long hash64 = hash(word);
+        for (int i = 1; i <= numHashes; i++) {
+            final long bitIndex = bitIndex(hash64, i);
+            bits[(int)(bitIndex >>> 6)] |= (1L << bitIndex);
+        }
+    }
+
+    boolean mightContain(final String word) {
+        lookupCount.incrementAndGet();
+        final long hash64 = hash(word);
+        for (int i = 1; i <= numHashes; i++) {
+            final long bitIndex = bitIndex(hash64, i);
+            if ((bits[(int)(bitIndex >>> 6)] & (1L << bitIndex)) == 0) {
+                rejectCount.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record that a positive answer from {@link #mightContain(String)} was not confirmed by the LocalDB.
+     */
+    void markFalsePositive() {
+        falsePositiveCount.incrementAndGet();
+    }
+
+    long getMemoryBytes() {
+        return (long)bits.length * 8L;
+    }
+
+    double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double)numHashes * insertions / numBits), numHashes);
+    }
+
+    double getObservedFalsePositiveRate() {
+        final long negatives = falsePositiveCount.get() + rejectCount.get();
+        return negatives == 0 ? 0 : (double)falsePositiveCount.get() / (double)negatives;
+    }
+
+    /**
+     * @return true if the filter, sized for its original word count, still meets twice the requested false
+     * positive rate after growing to {@code wordCount} words.
+     */
+    boolean hasCapacity(final long wordCount) {
+        final double expectedRate = Math.pow(1 - Math.exp(-(double)numHashes * wordCount / numBits), numHashes);
+        return expectedRate <= requestedFalsePositiveRate * 2;
+    }
+
+    boolean matchesSettings(final double falsePositiveRate, final long maxBytes) {
+        return Double.compare(falsePositiveRate, requestedFalsePositiveRate) == 0 && getMemoryBytes() <= Math.max(8, maxBytes);
+    }
+
+    String debugString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("bloomFilter size=").append(Helper.formatDiskSize(getMemoryBytes()));
+        sb.append(", hashes=").append(numHashes);
+        sb.append(", words=").append(insertions);
+        sb.append(", expectedFalsePositiveRate=").append(RATE_FORMAT.format(getExpectedFalsePositiveRate()));
+        sb.append(", observedFalsePositiveRate=").append(RATE_FORMAT.format(getObservedFalsePositiveRate()));
+        sb.append(", lookups=").append(lookupCount.get());
+        sb.append(", rejected=").append(rejectCount.get());
+        return sb.toString();
+    }
+
+    void write(final File file, final String checksum)
+            throws IOException
+    {
+        final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+        try {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(FILE_VERSION);
+            output.writeUTF(checksum);
+            output.writeDouble(requestedFalsePositiveRate);
+            output.writeInt(numHashes);
+            output.writeLong(insertions);
+            output.writeInt(bits.length);
+            for (final long word : bits) {
+                output.writeLong(word);
+            }
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("unable to remove previous bloom filter file " + file.getAbsolutePath());
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("unable to rename bloom filter file to " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Read a previously saved filter.
+     * @return the stored filter, or null if the file is missing, unreadable, or was built for a different checksum
+     */
+    static WordlistBloomFilter read(final File file, final String expectedChecksum) {
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                LOGGER.debug("ignoring bloom filter file " + file.getAbsolutePath() + " with unknown format");
+                return null;
+            }
+            final String storedChecksum = input.readUTF();
+            if (expectedChecksum == null || !expectedChecksum.equals(storedChecksum)) {
+                LOGGER.debug("ignoring bloom filter file " + file.getAbsolutePath() + " built for a different wordlist");
+                return null;
+            }
+            final double falsePositiveRate = input.readDouble();
+            final int numHashes = input.readInt();
+            final long insertions = input.readLong();
+            final int wordCount = input.readInt();
+            final long[] bits = new long[wordCount];
+            for (int i = 0; i < wordCount; i++) {
+                bits[i] = input.readLong();
+            }
+            return new WordlistBloomFilter(bits, numHashes, insertions, falsePositiveRate);
+        } catch (IOException e) {
+            LOGGER.warn("unable to read bloom filter file " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) { /* do nothing */ }
+            }
+        }
+    }
+
+    private long bitIndex(final long hash64, final int i) {
+        // double hashing; the upper half of the hash is used as the (odd) step between probes
+        long combinedHash = hash64 + (i * ((hash64 >>> 32) | 1L));
+        if (combinedHash < 0) {
+            combinedHash = ~combinedHash;
+        }
+        return combinedHash % numBits;
+    }
+
+    private static long hash(final String input) {
+        // 64 bit FNV-1a over the chars, followed by a murmur3 finalizer to spread the low order bits.
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < input.length(); i++) {
+            h ^= input.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+}
@@ -22,19 +22,20 @@
 
 package password.pwm.wordlist;
 
+import password.pwm.AppProperty;
 import password.pwm.PwmApplication;
 import password.pwm.PwmConstants;
 import password.pwm.config.PwmSetting;
 import password.pwm.error.PwmException;
 import password.pwm.util.Helper;
 import password.pwm.util.JsonUtil;
+import password.pwm.util.Sleeper;
+import password.pwm.util.TimeDuration;
 import password.pwm.util.localdb.LocalDB;
 import password.pwm.util.logging.PwmLogger;
 
 import java.io.File;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.*;
 
 
 /**
@@ -48,6 +49,23 @@ public class WordlistManager extends AbstractWordlist implements Wordlist {
 
     boolean backwards;
 
+    private StorageMode storageMode = StorageMode.LOCALDB;
+    private volatile MappedWordlistIndex mappedIndex;
+    private volatile MappedWordlistIndex.Builder indexBuilder;
+
+    private boolean matcherEnabled;
+    private int matcherMaxWords;
+    private volatile AhoCorasickMatcher matcher;
+    private volatile boolean matcherComplete;
+
+    enum StorageMode {
+        /** each chunk of each word is stored as a LocalDB key */
+        LOCALDB,
+
+        /** the wordlist is compiled into a memory mapped sorted index file alongside the LocalDB */
+        MAPPED,
+    }
+
 // -------------------------- STATIC METHODS --------------------------
 
     public WordlistManager() {
@@ -72,6 +90,20 @@ public class WordlistManager extends AbstractWordlist implements Wordlist {
         final int checkSize = (int)pwmApplication.getConfig().readSettingAsLong(PwmSetting.PASSWORD_WORDLIST_WORDSIZE);
         final WordlistConfiguration wordlistConfiguration = new WordlistConfiguration(wordlistFile, loadFactor, caseSensitive, checkSize);
 
+        this.bloomFilterEnabled = Boolean.parseBoolean(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_BLOOM_FILTER_ENABLE));
+        this.bloomFilterFalsePositiveRate = Double.parseDouble(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_BLOOM_FILTER_FALSE_POSITIVE_RATE));
+        this.bloomFilterMaxBytes = Long.parseLong(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_BLOOM_FILTER_MAX_BYTES));
+        this.matcherEnabled = Boolean.parseBoolean(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_MATCHER_ENABLE));
+        this.matcherMaxWords = Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_MATCHER_MAX_WORDS));
+        this.populatorWorkerThreads = Integer.parseInt(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_POPULATOR_WORKER_THREADS));
+        final String deltaSetting = pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_DELTA_FILENAME);
+        this.deltaFile = deltaSetting == null || deltaSetting.length() < 1 ? null : Helper.figureFilepath(deltaSetting, pwmApplication.getWebInfPath());
+        try {
+            this.storageMode = StorageMode.valueOf(pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_STORAGE_MODE));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("unknown wordlist storage mode '" + pwmApplication.getConfig().readAppProperty(AppProperty.WORDLIST_STORAGE_MODE) + "', using " + storageMode);
+        }
+
         this.DEBUG_LABEL = PwmConstants.PWM_APP_NAME + "-Wordlist";
         this.META_DB = LocalDB.DB.WORDLIST_META;
         this.WORD_DB = LocalDB.DB.WORDLIST_WORDS;
@@ -93,6 +125,158 @@ public class WordlistManager extends AbstractWordlist implements Wordlist {
         t.start();
     }
 
+    @Override
+    protected void checkPopulation()
+            throws Exception
+    {
+        final File indexFile = indexFile();
+        if (storageMode == StorageMode.MAPPED && indexFile == null) {
+            LOGGER.warn(DEBUG_LABEL + " LocalDB has no file location, unable to use " + StorageMode.MAPPED + " storage mode, using " + StorageMode.LOCALDB);
+            storageMode = StorageMode.LOCALDB;
+        }
+
+        if (storageMode == StorageMode.MAPPED) {
+            checkIndexPopulation(indexFile);
+        } else {
+            if (indexFile != null && indexFile.exists() && !indexFile.delete()) {
+                LOGGER.warn("unable to remove unused wordlist index file " + indexFile.getAbsolutePath());
+            }
+            super.checkPopulation();
+        }
+
+        if (matcherEnabled && wlStatus == STATUS.OPENING) {
+            try {
+                initMatcher();
+            } catch (Exception e) {
+                LOGGER.warn(DEBUG_LABEL + " unable to build wordlist matcher, lookups will use stored wordlist only: " + e.getMessage());
+            }
+        }
+    }
+
+    private void checkIndexPopulation(final File indexFile)
+            throws Exception
+    {
+        final long startTime = System.currentTimeMillis();
+        final String checksumString = makeChecksumString(wordlistConfiguration.getWordlistFile());
+        final String identity = makeVersionString() + checksumString;
+
+        MappedWordlistIndex index = MappedWordlistIndex.open(indexFile, identity);
+        if (index == null) {
+            // the LocalDB word table is not used by the mapped index, so release its space.
+            resetDB(checksumString);
+            final ZipReader zipReader = openWordlistReader();
+            final Sleeper sleeper = new Sleeper(wordlistConfiguration.getLoadFactor());
+            indexBuilder = new MappedWordlistIndex.Builder(this, zipReader, sleeper, indexFile, identity);
+            try {
+                index = indexBuilder.build();
+            } finally {
+                indexBuilder = null;
+            }
+            if (index == null) {
+                return;
+            }
+        }
+
+        localDB.put(META_DB, KEY_SIZE, String.valueOf(index.size()));
+        mappedIndex = index;
+        bloomFilterEnabled = false; // lookups against the mapped index never reach the LocalDB
+        LOGGER.debug(DEBUG_LABEL + " opened " + index.debugString() + " in " + TimeDuration.fromCurrent(startTime).asCompactString());
+    }
+
+    @Override
+    protected boolean isDeltaPopulationSupported() {
+        // stored words are keyed only by the word itself, so new words can be added to an existing population
+        return true;
+    }
+
+    @Override
+    protected boolean containsNormalizedWord(final String testWord) {
+        final AhoCorasickMatcher currentMatcher = matcher;
+        if (currentMatcher != null) {
+            if (currentMatcher.matches(testWord)) {
+                return true;
+            }
+            if (matcherComplete) {
+                return false;
+            }
+        }
+
+        final MappedWordlistIndex index = mappedIndex;
+        if (index != null) {
+            return index.containsWord(testWord, wordlistConfiguration.getCheckSize());
+        }
+
+        return super.containsNormalizedWord(testWord);
+    }
+
+    /**
+     * Compile the leading words of the wordlist (or all of it, if small enough) into an in-memory matcher.  When the
+     * matcher holds the entire wordlist its answer is final, otherwise a miss falls through to the stored wordlist.
+     */
+    private void initMatcher()
+            throws Exception
+    {
+        final long startTime = System.currentTimeMillis();
+        final List<String> words = new ArrayList<>();
+        boolean complete = true;
+        final ZipReader zipReader = openWordlistReader();
+        try {
+            String line;
+            while ((line = zipReader.nextLine()) != null) {
+                if (words.size() >= matcherMaxWords) {
+                    complete = false;
+                    break;
+                }
+                final String word = normalizeLine(line);
+                if (word != null) {
+                    words.add(word);
+                }
+            }
+        } finally {
+            zipReader.close();
+        }
+
+        final AhoCorasickMatcher newMatcher = AhoCorasickMatcher.build(words, wordlistConfiguration.getCheckSize());
+        matcherComplete = complete;
+        matcher = newMatcher;
+        LOGGER.debug(DEBUG_LABEL + " built " + (complete ? "complete" : "partial") + " " + newMatcher.debugString()
+                + " from " + words.size() + " words in " + TimeDuration.fromCurrent(startTime).asCompactString());
+    }
+
+    @Override
+    public synchronized void close() {
+        final MappedWordlistIndex.Builder builder = indexBuilder;
+        if (builder != null) {
+            builder.abort();
+        }
+        mappedIndex = null;
+        matcher = null;
+        super.close();
+    }
+
+    @Override
+    public String getDebugStatus() {
+        final MappedWordlistIndex.Builder builder = indexBuilder;
+        if (builder != null) {
+            return builder.makeStatString();
+        }
+        final StringBuilder sb = new StringBuilder();
+        final MappedWordlistIndex index = mappedIndex;
+        sb.append(index != null ? wlStatus.toString() + startupDebugString() + ", " + index.debugString() : super.getDebugStatus());
+        final AhoCorasickMatcher currentMatcher = matcher;
+        if (currentMatcher != null) {
+            sb.append(", ").append(matcherComplete ? "complete " : "partial ").append(currentMatcher.debugString());
+        }
+        return sb.toString();
+    }
+
+    private File indexFile() {
+        if (localDB == null || localDB.getFileLocation() == null) {
+            return null;
+        }
+        return new File(localDB.getFileLocation(), WORD_DB.toString() + ".index");
+    }
+
     @Override
     protected String makeVersionString()
     {
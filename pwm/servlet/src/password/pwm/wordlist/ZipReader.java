@@ -26,58 +26,187 @@ import password.pwm.PwmConstants;
 import password.pwm.util.logging.PwmLogger;
 
 import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 /**
+ * Reads the lines of a list of ZIP file entries ({@link Segment}s) in order.  By default every entry of a single ZIP
+ * file is read.  The reader tracks its position as a segment index plus an uncompressed byte offset, which allows a
+ * later reader over the same segments to {@link #seek(Position)} directly to where a previous reader left off.
+ *
  * @author Jason D. Rivard
  */
 class ZipReader {
 
     private static final PwmLogger LOGGER = PwmLogger.forClass(ZipReader.class);
 
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
 // ------------------------------ FIELDS ------------------------------
 
-    private final ZipInputStream zipStream;
+    private final Map<File,ZipFile> zipFiles = new LinkedHashMap<>();
     private final File sourceFile;
+    private final List<Segment> entries;
+    private final long totalCompressedSize;
 
-    private BufferedReader reader;
-    private ZipEntry zipEntry;
+    private InputStream entryStream;
+    private int entryIndex = -1;
+    private long entryOffset;
     private int lineCounter = 0;
 
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private int readPosition;
+    private int readLength;
+    private byte[] lineBuffer = new byte[256];
+
 // --------------------------- CONSTRUCTORS ---------------------------
 
     ZipReader(final File sourceFile)
             throws Exception
     {
-        this.sourceFile = sourceFile;
-        final ZipFile zipFile = new ZipFile(sourceFile);
-        if (zipFile.size() == 0) {
+        this(readSegments(sourceFile, ""));
+    }
+
+    ZipReader(final List<Segment> segments)
+            throws Exception
+    {
+        if (segments.isEmpty()) {
             throw new Exception("zip file contains no entries");
         }
 
+        this.sourceFile = segments.get(0).getFile();
+        this.entries = Collections.unmodifiableList(new ArrayList<>(segments));
+
+        long compressedSize = 0;
+        try {
+            for (final Segment segment : entries) {
+                if (!zipFiles.containsKey(segment.getFile())) {
+                    zipFiles.put(segment.getFile(), new ZipFile(segment.getFile()));
+                }
+                compressedSize += segment.remainingCompressedSize();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.totalCompressedSize = compressedSize;
 
-        zipStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(sourceFile)));
         nextZipEntry();
     }
 
-    private void nextZipEntry()
+    /**
+     * List the (non directory) entries of a ZIP file as segments, using the CRC and sizes from the central directory.
+     * @param keyPrefix prefix applied to each entry name to form the segment key
+     */
+    static List<Segment> readSegments(final File file, final String keyPrefix)
+            throws IOException
+    {
+        final List<Segment> segments = new ArrayList<>();
+        final ZipFile zipFile = new ZipFile(file);
+        try {
+            for (final Enumeration<? extends ZipEntry> enumeration = zipFile.entries(); enumeration.hasMoreElements(); ) {
+                final ZipEntry zipEntry = enumeration.nextElement();
+                if (!zipEntry.isDirectory()) {
+                    segments.add(new Segment(
+                            keyPrefix + zipEntry.getName(),
+                            file,
+                            zipEntry.getName(),
+                            zipEntry.getCrc(),
+                            zipEntry.getSize(),
+                            zipEntry.getCompressedSize(),
+                            0
+                    ));
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return segments;
+    }
+
+    /**
+     * Test if the first <i>length</i> bytes of a segment have the given CRC and end at a line boundary, meaning
+     * that lines were only appended to the segment since that CRC was taken.
+     */
+    static boolean hasPrefix(final Segment segment, final long length, final long expectedCrc)
+            throws IOException
+    {
+        if (length <= 0 || length > segment.getSize()) {
+            return false;
+        }
+
+        final ZipFile zipFile = new ZipFile(segment.getFile());
+        try {
+            final ZipEntry zipEntry = zipFile.getEntry(segment.getEntryName());
+            if (zipEntry == null) {
+                return false;
+            }
+            final InputStream inputStream = zipFile.getInputStream(zipEntry);
+            try {
+                final CRC32 crc32 = new CRC32();
+                final byte[] buffer = new byte[READ_BUFFER_SIZE];
+                long remaining = length;
+                byte lastByte = 0;
+                while (remaining > 0) {
+                    final int read = inputStream.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                    if (read <= 0) {
+                        return false;
+                    }
+                    crc32.update(buffer, 0, read);
+                    lastByte = buffer[read - 1];
+                    remaining -= read;
+                }
+                return crc32.getValue() == expectedCrc && lastByte == '\n';
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private boolean nextZipEntry()
             throws IOException
     {
-        if (zipEntry != null) {
-            LOGGER.trace("finished reading " + zipEntry.getName() + ", lines=" + lineCounter);
+        if (entryIndex >= 0 && entryIndex < entries.size()) {
+            LOGGER.trace("finished reading " + entries.get(entryIndex).getKey() + ", lines=" + lineCounter);
         }
 
-        zipEntry = zipStream.getNextEntry();
+        closeEntryStream();
+        entryIndex++;
+        entryOffset = 0;
+        lineCounter = 0;
+        readPosition = 0;
+        readLength = 0;
 
-        while (zipEntry != null && zipEntry.isDirectory()) {
-            zipEntry = zipStream.getNextEntry();
+        if (entryIndex >= entries.size()) {
+            return false;
         }
 
-        if (zipEntry != null) {
-            lineCounter = 0;
-            reader = new BufferedReader(new InputStreamReader(zipStream, PwmConstants.DEFAULT_CHARSET));
+        final Segment segment = entries.get(entryIndex);
+        final ZipFile zipFile = zipFiles.get(segment.getFile());
+        final ZipEntry zipEntry = zipFile.getEntry(segment.getEntryName());
+        if (zipEntry == null) {
+            throw new IOException("zip entry " + segment.getEntryName() + " not found in " + segment.getFile().getAbsolutePath());
+        }
+        entryStream = zipFile.getInputStream(zipEntry);
+        skip(segment.getStartOffset());
+        return true;
+    }
+
+    private void skip(final long length)
+            throws IOException
+    {
+        long remaining = length;
+        while (remaining > 0) {
+            final long skipped = entryStream.skip(remaining);
+            if (skipped <= 0) {
+                break;
+            }
+            remaining -= skipped;
+            entryOffset += skipped;
         }
     }
 
@@ -99,35 +228,242 @@ class ZipReader {
 
     void close()
     {
-        try {
-            zipStream.close();
-        } catch (Exception e) { /* do nothing */ }
-        try {
-            reader.close();
-        } catch (Exception e) { /* do nothing */ }
+        closeEntryStream();
+        for (final ZipFile zipFile : zipFiles.values()) {
+            try {
+                zipFile.close();
+            } catch (Exception e) { /* do nothing */ }
+        }
+    }
+
+    private void closeEntryStream() {
+        if (entryStream != null) {
+            try {
+                entryStream.close();
+            } catch (Exception e) { /* do nothing */ }
+            entryStream = null;
+        }
     }
 
 // -------------------------- OTHER METHODS --------------------------
 
     String currentZipName()
     {
-        return zipEntry != null ? zipEntry.getName() : "--none--";
+        return entryIndex >= 0 && entryIndex < entries.size() ? entries.get(entryIndex).getKey() : "--none--";
+    }
+
+    /**
+     * @return the position immediately following the last line returned by {@link #nextLine()}
+     */
+    Position position()
+    {
+        return new Position(entryIndex, entryOffset);
+    }
+
+    /**
+     * Position the reader at a location previously returned by {@link #position()}.  Entries before the position are
+     * not read at all; the current entry is decompressed up to the offset without being split into lines.
+     */
+    void seek(final Position position)
+            throws IOException
+    {
+        if (position.getEntryIndex() < entryIndex || (position.getEntryIndex() == entryIndex && position.getOffset() < entryOffset)) {
+            throw new IOException("unable to seek backwards in " + sourceFile.getAbsolutePath());
+        }
+
+        while (entryIndex < position.getEntryIndex()) {
+            if (!nextZipEntry()) {
+                return;
+            }
+        }
+
+        skip(position.getOffset() - entryOffset);
+        LOGGER.trace("positioned " + sourceFile.getName() + " at " + position);
+    }
+
+    /**
+     * Estimated fraction of the source file that lies before the given position, based on compressed entry sizes.
+     */
+    float percentComplete(final Position position)
+    {
+        if (totalCompressedSize <= 0 || position == null) {
+            return 0;
+        }
+
+        if (position.getEntryIndex() >= entries.size()) {
+            return 1;
+        }
+
+        long compressedBytes = 0;
+        for (int i = 0; i < position.getEntryIndex() && i < entries.size(); i++) {
+            compressedBytes += entries.get(i).remainingCompressedSize();
+        }
+
+        if (position.getEntryIndex() >= 0) {
+            final Segment segment = entries.get(position.getEntryIndex());
+            compressedBytes += segment.compressedSizeBetween(segment.getStartOffset(), position.getOffset());
+        }
+
+        return Math.min(1, (float)compressedBytes / (float)totalCompressedSize);
     }
 
     String nextLine()
             throws IOException
     {
-        String line;
+        int lineLength = 0;
+        while (entryStream != null) {
+            if (readPosition >= readLength) {
+                readLength = entryStream.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLength <= 0) {
+                    readLength = 0;
+                    if (lineLength > 0) {
+                        return makeLine(lineLength);
+                    }
+                    nextZipEntry();
+                    continue;
+                }
+            }
+
+            int lineEnd = -1;
+            for (int i = readPosition; i < readLength; i++) {
+                if (readBuffer[i] == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+
+            final int copyEnd = lineEnd >= 0 ? lineEnd : readLength;
+            final int copyLength = copyEnd - readPosition;
+            if (lineLength + copyLength > lineBuffer.length) {
+                final byte[] newBuffer = new byte[Math.max(lineBuffer.length * 2, lineLength + copyLength)];
+                System.arraycopy(lineBuffer, 0, newBuffer, 0, lineLength);
+                lineBuffer = newBuffer;
+            }
+            System.arraycopy(readBuffer, readPosition, lineBuffer, lineLength, copyLength);
+            lineLength += copyLength;
+
+            if (lineEnd >= 0) {
+                entryOffset += copyLength + 1;
+                readPosition = lineEnd + 1;
+                return makeLine(lineLength);
+            }
+
+            entryOffset += copyLength;
+            readPosition = readLength;
+        }
+
+        return null;
+    }
+
+    private String makeLine(final int length) {
+        lineCounter++;
+        final int trimmedLength = length > 0 && lineBuffer[length - 1] == '\r' ? length - 1 : length;
+        return new String(lineBuffer, 0, trimmedLength, PwmConstants.DEFAULT_CHARSET);
+    }
+
+    /**
+     * A single ZIP entry to be read, optionally starting part way through the entry.
+     */
+    static class Segment {
+        private final String key;
+        private final File file;
+        private final String entryName;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long startOffset;
+
+        Segment(
+                final String key,
+                final File file,
+                final String entryName,
+                final long crc,
+                final long size,
+                final long compressedSize,
+                final long startOffset
+        )
+        {
+            this.key = key;
+            this.file = file;
+            this.entryName = entryName;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.startOffset = startOffset;
+        }
+
+        String getKey() {
+            return key;
+        }
 
-        while ((line = reader.readLine()) == null && zipEntry != null) {
-            nextZipEntry();
+        File getFile() {
+            return file;
         }
 
-        if (line != null) {
-            lineCounter++;
+        String getEntryName() {
+            return entryName;
         }
 
-        //crazy debug line: LOGGER.trace("read line " + fileStats.getLines() + " '" + line + "' from " +   currentZipName());
-        return line;
+        long getCrc() {
+            return crc;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getStartOffset() {
+            return startOffset;
+        }
+
+        Segment withStartOffset(final long offset) {
+            return new Segment(key, file, entryName, crc, size, compressedSize, offset);
+        }
+
+        private long remainingCompressedSize() {
+            return compressedSizeBetween(startOffset, size);
+        }
+
+        private long compressedSizeBetween(final long startOffset, final long endOffset) {
+            if (size <= 0 || compressedSize <= 0) {
+                return 0;
+            }
+            return (long)(compressedSize * ((double)Math.max(0, endOffset - startOffset) / size));
+        }
+    }
+
+    static class Position {
+        private final int entryIndex;
+        private final long offset;
+
+        Position(final int entryIndex, final long offset) {
+            this.entryIndex = entryIndex;
+            this.offset = offset;
+        }
+
+        int getEntryIndex() {
+            return entryIndex;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        static Position fromString(final String input) {
+            if (input == null || !input.contains(":")) {
+                return null;
+            }
+            try {
+                final String[] parts = input.split(":");
+                return new Position(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String toString() {
+            return entryIndex + ":" + offset;
+        }
     }
 }
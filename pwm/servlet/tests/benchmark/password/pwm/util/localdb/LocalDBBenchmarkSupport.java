@@ -0,0 +1,104 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Opens the LocalDB under test for the provider benchmarks, the way {@link LocalDBFactory} builds it: the provider,
+ * wrapped by {@link LocalDBAdaptor} and, when compression is enabled, by {@link LocalDBCompressor}.
+ */
+class LocalDBBenchmarkSupport {
+
+    private static final int COMPRESSION_MIN_SIZE = 128;
+
+    private final String provider;
+    private final File directory;
+    private final LocalDB localDB;
+
+    LocalDBBenchmarkSupport(final String provider, final boolean compression)
+            throws IOException, ReflectiveOperationException, LocalDBException
+    {
+        this.provider = provider;
+        directory = File.createTempFile("pwm-benchmark-" + provider, "");
+        directory.delete();
+        directory.mkdirs();
+
+        final LocalDBProvider localDBProvider = (LocalDBProvider) Class.forName(LocalDBBenchmarkSupport.class.getPackage().getName() + "." + provider).newInstance();
+        localDBProvider.init(directory, Collections.<String, String>emptyMap(), false);
+        final LocalDB adaptor = new LocalDBAdaptor(localDBProvider, null);
+        localDB = compression ? new LocalDBCompressor(adaptor, COMPRESSION_MIN_SIZE, true) : adaptor;
+    }
+
+    LocalDB getLocalDB() {
+        return localDB;
+    }
+
+    /**
+     * Close the LocalDB, print the space it used on disk and remove its files.
+     */
+    void close(final String scenario)
+            throws LocalDBException, IOException
+    {
+        localDB.close();
+        System.out.println(scenario + " provider=" + provider + " bytesOnDisk=" + directorySize(directory));
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * A json record shaped like the user cache and response records stored in the LocalDB.
+     */
+    static String jsonRecord(final int id) {
+        return "{\"userDN\":\"cn=user" + id + ",ou=users,o=example\",\"ldapProfile\":\"default\","
+                + "\"userGUID\":\"8f6e2f0a-5d1c-4ab5-" + (1000 + id % 9000) + "-0d1e2b6c7a11\",\"username\":\"user" + id + "\","
+                + "\"email\":\"user" + id + "@example.com\",\"cacheTimestamp\":\"2014-10-17T00:44:07Z\","
+                + "\"passwordStatus\":{\"expired\":false,\"preExpired\":false,\"violatesPolicy\":false,\"warnPeriod\":false},"
+                + "\"passwordExpirationTime\":\"2015-01-15T00:44:07Z\",\"passwordChangeTime\":\"2014-10-17T00:44:07Z\","
+                + "\"hasResponses\":true,\"responseStorageMethod\":\"LDAP\",\"responseFormatType\":\"PBKDF2\"}";
+    }
+
+    static String randomWord(final Random random, final int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static long directorySize(final File directory) {
+        long size = 0;
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                size += file.isDirectory() ? directorySize(file) : file.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import password.pwm.PwmConstants;
+import password.pwm.util.StringUtil;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy gzip + base64 value format of {@link LocalDBCompressor} against the current raw deflate +
+ * preset dictionary + base85 format, using the json shapes typically stored in the LocalDB.  The stored length of
+ * each format is printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalDBCompressorBenchmark {
+
+    @Param({"TOKEN", "INTRUDER", "USER_CACHE"})
+    public String sample;
+
+    private LocalDBCompressor compressor;
+    private String value;
+    private String legacyStoredValue;
+    private String storedValue;
+
+    @Setup
+    public void setup() throws IOException {
+        compressor = new LocalDBCompressor(null, 0, true);
+        value = sampleValue(sample);
+        legacyStoredValue = legacyCompress(value);
+        storedValue = compressor.compressData(value);
+        System.out.println(sample + " stored length: plain=" + value.length() + ", legacy=" + legacyStoredValue.length()
+                + ", current=" + storedValue.length());
+    }
+
+    @Benchmark
+    public void legacyCompress(final Blackhole blackhole) throws IOException {
+        blackhole.consume(legacyCompress(value));
+    }
+
+    @Benchmark
+    public void legacyDecompress(final Blackhole blackhole) {
+        blackhole.consume(compressor.decompressData(legacyStoredValue));
+    }
+
+    @Benchmark
+    public void deflateCompress(final Blackhole blackhole) {
+        blackhole.consume(compressor.compressData(value));
+    }
+
+    @Benchmark
+    public void deflateDecompress(final Blackhole blackhole) {
+        blackhole.consume(compressor.decompressData(storedValue));
+    }
+
+    private static String legacyCompress(final String input) throws IOException {
+        return LocalDBCompressor.COMPRESS_PREFIX
+                + StringUtil.base64Encode(input.getBytes(PwmConstants.DEFAULT_CHARSET), StringUtil.Base64Options.GZIP);
+    }
+
+    private static String sampleValue(final String sample) {
+        switch (sample) {
+            case "TOKEN":
+                return "{\"date\":\"2014-10-17T00:44:07Z\",\"name\":\"EMAIL_VERIFY\","
+                        + "\"data\":{\"email\":\"jdoe@example.com\",\"attributes\":\"{}\"},"
+                        + "\"user\":{\"userDN\":\"cn=jdoe,ou=users,o=example\",\"ldapProfile\":\"default\"},"
+                        + "\"dest\":[\"jdoe@example.com\"],\"guid\":\"8f6e2f0a-5d1c-4ab5-9c63-0d1e2b6c7a11\"}";
+            case "INTRUDER":
+                return "{\"type\":\"USERNAME\",\"subject\":\"jdoe\",\"timeStamp\":\"2014-10-17T00:44:07Z\","
+                        + "\"attemptCount\":3,\"alerted\":false}";
+            default:
+                return "{\"userDN\":\"cn=jdoe,ou=users,o=example\",\"ldapProfile\":\"default\","
+                        + "\"userGUID\":\"8f6e2f0a-5d1c-4ab5-9c63-0d1e2b6c7a11\",\"username\":\"jdoe\","
+                        + "\"email\":\"jdoe@example.com\",\"cacheTimestamp\":\"2014-10-17T00:44:07Z\","
+                        + "\"passwordStatus\":{\"expired\":false,\"preExpired\":false,\"violatesPolicy\":false,\"warnPeriod\":false},"
+                        + "\"passwordExpirationTime\":\"2015-01-15T00:44:07Z\",\"passwordChangeTime\":\"2014-10-17T00:44:07Z\","
+                        + "\"lastLoginTime\":\"2014-10-16T08:12:55Z\",\"hasResponses\":true,\"hasHelpdeskResponses\":false,"
+                        + "\"responseSetTime\":\"2014-06-02T14:20:31Z\",\"responseStorageMethod\":\"LDAP\","
+                        + "\"responseFormatType\":\"PBKDF2\",\"hasOtpSecret\":false,\"requiresPasswordUpdate\":false,"
+                        + "\"requiresResponseUpdate\":false,\"requiresProfileUpdate\":false}";
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Email/sms queue traffic through {@link LocalDBStoredQueue} for each provider: events are appended to the tail and
+ * taken from the head of a queue that already holds a backlog, either by polling or by the lease and acknowledge
+ * cycle of the queue senders.  The space used on disk is printed when each trial ends.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalDBQueueBenchmark {
+
+    private static final int BACKLOG_SIZE = 1000;
+
+    @Param({"Berkeley_LocalDB", "MapDB_LocalDB", "H2_LocalDB", "Derby_LocalDB", "Memory_LocalDB", "OffHeap_LocalDB", "AppendLog_LocalDB"})
+    public String provider;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private LocalDBBenchmarkSupport support;
+    private LocalDBStoredQueue queue;
+    private String event;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        support = new LocalDBBenchmarkSupport(provider, compression);
+        queue = LocalDBStoredQueue.createLocalDBStoredQueue(support.getLocalDB(), LocalDB.DB.EMAIL_QUEUE, false);
+        event = "{\"to\":\"user1@example.com\",\"from\":\"noreply@example.com\",\"subject\":\"Password Change Notification\","
+                + "\"bodyPlain\":\"" + LocalDBBenchmarkSupport.jsonRecord(1).replace('"', '\'') + "\"}";
+        for (int i = 0; i < BACKLOG_SIZE; i++) {
+            queue.addLast(event);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close("queue");
+    }
+
+    @Benchmark
+    public void appendPoll(final Blackhole blackhole) {
+        queue.addLast(event);
+        blackhole.consume(queue.pollFirst());
+    }
+
+    @Benchmark
+    public boolean appendLeaseAcknowledge() {
+        queue.addLast(event);
+        return queue.acknowledge(queue.lease(1, 60 * 1000));
+    }
+}
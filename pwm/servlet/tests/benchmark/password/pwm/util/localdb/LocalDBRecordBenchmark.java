@@ -0,0 +1,118 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Json record reads and writes for each provider and with or without {@link LocalDBCompressor}, using user cache
+ * shaped records at random keys of a populated db.  {@link #fullIteration()} reads every record of the db in key
+ * order, as exports and the reporting and purge tasks do.  The space used on disk is printed when each trial ends.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalDBRecordBenchmark {
+
+    private static final int RECORD_COUNT = 10 * 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int SAMPLE_SIZE = 4096;
+
+    @Param({"Berkeley_LocalDB", "MapDB_LocalDB", "H2_LocalDB", "Derby_LocalDB", "Memory_LocalDB", "OffHeap_LocalDB", "AppendLog_LocalDB"})
+    public String provider;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private LocalDBBenchmarkSupport support;
+    private LocalDB localDB;
+    private final String[] keys = new String[SAMPLE_SIZE];
+    private final String[] values = new String[SAMPLE_SIZE];
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        support = new LocalDBBenchmarkSupport(provider, compression);
+        localDB = support.getLocalDB();
+
+        final Map<String, String> batch = new HashMap<>();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            batch.put(recordKey(i), LocalDBBenchmarkSupport.jsonRecord(i));
+            if (batch.size() >= BATCH_SIZE) {
+                localDB.putAll(LocalDB.DB.USER_CACHE, batch);
+                batch.clear();
+            }
+        }
+        localDB.putAll(LocalDB.DB.USER_CACHE, batch);
+
+        final Random random = new Random(42);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            final int id = random.nextInt(RECORD_COUNT);
+            keys[i] = recordKey(id);
+            values[i] = LocalDBBenchmarkSupport.jsonRecord(id + RECORD_COUNT);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close("record");
+    }
+
+    @Benchmark
+    public boolean put() throws LocalDBException {
+        final int index = counter++ & (SAMPLE_SIZE - 1);
+        return localDB.put(LocalDB.DB.USER_CACHE, keys[index], values[index]);
+    }
+
+    @Benchmark
+    public String get() throws LocalDBException {
+        return localDB.get(LocalDB.DB.USER_CACHE, keys[counter++ & (SAMPLE_SIZE - 1)]);
+    }
+
+    @Benchmark
+    public int fullIteration() throws LocalDBException {
+        int length = 0;
+        final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = localDB.entryIterator(LocalDB.DB.USER_CACHE, null, null);
+        try {
+            while (iterator.hasNext()) {
+                length += iterator.next().getValue().length();
+            }
+        } finally {
+            iterator.close();
+        }
+        return length;
+    }
+
+    private static String recordKey(final int id) {
+        return "user-" + Integer.toHexString(id * 0x9E3779B1);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wordlist lookups for each provider: random {@link LocalDB#contains(LocalDB.DB, String)} checks against a word db
+ * loaded in the same batches the wordlist populator uses, for words that are and are not in the list.  The space
+ * used on disk is printed when each trial ends.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalDBWordlistBenchmark {
+
+    private static final int WORD_COUNT = 100 * 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int SAMPLE_SIZE = 4096;
+
+    @Param({"Berkeley_LocalDB", "MapDB_LocalDB", "H2_LocalDB", "Derby_LocalDB", "Memory_LocalDB", "OffHeap_LocalDB", "AppendLog_LocalDB"})
+    public String provider;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private LocalDBBenchmarkSupport support;
+    private LocalDB localDB;
+    private final String[] storedWords = new String[SAMPLE_SIZE];
+    private final String[] missingWords = new String[SAMPLE_SIZE];
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        support = new LocalDBBenchmarkSupport(provider, compression);
+        localDB = support.getLocalDB();
+
+        final Random random = new Random(42);
+        final Map<String, String> batch = new HashMap<>();
+        for (int i = 0; i < WORD_COUNT; i++) {
+            final String word = LocalDBBenchmarkSupport.randomWord(random, 5 + random.nextInt(6));
+            batch.put(word, "");
+            if (i % (WORD_COUNT / SAMPLE_SIZE) == 0 && i / (WORD_COUNT / SAMPLE_SIZE) < SAMPLE_SIZE) {
+                storedWords[i / (WORD_COUNT / SAMPLE_SIZE)] = word;
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                localDB.putAll(LocalDB.DB.WORDLIST_WORDS, batch);
+                batch.clear();
+            }
+        }
+        localDB.putAll(LocalDB.DB.WORDLIST_WORDS, batch);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            missingWords[i] = LocalDBBenchmarkSupport.randomWord(random, 11); // longer than any stored word
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.close("wordlist");
+    }
+
+    @Benchmark
+    public boolean containsStoredWord() throws LocalDBException {
+        return localDB.contains(LocalDB.DB.WORDLIST_WORDS, storedWords[counter++ & (SAMPLE_SIZE - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMissingWord() throws LocalDBException {
+        return localDB.contains(LocalDB.DB.WORDLIST_WORDS, missingWords[counter++ & (SAMPLE_SIZE - 1)]);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the chunkWord + contains lookup path against the {@link AhoCorasickMatcher}.  The stored wordlist is
+ * held in a HashSet so the comparison measures the matching work rather than LocalDB access.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordlistMatcherBenchmark {
+
+    private static final int WORD_COUNT = 100 * 1000;
+    private static final int CANDIDATE_COUNT = 1024;
+
+    @Param({"3", "5"})
+    public int checkSize;
+
+    @Param({"8", "16", "64"})
+    public int passwordLength;
+
+    private WordlistManager wordlist;
+    private Set<String> storedChunks;
+    private AhoCorasickMatcher matcher;
+    private String[] candidates;
+    private int candidateIndex;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        final List<String> words = new ArrayList<>();
+        for (int i = 0; i < WORD_COUNT; i++) {
+            words.add(randomWord(random, 4 + random.nextInt(8)));
+        }
+
+        wordlist = new WordlistManager();
+        storedChunks = new HashSet<>();
+        for (final String word : words) {
+            storedChunks.addAll(wordlist.chunkWord(word, checkSize));
+        }
+        matcher = AhoCorasickMatcher.build(words, checkSize);
+
+        candidates = new String[CANDIDATE_COUNT];
+        for (int i = 0; i < CANDIDATE_COUNT; i++) {
+            candidates[i] = randomWord(random, passwordLength);
+        }
+    }
+
+    @Benchmark
+    public void chunkWordContains(final Blackhole blackhole) {
+        final String candidate = nextCandidate();
+        boolean result = false;
+        for (final String chunk : wordlist.chunkWord(candidate, checkSize)) {
+            if (!result && storedChunks.contains(chunk)) {
+                result = true;
+            }
+        }
+        blackhole.consume(result);
+    }
+
+    @Benchmark
+    public void checkSizeSubstringContains(final Blackhole blackhole) {
+        final String candidate = nextCandidate();
+        final int chunkSize = checkSize > candidate.length() ? candidate.length() : checkSize;
+        boolean result = false;
+        for (int i = 0; i + chunkSize <= candidate.length() && !result; i++) {
+            result = storedChunks.contains(candidate.substring(i, i + chunkSize));
+        }
+        blackhole.consume(result);
+    }
+
+    @Benchmark
+    public void ahoCorasickMatcher(final Blackhole blackhole) {
+        blackhole.consume(matcher.matches(nextCandidate()));
+    }
+
+    private String nextCandidate() {
+        candidateIndex = (candidateIndex + 1) & (CANDIDATE_COUNT - 1);
+        return candidates[candidateIndex];
+    }
+
+    private static String randomWord(final Random random, final int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char)('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -30,8 +30,7 @@ import password.pwm.util.localdb.LocalDBFactory;
 import password.pwm.util.localdb.LocalDBStoredQueue;
 
 import java.io.File;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.*;
 
 public class LocalDBStoredQueueTest extends TestCase {
 
@@ -216,6 +215,89 @@ public class LocalDBStoredQueueTest extends TestCase {
         assertEquals(initialSize, storedQueue.size());
     }
 
+    public void testBulkOperations() {
+        storedQueue.clear();
+        for (int i = 0; i < 250; i++) {
+            storedQueue.addLast(String.valueOf(i));
+        }
+        assertEquals(Arrays.asList("0", "1", "2"), storedQueue.peekFirst(3));
+        assertEquals(250, storedQueue.size());
+
+        final List<String> polled = storedQueue.pollFirst(200);
+        assertEquals(200, polled.size());
+        assertEquals("0", polled.get(0));
+        assertEquals("199", polled.get(199));
+        assertEquals(50, storedQueue.size());
+
+        int expected = 200;
+        for (final Iterator<String> iter = storedQueue.iterator(); iter.hasNext(); ) {
+            assertEquals(String.valueOf(expected++), iter.next());
+        }
+        assertEquals(250, expected);
+
+        assertEquals(50, storedQueue.pollFirst(100).size());
+        assertTrue(storedQueue.isEmpty());
+        assertTrue(storedQueue.pollFirst(10).isEmpty());
+        assertTrue(storedQueue.peekFirst(10).isEmpty());
+    }
+
+    public void testLeases() throws Exception {
+        storedQueue.clear();
+        for (int i = 0; i < 6; i++) {
+            storedQueue.addLast(String.valueOf(i));
+        }
+
+        final LocalDBStoredQueue.Lease lease1 = storedQueue.lease(2, 60 * 1000);
+        final LocalDBStoredQueue.Lease lease2 = storedQueue.lease(2, 60 * 1000);
+        assertEquals(Arrays.asList("0", "1"), lease1.getValues());
+        assertEquals(Arrays.asList("2", "3"), lease2.getValues());
+        assertEquals(2, storedQueue.size());
+        assertEquals(4, storedQueue.leasedSize());
+
+        assertTrue(storedQueue.acknowledge(lease2));
+        assertFalse(storedQueue.acknowledge(lease2));
+        assertTrue(storedQueue.release(lease1));
+        assertEquals(Arrays.asList("0", "1", "4", "5"), storedQueue.peekFirst(10));
+        assertEquals(0, storedQueue.leasedSize());
+
+        final LocalDBStoredQueue.Lease expiringLease = storedQueue.lease(3, 0);
+        assertEquals(Arrays.asList("0", "1", "4"), expiringLease.getValues());
+        assertEquals(Arrays.asList("0", "1"), storedQueue.lease(2, 60 * 1000).getValues());
+        assertFalse(storedQueue.acknowledge(expiringLease));
+
+        storedQueue = LocalDBStoredQueue.createLocalDBStoredQueue(localDB, LocalDB.DB.TEMP, true);
+        assertEquals(0, storedQueue.leasedSize());
+        assertEquals(Arrays.asList("0", "1", "4", "5"), storedQueue.peekFirst(10));
+        assertEquals(4, storedQueue.lease(5, 60 * 1000).getValues().size());
+        assertNull(storedQueue.lease(1, 60 * 1000));
+    }
+
+    public void testLegacyFormatMigration() throws Exception {
+        storedQueue.clear();
+        localDB.truncate(LocalDB.DB.TEMP);
+        final Map<String, String> legacyValues = new HashMap<>();
+        legacyValues.put("_KEY_VERSION", "7a");
+        legacyValues.put("_HEAD_POSITION", "000001");
+        legacyValues.put("_TAIL_POSITION", "ZZZZZY");
+        legacyValues.put("ZZZZZY", "value3");
+        legacyValues.put("ZZZZZZ", "value2");
+        legacyValues.put("000000", "value1");
+        legacyValues.put("000001", "value0");
+        localDB.putAll(LocalDB.DB.TEMP, legacyValues);
+
+        storedQueue = LocalDBStoredQueue.createLocalDBStoredQueue(localDB, LocalDB.DB.TEMP, true);
+        assertEquals(4, storedQueue.size());
+        assertNull(localDB.get(LocalDB.DB.TEMP, "_HEAD_POSITION"));
+        assertEquals("value0", storedQueue.pollFirst());
+        assertEquals("value3", storedQueue.pollLast());
+        storedQueue.addFirst("value-1");
+        assertEquals(Arrays.asList("value-1", "value1", "value2"), storedQueue.peekFirst(5));
+
+        storedQueue = LocalDBStoredQueue.createLocalDBStoredQueue(localDB, LocalDB.DB.TEMP, true);
+        assertEquals(3, storedQueue.size());
+        assertEquals("value2", storedQueue.peekLast());
+    }
+
     @Override
     protected void tearDown() throws Exception {
         System.out.println("tearing down");
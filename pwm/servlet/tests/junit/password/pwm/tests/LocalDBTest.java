@@ -24,12 +24,26 @@ package password.pwm.tests;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.PwmApplication;
 import password.pwm.util.TimeDuration;
 import password.pwm.util.localdb.LocalDB;
 import password.pwm.util.localdb.LocalDBException;
 import password.pwm.util.localdb.LocalDBFactory;
+import password.pwm.util.localdb.LocalDBProvider;
+import password.pwm.util.localdb.LocalDBUtility;
 
 import java.io.File;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LocalDBTest extends TestCase {
 
@@ -61,6 +75,311 @@ public class LocalDBTest extends TestCase {
         System.out.println("total duration: " + TimeDuration.fromCurrent(startTime).asLongString());
     }
 
+    public void testEntryIteration() throws Exception {
+        final Map<String,String> values = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            values.put("user" + (char)('a' + i), "value" + i);
+        }
+        values.put("other", "otherValue");
+        pwmDB.putAll(TEST_DB, values);
+
+        final List<String> keys = new ArrayList<>();
+        final LocalDB.LocalDBIterator<Map.Entry<String,String>> iterator = LocalDBUtility.prefixIterator(pwmDB, TEST_DB, "user");
+        try {
+            while (iterator.hasNext()) {
+                final Map.Entry<String,String> entry = iterator.next();
+                Assert.assertEquals(values.get(entry.getKey()), entry.getValue());
+                keys.add(entry.getKey());
+            }
+        } finally {
+            iterator.close();
+        }
+        Assert.assertEquals(20, keys.size());
+        Assert.assertEquals("usera", keys.get(0));
+        Assert.assertEquals("usert", keys.get(19));
+
+        final Map<String,String> readValues = pwmDB.getAll(TEST_DB, Arrays.asList("userb", "other", "missing"));
+        Assert.assertEquals(2, readValues.size());
+        Assert.assertEquals("value1", readValues.get("userb"));
+        Assert.assertEquals("otherValue", readValues.get("other"));
+    }
+
+    public void testProviderEntryIteration() throws Exception {
+        final String[] providers = {
+                "password.pwm.util.localdb.Memory_LocalDB",
+                "password.pwm.util.localdb.Berkeley_LocalDB",
+                "password.pwm.util.localdb.MapDB_LocalDB",
+                "password.pwm.util.localdb.H2_LocalDB",
+                "password.pwm.util.localdb.Derby_LocalDB",
+                "password.pwm.util.localdb.AppendLog_LocalDB",
+                "password.pwm.util.localdb.OffHeap_LocalDB",
+        };
+        for (final String providerClass : providers) {
+            final String label = providerClass.substring(providerClass.lastIndexOf('.') + 1);
+            final File tempDir = File.createTempFile("pwm-localdb", "");
+            tempDir.delete();
+            tempDir.mkdirs();
+            final Constructor constructor = Class.forName(providerClass).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            final LocalDBProvider provider = (LocalDBProvider)constructor.newInstance();
+            provider.init(tempDir, Collections.<String,String>emptyMap(), false);
+            try {
+                final Map<String,String> values = new HashMap<>();
+                for (int i = 0; i < 100; i++) {
+                    values.put(String.format("key%03d", i), "value" + i);
+                }
+                provider.putAll(TEST_DB, values);
+                provider.put(LocalDB.DB.TOKENS, "key050", "other db");
+
+                final LocalDBProvider.BulkReadSupport bulkReads = (LocalDBProvider.BulkReadSupport)provider;
+                Assert.assertEquals(label, 100, readKeys(bulkReads.entryIterator(TEST_DB, null, null), values).size());
+
+                final List<String> rangeKeys = readKeys(bulkReads.entryIterator(TEST_DB, "key010", "key020"), values);
+                Assert.assertEquals(label, 10, rangeKeys.size());
+                Assert.assertEquals(label, "key010", rangeKeys.get(0));
+                Assert.assertEquals(label, "key019", rangeKeys.get(9));
+
+                final List<String> tailKeys = readKeys(bulkReads.entryIterator(TEST_DB, "key095", null), values);
+                Assert.assertEquals(label, Arrays.asList("key095", "key096", "key097", "key098", "key099"), tailKeys);
+
+                final Map<String,String> readValues = bulkReads.getAll(TEST_DB, Arrays.asList("key001", "key099", "missing"));
+                Assert.assertEquals(label, 2, readValues.size());
+                Assert.assertEquals(label, "value99", readValues.get("key099"));
+            } finally {
+                provider.close();
+                FileUtils.deleteDirectory(tempDir);
+            }
+        }
+    }
+
+    public void testProviderRecordCounts() throws Exception {
+        final String[] providers = {
+                "password.pwm.util.localdb.Berkeley_LocalDB",
+                "password.pwm.util.localdb.MapDB_LocalDB",
+                "password.pwm.util.localdb.H2_LocalDB",
+                "password.pwm.util.localdb.Derby_LocalDB",
+        };
+        for (final String providerClass : providers) {
+            final String label = providerClass.substring(providerClass.lastIndexOf('.') + 1);
+            final File tempDir = File.createTempFile("pwm-localdb", "");
+            tempDir.delete();
+            tempDir.mkdirs();
+            try {
+                LocalDBProvider provider = openProvider(providerClass, tempDir);
+                try {
+                    final Map<String, String> values = new HashMap<>();
+                    for (int i = 0; i < 50; i++) {
+                        values.put("key" + i, "value" + i);
+                    }
+                    provider.putAll(TEST_DB, values);
+                    provider.putAll(TEST_DB, Collections.singletonMap("key0", "updated"));
+                    Assert.assertEquals(label, 50, provider.size(TEST_DB));
+
+                    Assert.assertTrue(label, provider.put(TEST_DB, "key1", "updated"));
+                    Assert.assertFalse(label, provider.put(TEST_DB, "key50", "value50"));
+                    Assert.assertTrue(label, provider.remove(TEST_DB, "key2"));
+                    Assert.assertFalse(label, provider.remove(TEST_DB, "missing"));
+                    provider.removeAll(TEST_DB, Arrays.asList("key3", "key4", "missing"));
+                    Assert.assertEquals(label, 48, provider.size(TEST_DB));
+
+                    provider.put(LocalDB.DB.TOKENS, "token", "value");
+                    provider.truncate(LocalDB.DB.TOKENS);
+                    Assert.assertEquals(label, 0, provider.size(LocalDB.DB.TOKENS));
+                } finally {
+                    provider.close();
+                }
+
+                provider = openProvider(providerClass, tempDir);
+                try {
+                    Assert.assertEquals(label, 48, provider.size(TEST_DB));
+                    Assert.assertNull(label, provider.get(LocalDB.DB.PWM_META, PwmApplication.AppAttribute.LOCALDB_RECORD_COUNTS.getKey()));
+                    provider.put(TEST_DB, "key51", "value51");
+                    Assert.assertEquals(label, 49, provider.size(TEST_DB));
+                } finally {
+                    provider.close();
+                }
+            } finally {
+                FileUtils.deleteDirectory(tempDir);
+            }
+        }
+    }
+
+    public void testMapDBFailedPutAll() throws Exception {
+        final File tempDir = File.createTempFile("pwm-localdb", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        try {
+            final LocalDBProvider provider = openProvider("password.pwm.util.localdb.MapDB_LocalDB", tempDir);
+            try {
+                provider.put(LocalDB.DB.TOKENS, "token", "value");
+
+                // mapdb refuses null values part way through the batch
+                final Map<String, String> values = new LinkedHashMap<>();
+                values.put("key1", "value1");
+                values.put("key2", null);
+                values.put("key3", "value3");
+                try {
+                    provider.putAll(TEST_DB, values);
+                    Assert.fail("expected putAll to fail");
+                } catch (LocalDBException e) {
+                    // expected
+                }
+
+                // the records written before the failure stay in the shared transaction and are counted
+                Assert.assertEquals("value", provider.get(LocalDB.DB.TOKENS, "token"));
+                Assert.assertEquals("value1", provider.get(TEST_DB, "key1"));
+                Assert.assertNull(provider.get(TEST_DB, "key3"));
+                Assert.assertEquals(1, provider.size(TEST_DB));
+
+                // and are committed by the next write
+                provider.put(TEST_DB, "key4", "value4");
+                Assert.assertEquals(2, provider.size(TEST_DB));
+            } finally {
+                provider.close();
+            }
+
+            final LocalDBProvider reopenedProvider = openProvider("password.pwm.util.localdb.MapDB_LocalDB", tempDir);
+            try {
+                Assert.assertEquals("value1", reopenedProvider.get(TEST_DB, "key1"));
+                Assert.assertEquals("value4", reopenedProvider.get(TEST_DB, "key4"));
+                Assert.assertEquals(2, reopenedProvider.size(TEST_DB));
+            } finally {
+                reopenedProvider.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    private static LocalDBProvider openProvider(final String providerClass, final File directory) throws Exception {
+        final Constructor constructor = Class.forName(providerClass).getDeclaredConstructor();
+        constructor.setAccessible(true);
+        final LocalDBProvider provider = (LocalDBProvider)constructor.newInstance();
+        provider.init(directory, Collections.<String,String>emptyMap(), false);
+        return provider;
+    }
+
+    private static List<String> readKeys(
+            final LocalDB.LocalDBIterator<Map.Entry<String,String>> iterator,
+            final Map<String,String> expectedValues
+    ) {
+        final List<String> keys = new ArrayList<>();
+        try {
+            while (iterator.hasNext()) {
+                final Map.Entry<String,String> entry = iterator.next();
+                Assert.assertEquals(expectedValues.get(entry.getKey()), entry.getValue());
+                keys.add(entry.getKey());
+            }
+        } finally {
+            iterator.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Readers on one db while a writer batches into another db.  With per-db locking the readers should make steady
+     * progress for the duration of the writes.
+     */
+    public void testMixedReadWriteContention() throws Exception {
+        final String[] providers = {
+                "password.pwm.util.localdb.MapDB_LocalDB",
+                "password.pwm.util.localdb.H2_LocalDB",
+                "password.pwm.util.localdb.Derby_LocalDB",
+                "password.pwm.util.localdb.AppendLog_LocalDB",
+                "password.pwm.util.localdb.OffHeap_LocalDB",
+        };
+        for (final String providerClass : providers) {
+            final File tempDir = File.createTempFile("pwm-localdb", "");
+            tempDir.delete();
+            tempDir.mkdirs();
+            final Constructor constructor = Class.forName(providerClass).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            final LocalDBProvider provider = (LocalDBProvider)constructor.newInstance();
+            provider.init(tempDir, Collections.<String,String>emptyMap(), false);
+            try {
+                runContention(provider, providerClass.substring(providerClass.lastIndexOf('.') + 1));
+            } finally {
+                provider.close();
+                FileUtils.deleteDirectory(tempDir);
+            }
+        }
+    }
+
+    private static void runContention(final LocalDBProvider provider, final String label) throws Exception {
+        final LocalDB.DB readDB = LocalDB.DB.WORDLIST_WORDS;
+        final LocalDB.DB writeDB = LocalDB.DB.EVENTLOG_EVENTS;
+        final int keyCount = 1000;
+        final int readerCount = 4;
+        final long testDurationMs = 2000;
+
+        final Map<String,String> seedValues = new HashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            seedValues.put("key" + i, "value" + i);
+        }
+        provider.putAll(readDB, seedValues);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int r = 0; r < readerCount; r++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        int i = 0;
+                        while (running.get()) {
+                            final String key = "key" + (i++ % keyCount);
+                            if (!("value" + key.substring(3)).equals(provider.get(readDB, key))) {
+                                throw new IllegalStateException("unexpected value for " + key);
+                            }
+                            reads.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        threads.add(new Thread() {
+            public void run() {
+                try {
+                    int batch = 0;
+                    while (running.get()) {
+                        final Map<String,String> values = new HashMap<>();
+                        for (int i = 0; i < 100; i++) {
+                            values.put("event" + batch + "-" + i, "payload" + i);
+                        }
+                        provider.putAll(writeDB, values);
+                        writes.addAndGet(values.size());
+                        batch++;
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+
+        final long startTime = System.currentTimeMillis();
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(testDurationMs);
+        running.set(false);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsedMs = Math.max(1, System.currentTimeMillis() - startTime);
+
+        System.out.println(label + " mixed read/write: " + (reads.get() * 1000 / elapsedMs) + " reads/sec, "
+                + (writes.get() * 1000 / elapsedMs) + " writes/sec, readers=" + readerCount);
+        Assert.assertTrue(label + " errors: " + errors, errors.isEmpty());
+        Assert.assertTrue(label + " readers made no progress", reads.get() > 0);
+        Assert.assertTrue(label + " writer made no progress", writes.get() > 0);
+        Assert.assertEquals(keyCount, provider.size(readDB));
+    }
+
     @Override
     protected void tearDown() throws Exception {
         super.tearDown();
@@ -0,0 +1,150 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2015 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.cache;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MemoryCacheStoreTest extends TestCase {
+
+    private static final Date FUTURE = new Date(System.currentTimeMillis() + 60 * 60 * 1000);
+
+    public void testByteBound() throws Exception {
+        final MemoryCacheStore store = new MemoryCacheStore(100 * 1000, 0);
+        for (int i = 0; i < 200; i++) {
+            store.store(key("large" + i), FUTURE, payload(2000));
+        }
+        for (int i = 0; i < 200; i++) {
+            store.store(key("small" + i), FUTURE, "false");
+        }
+
+        final CacheStoreInfo info = store.getCacheStoreInfo();
+        Assert.assertTrue(info.getByteCount() <= 100 * 1000);
+        Assert.assertTrue(info.getItemCount() > 24);
+        Assert.assertTrue(info.getEvictionCount() + info.getRejectionCount() > 0);
+
+        // an entry larger than the whole store is never kept
+        store.store(key("huge"), FUTURE, payload(100 * 1000));
+        Assert.assertNull(store.read(key("huge")));
+    }
+
+    public void testScanDoesNotFlushFrequentEntries() throws Exception {
+        final MemoryCacheStore store = new MemoryCacheStore(200 * 1000, 0);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                final CacheKey cacheKey = key("hot" + i);
+                if (store.read(cacheKey) == null) {
+                    store.store(cacheKey, FUTURE, payload(1000));
+                }
+            }
+        }
+
+        // a one pass scan of many more keys than the cache can hold, each looked up once then stored
+        for (int i = 0; i < 2000; i++) {
+            final CacheKey cacheKey = key("scan" + i);
+            Assert.assertNull(store.read(cacheKey));
+            store.store(cacheKey, FUTURE, payload(1000));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            Assert.assertNotNull("hot" + i, store.read(key("hot" + i)));
+        }
+        Assert.assertTrue(store.getCacheStoreInfo().getRejectionCount() > 0);
+    }
+
+    public void testPromotionAndExpiration() throws Exception {
+        final MemoryCacheStore store = new MemoryCacheStore(100 * 1000, 0);
+        Assert.assertNull(store.read(key("promoted")));
+        store.promote(key("promoted"), FUTURE, "value");
+        Assert.assertEquals("value", store.read(key("promoted")));
+        Assert.assertEquals(1, store.getCacheStoreInfo().getPromotionCount());
+
+        store.store(key("expired"), new Date(System.currentTimeMillis() - 1000), "value");
+        Assert.assertNull(store.read(key("expired")));
+        Assert.assertEquals(1, store.getCacheStoreInfo().getItemCount());
+    }
+
+    public void testItemLimit() throws Exception {
+        final MemoryCacheStore store = new MemoryCacheStore(100 * 1000, 10);
+        for (int i = 0; i < 100; i++) {
+            store.store(key("item" + i), FUTURE, "value");
+        }
+        Assert.assertTrue(store.getCacheStoreInfo().getItemCount() <= 10);
+    }
+
+    public void testConcurrentReadsAndStores() throws Exception {
+        final MemoryCacheStore store = new MemoryCacheStore(50 * 1000, 0);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int threadNumber = t;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            final CacheKey cacheKey = key("key" + ((i * (threadNumber + 1)) % 300));
+                            final String value = store.read(cacheKey);
+                            if (value == null) {
+                                store.store(cacheKey, FUTURE, payload(100));
+                            } else if (value.length() != 100) {
+                                throw new IllegalStateException("unexpected value length " + value.length());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(failure.get());
+        final CacheStoreInfo info = store.getCacheStoreInfo();
+        Assert.assertEquals(4 * 5000, info.getReadCount());
+        Assert.assertEquals(info.getReadCount(), info.getHitCount() + info.getMissCount());
+        Assert.assertTrue(info.getByteCount() <= 50 * 1000);
+        Assert.assertTrue(info.getHitCount() > 0);
+    }
+
+    private static CacheKey key(final String valueID) {
+        return CacheKey.makeCacheKey(MemoryCacheStoreTest.class, null, valueID);
+    }
+
+    private static String payload(final int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+}
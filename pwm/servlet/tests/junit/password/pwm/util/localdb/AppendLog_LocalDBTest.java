@@ -0,0 +1,221 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AppendLog_LocalDBTest extends TestCase {
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-appendlog", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testReopen() throws Exception {
+        AppendLog_LocalDB localDB = open(tempDir);
+        localDB.put(LocalDB.DB.TEMP, "key1", "value1");
+        localDB.put(LocalDB.DB.TEMP, "key2", "value2");
+        localDB.put(LocalDB.DB.TEMP, "key1", "value1b");
+        localDB.remove(LocalDB.DB.TEMP, "key2");
+        localDB.put(LocalDB.DB.TOKENS, "token1", "été");
+        localDB.putAll(LocalDB.DB.CACHE, Collections.singletonMap("cache1", "cached"));
+        localDB.truncate(LocalDB.DB.CACHE);
+        localDB.close();
+
+        // reopen using the hint file
+        localDB = open(tempDir);
+        assertContents(localDB);
+        localDB.close();
+
+        // reopen by replaying the segments
+        new File(tempDir, "appendlog.hint").delete();
+        localDB = open(tempDir);
+        assertContents(localDB);
+        localDB.close();
+    }
+
+    public void testIncompleteTailIsIgnored() throws Exception {
+        AppendLog_LocalDB localDB = open(tempDir);
+        localDB.put(LocalDB.DB.TEMP, "key1", "value1");
+        localDB.close();
+        new File(tempDir, "appendlog.hint").delete();
+
+        final File[] segmentFiles = tempDir.listFiles();
+        Assert.assertEquals(1, segmentFiles.length);
+        final FileOutputStream outputStream = new FileOutputStream(segmentFiles[0], true);
+        outputStream.write(new byte[]{0, 0, 1, 0, 42});
+        outputStream.close();
+
+        localDB = open(tempDir);
+        Assert.assertEquals("value1", localDB.get(LocalDB.DB.TEMP, "key1"));
+        localDB.put(LocalDB.DB.TEMP, "key2", "value2");
+        localDB.close();
+
+        new File(tempDir, "appendlog.hint").delete();
+        localDB = open(tempDir);
+        Assert.assertEquals("value1", localDB.get(LocalDB.DB.TEMP, "key1"));
+        Assert.assertEquals("value2", localDB.get(LocalDB.DB.TEMP, "key2"));
+        localDB.close();
+    }
+
+    public void testCompaction() throws Exception {
+        AppendLog_LocalDB localDB = open(tempDir);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                localDB.put(LocalDB.DB.TEMP, "key" + i, "value" + i + "-" + round);
+            }
+        }
+        localDB.put(LocalDB.DB.TOKENS, "removed", "value");
+        localDB.remove(LocalDB.DB.TOKENS, "removed");
+        localDB.put(LocalDB.DB.CACHE, "truncated", "value");
+        localDB.truncate(LocalDB.DB.CACHE);
+
+        final int segmentsBefore = tempDir.listFiles().length;
+        Assert.assertTrue(localDB.compact() > 0);
+        Assert.assertTrue(tempDir.listFiles().length < segmentsBefore);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value" + i + "-19", localDB.get(LocalDB.DB.TEMP, "key" + i));
+        }
+        localDB.close();
+
+        new File(tempDir, "appendlog.hint").delete();
+        localDB = open(tempDir);
+        Assert.assertEquals(50, localDB.size(LocalDB.DB.TEMP));
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value" + i + "-19", localDB.get(LocalDB.DB.TEMP, "key" + i));
+        }
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "removed"));
+        Assert.assertEquals(0, localDB.size(LocalDB.DB.CACHE));
+        localDB.close();
+    }
+
+    public void testFailedSegmentDeleteKeepsTombstones() throws Exception {
+        AppendLog_LocalDB localDB = open(tempDir);
+        localDB.put(LocalDB.DB.TOKENS, "removed", "value");
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                localDB.put(LocalDB.DB.TEMP, "key" + i, "value" + i + "-" + round);
+            }
+        }
+        localDB.remove(LocalDB.DB.TOKENS, "removed");
+        for (int round = 10; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                localDB.put(LocalDB.DB.TEMP, "key" + i, "value" + i + "-" + round);
+            }
+        }
+
+        // the first segment's file is still open in the memory map, put a non-empty directory in its place so the
+        // delete after compaction fails
+        final File firstSegment = new File(tempDir, "appendlog-00000001.seg");
+        final File movedSegment = new File(tempDir, "moved.seg");
+        Assert.assertTrue(firstSegment.renameTo(movedSegment));
+        Assert.assertTrue(new File(firstSegment, "blocker").mkdirs());
+        try {
+            localDB.compact();
+            Assert.fail("expected the failed segment delete to fail compaction");
+        } catch (LocalDBException e) {
+            // expected
+        }
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "removed"));
+        localDB.close();
+
+        // the leftover file is replayed on the next open, the tombstone in the newer segment must still hide its put
+        FileUtils.deleteDirectory(firstSegment);
+        Assert.assertTrue(movedSegment.renameTo(firstSegment));
+        new File(tempDir, "appendlog.hint").delete();
+        localDB = open(tempDir);
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "removed"));
+        Assert.assertTrue(localDB.compact() > 0);
+        Assert.assertFalse(firstSegment.exists());
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals("value" + i + "-19", localDB.get(LocalDB.DB.TEMP, "key" + i));
+        }
+        localDB.close();
+
+        new File(tempDir, "appendlog.hint").delete();
+        localDB = open(tempDir);
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "removed"));
+        Assert.assertEquals(50, localDB.size(LocalDB.DB.TEMP));
+        localDB.close();
+    }
+
+    public void testMigrateWithExportImport() throws Exception {
+        final File sourceDir = new File(tempDir, "source");
+        final File targetDir = new File(tempDir, "target");
+        sourceDir.mkdirs();
+
+        final MapDB_LocalDB sourceProvider = new MapDB_LocalDB();
+        sourceProvider.init(sourceDir, Collections.<String,String>emptyMap(), false);
+        final LocalDB sourceDB = new LocalDBAdaptor(sourceProvider, null);
+        final Map<String,String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            values.put("key" + i, "{\"value\":" + i + "}");
+        }
+        sourceDB.putAll(LocalDB.DB.RESPONSE_STORAGE, values);
+        final ByteArrayOutputStream exportBytes = new ByteArrayOutputStream();
+        new LocalDBUtility(sourceDB).exportLocalDB(exportBytes, null, false);
+        sourceDB.close();
+
+        final LocalDB targetDB = new LocalDBAdaptor(open(targetDir), null);
+        new LocalDBUtility(targetDB).importLocalDB(new ByteArrayInputStream(exportBytes.toByteArray()), null);
+        Assert.assertEquals(100, targetDB.size(LocalDB.DB.RESPONSE_STORAGE));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("{\"value\":" + i + "}", targetDB.get(LocalDB.DB.RESPONSE_STORAGE, "key" + i));
+        }
+        targetDB.close();
+    }
+
+    private static void assertContents(final AppendLog_LocalDB localDB) throws LocalDBException {
+        Assert.assertEquals("value1b", localDB.get(LocalDB.DB.TEMP, "key1"));
+        Assert.assertNull(localDB.get(LocalDB.DB.TEMP, "key2"));
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.TEMP));
+        Assert.assertEquals("été", localDB.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertEquals(0, localDB.size(LocalDB.DB.CACHE));
+    }
+
+    private static AppendLog_LocalDB open(final File directory) throws LocalDBException {
+        final Map<String,String> initParameters = new HashMap<>();
+        initParameters.put("appendlog.segmentMaxBytes", "4096");
+        initParameters.put("appendlog.forceWrites", "false");
+        final AppendLog_LocalDB localDB = new AppendLog_LocalDB();
+        localDB.init(directory, initParameters, false);
+        return localDB;
+    }
+}
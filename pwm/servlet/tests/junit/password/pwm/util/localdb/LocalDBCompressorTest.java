@@ -0,0 +1,163 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import password.pwm.PwmConstants;
+import password.pwm.util.StringUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+public class LocalDBCompressorTest extends TestCase {
+
+    private static final String TOKEN_JSON = "{\"date\":\"2014-10-17T00:44:07Z\",\"name\":\"EMAIL_VERIFY\",\"data\":{},"
+            + "\"user\":{\"userDN\":\"cn=jdoe,ou=users,o=example\",\"ldapProfile\":\"default\"},"
+            + "\"dest\":[\"jdoe@example.com\"],\"guid\":\"8f6e2f0a-5d1c-4ab5-9c63-0d1e2b6c7a11\"}";
+
+    private LocalDB innerLocalDB;
+    private LocalDBCompressor compressor;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Memory_LocalDB provider = new Memory_LocalDB();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        innerLocalDB = new LocalDBAdaptor(provider, null);
+        compressor = new LocalDBCompressor(innerLocalDB, 128, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        compressor.close();
+    }
+
+    public void testRoundTrip() throws Exception {
+        compressor.put(LocalDB.DB.TOKENS, "token", TOKEN_JSON);
+        final String storedValue = innerLocalDB.get(LocalDB.DB.TOKENS, "token");
+        Assert.assertTrue(storedValue.startsWith(LocalDBCompressor.DEFLATE_PREFIX));
+        Assert.assertTrue(storedValue.length() < TOKEN_JSON.length());
+        Assert.assertEquals(TOKEN_JSON, compressor.get(LocalDB.DB.TOKENS, "token"));
+
+        final String unicodeValue = TOKEN_JSON.replace("jdoe", "élève中文");
+        compressor.put(LocalDB.DB.TOKENS, "unicode", unicodeValue);
+        Assert.assertEquals(unicodeValue, compressor.get(LocalDB.DB.TOKENS, "unicode"));
+
+        compressor.put(LocalDB.DB.TOKENS, "short", "short value");
+        Assert.assertEquals("short value", innerLocalDB.get(LocalDB.DB.TOKENS, "short"));
+    }
+
+    public void testIncompressibleValue() throws Exception {
+        final Random random = new Random(1);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 512; i++) {
+            sb.append((char)('!' + random.nextInt(90)));
+        }
+        compressor.put(LocalDB.DB.TEMP, "random", sb.toString());
+        Assert.assertEquals(sb.toString(), innerLocalDB.get(LocalDB.DB.TEMP, "random"));
+        Assert.assertEquals(sb.toString(), compressor.get(LocalDB.DB.TEMP, "random"));
+    }
+
+    public void testBase85() throws Exception {
+        final Random random = new Random(1);
+        for (int length = 0; length < 40; length++) {
+            final byte[] input = new byte[length];
+            random.nextBytes(input);
+            final String encoded = LocalDBCompressor.base85Encode(input, length);
+            Assert.assertEquals(length + (length + 3) / 4, encoded.length());
+            Assert.assertTrue(Arrays.equals(input, LocalDBCompressor.base85Decode("x!" + encoded, 2)));
+        }
+    }
+
+    public void testLegacyValues() throws Exception {
+        final String legacyValue = LocalDBCompressor.COMPRESS_PREFIX
+                + StringUtil.base64Encode(TOKEN_JSON.getBytes(PwmConstants.DEFAULT_CHARSET), StringUtil.Base64Options.GZIP);
+        innerLocalDB.put(LocalDB.DB.TOKENS, "legacy", legacyValue);
+        innerLocalDB.put(LocalDB.DB.TOKENS, "plain", TOKEN_JSON);
+        Assert.assertEquals(TOKEN_JSON, compressor.get(LocalDB.DB.TOKENS, "legacy"));
+
+        Assert.assertEquals(1, compressor.migrateLegacyValues(LocalDB.DB.TOKENS));
+        Assert.assertTrue(innerLocalDB.get(LocalDB.DB.TOKENS, "legacy").startsWith(LocalDBCompressor.DEFLATE_PREFIX));
+        Assert.assertEquals(TOKEN_JSON, innerLocalDB.get(LocalDB.DB.TOKENS, "plain"));
+        Assert.assertEquals(TOKEN_JSON, compressor.get(LocalDB.DB.TOKENS, "legacy"));
+        Assert.assertEquals(0, compressor.migrateLegacyValues(LocalDB.DB.TOKENS));
+    }
+
+    public void testLegacyMigrationDoesNotWriteWhileIterating() throws Exception {
+        final IteratorCheckingProvider provider = new IteratorCheckingProvider();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        final LocalDB checkedLocalDB = new LocalDBAdaptor(provider, null);
+        final LocalDBCompressor checkedCompressor = new LocalDBCompressor(checkedLocalDB, 128, true);
+        final String legacyValue = LocalDBCompressor.COMPRESS_PREFIX
+                + StringUtil.base64Encode(TOKEN_JSON.getBytes(PwmConstants.DEFAULT_CHARSET), StringUtil.Base64Options.GZIP);
+        for (int i = 0; i < 250; i++) {
+            checkedLocalDB.put(LocalDB.DB.TOKENS, "legacy" + i, legacyValue);
+        }
+
+        Assert.assertEquals(250, checkedCompressor.migrateLegacyValues(LocalDB.DB.TOKENS));
+        Assert.assertEquals(TOKEN_JSON, checkedCompressor.get(LocalDB.DB.TOKENS, "legacy249"));
+        checkedCompressor.close();
+    }
+
+    /**
+     * Fails writes to a db while an iterator over it is open, like a provider whose iterator streams a result set.
+     */
+    private static class IteratorCheckingProvider extends Memory_LocalDB {
+        private int openIterators;
+
+        @Override
+        public LocalDB.LocalDBIterator<String> iterator(final LocalDB.DB db) throws LocalDBException {
+            final LocalDB.LocalDBIterator<String> iterator = super.iterator(db);
+            openIterators++;
+            return new LocalDB.LocalDBIterator<String>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                public String next() {
+                    return iterator.next();
+                }
+
+                public void remove() {
+                    iterator.remove();
+                }
+
+                public void close() {
+                    openIterators--;
+                    iterator.close();
+                }
+            };
+        }
+
+        @Override
+        public void putAll(final LocalDB.DB db, final Map<String, String> keyValueMap) throws LocalDBException {
+            if (openIterators > 0) {
+                throw new IllegalStateException("write while iterating");
+            }
+            super.putAll(db, keyValueMap);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class LocalDBExpirationTest extends TestCase {
+
+    private LocalDBAdaptor adaptor;
+    private LocalDBExpiration localDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Memory_LocalDB provider = new Memory_LocalDB();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        adaptor = new LocalDBAdaptor(provider, null);
+        localDB = new LocalDBExpiration(adaptor, 0, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localDB.close();
+    }
+
+    public void testExpiredRecordsHidden() throws Exception {
+        final Date past = new Date(System.currentTimeMillis() - 1000);
+        final Date future = new Date(System.currentTimeMillis() + 60 * 1000);
+        localDB.put(LocalDB.DB.TOKENS, "expired", "value1", past);
+        localDB.put(LocalDB.DB.TOKENS, "current", "value2", future);
+
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "expired"));
+        Assert.assertFalse(localDB.contains(LocalDB.DB.TOKENS, "expired"));
+        Assert.assertEquals("value2", localDB.get(LocalDB.DB.TOKENS, "current"));
+        Assert.assertEquals(Collections.singletonMap("current", "value2"),
+                localDB.getAll(LocalDB.DB.TOKENS, Arrays.asList("expired", "current")));
+
+        final Map<String, String> entries = new HashMap<>();
+        final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = localDB.entryIterator(LocalDB.DB.TOKENS, null, null);
+        try {
+            while (iterator.hasNext()) {
+                final Map.Entry<String, String> entry = iterator.next();
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            iterator.close();
+        }
+        Assert.assertEquals(Collections.singletonMap("current", "value2"), entries);
+    }
+
+    public void testContainsUnexpiringRecords() throws Exception {
+        final Date future = new Date(System.currentTimeMillis() + 60 * 1000);
+        localDB.put(LocalDB.DB.TOKENS, "expiring", "value", future);
+        Assert.assertFalse(localDB.containsUnexpiringRecords(LocalDB.DB.TOKENS));
+
+        // written below the expiration layer, as an earlier version would have
+        adaptor.put(LocalDB.DB.TOKENS, "legacy", "value");
+        Assert.assertTrue(localDB.containsUnexpiringRecords(LocalDB.DB.TOKENS));
+        Assert.assertTrue(LocalDBUtility.containsUnexpiringRecords(localDB, LocalDB.DB.TOKENS));
+
+        localDB.put(LocalDB.DB.TOKENS, "legacy", "value", future);
+        Assert.assertFalse(LocalDBUtility.containsUnexpiringRecords(localDB, LocalDB.DB.TOKENS));
+
+        localDB.put(LocalDB.DB.TOKENS, "prefixed", LocalDBExpiration.EXPIRATION_PREFIX + "value");
+        Assert.assertTrue(localDB.containsUnexpiringRecords(LocalDB.DB.TOKENS));
+    }
+
+    public void testPurge() throws Exception {
+        final Date past = new Date(System.currentTimeMillis() - 1000);
+        final Date future = new Date(System.currentTimeMillis() + 60 * 1000);
+        for (int i = 0; i < 1500; i++) {
+            localDB.put(LocalDB.DB.TOKENS, "expired" + i, "value", past);
+        }
+        localDB.put(LocalDB.DB.TOKENS, "current", "value", future);
+        localDB.put(LocalDB.DB.TOKENS, "rewritten", "value", past);
+        localDB.put(LocalDB.DB.TOKENS, "rewritten", "value");
+        Assert.assertEquals(1502, localDB.size(LocalDB.DB.TOKENS));
+
+        Assert.assertEquals(1500, localDB.purgeExpiredRecords());
+        Assert.assertEquals(2, localDB.size(LocalDB.DB.TOKENS));
+        Assert.assertEquals("value", localDB.get(LocalDB.DB.TOKENS, "rewritten"));
+        Assert.assertEquals(1, adaptor.size(LocalDB.DB.EXPIRATION_INDEX));
+        Assert.assertEquals(0, localDB.purgeExpiredRecords());
+
+        localDB.truncate(LocalDB.DB.TOKENS);
+        Assert.assertEquals(0, adaptor.size(LocalDB.DB.EXPIRATION_INDEX));
+    }
+
+    public void testRewriteReplacesIndexEntry() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            localDB.put(LocalDB.DB.TOKENS, "key1", "value" + i, new Date(System.currentTimeMillis() + i * 60 * 1000));
+        }
+        Assert.assertEquals(1, adaptor.size(LocalDB.DB.EXPIRATION_INDEX));
+        Assert.assertEquals("value10", localDB.get(LocalDB.DB.TOKENS, "key1"));
+
+        Assert.assertTrue(LocalDBUtility.put(localDB, LocalDB.DB.TOKENS, "key1", "value11", new Date(System.currentTimeMillis() - 1000)));
+        Assert.assertEquals(1, adaptor.size(LocalDB.DB.EXPIRATION_INDEX));
+        Assert.assertEquals(1, localDB.purgeExpiredRecords());
+        Assert.assertEquals(0, adaptor.size(LocalDB.DB.EXPIRATION_INDEX));
+    }
+
+    public void testPrefixedValues() throws Exception {
+        final String value = LocalDBExpiration.EXPIRATION_PREFIX + "000000000001value";
+        localDB.put(LocalDB.DB.TOKENS, "key1", value);
+        localDB.putAll(LocalDB.DB.TOKENS, Collections.singletonMap("key2", value));
+        localDB.put(LocalDB.DB.TOKENS, "key3", value, new Date(System.currentTimeMillis() + 60 * 1000));
+
+        Assert.assertEquals(value, localDB.get(LocalDB.DB.TOKENS, "key1"));
+        Assert.assertEquals(value, localDB.get(LocalDB.DB.TOKENS, "key2"));
+        Assert.assertEquals(value, localDB.get(LocalDB.DB.TOKENS, "key3"));
+        Assert.assertEquals(0, localDB.purgeExpiredRecords());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.*;
+
+public class LocalDBOperationStatsTest extends TestCase {
+
+    public void testOperationsRecorded() throws Exception {
+        final Memory_LocalDB provider = new Memory_LocalDB();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        final LocalDBAdaptor adaptor = new LocalDBAdaptor(provider, null);
+        final LocalDB localDB = new LocalDBCompressor(adaptor, 128, true);
+
+        localDB.put(LocalDB.DB.TOKENS, "key1", "value1");
+        localDB.putAll(LocalDB.DB.TOKENS, Collections.singletonMap("key2", "value2"));
+        localDB.get(LocalDB.DB.TOKENS, "key1");
+        localDB.get(LocalDB.DB.TOKENS, "missing");
+        localDB.contains(LocalDB.DB.TOKENS, "key1");
+        localDB.size(LocalDB.DB.TOKENS);
+        localDB.remove(LocalDB.DB.TOKENS, "key2");
+
+        final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = localDB.entryIterator(LocalDB.DB.TOKENS, null, null);
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        iterator.close();
+        iterator.close();
+
+        final Map<LocalDBOperationStats.Operation, LocalDBOperationStats.OperationSummary> operations =
+                LocalDBUtility.operationStats(localDB, LocalDB.DB.TOKENS);
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.PUT).getCount());
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.PUT_ALL).getCount());
+        Assert.assertEquals(2, operations.get(LocalDBOperationStats.Operation.GET).getCount());
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.CONTAINS).getCount());
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.SIZE).getCount());
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.REMOVE).getCount());
+        Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.ITERATE).getCount());
+        Assert.assertFalse(operations.containsKey(LocalDBOperationStats.Operation.TRUNCATE));
+        Assert.assertTrue(LocalDBUtility.operationStats(localDB, LocalDB.DB.CACHE).isEmpty());
+        localDB.close();
+    }
+
+    public void testStatsSavedOnClose() throws Exception {
+        final File tempDir = File.createTempFile("pwm-operationstats", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        try {
+            final AppendLog_LocalDB provider = new AppendLog_LocalDB();
+            provider.init(tempDir, Collections.<String,String>emptyMap(), false);
+            final LocalDB localDB = new LocalDBAdaptor(provider, null, 0, true);
+            Assert.assertNull(LocalDBUtility.savedOperationStats(localDB));
+            localDB.put(LocalDB.DB.TOKENS, "key1", "value1");
+            localDB.get(LocalDB.DB.TOKENS, "key1");
+            localDB.close();
+
+            // a second process, such as the LocalDBInfo command, sees the stats of the first
+            final AppendLog_LocalDB readOnlyProvider = new AppendLog_LocalDB();
+            readOnlyProvider.init(tempDir, Collections.<String,String>emptyMap(), true);
+            final LocalDB readOnlyLocalDB = new LocalDBAdaptor(readOnlyProvider, null, 0, false);
+            final LocalDBOperationStats.SavedStats savedStats = LocalDBUtility.savedOperationStats(readOnlyLocalDB);
+            Assert.assertNotNull(savedStats.getCaptureTime());
+            final Map<LocalDBOperationStats.Operation, LocalDBOperationStats.OperationSummary> operations = savedStats.getOperations(LocalDB.DB.TOKENS);
+            Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.PUT).getCount());
+            Assert.assertEquals(1, operations.get(LocalDBOperationStats.Operation.GET).getCount());
+            Assert.assertTrue(savedStats.getOperations(LocalDB.DB.CACHE).isEmpty());
+            readOnlyLocalDB.close();
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    public void testWriteOperationsFromAnnotations() {
+        Assert.assertTrue(LocalDBOperationStats.Operation.PUT.isWriteOperation());
+        Assert.assertTrue(LocalDBOperationStats.Operation.PUT_ALL.isWriteOperation());
+        Assert.assertTrue(LocalDBOperationStats.Operation.REMOVE_ALL.isWriteOperation());
+        Assert.assertTrue(LocalDBOperationStats.Operation.TRUNCATE.isWriteOperation());
+        Assert.assertFalse(LocalDBOperationStats.Operation.GET.isWriteOperation());
+        Assert.assertFalse(LocalDBOperationStats.Operation.ITERATE.isWriteOperation());
+        Assert.assertFalse(LocalDBOperationStats.Operation.SIZE.isWriteOperation());
+    }
+
+    public void testPercentiles() {
+        final LocalDBOperationStats operationStats = new LocalDBOperationStats(0);
+        for (int i = 0; i < 98; i++) {
+            operationStats.recordDuration(LocalDB.DB.TEMP, LocalDBOperationStats.Operation.GET, 100 * 1000, 1);
+        }
+        operationStats.recordDuration(LocalDB.DB.TEMP, LocalDBOperationStats.Operation.GET, 5 * 1000 * 1000, 1);
+        operationStats.recordDuration(LocalDB.DB.TEMP, LocalDBOperationStats.Operation.GET, 50 * 1000 * 1000, 1);
+
+        final LocalDBOperationStats.OperationSummary summary = operationStats.summarize(LocalDB.DB.TEMP).get(LocalDBOperationStats.Operation.GET);
+        Assert.assertEquals(100, summary.getCount());
+        Assert.assertEquals(128, summary.getP50Micros());
+        Assert.assertEquals(8192, summary.getP99Micros());
+        Assert.assertEquals(50 * 1000, summary.getMaxMicros());
+        Assert.assertEquals((98 * 100 + 5000 + 50 * 1000) / 100, summary.getAverageMicros());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class LocalDBReadCacheTest extends TestCase {
+
+    private LocalDBReadCache readCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Memory_LocalDB provider = new Memory_LocalDB();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        readCache = new LocalDBReadCache(new LocalDBAdaptor(provider, null), LocalDBReadCache.parseCacheSizes("TOKENS:2"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        readCache.close();
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        readCache.put(LocalDB.DB.TOKENS, "key1", "value1");
+        Assert.assertEquals("value1", readCache.get(LocalDB.DB.TOKENS, "key1"));
+        Assert.assertEquals("value1", readCache.get(LocalDB.DB.TOKENS, "key1"));
+        Assert.assertNull(readCache.get(LocalDB.DB.TOKENS, "missing"));
+        Assert.assertNull(readCache.get(LocalDB.DB.TOKENS, "missing"));
+        Assert.assertFalse(readCache.contains(LocalDB.DB.TOKENS, "missing"));
+
+        final Map<LocalDBReadCache.CacheStat, Long> stats = readCache.cacheStats(LocalDB.DB.TOKENS);
+        Assert.assertEquals(3L, (long)stats.get(LocalDBReadCache.CacheStat.HITS));
+        Assert.assertEquals(2L, (long)stats.get(LocalDBReadCache.CacheStat.MISSES));
+        Assert.assertNull(readCache.cacheStats(LocalDB.DB.TEMP));
+    }
+
+    public void testWritesInvalidate() throws Exception {
+        readCache.put(LocalDB.DB.TOKENS, "key1", "value1");
+        Assert.assertEquals("value1", readCache.get(LocalDB.DB.TOKENS, "key1"));
+        readCache.put(LocalDB.DB.TOKENS, "key1", "value2");
+        Assert.assertEquals("value2", readCache.get(LocalDB.DB.TOKENS, "key1"));
+        readCache.remove(LocalDB.DB.TOKENS, "key1");
+        Assert.assertNull(readCache.get(LocalDB.DB.TOKENS, "key1"));
+        readCache.putAll(LocalDB.DB.TOKENS, Collections.singletonMap("key1", "value3"));
+        Assert.assertEquals("value3", readCache.get(LocalDB.DB.TOKENS, "key1"));
+        readCache.truncate(LocalDB.DB.TOKENS);
+        Assert.assertNull(readCache.get(LocalDB.DB.TOKENS, "key1"));
+    }
+
+    public void testEviction() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            readCache.put(LocalDB.DB.TOKENS, "key" + i, "value" + i);
+            readCache.get(LocalDB.DB.TOKENS, "key" + i);
+        }
+        final Map<LocalDBReadCache.CacheStat, Long> stats = readCache.cacheStats(LocalDB.DB.TOKENS);
+        Assert.assertEquals(3L, (long)stats.get(LocalDBReadCache.CacheStat.EVICTIONS));
+        Assert.assertEquals(2L, (long)stats.get(LocalDBReadCache.CacheStat.ENTRIES));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+public class LocalDBSnapshotTest extends TestCase {
+
+    public void testSnapshotIgnoresLaterWrites() throws Exception {
+        final LocalDBAdaptor localDB = openAdaptor();
+        final Map<String, String> original = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            original.put("key" + (i < 10 ? "0" : "") + i, "value" + i);
+        }
+        localDB.putAll(LocalDB.DB.TEMP, original);
+
+        final LocalDBSnapshot snapshot = localDB.openSnapshot(EnumSet.of(LocalDB.DB.TEMP));
+        final Map<String, String> snapshotEntries = new HashMap<>();
+        final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = snapshot.entryIterator(LocalDB.DB.TEMP);
+        try {
+            for (int i = 0; i < 50; i++) {
+                final Map.Entry<String, String> entry = iterator.next();
+                snapshotEntries.put(entry.getKey(), entry.getValue());
+            }
+
+            localDB.put(LocalDB.DB.TEMP, "key10", "changed");          // already iterated
+            localDB.put(LocalDB.DB.TEMP, "key80", "changed");          // not yet iterated
+            localDB.remove(LocalDB.DB.TEMP, "key90");
+            localDB.removeAll(LocalDB.DB.TEMP, Arrays.asList("key91", "key92"));
+            localDB.put(LocalDB.DB.TEMP, "key95a", "inserted");
+            localDB.put(LocalDB.DB.TEMP, "key00a", "inserted");
+
+            while (iterator.hasNext()) {
+                final Map.Entry<String, String> entry = iterator.next();
+                Assert.assertNull("duplicate key " + entry.getKey(), snapshotEntries.put(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            iterator.close();
+            snapshot.close();
+        }
+        Assert.assertEquals(original, snapshotEntries);
+
+        localDB.put(LocalDB.DB.TEMP, "key99", "changed");
+        Assert.assertEquals("changed", localDB.get(LocalDB.DB.TEMP, "key80"));
+        Assert.assertEquals("changed", localDB.get(LocalDB.DB.TEMP, "key99"));
+        Assert.assertNull(localDB.get(LocalDB.DB.TEMP, "key90"));
+        localDB.openSnapshot(EnumSet.of(LocalDB.DB.TEMP)).close();
+        localDB.close();
+    }
+
+    public void testSnapshotTruncate() throws Exception {
+        final LocalDBAdaptor localDB = openAdaptor();
+        localDB.put(LocalDB.DB.TEMP, "key1", "value1");
+        localDB.put(LocalDB.DB.TEMP, "key2", "value2");
+
+        final LocalDBSnapshot snapshot = localDB.openSnapshot(EnumSet.of(LocalDB.DB.TEMP));
+        try {
+            localDB.truncate(LocalDB.DB.TEMP);
+            localDB.put(LocalDB.DB.TEMP, "key3", "value3");
+            final Map<String, String> snapshotEntries = new HashMap<>();
+            final LocalDB.LocalDBIterator<Map.Entry<String, String>> iterator = snapshot.entryIterator(LocalDB.DB.TEMP);
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, String> entry = iterator.next();
+                    snapshotEntries.put(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                iterator.close();
+            }
+            final Map<String, String> expected = new HashMap<>();
+            expected.put("key1", "value1");
+            expected.put("key2", "value2");
+            Assert.assertEquals(expected, snapshotEntries);
+        } finally {
+            snapshot.close();
+        }
+        localDB.close();
+    }
+
+    public void testExportImportArchive() throws Exception {
+        final LocalDBAdaptor sourceAdaptor = openAdaptor();
+        final LocalDBExpiration sourceDB = new LocalDBExpiration(new LocalDBCompressor(sourceAdaptor, 10, true), 0, null);
+        final Date expiration = new Date(System.currentTimeMillis() + 60 * 60 * 1000);
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 2500; i++) {
+            values.put("key" + i, "{\"value\":" + i + ",\"text\":\"été, repeated text, repeated text\"}");
+        }
+        sourceDB.putAll(LocalDB.DB.RESPONSE_STORAGE, values);
+        sourceDB.put(LocalDB.DB.TOKENS, "token1", "tokenValue", expiration);
+        sourceDB.put(LocalDB.DB.WORDLIST_WORDS, "ignored", "ignored");
+
+        final ByteArrayOutputStream exportBytes = new ByteArrayOutputStream();
+        new LocalDBUtility(sourceDB).exportSnapshot(exportBytes, null);
+        sourceDB.close();
+
+        final LocalDBAdaptor targetAdaptor = openAdaptor();
+        final LocalDBExpiration targetDB = new LocalDBExpiration(new LocalDBCompressor(targetAdaptor, 10, false), 0, null);
+        targetDB.put(LocalDB.DB.RESPONSE_STORAGE, "stale", "stale");
+        new LocalDBUtility(targetDB).importLocalDB(new ByteArrayInputStream(exportBytes.toByteArray()), null);
+
+        Assert.assertEquals(2500, targetDB.size(LocalDB.DB.RESPONSE_STORAGE));
+        Assert.assertEquals(values, targetDB.getAll(LocalDB.DB.RESPONSE_STORAGE, values.keySet()));
+        Assert.assertNull(targetDB.get(LocalDB.DB.RESPONSE_STORAGE, "stale"));
+        Assert.assertEquals(0, targetDB.size(LocalDB.DB.WORDLIST_WORDS));
+        Assert.assertEquals("tokenValue", targetDB.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertEquals(1, targetDB.size(LocalDB.DB.EXPIRATION_INDEX));
+        Assert.assertFalse(new LocalDBUtility(targetDB).readImportInprogressFlag());
+        targetDB.close();
+    }
+
+    public void testTruncatedArchiveIsRejected() throws Exception {
+        final LocalDBAdaptor sourceDB = openAdaptor();
+        for (int i = 0; i < 100; i++) {
+            sourceDB.put(LocalDB.DB.TEMP, "key" + i, "value" + i);
+        }
+        final ByteArrayOutputStream exportBytes = new ByteArrayOutputStream();
+        new LocalDBUtility(sourceDB).exportSnapshot(exportBytes, null);
+        sourceDB.close();
+
+        final byte[] truncatedBytes = Arrays.copyOf(exportBytes.toByteArray(), exportBytes.size() - 20);
+        final LocalDBAdaptor targetDB = openAdaptor();
+        try {
+            new LocalDBUtility(targetDB).importSnapshot(new ByteArrayInputStream(truncatedBytes), null);
+            Assert.fail("truncated archive was imported");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+        Assert.assertTrue(new LocalDBUtility(targetDB).readImportInprogressFlag());
+        targetDB.close();
+    }
+
+    private static LocalDBAdaptor openAdaptor() throws LocalDBException {
+        final Memory_LocalDB provider = new Memory_LocalDB();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        return new LocalDBAdaptor(provider, null);
+    }
+}
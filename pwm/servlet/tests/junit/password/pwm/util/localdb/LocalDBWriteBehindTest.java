@@ -0,0 +1,189 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+
+import java.util.*;
+
+public class LocalDBWriteBehindTest extends TestCase {
+
+    private TestProvider provider;
+    private LocalDBWriteBehind writeBehind;
+
+    @Override
+    protected void setUp() throws Exception {
+        provider = new TestProvider();
+        provider.init(null, Collections.<String,String>emptyMap(), false);
+        writeBehind = new LocalDBWriteBehind(
+                new LocalDBAdaptor(provider, null),
+                LocalDBWriteBehind.parseDurabilities("CACHE,TEMP"),
+                60 * 1000,
+                1000,
+                "LocalDBWriteBehindTest"
+        );
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.failingDB = null;
+        writeBehind.close();
+    }
+
+    public void testSyncWriteWaitsForCommit() throws Exception {
+        provider.commitDelayMs = 200;
+        final long startTime = System.currentTimeMillis();
+        Assert.assertFalse(writeBehind.put(LocalDB.DB.TOKENS, "key1", "value1"));
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 200);
+        Assert.assertEquals("value1", provider.get(LocalDB.DB.TOKENS, "key1"));
+
+        writeBehind.remove(LocalDB.DB.TOKENS, "key1");
+        Assert.assertNull(provider.get(LocalDB.DB.TOKENS, "key1"));
+    }
+
+    public void testAsyncWritesAreReadFromOverlay() throws Exception {
+        provider.put(LocalDB.DB.CACHE, "existing", "value");
+        writeBehind.put(LocalDB.DB.CACHE, "key1", "value1");
+        writeBehind.remove(LocalDB.DB.CACHE, "existing");
+
+        // nothing has been committed yet, the flush interval is a minute
+        Assert.assertNull(provider.get(LocalDB.DB.CACHE, "key1"));
+        Assert.assertEquals("value", provider.get(LocalDB.DB.CACHE, "existing"));
+
+        Assert.assertEquals("value1", writeBehind.get(LocalDB.DB.CACHE, "key1"));
+        Assert.assertTrue(writeBehind.contains(LocalDB.DB.CACHE, "key1"));
+        Assert.assertNull(writeBehind.get(LocalDB.DB.CACHE, "existing"));
+        Assert.assertFalse(writeBehind.contains(LocalDB.DB.CACHE, "existing"));
+        final Map<String,String> values = writeBehind.getAll(LocalDB.DB.CACHE, Arrays.asList("key1", "existing"));
+        Assert.assertEquals(Collections.singletonMap("key1", "value1"), values);
+
+        // size commits the db before counting
+        Assert.assertEquals(1, writeBehind.size(LocalDB.DB.CACHE));
+        Assert.assertEquals("value1", provider.get(LocalDB.DB.CACHE, "key1"));
+        Assert.assertNull(provider.get(LocalDB.DB.CACHE, "existing"));
+    }
+
+    public void testCloseCommitsPendingWrites() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            writeBehind.put(LocalDB.DB.TEMP, "key" + i, "value" + i);
+        }
+        Assert.assertEquals(0, provider.size(LocalDB.DB.TEMP));
+        writeBehind.close();
+        Assert.assertTrue(provider.closed);
+        Assert.assertEquals(100, provider.size(LocalDB.DB.TEMP));
+    }
+
+    public void testFailedCommits() throws Exception {
+        // a failing async db does not fail sync writers of other dbs
+        provider.failingDB = LocalDB.DB.CACHE;
+        writeBehind.put(LocalDB.DB.CACHE, "cached", "value");
+        writeBehind.put(LocalDB.DB.TOKENS, "token1", "value1");
+        Assert.assertEquals("value1", provider.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertNull(provider.get(LocalDB.DB.CACHE, "cached"));
+        Assert.assertEquals("value", writeBehind.get(LocalDB.DB.CACHE, "cached"));
+
+        // a failed sync write is reported and taken back out of the overlay
+        provider.failingDB = LocalDB.DB.TOKENS;
+        try {
+            writeBehind.put(LocalDB.DB.TOKENS, "token1", "value2");
+            Assert.fail("expected the write to fail");
+        } catch (LocalDBException e) {
+            Assert.assertEquals(PwmError.ERROR_LOCALDB_UNAVAILABLE, e.getError());
+        }
+        Assert.assertEquals("value1", writeBehind.get(LocalDB.DB.TOKENS, "token1"));
+
+        // once the inner LocalDB recovers the async write is committed, the failed sync write is not retried
+        provider.failingDB = null;
+        writeBehind.flush();
+        Assert.assertEquals("value", provider.get(LocalDB.DB.CACHE, "cached"));
+        Assert.assertEquals("value1", provider.get(LocalDB.DB.TOKENS, "token1"));
+    }
+
+    public void testExpirationIndexFollowsIndexedDB() throws Exception {
+        final LocalDBExpiration expiration = new LocalDBExpiration(writeBehind, 0, null);
+        final Date expirationDate = new Date(System.currentTimeMillis() + 60 * 1000);
+
+        expiration.put(LocalDB.DB.CACHE, "cached", "value", expirationDate);
+        Assert.assertEquals(0, provider.size(LocalDB.DB.EXPIRATION_INDEX));
+        Assert.assertEquals("value", expiration.get(LocalDB.DB.CACHE, "cached"));
+
+        expiration.put(LocalDB.DB.TOKENS, "token1", "value", expirationDate);
+        Assert.assertTrue(provider.size(LocalDB.DB.EXPIRATION_INDEX) >= 1);
+        Assert.assertNotNull(provider.get(LocalDB.DB.TOKENS, "token1"));
+    }
+
+    private static class TestProvider extends Memory_LocalDB {
+        private volatile LocalDB.DB failingDB;
+        private volatile long commitDelayMs;
+        private volatile boolean closed;
+
+        @Override
+        public void putAll(final LocalDB.DB db, final Map<String, String> keyValueMap) throws LocalDBException {
+            beforeWrite(db);
+            super.putAll(db, keyValueMap);
+        }
+
+        @Override
+        public boolean put(final LocalDB.DB db, final String key, final String value) throws LocalDBException {
+            beforeWrite(db);
+            return super.put(db, key, value);
+        }
+
+        @Override
+        public boolean remove(final LocalDB.DB db, final String key) throws LocalDBException {
+            beforeWrite(db);
+            return super.remove(db, key);
+        }
+
+        @Override
+        public void removeAll(final LocalDB.DB db, final Collection<String> keys) throws LocalDBException {
+            beforeWrite(db);
+            super.removeAll(db, keys);
+        }
+
+        /**
+         * Leaves the records readable so tests can check what was committed.
+         */
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void beforeWrite(final LocalDB.DB db) throws LocalDBException {
+            if (db == failingDB) {
+                throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "test failure writing " + db));
+            }
+            if (commitDelayMs > 0) {
+                try {
+                    Thread.sleep(commitDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
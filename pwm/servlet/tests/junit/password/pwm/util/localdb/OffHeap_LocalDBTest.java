@@ -0,0 +1,170 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class OffHeap_LocalDBTest extends TestCase {
+
+    private OffHeap_LocalDB localDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        localDB = open(Collections.<String,String>emptyMap());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localDB.close();
+    }
+
+    public void testReadWrite() throws Exception {
+        Assert.assertFalse(localDB.put(LocalDB.DB.TEMP, "key1", "value1"));
+        Assert.assertTrue(localDB.put(LocalDB.DB.TEMP, "key1", "value1b"));
+        localDB.put(LocalDB.DB.TEMP, "key2", "");
+        localDB.put(LocalDB.DB.TOKENS, "été", "値");
+
+        Assert.assertEquals("value1b", localDB.get(LocalDB.DB.TEMP, "key1"));
+        Assert.assertEquals("", localDB.get(LocalDB.DB.TEMP, "key2"));
+        Assert.assertEquals("値", localDB.get(LocalDB.DB.TOKENS, "été"));
+        Assert.assertNull(localDB.get(LocalDB.DB.TOKENS, "key1"));
+        Assert.assertTrue(localDB.contains(LocalDB.DB.TEMP, "key2"));
+        Assert.assertEquals(2, localDB.size(LocalDB.DB.TEMP));
+
+        Assert.assertTrue(localDB.remove(LocalDB.DB.TEMP, "key1"));
+        Assert.assertFalse(localDB.remove(LocalDB.DB.TEMP, "key1"));
+        Assert.assertFalse(localDB.contains(LocalDB.DB.TEMP, "key1"));
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.TEMP));
+
+        localDB.truncate(LocalDB.DB.TEMP);
+        Assert.assertEquals(0, localDB.size(LocalDB.DB.TEMP));
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.TOKENS));
+    }
+
+    public void testIndexGrowthAndRemovals() throws Exception {
+        final Map<String,String> values = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            values.put("word" + i, "value" + i);
+        }
+        localDB.putAll(LocalDB.DB.WORDLIST_WORDS, values);
+        Assert.assertEquals(20000, localDB.size(LocalDB.DB.WORDLIST_WORDS));
+
+        final List<String> removedKeys = new ArrayList<>();
+        for (int i = 0; i < 20000; i += 2) {
+            removedKeys.add("word" + i);
+        }
+        localDB.removeAll(LocalDB.DB.WORDLIST_WORDS, removedKeys);
+        // new keys reuse the slots of removed keys
+        for (int i = 20000; i < 25000; i++) {
+            localDB.put(LocalDB.DB.WORDLIST_WORDS, "word" + i, "value" + i);
+        }
+
+        Assert.assertEquals(15000, localDB.size(LocalDB.DB.WORDLIST_WORDS));
+        for (int i = 0; i < 25000; i++) {
+            final String expected = i < 20000 && i % 2 == 0 ? null : "value" + i;
+            Assert.assertEquals(expected, localDB.get(LocalDB.DB.WORDLIST_WORDS, "word" + i));
+        }
+    }
+
+    public void testCompaction() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 100; i++) {
+                localDB.put(LocalDB.DB.TOKENS, "token" + i, "value" + i + "-" + round + "-0123456789012345678901234567890123456789");
+            }
+        }
+        Assert.assertEquals(100, localDB.size(LocalDB.DB.TOKENS));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("value" + i + "-199-0123456789012345678901234567890123456789", localDB.get(LocalDB.DB.TOKENS, "token" + i));
+        }
+        // about 1mb has been written, but only the live records and the current slab are kept.
+        Assert.assertTrue(localDB.allocatedBytes() <= 256 * 1024);
+
+        localDB.truncate(LocalDB.DB.TOKENS);
+        Assert.assertEquals(0, localDB.allocatedBytes());
+    }
+
+    public void testIterators() throws Exception {
+        for (int i = 99; i >= 0; i--) {
+            localDB.put(LocalDB.DB.TEMP, String.format("key%03d", i), "value" + i);
+        }
+
+        final LocalDB.LocalDBIterator<Map.Entry<String,String>> entryIterator = localDB.entryIterator(LocalDB.DB.TEMP, "key010", "key020");
+        final List<String> keys = new ArrayList<>();
+        while (entryIterator.hasNext()) {
+            final Map.Entry<String,String> entry = entryIterator.next();
+            Assert.assertEquals("value" + Integer.parseInt(entry.getKey().substring(3)), entry.getValue());
+            keys.add(entry.getKey());
+        }
+        entryIterator.close();
+        Assert.assertEquals(10, keys.size());
+        Assert.assertEquals("key010", keys.get(0));
+        Assert.assertEquals("key019", keys.get(9));
+
+        final LocalDB.LocalDBIterator<String> iterator = localDB.iterator(LocalDB.DB.TEMP);
+        int count = 0;
+        while (iterator.hasNext()) {
+            final String key = iterator.next();
+            if (key.startsWith("key")) {
+                if (key.endsWith("0")) {
+                    iterator.remove();
+                }
+                // writes during iteration may resize the index without disturbing the iterator
+                localDB.put(LocalDB.DB.TEMP, "new" + key, "value");
+                count++;
+            }
+        }
+        iterator.close();
+        Assert.assertEquals(100, count);
+        Assert.assertEquals(190, localDB.size(LocalDB.DB.TEMP));
+    }
+
+    public void testMaxBytes() throws Exception {
+        final OffHeap_LocalDB limitedDB = open(Collections.singletonMap("offheap.maxBytes", String.valueOf(128 * 1024)));
+        try {
+            final char[] chars = new char[1000];
+            Arrays.fill(chars, 'x');
+            final String value = new String(chars);
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    limitedDB.put(LocalDB.DB.TEMP, "key" + i, value);
+                }
+                Assert.fail("expected the limit to be reached");
+            } catch (LocalDBException e) {
+                Assert.assertTrue(limitedDB.size(LocalDB.DB.TEMP) > 0);
+                Assert.assertTrue(limitedDB.allocatedBytes() <= 128 * 1024);
+            }
+        } finally {
+            limitedDB.close();
+        }
+    }
+
+    private static OffHeap_LocalDB open(final Map<String,String> initParameters) throws LocalDBException {
+        final OffHeap_LocalDB localDB = new OffHeap_LocalDB();
+        localDB.init(null, initParameters, false);
+        return localDB;
+    }
+}
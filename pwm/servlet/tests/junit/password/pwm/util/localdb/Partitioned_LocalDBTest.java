@@ -0,0 +1,246 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.util.localdb;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.error.ErrorInformation;
+import password.pwm.error.PwmError;
+
+import java.io.File;
+import java.util.*;
+
+public class Partitioned_LocalDBTest extends TestCase {
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-partitioned", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testParsePartitions() {
+        final Map<LocalDB.DB, String> partitions = Partitioned_LocalDB.parsePartitions(
+                "fast=TOKENS, INTRUDER; words=WORDLIST_WORDS,BOGUS;bad.name=TEMP;;noDBs");
+        Assert.assertEquals(3, partitions.size());
+        Assert.assertEquals("fast", partitions.get(LocalDB.DB.TOKENS));
+        Assert.assertEquals("fast", partitions.get(LocalDB.DB.INTRUDER));
+        Assert.assertEquals("words", partitions.get(LocalDB.DB.WORDLIST_WORDS));
+        Assert.assertTrue(Partitioned_LocalDB.parsePartitions("").isEmpty());
+    }
+
+    public void testRouting() throws Exception {
+        final File wordsDir = new File(tempDir, "otherDisk");
+        final Map<String, String> initParameters = new HashMap<>();
+        initParameters.put("words.path", wordsDir.getAbsolutePath());
+
+        final Partitioned_LocalDB localDB = open(initParameters);
+        localDB.put(LocalDB.DB.TOKENS, "token1", "value1");
+        localDB.put(LocalDB.DB.WORDLIST_WORDS, "word1", "value2");
+        localDB.put(LocalDB.DB.TEMP, "temp1", "value3");
+        Assert.assertEquals("value1", localDB.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertEquals(Collections.singletonMap("word1", "value2"),
+                localDB.getAll(LocalDB.DB.WORDLIST_WORDS, Arrays.asList("word1", "word2")));
+        Assert.assertEquals(wordsDir, localDB.getPartitionFileLocations().get("words"));
+        localDB.close();
+
+        final AppendLog_LocalDB fastPartition = openProvider(new File(tempDir, "fast"));
+        Assert.assertEquals("value1", fastPartition.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertEquals(0, fastPartition.size(LocalDB.DB.TEMP));
+        fastPartition.close();
+
+        final AppendLog_LocalDB wordsPartition = openProvider(wordsDir);
+        Assert.assertEquals("value2", wordsPartition.get(LocalDB.DB.WORDLIST_WORDS, "word1"));
+        wordsPartition.close();
+
+        final AppendLog_LocalDB defaultProvider = openProvider(tempDir);
+        Assert.assertEquals("value3", defaultProvider.get(LocalDB.DB.TEMP, "temp1"));
+        Assert.assertEquals(0, defaultProvider.size(LocalDB.DB.TOKENS));
+        defaultProvider.close();
+    }
+
+    public void testMigrationToPartition() throws Exception {
+        final AppendLog_LocalDB unpartitioned = openProvider(tempDir);
+        final Map<String, String> tokens = new HashMap<>();
+        for (int i = 0; i < 2500; i++) {
+            tokens.put("token" + i, "value" + i);
+        }
+        unpartitioned.putAll(LocalDB.DB.TOKENS, tokens);
+        unpartitioned.close();
+
+        final Partitioned_LocalDB localDB = open(Collections.<String, String>emptyMap());
+        Assert.assertEquals(2500, localDB.size(LocalDB.DB.TOKENS));
+        Assert.assertEquals("value42", localDB.get(LocalDB.DB.TOKENS, "token42"));
+        localDB.close();
+
+        final AppendLog_LocalDB defaultProvider = openProvider(tempDir);
+        Assert.assertEquals(0, defaultProvider.size(LocalDB.DB.TOKENS));
+        defaultProvider.close();
+    }
+
+    public void testMigrationFromPartition() throws Exception {
+        final Partitioned_LocalDB localDB = open(Collections.<String, String>emptyMap());
+        localDB.put(LocalDB.DB.TOKENS, "token1", "value1");
+        localDB.put(LocalDB.DB.INTRUDER, "intruder1", "value2");
+        localDB.put(LocalDB.DB.WORDLIST_WORDS, "word1", "value3");
+        localDB.close();
+
+        // TOKENS is no longer assigned to a partition
+        final Partitioned_LocalDB withoutTokens = open("fast=INTRUDER;words=WORDLIST_WORDS", false);
+        Assert.assertEquals("value1", withoutTokens.get(LocalDB.DB.TOKENS, "token1"));
+        withoutTokens.close();
+
+        // the fast partition is removed altogether
+        final Partitioned_LocalDB withoutFast = open("words=WORDLIST_WORDS", false);
+        Assert.assertEquals("value1", withoutFast.get(LocalDB.DB.TOKENS, "token1"));
+        Assert.assertEquals("value2", withoutFast.get(LocalDB.DB.INTRUDER, "intruder1"));
+        Assert.assertEquals("value3", withoutFast.get(LocalDB.DB.WORDLIST_WORDS, "word1"));
+        withoutFast.close();
+
+        final AppendLog_LocalDB fastPartition = openProvider(new File(tempDir, "fast"));
+        Assert.assertEquals(0, fastPartition.size(LocalDB.DB.INTRUDER));
+        fastPartition.close();
+
+        // no partitions left, the manifest is removed once the records are back
+        final Partitioned_LocalDB unpartitioned = open("", false);
+        Assert.assertEquals("value3", unpartitioned.get(LocalDB.DB.WORDLIST_WORDS, "word1"));
+        unpartitioned.close();
+        Assert.assertFalse(Partitioned_LocalDB.hasPartitionManifest(tempDir));
+
+        final AppendLog_LocalDB defaultProvider = openProvider(tempDir);
+        Assert.assertEquals(1, defaultProvider.size(LocalDB.DB.TOKENS));
+        Assert.assertEquals(1, defaultProvider.size(LocalDB.DB.INTRUDER));
+        Assert.assertEquals(1, defaultProvider.size(LocalDB.DB.WORDLIST_WORDS));
+        defaultProvider.close();
+    }
+
+    public void testReadOnlyRefusesRemovedPartitionWithRecords() throws Exception {
+        final Partitioned_LocalDB localDB = open(Collections.<String, String>emptyMap());
+        localDB.put(LocalDB.DB.TOKENS, "token1", "value1");
+        localDB.close();
+
+        try {
+            open("words=WORDLIST_WORDS", true);
+            Assert.fail("expected read-only open to fail");
+        } catch (LocalDBException e) {
+            Assert.assertTrue(e.getMessage().contains("TOKENS"));
+        }
+
+        // nothing was moved, a writable open still finds the records
+        final Partitioned_LocalDB writable = open("words=WORDLIST_WORDS", false);
+        Assert.assertEquals("value1", writable.get(LocalDB.DB.TOKENS, "token1"));
+        writable.close();
+    }
+
+    public void testReadOnlyRefusesRecordsAwaitingPartition() throws Exception {
+        final Partitioned_LocalDB localDB = open(Collections.<String, String>emptyMap());
+        localDB.put(LocalDB.DB.TOKENS, "token1", "value1");
+        localDB.close();
+
+        // the partition has never been opened writable, so its directory is not created by a read-only open
+        final File partitionDirectory = new File(tempDir, "tokens");
+        try {
+            open("tokens=TOKENS", true);
+            Assert.fail("expected read-only open to fail");
+        } catch (LocalDBException e) {
+            Assert.assertTrue(e.getMessage().contains("tokens"));
+        }
+        Assert.assertFalse(partitionDirectory.exists());
+
+        // with the partition present the records still in the default store would be hidden by reads
+        final AppendLog_LocalDB partitionProvider = openProvider(partitionDirectory);
+        partitionProvider.close();
+        try {
+            open("tokens=TOKENS", true);
+            Assert.fail("expected read-only open to fail");
+        } catch (LocalDBException e) {
+            Assert.assertTrue(e.getMessage().contains("TOKENS"));
+        }
+
+        open("tokens=TOKENS", false).close();
+        final Partitioned_LocalDB readOnly = open("tokens=TOKENS", true);
+        Assert.assertEquals("value1", readOnly.get(LocalDB.DB.TOKENS, "token1"));
+        readOnly.close();
+    }
+
+    public void testFailedInitClosesOpenedProviders() throws Exception {
+        final AppendLog_LocalDB defaultProvider = new AppendLog_LocalDB();
+        final AppendLog_LocalDB fastProvider = new AppendLog_LocalDB();
+        final Map<String, LocalDBProvider> partitionProviders = new LinkedHashMap<>();
+        partitionProviders.put("fast", fastProvider);
+        partitionProviders.put("words", new AppendLog_LocalDB() {
+            @Override
+            public void init(final File dbDirectory, final Map<String, String> initParameters, final boolean readOnly)
+                    throws LocalDBException
+            {
+                throw new LocalDBException(new ErrorInformation(PwmError.ERROR_LOCALDB_UNAVAILABLE, "partition unavailable"));
+            }
+        });
+        final Partitioned_LocalDB localDB = new Partitioned_LocalDB(defaultProvider, partitionProviders,
+                Partitioned_LocalDB.parsePartitions("fast=TOKENS;words=WORDLIST_WORDS"));
+        try {
+            localDB.init(tempDir, Collections.<String, String>emptyMap(), false);
+            Assert.fail("expected init to fail");
+        } catch (LocalDBException e) {
+            // expected
+        }
+        Assert.assertEquals(LocalDB.Status.CLOSED, defaultProvider.getStatus());
+        Assert.assertEquals(LocalDB.Status.CLOSED, fastProvider.getStatus());
+    }
+
+    private Partitioned_LocalDB open(final Map<String, String> initParameters) throws LocalDBException {
+        return open("fast=TOKENS,INTRUDER;words=WORDLIST_WORDS", initParameters, false);
+    }
+
+    private Partitioned_LocalDB open(final String partitions, final boolean readOnly) throws LocalDBException {
+        return open(partitions, Collections.<String, String>emptyMap(), readOnly);
+    }
+
+    private Partitioned_LocalDB open(final String partitions, final Map<String, String> initParameters, final boolean readOnly)
+            throws LocalDBException
+    {
+        final Map<LocalDB.DB, String> dbPartitions = Partitioned_LocalDB.parsePartitions(partitions);
+        final Map<String, LocalDBProvider> partitionProviders = new LinkedHashMap<>();
+        for (final String partitionName : dbPartitions.values()) {
+            partitionProviders.put(partitionName, new AppendLog_LocalDB());
+        }
+        final Partitioned_LocalDB localDB = new Partitioned_LocalDB(new AppendLog_LocalDB(), partitionProviders, dbPartitions);
+        localDB.init(tempDir, initParameters, readOnly);
+        return localDB;
+    }
+
+    private static AppendLog_LocalDB openProvider(final File directory) throws LocalDBException {
+        final AppendLog_LocalDB localDB = new AppendLog_LocalDB();
+        localDB.init(directory, Collections.<String, String>emptyMap(), false);
+        return localDB;
+    }
+}
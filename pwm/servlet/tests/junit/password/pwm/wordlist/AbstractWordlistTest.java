@@ -0,0 +1,148 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class AbstractWordlistTest extends TestCase {
+
+    private static final String BOGUS_HASH = "0123456789abcdef";
+
+    private File tempDir;
+    private File zipFile;
+    private LocalDB localDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-wordlist", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        zipFile = new File(tempDir, "wordlist.zip");
+        localDB = LocalDBFactory.getInstance(new File(tempDir, "localdb"), false, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localDB.close();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testUnchangedFileUsesStoredHash() throws Exception {
+        writeStoredZip("alpha\nbeta\n");
+        storeBogusHash();
+        Assert.assertTrue(checksum().startsWith("hash=" + BOGUS_HASH + ","));
+    }
+
+    public void testModificationTimeChangeRehashes() throws Exception {
+        writeStoredZip("alpha\nbeta\n");
+        storeBogusHash();
+        Assert.assertTrue(zipFile.setLastModified(zipFile.lastModified() - 60 * 1000));
+        assertRehashed();
+    }
+
+    public void testSizeChangeRehashes() throws Exception {
+        writeStoredZip("alpha\nbeta\n");
+        final long lastModified = zipFile.lastModified();
+        storeBogusHash();
+
+        // same entries and modification time, only the archive comment makes the file longer
+        writeStoredZip("alpha\nbeta\n", "comment");
+        Assert.assertTrue(zipFile.setLastModified(lastModified));
+        assertRehashed();
+    }
+
+    public void testCentralDirectoryChangeRehashes() throws Exception {
+        writeStoredZip("alpha\nbeta\n");
+        final long length = zipFile.length();
+        final long lastModified = zipFile.lastModified();
+        storeBogusHash();
+
+        // same size and modification time, only the entry crc differs
+        writeStoredZip("alpha\nbetb\n");
+        Assert.assertTrue(zipFile.setLastModified(lastModified));
+        Assert.assertEquals(length, zipFile.length());
+        assertRehashed();
+    }
+
+    /**
+     * Hash the file once, then replace the stored hash so it is detectable whether a later call trusted it.
+     */
+    private void storeBogusHash() throws Exception {
+        final String checksum = checksum();
+        Assert.assertFalse(checksum.contains(BOGUS_HASH));
+        final String storedValue = localDB.get(LocalDB.DB.WORDLIST_META, AbstractWordlist.KEY_FILE_HASHES);
+        final String realHash = checksum.substring("hash=".length(), checksum.indexOf(','));
+        Assert.assertTrue(storedValue.contains(realHash));
+        localDB.put(LocalDB.DB.WORDLIST_META, AbstractWordlist.KEY_FILE_HASHES, storedValue.replace(realHash, BOGUS_HASH));
+    }
+
+    private void assertRehashed() throws Exception {
+        final String checksum = checksum();
+        Assert.assertFalse(checksum.contains(BOGUS_HASH));
+        Assert.assertFalse(localDB.get(LocalDB.DB.WORDLIST_META, AbstractWordlist.KEY_FILE_HASHES).contains(BOGUS_HASH));
+    }
+
+    private String checksum() throws Exception {
+        return new TestWordlist(localDB, zipFile, 1).makeChecksumString(zipFile);
+    }
+
+    private void writeStoredZip(final String content) throws Exception {
+        writeStoredZip(content, null);
+    }
+
+    private void writeStoredZip(final String content, final String comment) throws Exception {
+        final byte[] bytes = content.getBytes("UTF-8");
+        final CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+
+        final ZipEntry zipEntry = new ZipEntry("a.txt");
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(bytes.length);
+        zipEntry.setCompressedSize(bytes.length);
+        zipEntry.setCrc(crc32.getValue());
+        zipEntry.setTime(0);
+
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(bytes);
+            zipOutputStream.closeEntry();
+            if (comment != null) {
+                zipOutputStream.setComment(comment);
+            }
+        } finally {
+            zipOutputStream.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class AhoCorasickMatcherTest extends TestCase {
+
+    public void testMatchesChunkSemantics() {
+        final Random random = new Random(42);
+        final List<String> words = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            words.add(randomWord(random, 1 + random.nextInt(10)));
+        }
+
+        final WordlistManager wordlist = new WordlistManager();
+        for (final int checkSize : new int[]{0, 1, 3, 4, 6}) {
+            final AhoCorasickMatcher matcher = AhoCorasickMatcher.build(words, checkSize);
+
+            final Set<String> chunks = new HashSet<>();
+            for (final String word : words) {
+                chunks.addAll(wordlist.chunkWord(word, checkSize));
+            }
+
+            for (int i = 0; i < 5000; i++) {
+                final String candidate = randomWord(random, 1 + random.nextInt(16));
+                boolean expected = false;
+                for (final String chunk : wordlist.chunkWord(candidate, checkSize)) {
+                    expected = expected || chunks.contains(chunk);
+                }
+                Assert.assertEquals("checkSize=" + checkSize + " candidate=" + candidate, expected, matcher.matches(candidate));
+            }
+        }
+    }
+
+    public void testOverlappingPatterns() {
+        final AhoCorasickMatcher matcher = AhoCorasickMatcher.build(Arrays.asList("aab", "abc", "bcd"), 3);
+        Assert.assertTrue(matcher.matches("aaab"));
+        Assert.assertTrue(matcher.matches("xxabcx"));
+        Assert.assertTrue(matcher.matches("abbcd"));
+        Assert.assertFalse(matcher.matches("aaxbc"));
+        Assert.assertFalse(matcher.matches("ab"));
+    }
+
+    private static String randomWord(final Random random, final int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char)('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import password.pwm.util.Sleeper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class MappedWordlistIndexTest extends TestCase {
+
+    private static final String[] WORDS = {"password", "Letmein", "abc", "dragon", "monkey123", "x", "qwerty", "trustno1"};
+    private static final String[] CANDIDATES = {"password", "mypassword1", "pass", "abc", "ab", "abcd", "X", "xyz",
+            "letmeinnow", "dragonfly", "monkey", "key123", "qwe", "zzzzzzzz", "trustno", "1trustno1"};
+
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-wordlist", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : tempDir.listFiles()) {
+            file.delete();
+        }
+        tempDir.delete();
+    }
+
+    public void testMatchesChunkSemantics() throws Exception {
+        for (final int checkSize : new int[]{0, 3, 5}) {
+            final WordlistManager wordlist = makeWordlist(checkSize);
+            final MappedWordlistIndex index = buildIndex(wordlist, "test" + checkSize);
+            Assert.assertNotNull(index);
+
+            final Set<String> chunks = new HashSet<>();
+            for (final String word : WORDS) {
+                chunks.addAll(wordlist.chunkWord(wordlist.normalizeWord(word), checkSize));
+            }
+
+            for (final String candidate : CANDIDATES) {
+                final String testWord = wordlist.normalizeWord(candidate);
+                boolean expected = false;
+                for (final String chunk : wordlist.chunkWord(testWord, checkSize)) {
+                    expected = expected || chunks.contains(chunk);
+                }
+                Assert.assertEquals("checkSize=" + checkSize + " candidate=" + candidate, expected, index.containsWord(testWord, checkSize));
+            }
+        }
+    }
+
+    public void testIdentityMismatch() throws Exception {
+        final WordlistManager wordlist = makeWordlist(3);
+        Assert.assertNotNull(buildIndex(wordlist, "identity1"));
+        Assert.assertNull(MappedWordlistIndex.open(new File(tempDir, "words.index"), "identity2"));
+        Assert.assertNotNull(MappedWordlistIndex.open(new File(tempDir, "words.index"), "identity1"));
+    }
+
+    private WordlistManager makeWordlist(final int checkSize) throws Exception {
+        final File zipFile = new File(tempDir, "wordlist.zip");
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            zipOutputStream.putNextEntry(new ZipEntry("words.txt"));
+            for (final String word : WORDS) {
+                zipOutputStream.write((word + "\n").getBytes("UTF-8"));
+            }
+            zipOutputStream.closeEntry();
+        } finally {
+            zipOutputStream.close();
+        }
+
+        final WordlistManager wordlist = new WordlistManager();
+        wordlist.wordlistConfiguration = new WordlistConfiguration(zipFile, 0, false, checkSize);
+        return wordlist;
+    }
+
+    private MappedWordlistIndex buildIndex(final WordlistManager wordlist, final String identity) throws Exception {
+        final ZipReader zipReader = new ZipReader(wordlist.getWordlistFile());
+        final MappedWordlistIndex.Builder builder = new MappedWordlistIndex.Builder(
+                wordlist, zipReader, new Sleeper(0), new File(tempDir, "words.index"), identity);
+        return builder.build();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.util.Sleeper;
+import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class PopulatorTest extends TestCase {
+
+    private File tempDir;
+    private File zipFile;
+    private LocalDB localDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-populator", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        zipFile = new File(tempDir, "wordlist.zip");
+        localDB = LocalDBFactory.getInstance(new File(tempDir, "localdb"), false, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localDB.close();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testPipelineCompletes() throws Exception {
+        // several blocks per entry, with comments, blank lines and duplicates that are not stored
+        TestWordlist.writeZip(zipFile,
+                TestWordlist.lines("word", 2500) + "!#comment: ignored\n\n   \n",
+                TestWordlist.lines("WORD", 1200) + TestWordlist.lines("other", 1800));
+        final TestWordlist wordlist = new TestWordlist(localDB, zipFile, 3);
+
+        final Populator populator = new Populator(new ZipReader(ZipReader.readSegments(zipFile, "")), new Sleeper(0), wordlist);
+        populator.init();
+        populator.populate();
+
+        Assert.assertEquals(4300, localDB.size(LocalDB.DB.WORDLIST_WORDS));
+        Assert.assertTrue(localDB.contains(LocalDB.DB.WORDLIST_WORDS, "word2499"));
+        Assert.assertTrue(localDB.contains(LocalDB.DB.WORDLIST_WORDS, "other1799"));
+        Assert.assertEquals(AbstractWordlist.VALUE_STATUS.COMPLETE.toString(), localDB.get(LocalDB.DB.WORDLIST_META, Wordlist.KEY_STATUS));
+        Assert.assertEquals("4300", localDB.get(LocalDB.DB.WORDLIST_META, Wordlist.KEY_SIZE));
+    }
+
+    public void testWorkerErrorStopsPopulation() throws Exception {
+        TestWordlist.writeZip(zipFile, TestWordlist.lines("word", 5000));
+        final TestWordlist wordlist = new TestWordlist(localDB, zipFile, 3);
+        wordlist.setFailingWord("word3500");
+
+        final Populator populator = new Populator(new ZipReader(ZipReader.readSegments(zipFile, "")), new Sleeper(0), wordlist);
+        populator.init();
+        try {
+            populator.populate();
+            Assert.fail("expected the worker error to stop population");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(AbstractWordlist.VALUE_STATUS.DIRTY.toString(), localDB.get(LocalDB.DB.WORDLIST_META, Wordlist.KEY_STATUS));
+        Assert.assertFalse(localDB.contains(LocalDB.DB.WORDLIST_WORDS, "word4999"));
+    }
+
+    public void testReaderErrorStopsPopulation() throws Exception {
+        TestWordlist.writeZip(zipFile, TestWordlist.lines("word", 50000));
+        final ZipReader zipReader = new ZipReader(ZipReader.readSegments(zipFile, ""));
+
+        // cut the compressed data short after the central directory has been read
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(zipFile, "rw");
+        try {
+            randomAccessFile.setLength(randomAccessFile.length() / 2);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        final Populator populator = new Populator(zipReader, new Sleeper(0), new TestWordlist(localDB, zipFile, 2));
+        populator.init();
+        try {
+            populator.populate();
+            Assert.fail("expected the read error to stop population");
+        } catch (IOException e) {
+            Assert.assertNotNull(e.getCause());
+        }
+        Assert.assertEquals(AbstractWordlist.VALUE_STATUS.DIRTY.toString(), localDB.get(LocalDB.DB.WORDLIST_META, Wordlist.KEY_STATUS));
+    }
+}
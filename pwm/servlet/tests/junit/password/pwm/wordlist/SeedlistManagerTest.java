@@ -0,0 +1,115 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SeedlistManagerTest extends TestCase {
+
+    private static final int SEED_COUNT = 2000;
+    private static final int POOL_SIZE = 10;
+
+    private File tempDir;
+    private File zipFile;
+    private LocalDB localDB;
+    private SeedlistManager seedlistManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-seedlist", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        zipFile = new File(tempDir, "seedlist.zip");
+        TestWordlist.writeZip(zipFile, TestWordlist.lines("seed", SEED_COUNT));
+        localDB = LocalDBFactory.getInstance(new File(tempDir, "localdb"), false, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (seedlistManager != null) {
+            seedlistManager.close();
+        }
+        localDB.close();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testPoolRefillsAfterDraws() throws Exception {
+        seedlistManager = open(POOL_SIZE);
+        Assert.assertTrue(seedlistManager.randomSeed().startsWith("seed"));
+
+        // the pool holds its seeds until it has been drawn down, then a refill picks up the replaced values
+        replaceAllSeeds("replaced");
+        Assert.assertTrue(seedlistManager.randomSeed().startsWith("seed"));
+        final long timeout = System.currentTimeMillis() + 30 * 1000;
+        String seed = seedlistManager.randomSeed();
+        while (!"replaced".equals(seed) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+            seed = seedlistManager.randomSeed();
+        }
+        Assert.assertEquals("replaced", seed);
+    }
+
+    public void testExhaustedSeedlistKeepsPool() throws Exception {
+        seedlistManager = open(POOL_SIZE);
+        localDB.truncate(LocalDB.DB.SEEDLIST_WORDS);
+
+        // draw well past the pool size so refills are attempted against the empty seedlist
+        for (int i = 0; i < POOL_SIZE * 20; i++) {
+            final String seed = seedlistManager.randomSeed();
+            Assert.assertNotNull(seed);
+            Assert.assertTrue(seed.startsWith("seed"));
+            Thread.sleep(1);
+        }
+    }
+
+    public void testExhaustedSeedlistWithoutPool() throws Exception {
+        seedlistManager = open(0);
+        Assert.assertNotNull(seedlistManager.randomSeed());
+        localDB.truncate(LocalDB.DB.SEEDLIST_WORDS);
+        Assert.assertNull(seedlistManager.randomSeed());
+    }
+
+    private SeedlistManager open(final int poolSize) {
+        final SeedlistManager seedlistManager = new SeedlistManager();
+        seedlistManager.init(localDB, zipFile, poolSize, "SeedlistManagerTest");
+        Assert.assertEquals(Wordlist.STATUS.OPEN, seedlistManager.status());
+        return seedlistManager;
+    }
+
+    private void replaceAllSeeds(final String value) throws Exception {
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < SEED_COUNT; i++) {
+            values.put(String.valueOf(i), value);
+        }
+        localDB.putAll(LocalDB.DB.SEEDLIST_WORDS, values);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import password.pwm.util.localdb.LocalDB;
+import password.pwm.util.localdb.LocalDBFactory;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+
+public class SharedHistoryManagerTest extends TestCase {
+
+    private static final long MAX_AGE_MS = 5L * 24 * 60 * 60 * 1000;
+
+    private File tempDir;
+    private LocalDB localDB;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("pwm-sharedhistory", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        localDB = LocalDBFactory.getInstance(tempDir, false, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        localDB.close();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    public void testWordVisibleBeforeWrite() throws Exception {
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        final SharedHistoryManager manager = new SharedHistoryManager();
+        manager.init(blockingWordWrites(localDB, writeLatch), "salt", MAX_AGE_MS, 1, 100, "test writer");
+
+        manager.addWord(null, "Password1");
+        Assert.assertTrue(manager.containsWord("password1 "));
+        Assert.assertFalse(manager.containsWord("password2"));
+
+        writeLatch.countDown();
+        manager.close();
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.SHAREDHISTORY_WORDS));
+        Assert.assertFalse(localDB.contains(LocalDB.DB.SHAREDHISTORY_WORDS, "password1"));
+
+        final SharedHistoryManager reopened = new SharedHistoryManager();
+        reopened.init(localDB, "salt", MAX_AGE_MS, 1, 100, null);
+        Assert.assertTrue(reopened.containsWord("Password1"));
+        reopened.close();
+    }
+
+    public void testDirectWriteWhenQueueIsFull() throws Exception {
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        final SharedHistoryManager manager = new SharedHistoryManager();
+        manager.init(blockingWordWrites(localDB, writeLatch), "salt", MAX_AGE_MS, 1, 1, "test writer");
+
+        // the writer takes the first word and blocks writing it, the second fills the queue
+        manager.addWord(null, "word1");
+        Thread.sleep(100);
+        manager.addWord(null, "word2");
+
+        // the third word does not fit in the queue, so the caller writes it
+        final Thread caller = new Thread(new Runnable() {
+            public void run() {
+                manager.addWord(null, "word3");
+            }
+        });
+        caller.start();
+        caller.join(500);
+        Assert.assertTrue(caller.isAlive());
+        Assert.assertTrue(manager.containsWord("word3"));
+
+        writeLatch.countDown();
+        caller.join();
+        manager.close();
+        Assert.assertEquals(3, localDB.size(LocalDB.DB.SHAREDHISTORY_WORDS));
+    }
+
+    public void testExpiredBucketsAreRemoved() throws Exception {
+        final SharedHistoryManager manager = new SharedHistoryManager();
+        manager.init(localDB, "salt", MAX_AGE_MS, 1, 100, null);
+        manager.close();
+
+        // words stored before buckets existed are indexed by the day they were added when the history is next opened
+        final long tenDaysAgo = System.currentTimeMillis() - 10L * 24 * 60 * 60 * 1000;
+        localDB.put(LocalDB.DB.SHAREDHISTORY_WORDS, "oldhash", Long.toString(tenDaysAgo));
+        localDB.remove(LocalDB.DB.SHAREDHISTORY_META, "version_buckets");
+
+        final SharedHistoryManager reopened = new SharedHistoryManager();
+        reopened.init(localDB, "salt", MAX_AGE_MS, 1, 100, null);
+        Assert.assertEquals(1, reopened.size());
+        reopened.addWord(null, "recent");
+        Assert.assertEquals(2, reopened.size());
+
+        reopened.removeExpiredWords();
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertTrue(reopened.containsWord("recent"));
+        Assert.assertFalse(localDB.contains(LocalDB.DB.SHAREDHISTORY_WORDS, "oldhash"));
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.SHAREDHISTORY_WORDS));
+        Assert.assertEquals(1, localDB.size(LocalDB.DB.SHAREDHISTORY_BUCKETS));
+        reopened.close();
+    }
+
+    /**
+     * Hold writes to the words db until the latch is released.
+     */
+    private static LocalDB blockingWordWrites(final LocalDB localDB, final CountDownLatch writeLatch) {
+        return (LocalDB)Proxy.newProxyInstance(LocalDB.class.getClassLoader(), new Class[]{LocalDB.class}, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (method.getName().startsWith("put") && args[0] == LocalDB.DB.SHAREDHISTORY_WORDS) {
+                    writeLatch.await();
+                }
+                try {
+                    return method.invoke(localDB, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+}
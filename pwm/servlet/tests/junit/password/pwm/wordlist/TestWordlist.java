@@ -0,0 +1,91 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import password.pwm.util.localdb.LocalDB;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Minimal wordlist storing each word as its own key, for exercising {@link AbstractWordlist} and {@link Populator}
+ * without an application.
+ */
+class TestWordlist extends AbstractWordlist {
+    private volatile String failingWord;
+
+    TestWordlist(final LocalDB localDB, final File wordlistFile, final int workerThreads) {
+        this.localDB = localDB;
+        this.wordlistConfiguration = new WordlistConfiguration(wordlistFile, 0, false, 0);
+        this.META_DB = LocalDB.DB.WORDLIST_META;
+        this.WORD_DB = LocalDB.DB.WORDLIST_WORDS;
+        this.DEBUG_LABEL = "TestWordlist";
+        this.populatorWorkerThreads = workerThreads;
+    }
+
+    /**
+     * Make {@link #getWriteTxnForValue(String)} throw when it is given {@code word}.
+     */
+    void setFailingWord(final String word) {
+        this.failingWord = word;
+    }
+
+    @Override
+    protected Map<String, String> getWriteTxnForValue(final String value) {
+        if (value.equals(failingWord)) {
+            throw new IllegalStateException("unable to store " + value);
+        }
+        return Collections.singletonMap(value, "");
+    }
+
+    @Override
+    protected String makeVersionString() {
+        return "test";
+    }
+
+    static void writeZip(final File zipFile, final String... entryContents) throws Exception {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            for (int i = 0; i < entryContents.length; i++) {
+                zipOutputStream.putNextEntry(new ZipEntry((char)('a' + i) + ".txt"));
+                zipOutputStream.write(entryContents[i].getBytes("UTF-8"));
+                zipOutputStream.closeEntry();
+            }
+        } finally {
+            zipOutputStream.close();
+        }
+    }
+
+    static String lines(final String prefix, final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(prefix).append(i).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class WordlistBloomFilterTest extends TestCase {
+
+    private static final int WORD_COUNT = 50 * 1000;
+
+    public void testNoFalseNegatives() {
+        final WordlistBloomFilter bloomFilter = WordlistBloomFilter.create(WORD_COUNT, 0.01, 10 * 1024 * 1024);
+        for (int i = 0; i < WORD_COUNT; i++) {
+            bloomFilter.add("word" + i);
+        }
+        for (int i = 0; i < WORD_COUNT; i++) {
+            Assert.assertTrue(bloomFilter.mightContain("word" + i));
+        }
+    }
+
+    public void testFalsePositiveRate() {
+        final WordlistBloomFilter bloomFilter = WordlistBloomFilter.create(WORD_COUNT, 0.01, 10 * 1024 * 1024);
+        for (int i = 0; i < WORD_COUNT; i++) {
+            bloomFilter.add("word" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < WORD_COUNT; i++) {
+            if (bloomFilter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        final double observedRate = (double)falsePositives / WORD_COUNT;
+        Assert.assertTrue("false positive rate too high: " + observedRate, observedRate < 0.02);
+    }
+
+    public void testMaxBytes() {
+        final WordlistBloomFilter bloomFilter = WordlistBloomFilter.create(WORD_COUNT, 0.0001, 1024);
+        Assert.assertTrue(bloomFilter.getMemoryBytes() <= 1024);
+        Assert.assertTrue(bloomFilter.getExpectedFalsePositiveRate() > 0.0001);
+    }
+
+    public void testWriteAndRead() throws Exception {
+        final WordlistBloomFilter bloomFilter = WordlistBloomFilter.create(1000, 0.01, 1024 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            bloomFilter.add("word" + i);
+        }
+
+        final File tempFile = File.createTempFile("pwm-bloom", ".bloom");
+        try {
+            bloomFilter.write(tempFile, "checksum1");
+            Assert.assertNull(WordlistBloomFilter.read(tempFile, "checksum2"));
+
+            final WordlistBloomFilter readFilter = WordlistBloomFilter.read(tempFile, "checksum1");
+            Assert.assertNotNull(readFilter);
+            Assert.assertTrue(readFilter.matchesSettings(0.01, 1024 * 1024));
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertTrue(readFilter.mightContain("word" + i));
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Password Management Servlets (PWM)
+ * http://code.google.com/p/pwm/
+ *
+ * Copyright (c) 2006-2009 Novell, Inc.
+ * Copyright (c) 2009-2014 The PWM Project
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package password.pwm.wordlist;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipReaderTest extends TestCase {
+
+    private File zipFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        zipFile = File.createTempFile("pwm-wordlist", ".zip");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        zipFile.delete();
+    }
+
+    public void testReadSegments() throws Exception {
+        writeZip("one\ntwo\n", "three\n");
+        final List<ZipReader.Segment> segments = ZipReader.readSegments(zipFile, "delta:");
+        Assert.assertEquals(2, segments.size());
+        Assert.assertEquals("delta:a.txt", segments.get(0).getKey());
+        Assert.assertEquals("delta:b.txt", segments.get(1).getKey());
+        Assert.assertEquals(8, segments.get(0).getSize());
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), readLines(new ZipReader(segments)));
+    }
+
+    public void testAppendedSegment() throws Exception {
+        writeZip("one\ntwo\n", "three\n");
+        final ZipReader.Segment original = ZipReader.readSegments(zipFile, "").get(0);
+
+        writeZip("one\ntwo\nfour\nfive\n", "three\n");
+        final List<ZipReader.Segment> segments = ZipReader.readSegments(zipFile, "");
+        final ZipReader.Segment appended = segments.get(0);
+        Assert.assertTrue(ZipReader.hasPrefix(appended, original.getSize(), original.getCrc()));
+        Assert.assertFalse(ZipReader.hasPrefix(appended, original.getSize(), original.getCrc() + 1));
+        Assert.assertFalse(ZipReader.hasPrefix(appended, 5, crc("one\nt")));
+
+        final List<ZipReader.Segment> deltaSegments = new ArrayList<>();
+        deltaSegments.add(appended.withStartOffset(original.getSize()));
+        Assert.assertEquals(Arrays.asList("four", "five"), readLines(new ZipReader(deltaSegments)));
+    }
+
+    private void writeZip(final String... entryContents) throws Exception {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            char entryName = 'a';
+            for (final String content : entryContents) {
+                zipOutputStream.putNextEntry(new ZipEntry(entryName++ + ".txt"));
+                zipOutputStream.write(content.getBytes("UTF-8"));
+                zipOutputStream.closeEntry();
+            }
+        } finally {
+            zipOutputStream.close();
+        }
+    }
+
+    private static List<String> readLines(final ZipReader zipReader) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        try {
+            String line;
+            while ((line = zipReader.nextLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            zipReader.close();
+        }
+        return lines;
+    }
+
+    private static long crc(final String value) throws Exception {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(value.getBytes("UTF-8"));
+        return crc32.getValue();
+    }
+}
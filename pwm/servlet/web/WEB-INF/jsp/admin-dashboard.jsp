@@ -30,6 +30,8 @@
 <%@ page import="password.pwm.util.Helper" %>
 <%@ page import="password.pwm.util.StringUtil" %>
 <%@ page import="password.pwm.util.localdb.LocalDB" %>
+<%@ page import="password.pwm.util.localdb.LocalDBOperationStats" %>
+<%@ page import="password.pwm.util.localdb.LocalDBUtility" %>
 <%@ page import="password.pwm.util.stats.Statistic" %>
 <%@ page import="java.text.DateFormat" %>
 <%@ page import="java.text.NumberFormat" %>
@@ -552,6 +554,40 @@
                 </div>
                 <% } %>
             </div>
+            <div data-dojo-type="dijit.layout.ContentPane" title="LocalDB Operations" class="tabContent">
+                <% if (dashboard_pwmApplication.getLocalDB() != null) { %>
+                <table class="nomargin">
+                    <tr>
+                        <td class="key">Name</td>
+                        <td class="key">Operation</td>
+                        <td class="key">Count</td>
+                        <td class="key">Total Time (ms)</td>
+                        <td class="key">Average (&micro;s)</td>
+                        <td class="key">50% (&micro;s)</td>
+                        <td class="key">99% (&micro;s)</td>
+                        <td class="key">Max (&micro;s)</td>
+                    </tr>
+                    <% for (final LocalDB.DB loopDB : LocalDB.DB.values()) { %>
+                    <% final Map<LocalDBOperationStats.Operation,LocalDBOperationStats.OperationSummary> operations = LocalDBUtility.operationStats(dashboard_pwmApplication.getLocalDB(), loopDB); %>
+                    <% if (operations != null) { %>
+                    <% for (final LocalDBOperationStats.Operation operation : operations.keySet()) { %>
+                    <% final LocalDBOperationStats.OperationSummary summary = operations.get(operation); %>
+                    <tr>
+                        <td style="text-align: right"><%= loopDB %></td>
+                        <td><%= operation %><%= operation.isWriteOperation() ? " (write)" : "" %></td>
+                        <td><%= numberFormat.format(summary.getCount()) %></td>
+                        <td><%= numberFormat.format(summary.getTotalMicros() / 1000) %></td>
+                        <td><%= numberFormat.format(summary.getAverageMicros()) %></td>
+                        <td><%= numberFormat.format(summary.getP50Micros()) %></td>
+                        <td><%= numberFormat.format(summary.getP99Micros()) %></td>
+                        <td><%= numberFormat.format(summary.getMaxMicros()) %></td>
+                    </tr>
+                    <% } %>
+                    <% } %>
+                    <% } %>
+                </table>
+                <% } %>
+            </div>
             <div data-dojo-type="dijit.layout.ContentPane" title="Java" class="tabContent">
                 <table class="nomargin">
                     <tr>